@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps;
+
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.marklogic.recordloader.CorpusGenerator;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Utilities.escapeXml, on text that needs no escaping and on text
+ *         that does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UtilitiesBenchmark {
+
+    @Param( { "16", "1024" })
+    public int length;
+
+    String clean;
+
+    String dirty;
+
+    @Setup
+    public void setUp() throws Exception {
+        StringWriter text = new StringWriter();
+        CorpusGenerator.writeText(text, new Random(1), length, false);
+        dirty = text.toString();
+        clean = dirty.replaceAll("[&<>\"]", "x");
+    }
+
+    @Benchmark
+    public String escapeClean() {
+        return Utilities.escapeXml(clean);
+    }
+
+    @Benchmark
+    public String escapeDirty() {
+        return Utilities.escapeXml(dirty);
+    }
+
+    @Benchmark
+    public String escapeAttribute() {
+        return Utilities.escapeXml(dirty, true);
+    }
+
+}
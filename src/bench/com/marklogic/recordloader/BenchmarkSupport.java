@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.recordloader.sink.NullContentFactory;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Shared set-up for the benchmarks: a configuration that loads into
+ *         the null sink, and small seeded corpora from CorpusGenerator, so
+ *         that every run sees the same bytes.
+ */
+public class BenchmarkSupport {
+
+    /**
+     * @param _config
+     *            a new, unconfigured instance of any configuration class
+     * @param _properties
+     *            overrides for the benchmark defaults, or null
+     * @return the configuration, ready to use
+     */
+    public static <T extends Configuration> T configure(T _config,
+            Properties _properties) {
+        Properties properties = _config.getProperties();
+        properties.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        properties.setProperty(SimpleLogger.LOG_LEVEL, "WARNING");
+        properties.setProperty(Configuration.CONNECTION_STRING_KEY,
+                "null://bench/");
+        properties.setProperty(
+                Configuration.CONTENT_FACTORY_CLASSNAME_KEY,
+                NullContentFactory.class.getName());
+        properties.setProperty(Configuration.RECORD_NAME_KEY,
+                CorpusGenerator.RECORD_NAME);
+        properties.setProperty(Configuration.ID_NAME_KEY, "@id");
+        if (null != _properties) {
+            properties.putAll(_properties);
+        }
+        _config.setLogger(SimpleLogger.getSimpleLogger());
+        _config.configure();
+        return _config;
+    }
+
+    /**
+     * @param _properties
+     * @return
+     */
+    public static Configuration configure(Properties _properties) {
+        return configure(new Configuration(), _properties);
+    }
+
+    /**
+     * @param _records
+     * @param _recordBytes
+     *            approximate size of each record
+     * @param _seed
+     * @return a UTF-8 document with one root and many records
+     * @throws IOException
+     */
+    public static byte[] newXmlCorpus(int _records, int _recordBytes,
+            long _seed) throws IOException {
+        Properties properties = newProperties(_records, _recordBytes,
+                _seed);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new CorpusGenerator(properties).writeXml(bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param _records
+     * @param _fields
+     * @param _seed
+     * @return UTF-8 lines, tab-delimited, with a label line first
+     * @throws IOException
+     */
+    public static byte[] newDelimitedCorpus(int _records, int _fields,
+            long _seed) throws IOException {
+        Properties properties = newProperties(_records, 32 * _fields,
+                _seed);
+        properties.setProperty(CorpusGenerator.FIELDS_KEY, Integer
+                .toString(_fields));
+        properties.setProperty(CorpusGenerator.RECORD_DISTRIBUTION_KEY,
+                CorpusGenerator.RECORD_DISTRIBUTION_UNIFORM);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new CorpusGenerator(properties).writeDelimited(bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param _records
+     * @param _recordBytes
+     * @param _seed
+     * @return
+     */
+    private static Properties newProperties(int _records, int _recordBytes,
+            long _seed) {
+        Properties properties = new Properties();
+        properties.setProperty(CorpusGenerator.RECORDS_KEY, Integer
+                .toString(_records));
+        properties.setProperty(CorpusGenerator.RECORD_BYTES_KEY, Integer
+                .toString(_recordBytes));
+        properties.setProperty(CorpusGenerator.SEED_KEY, Long
+                .toString(_seed));
+        return properties;
+    }
+
+}
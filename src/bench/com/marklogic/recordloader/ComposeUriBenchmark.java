@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         AbstractLoader.composeUri, with and without a prefix to strip.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ComposeUriBenchmark {
+
+    @Param( { "", "^urn:id:" })
+    public String stripPrefix;
+
+    FileLoader loader;
+
+    String[] ids = new String[1024];
+
+    int index;
+
+    @Setup
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(Configuration.INPUT_STRIP_PREFIX_KEY,
+                stripPrefix);
+        properties.setProperty(Configuration.OUTPUT_URI_PREFIX_KEY,
+                "/bench/");
+        properties.setProperty(Configuration.OUTPUT_URI_SUFFIX_KEY, ".xml");
+        Configuration config = BenchmarkSupport.configure(properties);
+        loader = new FileLoader();
+        loader.setConfiguration(config);
+        loader.setConnectionUri(config.getConnectionStrings()[0]);
+        loader.setFileBasename("input.xml");
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = " urn:id:" + (1000000 + 7919 * i) + " ";
+        }
+    }
+
+    @Benchmark
+    public String composeUri() throws Exception {
+        index = (index + 1) & (ids.length - 1);
+        return loader.composeUri(ids[index]);
+    }
+
+}
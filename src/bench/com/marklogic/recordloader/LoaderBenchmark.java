@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.io.ByteArrayInputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         The whole splitting path of Loader, from input bytes to the null
+ *         sink, one operation per record: parsing, id lookup, URI
+ *         composition, and monitor accounting.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LoaderBenchmark {
+
+    static final int RECORDS = 1000;
+
+    @Param( { "256", "16384" })
+    public int recordBytes;
+
+    @Param( { "false", "true" })
+    public boolean streaming;
+
+    Configuration config;
+
+    Monitor monitor;
+
+    byte[] corpus;
+
+    @Setup
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(Configuration.INPUT_STREAMING_KEY, Boolean
+                .toString(streaming));
+        config = BenchmarkSupport.configure(properties);
+        monitor = new Monitor(config, Thread.currentThread());
+        corpus = BenchmarkSupport.newXmlCorpus(RECORDS, recordBytes, 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public Object process() throws Exception {
+        Loader loader = new Loader();
+        loader.setConfiguration(config);
+        loader.setConnectionUri(config.getConnectionStrings()[0]);
+        loader.setMonitor(monitor);
+        loader.setInput(new ByteArrayInputStream(corpus), config
+                .getDecoder());
+        loader.setFileBasename("bench.xml");
+        return loader.call();
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.marklogic.ps.timing.TimedEvent;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Monitor.add, from every loader thread at once. Run with -t to
+ *         compare thread counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(Threads.MAX)
+public class MonitorBenchmark {
+
+    Monitor monitor;
+
+    @Setup
+    public void setUp() {
+        monitor = new Monitor(BenchmarkSupport.configure(null), Thread
+                .currentThread());
+    }
+
+    @Benchmark
+    public TimedEvent add() {
+        TimedEvent event = new TimedEvent();
+        event.increment(1024);
+        event.stop();
+        monitor.add("/bench/1.xml", event);
+        return event;
+    }
+
+    @Benchmark
+    public void incrementSkipped() {
+        monitor.incrementSkipped("/bench/1.xml");
+    }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Producer throughput, one operation per record, for different
+ *         caller buffer sizes: Utilities.read() uses 8 KiB, and XCC and
+ *         HTTP content read whatever their own buffers allow.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProducerBenchmark {
+
+    static final int RECORDS = 1000;
+
+    @Param( { "8", "1024", "8192", "65536" })
+    public int readSize;
+
+    @Param( { "256", "16384" })
+    public int recordBytes;
+
+    Configuration config;
+
+    ProducerFactory factory;
+
+    byte[] corpus;
+
+    byte[] buffer;
+
+    @Setup
+    public void setUp() throws Exception {
+        config = BenchmarkSupport.configure(null);
+        corpus = BenchmarkSupport.newXmlCorpus(RECORDS, recordBytes, 1);
+        buffer = new byte[readSize];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long read() throws Exception {
+        XmlPullParser xpp = config.getXppFactory().newPullParser();
+        xpp.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        xpp.setInput(new InputStreamReader(new ByteArrayInputStream(
+                corpus), "UTF-8"));
+        if (null == factory) {
+            factory = new ProducerFactory(config, xpp);
+        }
+        String recordName = config.getRecordName();
+        long total = 0;
+        int eventType;
+        while (XmlPullParser.END_DOCUMENT != (eventType = xpp.nextToken())) {
+            if (XmlPullParser.START_TAG != eventType
+                    || !recordName.equals(xpp.getName())) {
+                continue;
+            }
+            Producer producer = factory.newProducer(xpp);
+            int len;
+            while ((len = producer.read(buffer)) > -1) {
+                total += len;
+            }
+        }
+        return total;
+    }
+
+}
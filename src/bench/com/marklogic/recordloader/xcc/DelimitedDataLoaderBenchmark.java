@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.xcc;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.marklogic.recordloader.BenchmarkSupport;
+import com.marklogic.recordloader.Configuration;
+import com.marklogic.recordloader.Monitor;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         DelimitedDataLoader line handling, one operation per line: field
+ *         splitting, escaping, XML assembly and URI composition.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DelimitedDataLoaderBenchmark {
+
+    static final int RECORDS = 1000;
+
+    @Param( { "4", "32" })
+    public int fields;
+
+    DelimitedDataConfiguration config;
+
+    Monitor monitor;
+
+    byte[] corpus;
+
+    @Setup
+    public void setUp() throws Exception {
+        config = BenchmarkSupport.configure(
+                new DelimitedDataConfiguration(), null);
+        config.setIdNodeName("id");
+        monitor = new Monitor(config, Thread.currentThread());
+        corpus = BenchmarkSupport.newDelimitedCorpus(RECORDS, fields, 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public Object process() throws Exception {
+        DelimitedDataLoader loader = new DelimitedDataLoader();
+        loader.setConfiguration(config);
+        loader.setConnectionUri(config.getConnectionStrings()[0]);
+        loader.setMonitor(monitor);
+        loader.setInput(new ByteArrayInputStream(corpus), config
+                .getDecoder());
+        loader.setFileBasename("bench.txt");
+        return loader.call();
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         A set of strings that may report false positives, but never false
+ *         negatives. Safe for concurrent use.
+ */
+public class BloomFilter {
+
+    public static final int BITS_PER_ENTRY = 10;
+
+    public static final int HASH_COUNT = 7;
+
+    private AtomicLongArray words;
+
+    private long bitCount;
+
+    private int hashCount;
+
+    private volatile long entryCount = 0;
+
+    /**
+     * @param _expectedEntries
+     */
+    public BloomFilter(long _expectedEntries) {
+        this(Math.max(64, _expectedEntries * BITS_PER_ENTRY), HASH_COUNT);
+    }
+
+    /**
+     * @param _bits
+     * @param _hashCount
+     */
+    public BloomFilter(long _bits, int _hashCount) {
+        int wordCount = (int) Math.min(Integer.MAX_VALUE, (_bits + 63) / 64);
+        words = new AtomicLongArray(wordCount);
+        bitCount = 64L * wordCount;
+        hashCount = _hashCount;
+    }
+
+    /**
+     * @param _value
+     */
+    public void add(String _value) {
+        long h1 = hash(_value, 0x9E3779B97F4A7C15L);
+        long h2 = hash(_value, 0xC2B2AE3D27D4EB4FL) | 1;
+        long bit;
+        int index;
+        long mask;
+        long old;
+        for (int i = 0; i < hashCount; i++) {
+            bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            index = (int) (bit >>> 6);
+            mask = 1L << (bit & 63);
+            do {
+                old = words.get(index);
+            } while (0 == (old & mask)
+                    && !words.compareAndSet(index, old, old | mask));
+        }
+        entryCount++;
+    }
+
+    /**
+     * @param _value
+     * @return false if the value was definitely never added
+     */
+    public boolean mightContain(String _value) {
+        long h1 = hash(_value, 0x9E3779B97F4A7C15L);
+        long h2 = hash(_value, 0xC2B2AE3D27D4EB4FL) | 1;
+        long bit;
+        for (int i = 0; i < hashCount; i++) {
+            bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            if (0 == (words.get((int) (bit >>> 6)) & (1L << (bit & 63)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the approximate number of values added
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return
+     */
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * @param _value
+     * @param _seed
+     * @return a 64-bit hash of the characters
+     */
+    private static long hash(String _value, long _seed) {
+        long h = _seed ^ _value.length();
+        for (int i = 0; i < _value.length(); i++) {
+            h ^= _value.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        // final avalanche
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
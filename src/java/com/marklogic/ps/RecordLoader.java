@@ -39,9 +39,11 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
+import com.marklogic.recordloader.CheckpointJournal;
 import com.marklogic.recordloader.Configuration;
 import com.marklogic.recordloader.FatalException;
 import com.marklogic.recordloader.InputHandlerInterface;
+import com.marklogic.recordloader.InsertPipeline;
 import com.marklogic.recordloader.LoaderException;
 import com.marklogic.recordloader.Monitor;
 
@@ -98,6 +100,10 @@ public class RecordLoader {
 
     private ThreadPoolExecutor pool;
 
+    private InsertPipeline insertPipeline;
+
+    private CheckpointJournal checkpointJournal;
+
     public RecordLoader(String[] args) throws IOException,
             URISyntaxException {
         configureFiles(Arrays.asList(args).iterator());
@@ -218,6 +224,28 @@ public class RecordLoader {
 
         monitor = new Monitor(config, Thread.currentThread());
 
+        if (config.isInsertPipelined()) {
+            insertPipeline = new InsertPipeline(config, monitor);
+            monitor.setInsertPipeline(insertPipeline);
+            insertPipeline.start();
+        }
+
+        if (config.isCheckpointed()) {
+            try {
+                checkpointJournal = new CheckpointJournal(config);
+            } catch (IOException e) {
+                throw new FatalException(e);
+            }
+            monitor.setCheckpointJournal(checkpointJournal);
+            // keep whatever we have, even after an interrupt
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    checkpointJournal.close();
+                }
+            });
+        }
+
         while (true) {
             pool = new ThreadPoolExecutor(threadCount, threadCount,
                     config.getKeepAliveSeconds(), TimeUnit.SECONDS,
@@ -257,6 +285,17 @@ public class RecordLoader {
                         .warning("interrupted while waiting for pool termination");
             }
 
+            if (null != insertPipeline) {
+                // the loaders are done, but their inserts may not be
+                insertPipeline.drain();
+            }
+            // ...and asynchronous inserts may still be in flight
+            monitor.waitForInFlight();
+
+            if (null != checkpointJournal) {
+                checkpointJournal.flush();
+            }
+
             if (!config.isLoopForever()) {
                 break;
             }
@@ -279,6 +318,13 @@ public class RecordLoader {
         if (null != pool) {
             pool.shutdownNow();
         }
+        if (null != insertPipeline) {
+            insertPipeline.halt();
+        }
+        if (null != checkpointJournal) {
+            // anything still in flight will be loaded again next time
+            checkpointJournal.close();
+        }
 
         if (!config.isLoopForever()) {
             while (null != monitor && monitor.isAlive()) {
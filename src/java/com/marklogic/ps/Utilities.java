@@ -25,7 +25,6 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.CharsetDecoder;
 import java.util.Collection;
-import java.util.regex.Pattern;
 
 /**
  * @author mike.blakeley@marklogic.com
@@ -35,24 +34,105 @@ public class Utilities {
 
     protected static final int BUFFER_SIZE = 8 * 1024;
 
-    protected static Pattern[] patterns = new Pattern[] {
-            Pattern.compile("&"), Pattern.compile("<"),
-            Pattern.compile(">"),
-            Pattern.compile("\"") };
-
     public static String escapeXml(String _in) {
+        return escapeXml(_in, false);
+    }
+
+    public static String escapeXml(String _in, boolean _attribute) {
         if (null == _in)
             return "";
-        return patterns[2].matcher(
-                patterns[1].matcher(
-                        patterns[0].matcher(_in).replaceAll("&amp;"))
-                        .replaceAll("&lt;")).replaceAll("&gt;");
+        // single pass, and no copy unless something needs escaping
+        StringBuilder sb = null;
+        int len = _in.length();
+        int mark = 0;
+        String entity;
+        for (int i = 0; i < len; i++) {
+            entity = getEntity(_in.charAt(i), _attribute);
+            if (null == entity) {
+                continue;
+            }
+            if (null == sb) {
+                sb = new StringBuilder(len + 16);
+            }
+            sb.append(_in, mark, i).append(entity);
+            mark = i + 1;
+        }
+        if (null == sb) {
+            return _in;
+        }
+        return sb.append(_in, mark, len).toString();
     }
 
-    public static String escapeXml(String _in, boolean _attribute) {
-        if (!_attribute) return escapeXml(_in);
+    /**
+     * @param _c
+     * @param _attribute
+     * @return the entity reference for the character, or null if it does
+     *         not need escaping
+     */
+    public static String getEntity(char _c, boolean _attribute) {
+        switch (_c) {
+        case '&':
+            return "&amp;";
+        case '<':
+            return "&lt;";
+        case '>':
+            return "&gt;";
+        case '"':
+            return _attribute ? "&quot;" : null;
+        default:
+            return null;
+        }
+    }
 
-        return patterns[3].matcher(escapeXml(_in)).replaceAll("&quot;");
+    /**
+     * Replace the predefined XML entities and any numeric character
+     * references with the characters they stand for.
+     *
+     * @param _in
+     * @return
+     */
+    public static String unescapeXml(String _in) {
+        if (null == _in) {
+            return "";
+        }
+        int amp = _in.indexOf('&');
+        if (amp < 0) {
+            return _in;
+        }
+        StringBuilder sb = new StringBuilder(_in.length());
+        int start = 0;
+        int semi;
+        String ref;
+        while (amp > -1) {
+            semi = _in.indexOf(';', amp);
+            if (semi < 0) {
+                break;
+            }
+            sb.append(_in, start, amp);
+            ref = _in.substring(amp + 1, semi);
+            if ("amp".equals(ref)) {
+                sb.append('&');
+            } else if ("lt".equals(ref)) {
+                sb.append('<');
+            } else if ("gt".equals(ref)) {
+                sb.append('>');
+            } else if ("quot".equals(ref)) {
+                sb.append('"');
+            } else if ("apos".equals(ref)) {
+                sb.append('\'');
+            } else if (ref.startsWith("#x")) {
+                sb.appendCodePoint(Integer.parseInt(ref.substring(2), 16));
+            } else if (ref.startsWith("#")) {
+                sb.appendCodePoint(Integer.parseInt(ref.substring(1)));
+            } else {
+                // unknown entity: leave it alone
+                sb.append(_in, amp, semi + 1);
+            }
+            start = semi + 1;
+            amp = _in.indexOf('&', start);
+        }
+        sb.append(_in, start, _in.length());
+        return sb.toString();
     }
 
     public static String join(Collection<String> thisPath, String _delim) {
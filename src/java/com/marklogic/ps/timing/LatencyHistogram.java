@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.timing;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         A fixed-size, log-linear histogram of durations, in the style of
+ *         HdrHistogram. Values below 2^SUB_BUCKET_BITS nanoseconds are
+ *         counted exactly. Above that, each power of two is split into
+ *         2^(SUB_BUCKET_BITS - 1) linear sub-buckets, so every reported value
+ *         is within 1/64 of the truth. Values above 2^MAX_BITS nanoseconds
+ *         (about 18 minutes) fall into the top bucket.
+ * 
+ *         Recording is a single atomic increment, so many threads may record
+ *         at once. Like {@link StripedCounter}, each thread records into one
+ *         of several stripes, so that insert threads do not all contend for
+ *         the same hot buckets. Reading sums every stripe of every bucket, so
+ *         it is for reporting. Copies have a single stripe.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+    private static final int MAX_BITS = 40;
+
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+    // 2240 buckets, or about 18 kB
+    private static final int BUCKET_COUNT = (MAX_BITS - SUB_BUCKET_BITS)
+            * SUB_BUCKET_HALF + SUB_BUCKET_COUNT;
+
+    // each stripe is about 18 kB, so this bounds the memory per histogram
+    private static final int MAX_STRIPES = 16;
+
+    private final int mask;
+
+    // stripe after stripe, each with every bucket
+    private final AtomicLongArray counts;
+
+    public LatencyHistogram() {
+        this(StripedCounter.getStripeCount(MAX_STRIPES));
+    }
+
+    /**
+     * @param _stripes
+     *            a power of two
+     */
+    private LatencyHistogram(int _stripes) {
+        mask = _stripes - 1;
+        counts = new AtomicLongArray(_stripes * BUCKET_COUNT);
+    }
+
+    /**
+     * @param _nanos
+     */
+    public void record(long _nanos) {
+        int stripe = (0 == mask) ? 0 : StripedCounter.getThreadHash() & mask;
+        counts.incrementAndGet(stripe * BUCKET_COUNT + getIndex(_nanos));
+    }
+
+    /**
+     * @param _index
+     * @return the count for the bucket, over every stripe
+     */
+    private long get(int _index) {
+        long n = 0;
+        for (int i = _index; i < counts.length(); i += BUCKET_COUNT) {
+            n += counts.get(i);
+        }
+        return n;
+    }
+
+    /**
+     * @param _index
+     * @param _count
+     *            the new count for the bucket, kept in the first stripe
+     */
+    private void set(int _index, long _count) {
+        for (int i = _index + BUCKET_COUNT; i < counts.length();
+                i += BUCKET_COUNT) {
+            counts.set(i, 0);
+        }
+        counts.set(_index, _count);
+    }
+
+    /**
+     * @param _nanos
+     * @return the bucket for the value
+     */
+    static int getIndex(long _nanos) {
+        long value = Math.min(Math.max(_nanos, 0), MAX_VALUE);
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = (64 - Long.numberOfLeadingZeros(value))
+                - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+    }
+
+    /**
+     * @param _index
+     * @return the smallest value that falls into the bucket
+     */
+    static long getLowestValue(int _index) {
+        if (_index < SUB_BUCKET_COUNT) {
+            return _index;
+        }
+        int shift = (_index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        return ((long) (_index - shift * SUB_BUCKET_HALF)) << shift;
+    }
+
+    /**
+     * @param _index
+     * @return the largest value that falls into the bucket
+     */
+    static long getHighestValue(int _index) {
+        if (_index + 1 >= BUCKET_COUNT) {
+            return MAX_VALUE;
+        }
+        return getLowestValue(_index + 1) - 1;
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param _percentile
+     *            from 0 to 100, for example 99.9
+     * @return the highest value in the bucket that holds the percentile, or
+     *         0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double _percentile) {
+        long[] snapshot = getCounts();
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            total += snapshot[i];
+        }
+        if (total < 1) {
+            return 0;
+        }
+        double p = Math.min(Math.max(_percentile, 0), 100);
+        long rank = Math.max(1, (long) Math.ceil(p * total / 100));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return getHighestValue(i);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    /**
+     * @return the lowest value in the lowest non-empty bucket, or 0
+     */
+    public long getMin() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (get(i) > 0) {
+                return getLowestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the highest value in the highest non-empty bucket, or 0
+     */
+    public long getMax() {
+        for (int i = BUCKET_COUNT - 1; i > -1; i--) {
+            if (get(i) > 0) {
+                return getHighestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the mean, using the middle of each bucket, or 0
+     */
+    public long getMean() {
+        long count = 0;
+        double sum = 0;
+        long n;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            n = get(i);
+            if (n > 0) {
+                count += n;
+                sum += n
+                        * ((getLowestValue(i) + getHighestValue(i)) / 2.0);
+            }
+        }
+        return (count < 1) ? 0 : Math.round(sum / count);
+    }
+
+    /**
+     * @param _other
+     *            counts to add to this histogram
+     */
+    public void add(LatencyHistogram _other) {
+        long n;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            n = _other.get(i);
+            if (n > 0) {
+                counts.addAndGet(i, n);
+            }
+        }
+    }
+
+    /**
+     * Remove an earlier copy of this histogram, leaving only the values
+     * recorded since then. This is for copies, not for a histogram that is
+     * still recording.
+     * 
+     * @param _earlier
+     */
+    public void subtract(LatencyHistogram _earlier) {
+        long n;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            n = _earlier.get(i);
+            if (n > 0) {
+                // never negative, even if the earlier copy is not ours
+                set(i, Math.max(0, get(i) - n));
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the current counts, in a single stripe
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram(1);
+        copy.add(this);
+        return copy;
+    }
+
+    /**
+     * @return
+     */
+    private long[] getCounts() {
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = get(i);
+        }
+        return snapshot;
+    }
+
+}
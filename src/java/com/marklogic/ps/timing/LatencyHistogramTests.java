@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.timing;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ */
+public class LatencyHistogramTests extends TestCase {
+
+    public void testBuckets() {
+        // every bucket starts where the last one ended
+        long next = 0;
+        for (int i = 0; i < 2240; i++) {
+            assertEquals(next, LatencyHistogram.getLowestValue(i));
+            assertEquals(i, LatencyHistogram.getIndex(next));
+            next = LatencyHistogram.getHighestValue(i) + 1;
+            assertEquals(i, LatencyHistogram.getIndex(next - 1));
+        }
+        // out of range values are clamped
+        assertEquals(0, LatencyHistogram.getIndex(-1));
+        assertEquals(2239, LatencyHistogram.getIndex(Long.MAX_VALUE));
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getValueAtPercentile(50));
+        // 1 to 1000 ms
+        for (long i = 1; i <= 1000; i++) {
+            h.record(i * 1000 * 1000);
+        }
+        assertEquals(1000, h.getCount());
+        assertClose(500 * 1000 * 1000, h.getValueAtPercentile(50));
+        assertClose(990 * 1000 * 1000, h.getValueAtPercentile(99));
+        assertClose(999 * 1000 * 1000, h.getValueAtPercentile(99.9));
+        assertClose(1000 * 1000 * 1000, h.getMax());
+        assertClose(1000 * 1000, h.getMin());
+        assertClose(500500 * 1000, h.getMean());
+    }
+
+    public void testSubtract() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) {
+            h.record(1000);
+        }
+        LatencyHistogram earlier = h.copy();
+        for (int i = 0; i < 10; i++) {
+            h.record(1000 * 1000);
+        }
+        LatencyHistogram interval = h.copy();
+        interval.subtract(earlier);
+        assertEquals(10, interval.getCount());
+        assertClose(1000 * 1000, interval.getValueAtPercentile(50));
+        assertEquals(110, h.getCount());
+    }
+
+    public void testThreads() throws Exception {
+        final LatencyHistogram h = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final long nanos = (i + 1) * 1000 * 1000;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        h.record(nanos);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        // every stripe is counted
+        assertEquals(80000, h.getCount());
+        assertClose(1000 * 1000, h.getMin());
+        assertClose(8 * 1000 * 1000, h.getMax());
+        assertClose(4 * 1000 * 1000, h.getValueAtPercentile(50));
+        LatencyHistogram copy = h.copy();
+        assertEquals(80000, copy.getCount());
+        copy.subtract(h);
+        assertEquals(0, copy.getCount());
+    }
+
+    public void testTimerStages() {
+        Timer timer = new Timer();
+        TimedEvent event = new TimedEvent();
+        event.addStage(TimedEvent.STAGE_INSERT, 5 * 1000 * 1000);
+        timer.add(event);
+        timer.add(new TimedEvent());
+        assertEquals(2, timer.getLatency().getCount());
+        assertEquals(0, timer.getLatency(TimedEvent.STAGE_READ).getCount());
+        assertEquals(1, timer.getLatency(TimedEvent.STAGE_INSERT)
+                .getCount());
+        assertTrue(timer.getLatencyMessage().indexOf(", insert ") > 0);
+    }
+
+    /**
+     * @param _expected
+     * @param _actual
+     */
+    private void assertClose(long _expected, long _actual) {
+        // within the histogram's precision
+        assertTrue(_expected + " != " + _actual, Math.abs(_expected
+                - _actual) <= _expected / 64);
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.timing;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         A counter for many writers and an occasional reader, in the style
+ *         of LongAdder. Each thread adds to one of several padded cells,
+ *         chosen by its thread id, so that threads seldom share a cache line.
+ *         Reading the total sums every cell, so it is for reporting, not for
+ *         every update. LongAdder itself needs Java 8, and the main build
+ *         targets Java 6.
+ */
+public class StripedCounter {
+
+    // one cell per 128-B cache-line pair, to avoid false sharing
+    private static final int STRIDE = 16;
+
+    private static final int MAX_CELLS = 64;
+
+    private final AtomicLongArray cells;
+
+    private final int mask;
+
+    public StripedCounter() {
+        int count = getStripeCount(MAX_CELLS);
+        mask = count - 1;
+        // leave a stride of padding before the first cell, too
+        cells = new AtomicLongArray((count + 1) * STRIDE);
+    }
+
+    /**
+     * @param _delta
+     */
+    public void add(long _delta) {
+        cells.addAndGet((1 + (getThreadHash() & mask)) * STRIDE, _delta);
+    }
+
+    /**
+     * @return a hash of the current thread id, for choosing a stripe
+     */
+    static int getThreadHash() {
+        // spread sequential thread ids across the cells
+        int h = (int) Thread.currentThread().getId() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @param _max
+     * @return the number of stripes for this many processors, a power of
+     *         two no larger than the maximum
+     */
+    static int getStripeCount(int _max) {
+        int count = 1;
+        int limit = Math.min(_max, 2 * Runtime.getRuntime()
+                .availableProcessors());
+        while (count < limit) {
+            count <<= 1;
+        }
+        return count;
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * @return the total, which may miss concurrent updates
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 1; i <= mask + 1; i++) {
+            sum += cells.get(i * STRIDE);
+        }
+        return sum;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+}
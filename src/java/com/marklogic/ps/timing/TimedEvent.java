@@ -23,6 +23,21 @@ package com.marklogic.ps.timing;
  * @author Michael Blakeley <michael.blakeley@marklogic.com>
  */
 public class TimedEvent {
+
+    // stages of a record, for latency breakdowns
+    public static final int STAGE_READ = 0;
+
+    public static final int STAGE_SERIALIZE = 1;
+
+    public static final int STAGE_EXISTS = 2;
+
+    public static final int STAGE_INSERT = 3;
+
+    public static final int STAGE_COUNT = 4;
+
+    public static final String[] STAGE_NAMES = new String[] { "read",
+            "serialize", "exists", "insert" };
+
     private long bytes = 0;
 
     private long duration = -1;
@@ -31,13 +46,21 @@ public class TimedEvent {
 
     private long start;
 
+    // end of the last stage
+    private long mark;
+
+    // nanoseconds in each stage, or null until a stage is timed
+    private long[] stages = null;
+
     public TimedEvent() {
         start = System.nanoTime();
+        mark = start;
     }
 
     public TimedEvent(boolean _error) {
         error = _error;
         start = System.nanoTime();
+        mark = start;
     }
 
     /**
@@ -124,4 +147,46 @@ public class TimedEvent {
         error = true;
     }
 
+    /**
+     * Begin timing a stage, ignoring any time since the last stage ended:
+     * for example, time spent waiting in a queue.
+     */
+    public void startStage() {
+        mark = System.nanoTime();
+    }
+
+    /**
+     * Charge the time since the last stage ended to this stage.
+     * 
+     * @param _stage
+     */
+    public void endStage(int _stage) {
+        long now = System.nanoTime();
+        addStage(_stage, now - mark);
+        mark = now;
+    }
+
+    /**
+     * @param _stage
+     * @param _nanos
+     */
+    public void addStage(int _stage, long _nanos) {
+        if (null == stages) {
+            stages = new long[STAGE_COUNT];
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                stages[i] = -1;
+            }
+        }
+        // a stage may repeat, as when a failed batch is retried singly
+        stages[_stage] = Math.max(0, stages[_stage]) + _nanos;
+    }
+
+    /**
+     * @param _stage
+     * @return nanoseconds spent in the stage, or -1 if it was not timed
+     */
+    public long getStage(int _stage) {
+        return (null == stages) ? -1 : stages[_stage];
+    }
+
 }
@@ -19,10 +19,6 @@
 
 package com.marklogic.ps.timing;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-
 /*
  * @author Michael Blakeley <michael.blakeley@marklogic.com>
  * 
@@ -43,92 +39,91 @@ public class Timer {
     public static final int NANOSECONDS_PER_SECOND = NANOSECONDS_PER_MILLISECOND
             * MILLISECONDS_PER_SECOND;
 
-    private volatile long errors = 0;
+    // striped, so that many threads can add without a common lock
+    private final StripedCounter errors = new StripedCounter();
+
+    private final StripedCounter bytes = new StripedCounter();
 
-    private volatile long bytes = 0;
+    private final StripedCounter eventCount = new StripedCounter();
+
+    private static final double[] PERCENTILES = new double[] { 50, 90,
+            99, 99.9 };
 
     private long duration = -1;
 
-    private volatile ArrayList<TimedEvent> events = new ArrayList<TimedEvent>();
+    // fixed-size latency histograms, rather than every event
+    private final LatencyHistogram latency = new LatencyHistogram();
 
-    private long start;
+    private final LatencyHistogram[] stages = new LatencyHistogram[TimedEvent.STAGE_COUNT];
 
-    private volatile long eventCount;
+    private long start;
 
     public Timer() {
         start = System.nanoTime();
-        eventCount = 0;
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
     }
 
     public void add(TimedEvent event) {
-        add(event, true);
-    }
-
-    public void add(TimedEvent event, boolean _keepEvent) {
         // in case the user forgot to call stop(): note that bytes won't be
         // counted!
         event.stop();
-        synchronized (events) {
-            bytes += event.getBytes();
-            if (event.isError()) {
-                errors++;
-            }
-            if (_keepEvent) {
-                events.add(event);
+        bytes.add(event.getBytes());
+        if (event.isError()) {
+            errors.increment();
+        }
+        latency.record(event.getDuration());
+        long nanos;
+        for (int i = 0; i < stages.length; i++) {
+            nanos = event.getStage(i);
+            if (nanos > -1) {
+                stages[i].record(nanos);
             }
-            eventCount++;
         }
+        eventCount.increment();
     }
 
     /**
      * @param _timer
      */
     public void add(Timer _timer) {
-        add(_timer, true);
-    }
-
-    /**
-     * @param _timer
-     * @param _keep
-     */
-    public void add(Timer _timer, boolean _keep) {
         _timer.stop();
-        synchronized (events) {
-            bytes += _timer.getBytes();
-            errors += _timer.getErrorCount();
-            if (_keep) {
-                events.addAll(_timer.events);
-            }
-            eventCount += _timer.eventCount;
+        bytes.add(_timer.getBytes());
+        errors.add(_timer.getErrorCount());
+        latency.add(_timer.latency);
+        for (int i = 0; i < stages.length; i++) {
+            stages[i].add(_timer.stages[i]);
         }
+        eventCount.add(_timer.getEventCount());
     }
 
     /**
      * @return
      */
     public long getBytes() {
-        return bytes;
+        return bytes.sum();
     }
 
     /**
      * @return
      */
     public long getEventCount() {
-        return eventCount;
+        return eventCount.sum();
     }
 
     /**
      * @return
      */
     public long getSuccessfulEventCount() {
-        return eventCount - errors;
+        return eventCount.sum() - errors.sum();
     }
 
     /**
      * @return
      */
     public long getErrorCount() {
-        return errors;
+        return errors.sum();
     }
 
     /**
@@ -145,56 +140,105 @@ public class Timer {
      * @return
      */
     public long getMeanOfEvents() {
-        if (eventCount < 1)
-            return 0;
-
-        long sum = 0;
-        for (int i = 0; i < eventCount; i++) {
-            sum += events.get(i).getDuration();
-        }
-
-        return Math.round((double) sum / eventCount);
+        return latency.getMean();
     }
 
     /**
+     * @param p
+     *            from 0 to 100
      * @return
      */
-    public long getPercentileDuration(int p) {
-        if (eventCount < 1)
-            return 0;
-
-        double size = eventCount;
-        Comparator<TimedEvent> c = new TimedEventDurationComparator();
-        Collections.sort(events, c);
-        int pidx = (int) (p * size * .01);
-        return events.get(pidx).getDuration();
+    public long getPercentileDuration(double p) {
+        return latency.getValueAtPercentile(p);
     }
 
     /**
      * @return
      */
     public long getMaxDuration() {
-        long max = 0;
-        for (int i = 0; i < eventCount; i++)
-            max = Math.max(max, events.get(i).getDuration());
-        return max;
+        return latency.getMax();
     }
 
     /**
      * @return
      */
     public long getMinDuration() {
-        long min = Integer.MAX_VALUE;
-        for (int i = 0; i < eventCount; i++)
-            min = Math.min(min, events.get(i).getDuration());
-        return min;
+        return latency.getMin();
+    }
+
+    /**
+     * @return the histogram of event durations
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @param _stage
+     *            one of the TimedEvent.STAGE_* constants
+     * @return the histogram of durations for the stage
+     */
+    public LatencyHistogram getLatency(int _stage) {
+        return stages[_stage];
+    }
+
+    /**
+     * @return copies of the event histogram, then each stage histogram
+     */
+    public LatencyHistogram[] getLatencySnapshot() {
+        LatencyHistogram[] snapshot = new LatencyHistogram[1 + stages.length];
+        snapshot[0] = latency.copy();
+        for (int i = 0; i < stages.length; i++) {
+            snapshot[1 + i] = stages[i].copy();
+        }
+        return snapshot;
+    }
+
+    /**
+     * @param _snapshot
+     *            from getLatencySnapshot()
+     * @return percentiles for each non-empty histogram, in milliseconds
+     */
+    public static String getLatencyMessage(LatencyHistogram[] _snapshot) {
+        StringBuilder sb = new StringBuilder("p50/p90/p99/p999 ms: ");
+        for (int i = 0; i < _snapshot.length; i++) {
+            if (i > 0 && _snapshot[i].getCount() < 1) {
+                continue;
+            }
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(0 == i ? "record" : TimedEvent.STAGE_NAMES[i - 1]);
+            for (int j = 0; j < PERCENTILES.length; j++) {
+                sb.append(0 == j ? " " : "/");
+                sb.append(getMilliseconds(_snapshot[i]
+                        .getValueAtPercentile(PERCENTILES[j])));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return percentiles since the timer started
+     */
+    public String getLatencyMessage() {
+        return getLatencyMessage(getLatencySnapshot());
+    }
+
+    /**
+     * @param _nanos
+     * @return milliseconds, to two decimal places
+     */
+    private static double getMilliseconds(long _nanos) {
+        return Math.round((double) _nanos
+                / (NANOSECONDS_PER_MILLISECOND / 100)) / 100.0;
     }
 
     /**
      * @return
      */
     public long getMeanOverall() {
-        return getDuration() / eventCount;
+        return getDuration() / eventCount.sum();
     }
 
     /**
@@ -208,17 +252,17 @@ public class Timer {
      * @return
      */
     public long getKiloBytes() {
-        return (long) ((double) bytes / BYTES_PER_KILOBYTE);
+        return (long) ((double) bytes.sum() / BYTES_PER_KILOBYTE);
     }
 
     public double getKilobytesPerSecond() {
-        return ((double) bytes / BYTES_PER_KILOBYTE)
+        return ((double) bytes.sum() / BYTES_PER_KILOBYTE)
                 / getDurationSeconds();
     }
 
     public double getEventsPerSecond() {
         // events per second
-        return eventCount / getDurationSeconds();
+        return eventCount.sum() / getDurationSeconds();
     }
 
     /**
@@ -243,14 +287,14 @@ public class Timer {
      * 
      */
     public void incrementEventCount() {
-        eventCount++;
+        eventCount.increment();
     }
 
     /**
      * @param count
      */
     public void incrementEventCount(int count) {
-        eventCount += count;
+        eventCount.add(count);
     }
 
     /**
@@ -290,7 +334,7 @@ public class Timer {
      * @return
      */
     public int getBytesPerSecond() {
-        return (int) (bytes / getDurationSeconds());
+        return (int) (bytes.sum() / getDurationSeconds());
     }
 
 }
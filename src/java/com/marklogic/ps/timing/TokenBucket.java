@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.timing;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         A token bucket: tokens accrue at a fixed rate, up to a burst
+ *         capacity. A caller may take more tokens than the bucket holds, and
+ *         then must wait until the debt is repaid. Only the arithmetic is
+ *         locked, so one caller's wait never blocks another's reservation.
+ */
+public class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = 1000 * 1000 * 1000;
+
+    // tokens per nanosecond
+    private final double rate;
+
+    private final double capacity;
+
+    private double tokens;
+
+    private long last;
+
+    /**
+     * @param _perSecond
+     *            tokens added per second
+     * @param _burst
+     *            the most tokens that may accrue while idle
+     */
+    public TokenBucket(double _perSecond, double _burst) {
+        if (_perSecond <= 0) {
+            throw new IllegalArgumentException("rate must be positive: "
+                    + _perSecond);
+        }
+        rate = _perSecond / NANOS_PER_SECOND;
+        capacity = Math.max(_burst, 0);
+        // start full, so the first burst need not wait
+        tokens = capacity;
+        last = System.nanoTime();
+    }
+
+    /**
+     * Take tokens now, and report how long the caller must wait before
+     * proceeding. The caller should do its waiting outside any lock.
+     * 
+     * @param _count
+     * @return nanoseconds to wait, or 0
+     */
+    public long reserve(double _count) {
+        return reserve(_count, System.nanoTime());
+    }
+
+    /**
+     * @param _count
+     * @param _now
+     *            the current time, from System.nanoTime()
+     * @return nanoseconds to wait, or 0
+     */
+    public synchronized long reserve(double _count, long _now) {
+        if (_now > last) {
+            // idle time earns at most one burst
+            tokens = Math.min(capacity, tokens + (_now - last) * rate);
+            last = _now;
+        }
+        tokens -= _count;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-tokens / rate);
+    }
+
+    /**
+     * @return the rate, in tokens per second
+     */
+    public double getRate() {
+        return rate * NANOS_PER_SECOND;
+    }
+
+    /**
+     * @return the burst capacity
+     */
+    public double getCapacity() {
+        return capacity;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return getRate() + "/s, burst " + capacity;
+    }
+
+}
@@ -27,6 +27,7 @@ import java.net.URISyntaxException;
 import java.nio.charset.CharsetDecoder;
 import java.util.logging.Logger;
 
+import com.marklogic.ps.BloomFilter;
 import com.marklogic.ps.SimpleLogger;
 import com.marklogic.ps.Utilities;
 import com.marklogic.ps.timing.TimedEvent;
@@ -69,6 +70,21 @@ public abstract class AbstractLoader implements LoaderInterface {
 
     protected String inputFilePath;
 
+    // set when insert() has deferred the current content
+    // to the pipeline or to the batch
+    private boolean isInsertPending = false;
+
+    // without an insert pipeline, each loader batches its own content
+    private InsertBatch batch;
+
+    private InsertRetry retry;
+
+    // null unless there is a checkpoint journal
+    protected CheckpointJournal.Unit checkpoint;
+
+    // records already loaded by an earlier run
+    private long checkpointSkip = 0;
+
     /**
      * @param _logger
      *
@@ -92,8 +108,13 @@ public abstract class AbstractLoader implements LoaderInterface {
                 logger.fine("processing " + inputFilePath);
                 setInput(new FileInputStream(inputFile), decoder);
             }
-            event = new TimedEvent();
+            event = newEvent();
             process();
+            if (null != checkpoint) {
+                // the input is finished, but its inserts may not be
+                checkpoint.close(false);
+                checkpoint = null;
+            }
             // preempt the finally block
             cleanup();
             return null;
@@ -113,10 +134,23 @@ public abstract class AbstractLoader implements LoaderInterface {
             monitor.halt(t);
             return null;
         } finally {
+            if (null != checkpoint) {
+                // something went wrong
+                checkpoint.close(true);
+                checkpoint = null;
+            }
             cleanup();
         }
     }
 
+    /**
+     * @return a new event for the next record
+     */
+    protected TimedEvent newEvent() {
+        return (null == checkpoint) ? new TimedEvent()
+                : new CheckpointEvent(checkpoint);
+    }
+
     /**
      * @throws IOException
      */
@@ -185,6 +219,12 @@ public abstract class AbstractLoader implements LoaderInterface {
      */
     protected void cleanupInput(boolean _isError) throws LoaderException {
         cleanupRecord();
+        if (null != batch) {
+            // insert whatever is left
+            InsertBatch remaining = batch;
+            batch = null;
+            remaining.flush();
+        }
         if (null == input) {
             return;
         }
@@ -307,15 +347,84 @@ public abstract class AbstractLoader implements LoaderInterface {
         // handle monitor accounting
         // note that we count skipped records, too
         event.increment(len);
-        monitor.add(currentUri, event);
+        if (event instanceof CheckpointEvent) {
+            // number the record now, in input order
+            ((CheckpointEvent) event).submit();
+        }
+        if (isInsertPending) {
+            isInsertPending = false;
+            ContentInterface pending = content;
+            content = null;
+            if (null != batch) {
+                // the batch owns the content and the event now
+                if (batch.add(pending, currentUri, event, len)) {
+                    batch.flush();
+                }
+                return;
+            }
+            if (null == monitor.getInsertPipeline()) {
+                // the content inserts itself, and reports the event later
+                new AsyncInsert(config, monitor,
+                        (AsyncContentInterface) pending, currentUri, event)
+                        .start();
+                return;
+            }
+            // the pipeline owns the content and the event now,
+            // and will report the event after the insert
+            monitor.getInsertPipeline().put(pending, currentUri, event, len);
+            return;
+        }
+        monitor.add(currentUri, event, content);
     }
 
     /**
      * @throws LoaderException
      */
     protected void insert() throws LoaderException {
+        if (null != monitor.getInsertPipeline()) {
+            // hand off in updateMonitor(), once the size is known
+            logger.fine("queuing " + currentUri);
+            isInsertPending = true;
+            return;
+        }
+        if (isBatched()) {
+            // hand off in updateMonitor(), once the size is known
+            logger.fine("batching " + currentUri);
+            isInsertPending = true;
+            if (null == batch) {
+                batch = new InsertBatch(config, monitor);
+            }
+            return;
+        }
+        if (null != batch) {
+            // existence checks are no longer batched: catch up first
+            InsertBatch remaining = batch;
+            batch = null;
+            remaining.flush();
+        }
+        if (content instanceof AsyncContentInterface) {
+            // hand off in updateMonitor(), once the size is known
+            isInsertPending = true;
+            return;
+        }
         logger.fine("inserting " + currentUri);
-        content.insert();
+        event.startStage();
+        retry.insert(content);
+        event.endStage(TimedEvent.STAGE_INSERT);
+    }
+
+    /**
+     * @return true if the current record goes to an InsertBatch
+     */
+    private boolean isBatched() {
+        if (null != monitor.getInsertPipeline()) {
+            // the insert threads batch for themselves
+            return config.isBatching();
+        }
+        // do not hold up background inserts for existence checks alone
+        return config.getBatchSize() > 1
+                || (config.isExistingBatching()
+                        && !(content instanceof AsyncContentInterface));
     }
 
     /**
@@ -323,6 +432,7 @@ public abstract class AbstractLoader implements LoaderInterface {
      */
     protected void cleanupRecord() {
         // clean up
+        isInsertPending = false;
         logger.fine("content = " + content);
         if (null != content) {
             content.close();
@@ -360,7 +470,20 @@ public abstract class AbstractLoader implements LoaderInterface {
      */
     protected boolean checkIdAndUri(String _id) throws LoaderException,
             IOException {
-        return checkStartId(_id) || checkExistingUri(currentUri);
+        return checkCheckpoint() || checkStartId(_id)
+                || checkExistingUri(currentUri);
+    }
+
+    /**
+     * @return true if an earlier run already loaded this record
+     */
+    private boolean checkCheckpoint() {
+        if (1 > checkpointSkip) {
+            return false;
+        }
+        checkpointSkip--;
+        monitor.incrementSkipped("checkpoint " + currentUri);
+        return true;
     }
 
     protected String composeUri(String id) throws IOException {
@@ -423,29 +546,41 @@ public abstract class AbstractLoader implements LoaderInterface {
             IOException {
         // return true if we're supposed to check,
         // and if the document already exists
-        if (config.isSkipExisting() || config.isErrorExisting()) {
-            boolean exists = content.checkDocumentUri(uri);
-            logger.fine("checking for uri " + uri + " = " + exists);
-            if (exists) {
-                if (config.isErrorExisting()) {
-                    throw new LoaderException(
-                            "ERROR_EXISTING=true, cannot overwrite existing document: "
-                                    + uri);
-                }
-                // ok, must be skipExisting...
-                // count it and log the message
-                monitor.incrementSkipped("existing uri " + uri);
-                return true;
-            } else if (config.isSkipExistingUntilFirstMiss()) {
-                synchronized (monitor) {
-                    logger.info("resetting "
-                            + Configuration.SKIP_EXISTING_KEY + " at "
-                            + uri);
-                    config.setSkipExisting(false);
-                    config.configureThrottling();
-                    monitor.resetTimer("skipped");
-                }
+        if (!config.isSkipExisting() && !config.isErrorExisting()) {
+            return false;
+        }
+        BloomFilter filter = config.getExistingUriFilter();
+        if (null != filter && !filter.mightContain(uri)) {
+            // definitely new
+            logger.fine("filtered uri " + uri);
+            monitor.incrementExistenceFiltered();
+            if (config.isSkipExistingUntilFirstMiss()) {
+                monitor.resetSkipExisting(uri);
+            }
+            return false;
+        }
+        if (content instanceof BatchContentInterface && isBatched()) {
+            // InsertBatch will check the whole batch at once
+            logger.fine("deferring check for uri " + uri);
+            return false;
+        }
+        event.startStage();
+        boolean exists = content.checkDocumentUri(uri);
+        event.endStage(TimedEvent.STAGE_EXISTS);
+        monitor.addExistenceCheck(1);
+        logger.fine("checking for uri " + uri + " = " + exists);
+        if (exists) {
+            if (config.isErrorExisting()) {
+                throw new LoaderException(
+                        "ERROR_EXISTING=true, cannot overwrite existing document: "
+                                + uri);
             }
+            // ok, must be skipExisting...
+            // count it and log the message
+            monitor.incrementSkipped("existing uri " + uri);
+            return true;
+        } else if (config.isSkipExistingUntilFirstMiss()) {
+            monitor.resetSkipExisting(uri);
         }
         return false;
     }
@@ -462,6 +597,23 @@ public abstract class AbstractLoader implements LoaderInterface {
             throws LoaderException {
         config = _config;
         logger = config.getLogger();
+        retry = new InsertRetry(config);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.marklogic.recordloader.LoaderInterface#setCheckpoint(com.marklogic
+     * .recordloader.CheckpointJournal.Unit)
+     */
+    public void setCheckpoint(CheckpointJournal.Unit _unit) {
+        checkpoint = _unit;
+        checkpointSkip = (null == _unit) ? 0 : _unit.getSkipCount();
+        if (checkpointSkip > 0) {
+            logger.info("skipping " + checkpointSkip + " record(s) from "
+                    + _unit.getKey());
+        }
     }
 
     /*
@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Content that inserts itself in the background, so that a loader
+ *         thread can go on to the next record while the request is in
+ *         flight.
+ */
+public interface AsyncContentInterface extends ContentInterface {
+
+    /**
+     * Called once per insert, when it has finished.
+     */
+    public interface Callback {
+
+        /**
+         * @param _error
+         *            null if the insert succeeded
+         */
+        public void completed(Throwable _error);
+
+    }
+
+    /**
+     * Start an insert, and return without waiting for it to finish. This
+     * may block while too many inserts are in flight. Unless this method
+     * throws, the callback is called exactly once, possibly from another
+     * thread.
+     * 
+     * @param _callback
+     * @throws LoaderException
+     */
+    public void insert(Callback _callback) throws LoaderException;
+
+}
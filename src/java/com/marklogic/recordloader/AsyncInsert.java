@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.Utilities;
+import com.marklogic.ps.timing.TimedEvent;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         Hands a record to content that inserts itself in the background,
+ *         and reports the record to the monitor when the insert calls back.
+ *         The monitor counts inserts in flight, so that the run does not
+ *         end before they do.
+ */
+public class AsyncInsert implements AsyncContentInterface.Callback {
+
+    protected SimpleLogger logger;
+
+    private Configuration config;
+
+    private Monitor monitor;
+
+    private AsyncContentInterface content;
+
+    private String uri;
+
+    private TimedEvent event;
+
+    /**
+     * The insert takes ownership of the content and the event: it will
+     * close the content, and report the event to the monitor.
+     *
+     * @param _config
+     * @param _monitor
+     * @param _content
+     * @param _uri
+     * @param _event
+     */
+    public AsyncInsert(Configuration _config, Monitor _monitor,
+            AsyncContentInterface _content, String _uri, TimedEvent _event) {
+        config = _config;
+        monitor = _monitor;
+        logger = config.getLogger();
+        content = _content;
+        uri = _uri;
+        event = _event;
+    }
+
+    /**
+     * Start the insert. This may block while too many inserts are in
+     * flight.
+     */
+    public void start() {
+        monitor.addInFlight();
+        logger.fine("starting " + uri);
+        event.startStage();
+        try {
+            content.insert(this);
+        } catch (Throwable t) {
+            completed(t);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.marklogic.recordloader.AsyncContentInterface.Callback#completed(java
+     * .lang.Throwable)
+     */
+    public void completed(Throwable _error) {
+        boolean isFatal = false;
+        if (null != _error) {
+            logger.warning("error inserting " + uri);
+            // get to the init cause, if there is one
+            logger.logException("exception", Utilities.getCause(_error));
+            event.stop(true);
+            isFatal = config.isFatalErrors()
+                    || !(_error instanceof Exception);
+            if (!isFatal) {
+                logger.logException("non-fatal: skipping", _error);
+            }
+        }
+        event.endStage(TimedEvent.STAGE_INSERT);
+        content.close();
+        monitor.add(uri, event, content);
+        monitor.removeInFlight();
+        if (isFatal) {
+            monitor.halt(_error);
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ * Content that can be inserted together with other content of the same
+ * class, in a single request.
+ */
+public interface BatchContentInterface extends ContentInterface {
+
+    /**
+     * Content that reads from a stream generally cannot be batched, since
+     * it cannot be retried.
+     * 
+     * @return true if this content may be part of a batch
+     */
+    public boolean isBatchable();
+
+    /**
+     * Content of the same class with equal keys may share a batch: for
+     * example, content that must go to the same host.
+     * 
+     * @return
+     */
+    public Object getBatchKey();
+
+    /**
+     * Check several URIs in a single request.
+     * 
+     * @param _uris
+     * @return true for each URI that already exists
+     * @throws LoaderException
+     */
+    public boolean[] checkDocumentUris(String[] _uris)
+            throws LoaderException;
+
+    /**
+     * Commit every document in the batch, all or nothing. If the batch
+     * fails, each member must still be ready for {@link #insert()} on its
+     * own.
+     * 
+     * @param _batch
+     *            batchable content of the same class, possibly including
+     *            this one
+     * @throws LoaderException
+     */
+    public void insert(BatchContentInterface[] _batch)
+            throws LoaderException;
+
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright (c) 2006-2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.marklogic.ps.Utilities;
+import com.marklogic.ps.timing.TimedEvent;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         Splits records out of the raw input bytes, without parsing and
+ *         re-serializing them. Records are passed to the server as-is, in
+ *         the input encoding.
+ *
+ *         If a record depends on namespace declarations from an ancestor
+ *         element, and COPY_NAMESPACES is set, that record falls back to the
+ *         Producer so that the declarations can be copied into it.
+ */
+public class ByteLoader extends AbstractLoader {
+
+    protected static final String FALLBACK_ROOT = "recordloader-namespaces";
+
+    private RecordScanner scanner;
+
+    private ProducerFactory producerFactory;
+
+    private Charset charset;
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.marklogic.recordloader.AbstractLoader#process()
+     */
+    public void process() throws LoaderException {
+        super.process();
+
+        charset = decoder.charset();
+        if (!RecordScanner.isAsciiCompatible(charset)) {
+            throw new FatalException(getClass().getSimpleName()
+                    + " cannot scan " + charset.name() + ": set "
+                    + Configuration.LOADER_CLASSNAME_KEY + "="
+                    + Loader.class.getName());
+        }
+
+        scanner = new RecordScanner(config, input, charset);
+        // the factory only needs a parser for records that fall back
+        producerFactory = new ProducerFactory(config, null);
+
+        try {
+            processRecords();
+        } finally {
+            cleanupInput(event.isError());
+        }
+    }
+
+    private void processRecords() {
+        long scanStart;
+        while (true) {
+            scanStart = System.nanoTime();
+            try {
+                if (!scanner.nextRecord()) {
+                    return;
+                }
+            } catch (Exception e) {
+                // the input is not usable past this point
+                logException(e);
+                if (config.isFatalErrors()) {
+                    logger.warning("re-throwing fatal error");
+                    throw new FatalException(e);
+                }
+                logger.logException("non-fatal: skipping", e);
+                event.stop(true);
+                return;
+            }
+
+            event = newEvent();
+            // the scan came first, so it is not part of the event duration
+            event.addStage(TimedEvent.STAGE_READ, System.nanoTime()
+                    - scanStart);
+            try {
+                if (scanner.isNamespaceFallback()) {
+                    processFallbackRecord();
+                } else {
+                    processRecord();
+                }
+            } catch (Exception e) {
+                logException(e);
+                if (config.isFatalErrors()) {
+                    logger.warning("re-throwing fatal error");
+                    throw new FatalException(e);
+                }
+                // keep going
+                logger.logException("non-fatal: skipping", e);
+
+                // stop and set error state
+                event.stop(true);
+                monitor.add(currentUri, event);
+                cleanupRecord();
+
+                if (config.isUseFilenameIds()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param e
+     */
+    private void logException(Exception e) {
+        if (null != inputFile) {
+            logger.warning("current file: \"" + inputFilePath + "\"");
+        }
+        if (currentFileBasename != null) {
+            logger.warning("error in "
+                    + currentFileBasename
+                    + (currentRecordPath == null ? ""
+                            : (" at " + currentRecordPath)));
+        }
+        if (null != currentUri) {
+            logger.warning("current URI = " + currentUri);
+        }
+        // get to the init cause, if there is one
+        logger.logException("exception", Utilities.getCause(e));
+    }
+
+    /**
+     * @throws LoaderException
+     * @throws IOException
+     */
+    private void processRecord() throws LoaderException, IOException {
+        String id = getRecordId(scanner.getCurrentId());
+        byte[] buf = scanner.getBuffer();
+        int start = scanner.getRecordStart();
+        int length = scanner.getRecordLength();
+
+        // must create content object before checking its uri
+        currentUri = composeUri(id);
+        content = contentFactory.newContent(currentUri);
+        boolean skippingRecord = checkIdAndUri(id);
+        if (!skippingRecord) {
+            if (config.isInputStreaming()) {
+                // the scanner will not touch the buffer until the next record
+                content.setInputStream(new ByteArrayInputStream(buf,
+                        start, length));
+            } else {
+                content.setBytes(Arrays.copyOfRange(buf, start, start
+                        + length));
+            }
+            event.endStage(TimedEvent.STAGE_SERIALIZE);
+            insert();
+        }
+
+        updateMonitor(skippingRecord ? 0 : length);
+        cleanupRecord();
+    }
+
+    /**
+     * Re-parse the record inside a synthetic root element that carries the
+     * namespace declarations, and let a Producer serialize it.
+     *
+     * @throws LoaderException
+     * @throws IOException
+     * @throws XmlPullParserException
+     */
+    private void processFallbackRecord() throws LoaderException,
+            IOException, XmlPullParserException {
+        logger.fine("copying namespaces for record "
+                + scanner.getRecordCount());
+        int length = scanner.getRecordLength();
+        InputStream wrapped = new SequenceInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(("<"
+                        + FALLBACK_ROOT
+                        + scanner.getNamespaceDeclarations() + ">")
+                        .getBytes(charset)), new ByteArrayInputStream(
+                        scanner.getBuffer(), scanner.getRecordStart(),
+                        length)), new ByteArrayInputStream(("</"
+                        + FALLBACK_ROOT + ">").getBytes(charset)));
+
+        XmlPullParser xpp = config.getXppFactory().newPullParser();
+        xpp.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        xpp.setInput(new InputStreamReader(wrapped, config.getDecoder()));
+        int eventType;
+        while (XmlPullParser.START_TAG != (eventType = xpp.nextToken())
+                || xpp.getDepth() < 2) {
+            if (XmlPullParser.END_DOCUMENT == eventType) {
+                throw new LoaderException("no record element in "
+                        + FALLBACK_ROOT);
+            }
+        }
+
+        Producer producer = producerFactory.newProducer(xpp);
+        String id = getRecordId(producer.getCurrentId());
+        currentUri = composeUri(id);
+        content = contentFactory.newContent(currentUri);
+        event.endStage(TimedEvent.STAGE_READ);
+        producer.setSkippingRecord(checkIdAndUri(id));
+        if (!producer.isSkippingRecord()) {
+            byte[] bytes = Utilities.read(producer);
+            if (!Configuration.OUTPUT_ENCODING_DEFAULT.equalsIgnoreCase(charset
+                    .name())) {
+                // the server expects the input encoding
+                bytes = new String(bytes,
+                        Configuration.OUTPUT_ENCODING_DEFAULT)
+                        .getBytes(charset);
+            }
+            if (config.isInputStreaming()) {
+                content.setInputStream(new ByteArrayInputStream(bytes));
+            } else {
+                content.setBytes(bytes);
+            }
+            event.endStage(TimedEvent.STAGE_SERIALIZE);
+            insert();
+        }
+
+        updateMonitor(producer.isSkippingRecord() ? 0 : length);
+        cleanupRecord();
+    }
+
+    /**
+     * @param _id
+     * @return
+     * @throws LoaderException
+     */
+    private String getRecordId(String _id) throws LoaderException {
+        if (config.isUseAutomaticIds()) {
+            return config.getAutoId();
+        }
+        if (null == _id) {
+            throw new LoaderException("end of record element "
+                    + config.getRecordName() + " with no id found: "
+                    + Configuration.ID_NAME_KEY + "="
+                    + config.getIdNodeName());
+        }
+        return _id;
+    }
+
+    @Override
+    public void setConfiguration(Configuration _config)
+            throws LoaderException {
+        super.setConfiguration(_config);
+
+        // check required configuration
+        if (null == config.getIdNodeName()) {
+            throw new FatalException("Missing required property: "
+                    + Configuration.ID_NAME_KEY);
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import com.marklogic.ps.timing.TimedEvent;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         A record event that reports to a checkpoint journal unit. The
+ *         loader numbers the record when it hands it off, and the monitor
+ *         reports it when the record is done, wherever it was inserted.
+ */
+public class CheckpointEvent extends TimedEvent {
+
+    private CheckpointJournal.Unit unit;
+
+    private long sequence = -1;
+
+    private boolean isComplete = false;
+
+    /**
+     * @param _unit
+     */
+    public CheckpointEvent(CheckpointJournal.Unit _unit) {
+        super();
+        unit = _unit;
+    }
+
+    /**
+     * Number the record, if it does not have a number yet. Must be called
+     * by the loader thread, in input order.
+     */
+    public void submit() {
+        if (sequence < 0) {
+            sequence = unit.submit();
+        }
+    }
+
+    /**
+     * Report the outcome to the unit, once.
+     */
+    public void complete() {
+        if (isComplete) {
+            return;
+        }
+        isComplete = true;
+        submit();
+        unit.complete(sequence, isError());
+    }
+
+}
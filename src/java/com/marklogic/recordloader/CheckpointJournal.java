@@ -0,0 +1,376 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.marklogic.ps.SimpleLogger;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         An append-only local record of finished work, so that a restarted
+ *         load can skip it without asking the database. Each input (a file,
+ *         a zip entry, or a split range) is a unit, identified by a key.
+ *         The journal records how many leading records of each unit have
+ *         been loaded, and which units are complete.
+ *
+ *         Each line is "C", "P", or "#" for comment, then a tab, the record
+ *         count, another tab, and the key. "C" means the unit is complete,
+ *         and "P" means that the first count records were loaded. Later
+ *         lines replace earlier ones for the same key.
+ *
+ *         The journal assumes that inputs do not change between runs.
+ */
+public class CheckpointJournal {
+
+    protected static final String COMPLETE = "C";
+
+    protected static final String PARTIAL = "P";
+
+    protected static final String COMMENT = "#";
+
+    protected static final long FLUSH_MILLIS = 1000;
+
+    protected SimpleLogger logger;
+
+    private File file;
+
+    private Writer writer;
+
+    private long interval;
+
+    private long lastFlush = System.currentTimeMillis();
+
+    // state from previous runs
+    private Map<String, Long> completed = new HashMap<String, Long>();
+
+    private Map<String, Long> partial = new HashMap<String, Long>();
+
+    private long completedUnits = 0;
+
+    /**
+     * Tracks the records of one unit. Records are numbered in input order
+     * as the loader hands them off, and may finish in any order. Only the
+     * unbroken run of successful records from the start of the unit counts
+     * as progress.
+     */
+    public class Unit {
+
+        private String key;
+
+        private long skip;
+
+        private long submitted = 0;
+
+        private long contiguous = 0;
+
+        private long firstError = Long.MAX_VALUE;
+
+        private long lastWritten;
+
+        private boolean closed = false;
+
+        private boolean failed = false;
+
+        private boolean finished = false;
+
+        // successes that finished ahead of an earlier record
+        private TreeSet<Long> pending = new TreeSet<Long>();
+
+        Unit(String _key, long _skip) {
+            key = _key;
+            skip = _skip;
+            lastWritten = _skip;
+        }
+
+        /**
+         * @return the number of leading records that were loaded by an
+         *         earlier run
+         */
+        public long getSkipCount() {
+            return skip;
+        }
+
+        /**
+         * @return
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the sequence number of the next record
+         */
+        public synchronized long submit() {
+            return submitted++;
+        }
+
+        /**
+         * @param _sequence
+         * @param _isError
+         */
+        public void complete(long _sequence, boolean _isError) {
+            long progress = -1;
+            synchronized (this) {
+                if (_isError) {
+                    firstError = Math.min(firstError, _sequence);
+                    // nothing after the error can count
+                    pending.tailSet(_sequence).clear();
+                } else if (_sequence < firstError) {
+                    pending.add(_sequence);
+                }
+                while (!pending.isEmpty()
+                        && pending.first().longValue() == contiguous) {
+                    pending.remove(pending.first());
+                    contiguous++;
+                }
+                if (interval > 0 && contiguous - lastWritten >= interval) {
+                    lastWritten = contiguous;
+                    progress = contiguous;
+                }
+            }
+            if (progress > -1) {
+                write(PARTIAL, progress, key);
+            }
+            checkFinished();
+        }
+
+        /**
+         * The loader is done with the input.
+         *
+         * @param _isError
+         *            true if the loader could not read all of the input
+         */
+        public void close(boolean _isError) {
+            synchronized (this) {
+                closed = true;
+                failed = _isError;
+            }
+            checkFinished();
+        }
+
+        /**
+         *
+         */
+        private void checkFinished() {
+            String type;
+            long count;
+            synchronized (this) {
+                if (finished || !closed || !isSettled()) {
+                    // still waiting for records to finish
+                    return;
+                }
+                finished = true;
+                if (!failed && Long.MAX_VALUE == firstError) {
+                    type = COMPLETE;
+                } else if (contiguous > lastWritten) {
+                    type = PARTIAL;
+                } else {
+                    return;
+                }
+                count = contiguous;
+                lastWritten = contiguous;
+            }
+            if (COMPLETE == type) {
+                unitCompleted();
+            }
+            write(type, count, key);
+        }
+
+        /**
+         * @return true if no more progress is possible
+         */
+        private boolean isSettled() {
+            return contiguous >= Math.min(submitted, firstError);
+        }
+    }
+
+    /**
+     * @param _config
+     * @throws IOException
+     */
+    public CheckpointJournal(Configuration _config) throws IOException {
+        logger = _config.getLogger();
+        interval = _config.getCheckpointInterval();
+        file = new File(_config.getCheckpointFile()).getCanonicalFile();
+        if (file.exists()) {
+            read();
+            compact();
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, true), "UTF-8"));
+        logger.info("checkpoint journal " + file + ": " + completed.size()
+                + " complete, " + partial.size() + " partial");
+    }
+
+    /**
+     * @throws IOException
+     */
+    private void read() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        String line;
+        String[] fields;
+        try {
+            while (null != (line = reader.readLine())) {
+                fields = line.split("\t", 3);
+                if (3 != fields.length || COMMENT.equals(fields[0])) {
+                    continue;
+                }
+                try {
+                    Long count = Long.valueOf(fields[1]);
+                    if (COMPLETE.equals(fields[0])) {
+                        completed.put(fields[2], count);
+                        partial.remove(fields[2]);
+                    } else if (PARTIAL.equals(fields[0])) {
+                        partial.put(fields[2], count);
+                        completed.remove(fields[2]);
+                    }
+                } catch (NumberFormatException e) {
+                    // probably a truncated line, from a crash
+                    logger.warning("ignoring checkpoint line: " + line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Rewrite the journal with one line per unit.
+     *
+     * @throws IOException
+     */
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer w = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmp), "UTF-8"));
+        for (Map.Entry<String, Long> e : completed.entrySet()) {
+            w.write(COMPLETE + "\t" + e.getValue() + "\t" + e.getKey()
+                    + "\n");
+        }
+        for (Map.Entry<String, Long> e : partial.entrySet()) {
+            w.write(PARTIAL + "\t" + e.getValue() + "\t" + e.getKey()
+                    + "\n");
+        }
+        w.close();
+        if (!file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("could not replace " + file + " with "
+                    + tmp);
+        }
+    }
+
+    /**
+     * @param _key
+     * @return true if an earlier run finished this unit
+     */
+    public boolean isComplete(String _key) {
+        return completed.containsKey(_key);
+    }
+
+    /**
+     * @param _key
+     * @return a tracker for the unit
+     */
+    public Unit open(String _key) {
+        Long skip = partial.get(_key);
+        return new Unit(_key, (null == skip) ? 0 : skip.longValue());
+    }
+
+    /**
+     *
+     */
+    private synchronized void unitCompleted() {
+        completedUnits++;
+    }
+
+    /**
+     * @return the number of units completed by this run
+     */
+    public synchronized long getCompletedCount() {
+        return completedUnits;
+    }
+
+    /**
+     * @param _type
+     * @param _count
+     * @param _key
+     */
+    private synchronized void write(String _type, long _count, String _key) {
+        if (null == writer) {
+            // closed
+            return;
+        }
+        try {
+            writer.write(_type + "\t" + _count + "\t" + _key + "\n");
+            long now = System.currentTimeMillis();
+            if (now - lastFlush > FLUSH_MILLIS) {
+                writer.flush();
+                lastFlush = now;
+            }
+        } catch (IOException e) {
+            throw new FatalException(e);
+        }
+    }
+
+    /**
+     *
+     */
+    public synchronized void flush() {
+        if (null == writer) {
+            return;
+        }
+        try {
+            writer.flush();
+            lastFlush = System.currentTimeMillis();
+        } catch (IOException e) {
+            logger.logException("flushing " + file, e);
+        }
+    }
+
+    /**
+     * Flush and close. Anything recorded after this is discarded.
+     */
+    public synchronized void close() {
+        if (null == writer) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            logger.logException("closing " + file, e);
+        }
+        writer = null;
+        logger.info("checkpoint journal closed: " + completedUnits
+                + " input(s) completed");
+    }
+
+}
@@ -18,6 +18,11 @@
  */
 package com.marklogic.recordloader;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
@@ -29,11 +34,13 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
+import com.marklogic.ps.BloomFilter;
 import com.marklogic.ps.RecordLoader;
 import com.marklogic.ps.Utilities;
 import com.marklogic.recordloader.xcc.XccConfiguration;
@@ -105,6 +112,19 @@ public class Configuration extends AbstractConfiguration {
      */
     public static final String INPUT_FILE_SIZE_LIMIT_DEFAULT = "0";
 
+    /**
+     * Plain input files larger than this many bytes are split into ranges,
+     * and the ranges are loaded in parallel. Zero disables splitting.
+     * Finding the ancestors of each range reads the whole file once, before
+     * loading starts.
+     */
+    public static final String INPUT_SPLIT_SIZE_KEY = "INPUT_SPLIT_SIZE";
+
+    /**
+     *
+     */
+    public static final String INPUT_SPLIT_SIZE_DEFAULT = "0";
+
     /**
      *
      */
@@ -117,6 +137,23 @@ public class Configuration extends AbstractConfiguration {
 
     public static final String INPUT_STREAMING_DEFAULT = "false";
 
+    /**
+     * With INPUT_STREAMING, records up to this size are buffered in memory,
+     * and larger records spill to a temporary file, so that any record can
+     * be retried. Zero streams records straight from the input, so they
+     * cannot be retried.
+     */
+    public static final String INPUT_STREAMING_BUFFER_KEY = "INPUT_STREAMING_BUFFER_BYTES";
+
+    public static final String INPUT_STREAMING_BUFFER_DEFAULT = ""
+            + (1024 * 1024);
+
+    /**
+     * Directory for spilled records. Unset means the default temporary
+     * directory.
+     */
+    public static final String INPUT_SPILL_DIRECTORY_KEY = "INPUT_SPILL_DIRECTORY";
+
     /**
      *
      */
@@ -209,6 +246,24 @@ public class Configuration extends AbstractConfiguration {
 
     public static final String SKIP_EXISTING_DEFAULT = "false";
 
+    /**
+     * A file listing document URIs that may already exist, one per line. With
+     * SKIP_EXISTING or ERROR_EXISTING, any URI that is not in this file is
+     * assumed to be new, and is not checked against the database.
+     */
+    public static final String EXISTING_URIS_FILE_KEY = "EXISTING_URIS_FILE";
+
+    /**
+     * With SKIP_EXISTING or ERROR_EXISTING, check up to this many URIs in a
+     * single request, whatever the BATCH_SIZE. Records are held until their
+     * URIs have been checked, up to BATCH_BYTES, and then inserted BATCH_SIZE
+     * at a time. One, the default, means that each URI is checked as its
+     * record is read, so that INPUT_STREAMING still streams.
+     */
+    public static final String EXISTING_BATCH_SIZE_KEY = "EXISTING_BATCH_SIZE";
+
+    public static final String EXISTING_BATCH_SIZE_DEFAULT = "1";
+
     public static final String SKIP_EXISTING_UNTIL_FIRST_MISS_KEY = "SKIP_EXISTING_UNTIL_FIRST_MISS";
 
     public static final String SKIP_EXISTING_UNTIL_FIRST_MISS_DEFAULT = "false";
@@ -226,6 +281,155 @@ public class Configuration extends AbstractConfiguration {
 
     public static final String THREADS_DEFAULT = "1";
 
+    /**
+     * Number of threads that insert content, separately from the THREADS
+     * that parse input. Zero means that each loader thread inserts its own
+     * content.
+     */
+    public static final String INSERT_THREADS_KEY = "INSERT_THREADS";
+
+    public static final String INSERT_THREADS_DEFAULT = "0";
+
+    /**
+     * Loader threads block when this much content is waiting for the
+     * INSERT_THREADS.
+     */
+    public static final String INSERT_QUEUE_BYTES_KEY = "INSERT_QUEUE_BYTES";
+
+    public static final String INSERT_QUEUE_BYTES_DEFAULT = ""
+            + (64 * 1024 * 1024);
+
+    /**
+     * With INSERT_THREADS and batching, an insert thread waits up to this
+     * long for a partial batch to fill, before it sends what it has. It
+     * stops waiting as soon as a loader thread blocks on the queue.
+     */
+    public static final String INSERT_BATCH_LINGER_MILLIS_KEY = "INSERT_BATCH_LINGER_MILLIS";
+
+    public static final String INSERT_BATCH_LINGER_MILLIS_DEFAULT = "50";
+
+    /**
+     * A local journal of finished inputs, so that a restarted load can skip
+     * them. Unset by default.
+     */
+    public static final String CHECKPOINT_FILE_KEY = "CHECKPOINT_FILE";
+
+    /**
+     * Record progress within an input every this many records. Zero means
+     * that only complete inputs are recorded.
+     */
+    public static final String CHECKPOINT_INTERVAL_KEY = "CHECKPOINT_INTERVAL";
+
+    public static final String CHECKPOINT_INTERVAL_DEFAULT = "1000";
+
+    /**
+     * Maximum number of documents to insert in a single request. One means
+     * that every document is inserted by itself.
+     */
+    public static final String BATCH_SIZE_KEY = "BATCH_SIZE";
+
+    public static final String BATCH_SIZE_DEFAULT = "1";
+
+    /**
+     * A batch is inserted as soon as it holds this much content, even if it
+     * has fewer than BATCH_SIZE documents.
+     */
+    public static final String BATCH_BYTES_KEY = "BATCH_BYTES";
+
+    public static final String BATCH_BYTES_DEFAULT = "" + (1024 * 1024);
+
+    /**
+     * With more than one CONNECTION_STRING, choose a host for each request,
+     * weighted by latency, error rate, and outstanding requests. Otherwise,
+     * each input is assigned a host round-robin.
+     */
+    public static final String HOST_BALANCING_KEY = "HOST_BALANCING";
+
+    public static final String HOST_BALANCING_DEFAULT = "true";
+
+    /**
+     * A host that fails this many requests in a row is ejected.
+     */
+    public static final String HOST_EJECT_ERRORS_KEY = "HOST_EJECT_ERRORS";
+
+    public static final String HOST_EJECT_ERRORS_DEFAULT = "3";
+
+    /**
+     * An ejected host is probed after this many seconds. The time doubles
+     * each time the host is ejected again without a success in between.
+     */
+    public static final String HOST_EJECT_SECONDS_KEY = "HOST_EJECT_SECONDS";
+
+    public static final String HOST_EJECT_SECONDS_DEFAULT = "10";
+
+    /**
+     * Register MBeans for the loader and each balanced host.
+     */
+    public static final String METRICS_JMX_KEY = "METRICS_JMX";
+
+    public static final String METRICS_JMX_DEFAULT = "true";
+
+    /**
+     * Serve metrics in Prometheus text format at /metrics on this port, or
+     * not at all if zero.
+     */
+    public static final String METRICS_HTTP_PORT_KEY = "METRICS_HTTP_PORT";
+
+    public static final String METRICS_HTTP_PORT_DEFAULT = "0";
+
+    /**
+     * The address that the metrics endpoint listens on. The default is the
+     * loopback interface: use 0.0.0.0 to listen on every interface.
+     */
+    public static final String METRICS_HTTP_ADDRESS_KEY = "METRICS_HTTP_ADDRESS";
+
+    public static final String METRICS_HTTP_ADDRESS_DEFAULT = "127.0.0.1";
+
+    /**
+     * Retry an insert that fails with a transient error up to this many
+     * times, if the content can be replayed.
+     */
+    public static final String INSERT_RETRIES_KEY = "INSERT_RETRIES";
+
+    public static final String INSERT_RETRIES_DEFAULT = "3";
+
+    /**
+     * Wait this long before the first retry. The wait doubles with each
+     * retry, up to INSERT_RETRY_MAX_MILLIS.
+     */
+    public static final String INSERT_RETRY_MILLIS_KEY = "INSERT_RETRY_MILLIS";
+
+    public static final String INSERT_RETRY_MILLIS_DEFAULT = "100";
+
+    public static final String INSERT_RETRY_MAX_MILLIS_KEY = "INSERT_RETRY_MAX_MILLIS";
+
+    public static final String INSERT_RETRY_MAX_MILLIS_DEFAULT = "30000";
+
+    /**
+     * Maximum concurrent HTTP requests to each host. The default is
+     * THREADS plus INSERT_THREADS.
+     */
+    public static final String HTTP_MAX_CONNECTIONS_KEY = "HTTP_MAX_CONNECTIONS";
+
+    public static final String HTTP_MAX_CONNECTIONS_DEFAULT = "-1";
+
+    /**
+     * How HTTP module content sends each record: "raw" sends the record
+     * bytes as the request body, with the other fields in the query string,
+     * and "form" sends everything as a form, including XML-STRING.
+     * "multipart" sends multipart/mixed batches of up to BATCH_SIZE records
+     * or BATCH_BYTES bytes, as described in HttpModuleContent.
+     */
+    public static final String HTTP_MODULE_BODY_KEY = "HTTP_MODULE_BODY";
+
+    public static final String HTTP_MODULE_BODY_RAW = "raw";
+
+    public static final String HTTP_MODULE_BODY_FORM = "form";
+
+    public static final String HTTP_MODULE_BODY_MULTIPART = "multipart";
+
+    public static final String HTTP_MODULE_BODY_DEFAULT = HTTP_MODULE_BODY_RAW;
+
     public static final String THROTTLE_EVENTS_KEY = "THROTTLE_EVENTS_PER_SECOND";
 
     public static final String THROTTLE_EVENTS_DEFAULT = "0";
@@ -234,6 +438,22 @@ public class Configuration extends AbstractConfiguration {
 
     public static final String THROTTLE_BYTES_DEFAULT = "0";
 
+    public static final String THROTTLE_HOST_EVENTS_KEY = "THROTTLE_HOST_EVENTS_PER_SECOND";
+
+    public static final String THROTTLE_HOST_EVENTS_DEFAULT = "0";
+
+    public static final String THROTTLE_HOST_BYTES_KEY = "THROTTLE_HOST_BYTES_PER_SECOND";
+
+    public static final String THROTTLE_HOST_BYTES_DEFAULT = "0";
+
+    /**
+     * How long idle time may be saved up: the burst size is this many
+     * seconds at the throttled rate.
+     */
+    public static final String THROTTLE_BURST_SECONDS_KEY = "THROTTLE_BURST_SECONDS";
+
+    public static final String THROTTLE_BURST_SECONDS_DEFAULT = "1";
+
     public static final String UNRESOLVED_ENTITY_REPLACEMENT_PREFIX = "<!-- UNRESOLVED-ENTITY ";
 
     public static final String UNRESOLVED_ENTITY_REPLACEMENT_SUFFIX = " -->";
@@ -365,6 +585,12 @@ public class Configuration extends AbstractConfiguration {
 
     protected int throttledBytesPerSecond;
 
+    protected double throttledHostEventsPerSecond;
+
+    protected int throttledHostBytesPerSecond;
+
+    protected double throttleBurstSeconds;
+
     protected volatile Constructor<? extends ContentFactory> contentFactoryConstructor;
 
     protected Object contentFactoryMutex = new Object();
@@ -377,6 +603,14 @@ public class Configuration extends AbstractConfiguration {
 
     protected Object inputDecoderMutex = new Object();
 
+    protected volatile BloomFilter existingUriFilter = null;
+
+    protected volatile HostBalancer hostBalancer = null;
+
+    protected Object hostBalancerMutex = new Object();
+
+    protected CopyOnWriteArrayList<StatusInterface> statusSources = new CopyOnWriteArrayList<StatusInterface>();
+
     public static final String ZIP_SUFFIX = ".zip";
 
     public static final String INPUT_HANDLER_CLASSNAME_KEY = "INPUT_HANDLER_CLASSNAME";
@@ -515,6 +749,70 @@ public class Configuration extends AbstractConfiguration {
                 .getProperty(INPUT_NORMALIZE_PATHS_KEY));
 
         configureThrottling();
+
+        if (isInputReplayable()) {
+            logger.fine(INPUT_STREAMING_KEY + " buffers up to "
+                    + getInputStreamingBufferBytes() + " B in memory");
+        } else if (isInsertPipelined() && Utilities.stringToBoolean(properties
+                .getProperty(INPUT_STREAMING_KEY))) {
+            logger.warning("ignoring " + INPUT_STREAMING_KEY + " with "
+                    + INSERT_THREADS_KEY + "=" + getInsertThreadCount());
+        } else if (isBatching() && Utilities.stringToBoolean(properties
+                .getProperty(INPUT_STREAMING_KEY))) {
+            logger.warning("ignoring " + INPUT_STREAMING_KEY + " with "
+                    + ((getBatchSize() > 1) ? BATCH_SIZE_KEY + "="
+                            + getBatchSize() : EXISTING_BATCH_SIZE_KEY + "="
+                            + getExistingBatchSize()));
+        }
+
+        if (isExistingBatching()) {
+            logger.info("checking up to " + getExistingBatchSize()
+                    + " existing uri(s) per request");
+        }
+
+        configureExistingUriFilter();
+    }
+
+    /**
+     *
+     */
+    protected void configureExistingUriFilter() {
+        String path = getProperty(EXISTING_URIS_FILE_KEY, true);
+        if (null == path || "".equals(path) || null != existingUriFilter) {
+            return;
+        }
+        if (!isSkipExisting() && !isErrorExisting()) {
+            logger.warning("ignoring " + EXISTING_URIS_FILE_KEY
+                    + " without " + SKIP_EXISTING_KEY + " or "
+                    + ERROR_EXISTING_KEY);
+            return;
+        }
+        try {
+            File file = new File(path);
+            // size the filter before filling it
+            long count = 0;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), OUTPUT_ENCODING_DEFAULT));
+            while (null != reader.readLine()) {
+                count++;
+            }
+            reader.close();
+            BloomFilter filter = new BloomFilter(count);
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), OUTPUT_ENCODING_DEFAULT));
+            String line;
+            while (null != (line = reader.readLine())) {
+                if (line.length() > 0) {
+                    filter.add(line);
+                }
+            }
+            reader.close();
+            logger.info("loaded " + filter.getEntryCount()
+                    + " existing uri(s) from " + path);
+            existingUriFilter = filter;
+        } catch (IOException e) {
+            throw new FatalException(e);
+        }
     }
 
     /**
@@ -530,6 +828,19 @@ public class Configuration extends AbstractConfiguration {
 
         throttledBytesPerSecond = Integer.parseInt(properties
                 .getProperty(THROTTLE_BYTES_KEY));
+
+        throttledHostEventsPerSecond = Double.parseDouble(properties
+                .getProperty(THROTTLE_HOST_EVENTS_KEY));
+
+        throttledHostBytesPerSecond = Integer.parseInt(properties
+                .getProperty(THROTTLE_HOST_BYTES_KEY));
+
+        throttleBurstSeconds = Double.parseDouble(properties
+                .getProperty(THROTTLE_BURST_SECONDS_KEY));
+        if (throttleBurstSeconds < 0) {
+            throw new FatalException(THROTTLE_BURST_SECONDS_KEY
+                    + " must not be negative: " + throttleBurstSeconds);
+        }
     }
 
     protected void configureCollections() {
@@ -749,8 +1060,15 @@ public class Configuration extends AbstractConfiguration {
      */
     public void setUseAutomaticIds() {
         logger.info("generating automatic ids");
-        properties.setProperty(LOADER_CLASSNAME_KEY, Loader.class
-                .getName());
+        // keep any record-splitting loader, but not a whole-file loader
+        String loaderClassName = properties.getProperty(LOADER_CLASSNAME_KEY);
+        if (null == loaderClassName
+                || FileLoader.class.getName().equals(loaderClassName)
+                || TranscodingFileLoader.class.getName().equals(
+                        loaderClassName)) {
+            properties.setProperty(LOADER_CLASSNAME_KEY, Loader.class
+                    .getName());
+        }
         useAutomaticIds = true;
         useFilenameIds = false;
     }
@@ -773,7 +1091,30 @@ public class Configuration extends AbstractConfiguration {
      * @return
      */
     public boolean isThrottled() {
-        return (throttledEventsPerSecond > 0 || throttledBytesPerSecond > 0);
+        return (throttledEventsPerSecond > 0 || throttledBytesPerSecond > 0
+                || throttledHostEventsPerSecond > 0
+                || throttledHostBytesPerSecond > 0);
+    }
+
+    /**
+     * @return the limit for each connection, or zero
+     */
+    public double getThrottledHostEventsPerSecond() {
+        return throttledHostEventsPerSecond;
+    }
+
+    /**
+     * @return the limit for each connection, or zero
+     */
+    public int getThrottledHostBytesPerSecond() {
+        return throttledHostBytesPerSecond;
+    }
+
+    /**
+     * @return
+     */
+    public double getThrottleBurstSeconds() {
+        return throttleBurstSeconds;
     }
 
     /**
@@ -949,6 +1290,13 @@ public class Configuration extends AbstractConfiguration {
                 .getProperty(INPUT_FILE_SIZE_LIMIT_KEY));
     }
 
+    /**
+     * @return
+     */
+    public long getInputSplitSize() {
+        return Long.parseLong(properties.getProperty(INPUT_SPLIT_SIZE_KEY));
+    }
+
     public boolean isEscapeUri() {
         return Utilities.stringToBoolean(properties
                 .getProperty(INPUT_ESCAPE_IDS_KEY));
@@ -958,8 +1306,271 @@ public class Configuration extends AbstractConfiguration {
      * @return
      */
     public boolean isInputStreaming() {
+        // queued or batched content must not depend on the input stream
+        return isInputReplayable()
+                || (!isInsertPipelined() && !isBatching() && Utilities
+                        .stringToBoolean(properties
+                                .getProperty(INPUT_STREAMING_KEY)));
+    }
+
+    /**
+     * @return true if streamed records are buffered for replay
+     */
+    public boolean isInputReplayable() {
+        return Utilities.stringToBoolean(properties
+                .getProperty(INPUT_STREAMING_KEY))
+                && getInputStreamingBufferBytes() > 0;
+    }
+
+    /**
+     * @return
+     */
+    public int getInputStreamingBufferBytes() {
+        return Integer.parseInt(properties
+                .getProperty(INPUT_STREAMING_BUFFER_KEY));
+    }
+
+    /**
+     * @return the spill directory, or null for the default
+     */
+    public File getInputSpillDirectory() {
+        String path = properties.getProperty(INPUT_SPILL_DIRECTORY_KEY);
+        return (null == path || "".equals(path)) ? null : new File(path);
+    }
+
+    /**
+     * @return
+     */
+    public int getHttpMaxConnections() {
+        int size = Integer.parseInt(properties
+                .getProperty(HTTP_MAX_CONNECTIONS_KEY));
+        if (size < 1) {
+            size = getThreadCount() + getInsertThreadCount();
+        }
+        return Math.max(1, size);
+    }
+
+    /**
+     * @return true if HTTP module content is sent as a form
+     */
+    public boolean isHttpModuleForm() {
+        return HTTP_MODULE_BODY_FORM.equalsIgnoreCase(properties
+                .getProperty(HTTP_MODULE_BODY_KEY).trim());
+    }
+
+    /**
+     * @return true if HTTP module content is sent in multipart batches
+     */
+    public boolean isHttpModuleMultipart() {
+        return HTTP_MODULE_BODY_MULTIPART.equalsIgnoreCase(properties
+                .getProperty(HTTP_MODULE_BODY_KEY).trim());
+    }
+
+    /**
+     * @return
+     */
+    public int getInsertRetries() {
+        return Integer.parseInt(properties.getProperty(INSERT_RETRIES_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public long getInsertRetryMillis() {
+        return Long.parseLong(properties
+                .getProperty(INSERT_RETRY_MILLIS_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public long getInsertRetryMaxMillis() {
+        return Long.parseLong(properties
+                .getProperty(INSERT_RETRY_MAX_MILLIS_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public int getInsertThreadCount() {
+        return Integer.parseInt(properties.getProperty(INSERT_THREADS_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public boolean isInsertPipelined() {
+        return getInsertThreadCount() > 0;
+    }
+
+    /**
+     * @return
+     */
+    public long getInsertQueueBytes() {
+        return Long.parseLong(properties
+                .getProperty(INSERT_QUEUE_BYTES_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public long getInsertBatchLingerMillis() {
+        return Long.parseLong(properties
+                .getProperty(INSERT_BATCH_LINGER_MILLIS_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public String getCheckpointFile() {
+        return getProperty(CHECKPOINT_FILE_KEY, true);
+    }
+
+    /**
+     * @return
+     */
+    public boolean isCheckpointed() {
+        String path = getCheckpointFile();
+        return null != path && !"".equals(path);
+    }
+
+    /**
+     * @return
+     */
+    public long getCheckpointInterval() {
+        return Long.parseLong(properties
+                .getProperty(CHECKPOINT_INTERVAL_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public int getBatchSize() {
+        return Integer.parseInt(properties.getProperty(BATCH_SIZE_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public long getBatchBytes() {
+        return Long.parseLong(properties.getProperty(BATCH_BYTES_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public int getExistingBatchSize() {
+        return Integer.parseInt(properties
+                .getProperty(EXISTING_BATCH_SIZE_KEY));
+    }
+
+    /**
+     * @return true if existence checks are batched
+     */
+    public boolean isExistingBatching() {
+        return (isSkipExisting() || isErrorExisting())
+                && getExistingBatchSize() > 1;
+    }
+
+    /**
+     * @return true if records are held in batches, for inserts or for
+     *         existence checks
+     */
+    public boolean isBatching() {
+        return getBatchSize() > 1 || isExistingBatching();
+    }
+
+    /**
+     * @return
+     */
+    public boolean isHostBalancing() {
+        return Utilities.stringToBoolean(properties
+                .getProperty(HOST_BALANCING_KEY))
+                && getConnectionStrings().length > 1;
+    }
+
+    /**
+     * @return
+     */
+    public int getHostEjectErrors() {
+        return Integer.parseInt(properties
+                .getProperty(HOST_EJECT_ERRORS_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public long getHostEjectSeconds() {
+        return Long.parseLong(properties
+                .getProperty(HOST_EJECT_SECONDS_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public boolean isMetricsJmx() {
         return Utilities.stringToBoolean(properties
-                .getProperty(INPUT_STREAMING_KEY));
+                .getProperty(METRICS_JMX_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public int getMetricsHttpPort() {
+        return Integer.parseInt(properties
+                .getProperty(METRICS_HTTP_PORT_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public String getMetricsHttpAddress() {
+        return properties.getProperty(METRICS_HTTP_ADDRESS_KEY);
+    }
+
+    /**
+     * @return the shared host balancer, or null if requests are not
+     *         balanced
+     */
+    public HostBalancer getHostBalancer() {
+        if (null != hostBalancer || !isHostBalancing()) {
+            return hostBalancer;
+        }
+        synchronized (hostBalancerMutex) {
+            if (null == hostBalancer) {
+                hostBalancer = new HostBalancer(this);
+            }
+        }
+        return hostBalancer;
+    }
+
+    /**
+     * Ask the monitor to log a status line for the source, with each
+     * progress message. Adding the same source again does nothing.
+     * 
+     * @param _source
+     */
+    public void addStatusSource(StatusInterface _source) {
+        statusSources.addIfAbsent(_source);
+    }
+
+    /**
+     * @return
+     */
+    public List<StatusInterface> getStatusSources() {
+        return statusSources;
+    }
+
+    /**
+     * Check whether an ejected host can be used again. Subclasses that know
+     * how to talk to the host should override this: by default, the host is
+     * readmitted and the next requests decide.
+     *
+     * @param _uri
+     * @return true if the host is usable
+     */
+    public boolean probeHost(URI _uri) {
+        return true;
     }
 
     /**
@@ -970,6 +1581,14 @@ public class Configuration extends AbstractConfiguration {
                 .getProperty(SKIP_EXISTING_UNTIL_FIRST_MISS_KEY));
     }
 
+    /**
+     * @return the URIs that may already exist, or null if every URI must be
+     *         checked
+     */
+    public BloomFilter getExistingUriFilter() {
+        return existingUriFilter;
+    }
+
     /**
      * @param _value
      */
@@ -1123,6 +1742,16 @@ public class Configuration extends AbstractConfiguration {
         return isLoaderTranscoding = _bool;
     }
 
+    /**
+     * @return the encoding of records that loaders pass to
+     *         ContentInterface.setInputStream: a transcoding loader streams
+     *         producer output, and the others stream the input as it is
+     */
+    public String getStreamEncoding() {
+        return isLoaderTranscoding ? OUTPUT_ENCODING_DEFAULT
+                : getInputEncoding();
+    }
+
     /**
      * @return
      */
@@ -0,0 +1,552 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.Utilities;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Writes seeded, synthetic input for load tests: the same properties
+ *         and seed always produce the same bytes. Like RecordLoader, it reads
+ *         system properties and any *.properties arguments; any other
+ *         argument is the output path.
+ * 
+ *         The formats are one large XML file (xml), the same file gzipped
+ *         (gz), a directory tree of one file per record (files), the same
+ *         tree in a zip archive (zip), and delimited text for
+ *         DelimitedDataLoader (delimited).
+ */
+public class CorpusGenerator {
+
+    public static final String FORMAT_KEY = "CORPUS_FORMAT";
+
+    public static final String FORMAT_XML = "xml";
+
+    public static final String FORMAT_GZ = "gz";
+
+    public static final String FORMAT_FILES = "files";
+
+    public static final String FORMAT_ZIP = "zip";
+
+    public static final String FORMAT_DELIMITED = "delimited";
+
+    public static final String FORMAT_DEFAULT = FORMAT_XML;
+
+    public static final String OUTPUT_KEY = "CORPUS_OUTPUT";
+
+    public static final String SEED_KEY = "CORPUS_SEED";
+
+    public static final String SEED_DEFAULT = "1";
+
+    public static final String RECORDS_KEY = "CORPUS_RECORDS";
+
+    public static final String RECORDS_DEFAULT = "1000";
+
+    /**
+     * Mean size of the text in each record, in characters.
+     */
+    public static final String RECORD_BYTES_KEY = "CORPUS_RECORD_BYTES";
+
+    public static final String RECORD_BYTES_DEFAULT = "1024";
+
+    /**
+     * fixed, uniform (half to one and a half times the mean), or
+     * exponential (mostly small records, with a long tail)
+     */
+    public static final String RECORD_DISTRIBUTION_KEY = "CORPUS_RECORD_DISTRIBUTION";
+
+    public static final String RECORD_DISTRIBUTION_FIXED = "fixed";
+
+    public static final String RECORD_DISTRIBUTION_UNIFORM = "uniform";
+
+    public static final String RECORD_DISTRIBUTION_EXPONENTIAL = "exponential";
+
+    public static final String RECORD_DISTRIBUTION_DEFAULT = RECORD_DISTRIBUTION_FIXED;
+
+    /**
+     * Number of nested namespaces around and inside each record. With zero,
+     * records are in no namespace; otherwise records are in the innermost
+     * one, and use the prefixes of all the others.
+     */
+    public static final String NAMESPACE_DEPTH_KEY = "CORPUS_NAMESPACE_DEPTH";
+
+    public static final String NAMESPACE_DEPTH_DEFAULT = "0";
+
+    /**
+     * attribute (ID_NAME=@id) or element (ID_NAME=id)
+     */
+    public static final String ID_PLACEMENT_KEY = "CORPUS_ID_PLACEMENT";
+
+    public static final String ID_PLACEMENT_ATTRIBUTE = "attribute";
+
+    public static final String ID_PLACEMENT_ELEMENT = "element";
+
+    public static final String ID_PLACEMENT_DEFAULT = ID_PLACEMENT_ATTRIBUTE;
+
+    public static final String FILES_PER_DIRECTORY_KEY = "CORPUS_FILES_PER_DIRECTORY";
+
+    public static final String FILES_PER_DIRECTORY_DEFAULT = "1000";
+
+    public static final String FIELDS_KEY = "CORPUS_FIELDS";
+
+    public static final String FIELDS_DEFAULT = "8";
+
+    /**
+     * Tab by default; use a comma for CSV. DelimitedDataLoader does not
+     * handle quoting, so the generated values never contain the delimiter.
+     */
+    public static final String FIELD_DELIMITER_KEY = "CORPUS_FIELD_DELIMITER";
+
+    public static final String FIELD_DELIMITER_DEFAULT = "\t";
+
+    public static final String RECORD_NAME = "record";
+
+    public static final String NAMESPACE_PREFIX = "urn:corpus:";
+
+    private static final String ENCODING = "UTF-8";
+
+    // some need escaping, and some need more than one byte
+    private static final String[] WORDS = new String[] { "lorem",
+            "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing",
+            "elit", "sed", "do", "eiusmod", "tempor", "incididunt", "ut",
+            "labore", "et", "magna", "aliqua", "&", "<b>", "\"q\"",
+            "caf\u00e9", "na\u00efve", "\u4e2d\u6587", "\u00fcber" };
+
+    // zip entries carry a timestamp: keep it fixed
+    private static final long ZIP_TIME = 946684800000L;
+
+    private static SimpleLogger logger = SimpleLogger.getSimpleLogger();
+
+    private String format;
+
+    private long seed;
+
+    private int records;
+
+    private int recordBytes;
+
+    private String distribution;
+
+    private int namespaceDepth;
+
+    private boolean isIdElement;
+
+    private int filesPerDirectory;
+
+    private int fields;
+
+    private String fieldDelimiter;
+
+    private Random random;
+
+    /**
+     * @param _properties
+     */
+    public CorpusGenerator(Properties _properties) {
+        format = _properties.getProperty(FORMAT_KEY, FORMAT_DEFAULT)
+                .trim().toLowerCase();
+        seed = Long.parseLong(_properties.getProperty(SEED_KEY,
+                SEED_DEFAULT).trim());
+        records = Integer.parseInt(_properties.getProperty(RECORDS_KEY,
+                RECORDS_DEFAULT).trim());
+        recordBytes = Integer.parseInt(_properties.getProperty(
+                RECORD_BYTES_KEY, RECORD_BYTES_DEFAULT).trim());
+        distribution = _properties.getProperty(RECORD_DISTRIBUTION_KEY,
+                RECORD_DISTRIBUTION_DEFAULT).trim().toLowerCase();
+        namespaceDepth = Integer.parseInt(_properties.getProperty(
+                NAMESPACE_DEPTH_KEY, NAMESPACE_DEPTH_DEFAULT).trim());
+        String placement = _properties.getProperty(ID_PLACEMENT_KEY,
+                ID_PLACEMENT_DEFAULT).trim().toLowerCase();
+        filesPerDirectory = Integer.parseInt(_properties.getProperty(
+                FILES_PER_DIRECTORY_KEY, FILES_PER_DIRECTORY_DEFAULT)
+                .trim());
+        fields = Integer.parseInt(_properties.getProperty(FIELDS_KEY,
+                FIELDS_DEFAULT).trim());
+        // do not trim: the default is whitespace
+        fieldDelimiter = _properties.getProperty(FIELD_DELIMITER_KEY,
+                FIELD_DELIMITER_DEFAULT);
+
+        if (!FORMAT_XML.equals(format) && !FORMAT_GZ.equals(format)
+                && !FORMAT_FILES.equals(format)
+                && !FORMAT_ZIP.equals(format)
+                && !FORMAT_DELIMITED.equals(format)) {
+            throw new FatalException("unexpected " + FORMAT_KEY + "="
+                    + format);
+        }
+        if (!RECORD_DISTRIBUTION_FIXED.equals(distribution)
+                && !RECORD_DISTRIBUTION_UNIFORM.equals(distribution)
+                && !RECORD_DISTRIBUTION_EXPONENTIAL.equals(distribution)) {
+            throw new FatalException("unexpected "
+                    + RECORD_DISTRIBUTION_KEY + "=" + distribution);
+        }
+        if (ID_PLACEMENT_ELEMENT.equals(placement)) {
+            isIdElement = true;
+        } else if (!ID_PLACEMENT_ATTRIBUTE.equals(placement)) {
+            throw new FatalException("unexpected " + ID_PLACEMENT_KEY + "="
+                    + placement);
+        }
+        if (1 > filesPerDirectory) {
+            throw new FatalException(FILES_PER_DIRECTORY_KEY
+                    + " must be positive");
+        }
+        if (1 > fields) {
+            throw new FatalException(FIELDS_KEY + " must be positive");
+        }
+        if (fieldDelimiter.length() < 1) {
+            throw new FatalException(FIELD_DELIMITER_KEY
+                    + " must not be empty");
+        }
+    }
+
+    /**
+     * @return the ID_NAME that finds the generated ids
+     */
+    public String getIdName() {
+        return isIdElement ? "id" : "@id";
+    }
+
+    /**
+     * @return the RECORD_NAMESPACE of the generated records
+     */
+    public String getRecordNamespace() {
+        return (1 > namespaceDepth) ? "" : (NAMESPACE_PREFIX + namespaceDepth);
+    }
+
+    /**
+     * @param _output
+     *            a file, or a directory for FORMAT_FILES
+     * @throws IOException
+     */
+    public void generate(File _output) throws IOException {
+        random = new Random(seed);
+        if (FORMAT_FILES.equals(format)) {
+            writeFiles(_output);
+            return;
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(
+                _output));
+        try {
+            if (FORMAT_ZIP.equals(format)) {
+                writeZip(out);
+            } else if (FORMAT_GZ.equals(format)) {
+                GZIPOutputStream gz = new GZIPOutputStream(out);
+                writeXml(gz);
+                gz.finish();
+            } else if (FORMAT_DELIMITED.equals(format)) {
+                writeDelimited(out);
+            } else {
+                writeXml(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write every record into one document.
+     * 
+     * @param _out
+     * @throws IOException
+     */
+    public void writeXml(OutputStream _out) throws IOException {
+        random = new Random(seed);
+        Writer out = newWriter(_out);
+        out.write("<?xml version=\"1.0\" encoding=\"" + ENCODING
+                + "\"?>\n<root>\n");
+        // the record's namespaces are declared by its ancestors
+        for (int i = 1; i <= namespaceDepth; i++) {
+            out.write("<" + getPrefix(i) + ":group xmlns:" + getPrefix(i)
+                    + "=\"" + NAMESPACE_PREFIX + i + "\">\n");
+        }
+        for (int i = 0; i < records; i++) {
+            writeRecord(out, i, false);
+        }
+        for (int i = namespaceDepth; i > 0; i--) {
+            out.write("</" + getPrefix(i) + ":group>\n");
+        }
+        out.write("</root>\n");
+        out.flush();
+    }
+
+    /**
+     * Write a label line, then one line per record.
+     * 
+     * @param _out
+     * @throws IOException
+     */
+    public void writeDelimited(OutputStream _out) throws IOException {
+        random = new Random(seed);
+        Writer out = newWriter(_out);
+        out.write("id");
+        for (int i = 1; i < fields; i++) {
+            out.write(fieldDelimiter + "field" + i);
+        }
+        out.write("\n");
+        // spread the mean record size across the fields
+        int fieldBytes = Math.max(1, recordBytes / fields);
+        for (int i = 0; i < records; i++) {
+            out.write(Integer.toString(i));
+            for (int j = 1; j < fields; j++) {
+                out.write(fieldDelimiter);
+                writeText(out, nextSize(fieldBytes), false);
+            }
+            out.write("\n");
+        }
+        out.flush();
+    }
+
+    /**
+     * @param _dir
+     * @throws IOException
+     */
+    private void writeFiles(File _dir) throws IOException {
+        File dir = null;
+        for (int i = 0; i < records; i++) {
+            if (null == dir || 0 == i % filesPerDirectory) {
+                dir = new File(_dir, getDirectoryName(i));
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("cannot create " + dir);
+                }
+            }
+            OutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(new File(dir, getFileName(i))));
+            try {
+                writeDocument(out, i);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @param _out
+     * @throws IOException
+     */
+    private void writeZip(OutputStream _out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(_out);
+        for (int i = 0; i < records; i++) {
+            ZipEntry entry = new ZipEntry(getDirectoryName(i) + "/"
+                    + getFileName(i));
+            entry.setTime(ZIP_TIME);
+            zip.putNextEntry(entry);
+            writeDocument(zip, i);
+            zip.closeEntry();
+        }
+        zip.finish();
+    }
+
+    /**
+     * @param _out
+     * @param _index
+     * @throws IOException
+     */
+    private void writeDocument(OutputStream _out, int _index)
+            throws IOException {
+        Writer out = newWriter(_out);
+        out.write("<?xml version=\"1.0\" encoding=\"" + ENCODING
+                + "\"?>\n");
+        writeRecord(out, _index, true);
+        out.flush();
+    }
+
+    /**
+     * @param _out
+     * @param _index
+     * @param _isDocument
+     *            true if the record must declare its own namespaces
+     * @throws IOException
+     */
+    private void writeRecord(Writer _out, int _index, boolean _isDocument)
+            throws IOException {
+        String name = (1 > namespaceDepth) ? RECORD_NAME
+                : (getPrefix(namespaceDepth) + ":" + RECORD_NAME);
+        _out.write("<" + name);
+        if (_isDocument) {
+            for (int i = 1; i <= namespaceDepth; i++) {
+                _out.write(" xmlns:" + getPrefix(i) + "=\""
+                        + NAMESPACE_PREFIX + i + "\"");
+            }
+        }
+        if (!isIdElement) {
+            _out.write(" id=\"" + _index + "\"");
+        }
+        _out.write(">");
+        if (isIdElement) {
+            _out.write("<id>" + _index + "</id>");
+        }
+        // one child per namespace in scope, so the producer must copy them
+        for (int i = 1; i < namespaceDepth; i++) {
+            _out.write("<" + getPrefix(i) + ":level>" + i + "</"
+                    + getPrefix(i) + ":level>");
+        }
+        _out.write("<title>record " + _index + "</title><body>");
+        writeText(_out, nextSize(recordBytes), true);
+        _out.write("</body></" + name + ">\n");
+    }
+
+    /**
+     * @param _out
+     * @param _length
+     *            in characters, approximately
+     * @param _isXml
+     * @throws IOException
+     */
+    private void writeText(Writer _out, int _length, boolean _isXml)
+            throws IOException {
+        writeText(_out, random, _length, _isXml);
+    }
+
+    /**
+     * @param _out
+     * @param _random
+     * @param _length
+     *            in characters, approximately
+     * @param _isXml
+     *            true to escape markup characters
+     * @throws IOException
+     */
+    public static void writeText(Writer _out, Random _random, int _length,
+            boolean _isXml) throws IOException {
+        int written = 0;
+        String word;
+        while (written < _length) {
+            if (written > 0) {
+                _out.write(' ');
+                written++;
+            }
+            word = WORDS[_random.nextInt(WORDS.length)];
+            _out.write(_isXml ? Utilities.escapeXml(word) : word);
+            written += word.length();
+        }
+    }
+
+    /**
+     * @param _mean
+     * @return the next size, from the configured distribution
+     */
+    private int nextSize(int _mean) {
+        if (RECORD_DISTRIBUTION_UNIFORM.equals(distribution)) {
+            return (int) (_mean * (0.5 + random.nextDouble()));
+        }
+        if (RECORD_DISTRIBUTION_EXPONENTIAL.equals(distribution)) {
+            // cap the tail, so that one record cannot dominate the run
+            return (int) Math.min(64.0 * _mean, -_mean
+                    * Math.log(1.0 - random.nextDouble()));
+        }
+        return _mean;
+    }
+
+    /**
+     * @param _index
+     * @return
+     */
+    private String getDirectoryName(int _index) {
+        return String.format("%06d", Integer.valueOf(_index
+                / filesPerDirectory));
+    }
+
+    /**
+     * @param _index
+     * @return
+     */
+    private String getFileName(int _index) {
+        return _index + ".xml";
+    }
+
+    /**
+     * @param _level
+     * @return
+     */
+    private String getPrefix(int _level) {
+        return "n" + _level;
+    }
+
+    /**
+     * @param _out
+     * @return
+     * @throws IOException
+     */
+    private Writer newWriter(OutputStream _out) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(_out, ENCODING));
+    }
+
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        Properties properties = new Properties();
+        properties.putAll(System.getProperties());
+        String output = null;
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].endsWith(".properties")) {
+                output = args[i];
+                continue;
+            }
+            FileInputStream in = new FileInputStream(args[i]);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        if (null == output) {
+            output = properties.getProperty(OUTPUT_KEY);
+        }
+        if (null == output) {
+            throw new FatalException("missing required property: "
+                    + OUTPUT_KEY);
+        }
+
+        CorpusGenerator generator = new CorpusGenerator(properties);
+        File file = new File(output);
+        long start = System.currentTimeMillis();
+        generator.generate(file);
+        logger.info("wrote " + generator.records + " record(s) to "
+                + file.getCanonicalPath() + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        if (FORMAT_DELIMITED.equals(generator.format)) {
+            logger.info("load with " + Configuration.ID_NAME_KEY + "=id");
+            return;
+        }
+        logger.info("load with " + Configuration.RECORD_NAME_KEY + "="
+                + RECORD_NAME + " " + Configuration.RECORD_NAMESPACE_KEY
+                + "=" + generator.getRecordNamespace() + " "
+                + Configuration.ID_NAME_KEY + "="
+                + generator.getIdName());
+    }
+
+}
@@ -49,6 +49,10 @@ public class DefaultInputHandler extends AbstractInputHandler {
 
     private long sizeLimit;
 
+    private long splitSize;
+
+    private int checkpointedCount = 0;
+
     /*
      * (non-Javadoc)
      * 
@@ -56,6 +60,7 @@ public class DefaultInputHandler extends AbstractInputHandler {
      */
     public void run() throws LoaderException, FatalException {
         sizeLimit = config.getFileSizeLimit();
+        splitSize = getSplitSize();
 
         configureInputs();
 
@@ -77,6 +82,10 @@ public class DefaultInputHandler extends AbstractInputHandler {
                 if (config.isFirstLoop()) {
                     logger.info("queued " + inputCount + " loader(s)");
                 }
+                if (checkpointedCount > 0) {
+                    logger.info("skipped " + checkpointedCount
+                            + " completed input(s)");
+                }
             } catch (ZipException e) {
                 throw new LoaderException(e);
             } catch (IOException e) {
@@ -166,6 +175,10 @@ public class DefaultInputHandler extends AbstractInputHandler {
                 continue;
             }
 
+            if (isCheckpointed(canonicalPath)) {
+                continue;
+            }
+
             // check size
             if (0 < sizeLimit && file.length() > sizeLimit) {
                 logger.info("skipping " + canonicalPath
@@ -173,11 +186,74 @@ public class DefaultInputHandler extends AbstractInputHandler {
                 continue;
             }
 
+            // large plain file - split it, if possible
+            if (0 < splitSize && file.length() > splitSize
+                    && handleSplitFile(file, canonicalPath)) {
+                continue;
+            }
+
             // plain file - add to the queue
             submit(canonicalPath, factory.newLoader(file));
         }
     }
 
+    /**
+     * @param _file
+     * @param _canonicalPath
+     * @return false if the file could not be split
+     * @throws IOException
+     * @throws LoaderException
+     */
+    private boolean handleSplitFile(File _file, String _canonicalPath)
+            throws IOException, LoaderException {
+        FileSplitter splitter = new FileSplitter(config, _file, splitSize);
+        if (!splitter.split()) {
+            logger.info("loading " + _canonicalPath + " without splitting");
+            return false;
+        }
+        String name = _file.getName();
+        String path = _file.getPath();
+        int count = splitter.getRangeCount();
+        String key;
+        for (int i = 0; i < count; i++) {
+            // ranges depend on the split size
+            key = _canonicalPath + "#" + i + "@" + splitSize;
+            if (isCheckpointed(key)) {
+                continue;
+            }
+            submit(key, factory.newLoader(splitter.getRange(i), name, path));
+        }
+        return true;
+    }
+
+    /**
+     * @return the split size, or zero if splitting is not possible
+     */
+    private long getSplitSize() {
+        long size = config.getInputSplitSize();
+        if (1 > size) {
+            return 0;
+        }
+        String reason = null;
+        if (config.isUseFilenameIds()) {
+            reason = Configuration.ID_NAME_KEY + "="
+                    + Configuration.ID_NAME_FILENAME;
+        } else if (config.isUseDocumentRoot()) {
+            reason = Configuration.RECORD_NAME_KEY + "="
+                    + Configuration.RECORD_NAME_DOCUMENT_ROOT;
+        } else if (null != config.getStartId()) {
+            reason = Configuration.START_ID_KEY;
+        } else if (config.isDeleteInputFile()) {
+            reason = Configuration.DELETE_INPUT_FILES_KEY;
+        }
+        if (null != reason) {
+            logger.warning("ignoring " + Configuration.INPUT_SPLIT_SIZE_KEY
+                    + " because of " + reason);
+            return 0;
+        }
+        return size;
+    }
+
     /**
      * @throws IOException
      * @throws LoaderException
@@ -203,24 +279,61 @@ public class DefaultInputHandler extends AbstractInputHandler {
                     continue;
                 }
 
+                if (isCheckpointed(file.getCanonicalPath())) {
+                    continue;
+                }
                 path = file.getPath();
-                submit(path, factory.newLoader(new GZIPInputStream(
-                        new FileInputStream(file)), name, path));
+                submit(file.getCanonicalPath(), factory.newLoader(
+                        new GZIPInputStream(new FileInputStream(file)),
+                        name, path));
             }
         }
     }
 
-    private void submit(String _path, LoaderInterface _loader) {
+    /**
+     * @param _key
+     *            identifies the input in the checkpoint journal
+     * @param _loader
+     */
+    private void submit(String _key, LoaderInterface _loader) {
+        CheckpointJournal journal = monitor.getCheckpointJournal();
+        if (null != journal) {
+            _loader.setCheckpoint(journal.open(_key));
+        }
+        queue(_key, _loader);
+    }
+
+    /**
+     * @param _path
+     * @param _loader
+     */
+    private void queue(String _path, LoaderInterface _loader) {
         pool.submit(_loader);
         inputCount++;
         logger.fine("queued " + inputCount + ": " + _path);
     }
 
+    /**
+     * @param _key
+     * @return true if the checkpoint journal says that an earlier run
+     *         finished this input
+     */
+    private boolean isCheckpointed(String _key) {
+        CheckpointJournal journal = monitor.getCheckpointJournal();
+        if (null == journal || !journal.isComplete(_key)) {
+            return false;
+        }
+        logger.fine("skipping completed input " + _key);
+        checkpointedCount++;
+        return true;
+    }
+
     private void handleStandardInput() throws LoaderException,
             SecurityException {
         // use standard input
         logger.info("Reading from standard input...");
-        submit("standard input", factory.newLoader(System.in));
+        // standard input cannot be resumed
+        queue("standard input", factory.newLoader(System.in));
     }
 
     /**
@@ -302,11 +415,15 @@ public class DefaultInputHandler extends AbstractInputHandler {
                     continue;
                 }
 
+                if (isCheckpointed(canonicalPath + "/" + entryName)) {
+                    continue;
+                }
+
                 // to avoid closing zip inputs randomly,
                 // we have to "leak" them temporarily
                 // via reference counts.
                 zipFile.addReference();
-                submit(zipFileName + "/" + entryName, factory.newLoader(
+                submit(canonicalPath + "/" + entryName, factory.newLoader(
                         zipFile.getInputStream(ze), zipFileName,
                         entryName));
                 count++;
@@ -19,6 +19,7 @@
 package com.marklogic.recordloader;
 
 import com.marklogic.ps.Utilities;
+import com.marklogic.ps.timing.TimedEvent;
 
 /**
  * @author Michael Blakeley, michael.blakeley@marklogic.com
@@ -49,10 +50,12 @@ public class FileLoader extends AbstractLoader {
 
                 if (config.isInputStreaming()) {
                     content.setInputStream(input);
+                    event.endStage(TimedEvent.STAGE_READ);
                 } else {
                     // grab the entire document, as bytes to support binaries
                     // do not pass the stream directly, so that content can retry
                     byte[] bytes = Utilities.read(input);
+                    event.endStage(TimedEvent.STAGE_READ);
                     if (null == bytes) {
                         throw new LoaderException("null document: "
                                                   + currentRecordPath);
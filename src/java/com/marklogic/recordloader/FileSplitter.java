@@ -0,0 +1,792 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.marklogic.ps.SimpleLogger;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         Splits a large XML file into byte ranges that can be loaded in
+ *         parallel. Every range after the first starts at a record start
+ *         tag, and is wrapped in copies of that record's ancestor start and
+ *         end tags, so that each range is a well-formed document with the
+ *         same namespace context as the original. Records need not all
+ *         share a parent: the ancestors of each range are found by one
+ *         sequential pass over the file, before any range is loaded.
+ *
+ *         A range boundary is only placed where a record end tag is followed
+ *         by a record start tag, with nothing but whitespace between them,
+ *         outside of any comment, CDATA section, or processing instruction.
+ *         Internal DTD subsets are not copied into the later ranges.
+ */
+public class FileSplitter {
+
+    protected static final int WINDOW_SIZE = 64 * 1024;
+
+    private static final byte[] END_TAG_START = "</".getBytes();
+
+    private static final byte[] LT = "<".getBytes();
+
+    private static final byte[][] MARKUP_START = new byte[][] {
+            "<!--".getBytes(), "<![CDATA[".getBytes(), "<?".getBytes() };
+
+    private static final byte[][] MARKUP_END = new byte[][] {
+            "-->".getBytes(), "]]>".getBytes(), "?>".getBytes() };
+
+    protected SimpleLogger logger;
+
+    private Configuration config;
+
+    private File file;
+
+    private long splitSize;
+
+    private long length;
+
+    private Charset charset;
+
+    // ancestor start and end tags for each range after the first
+    private ArrayList<byte[]> startTags = new ArrayList<byte[]>();
+
+    private ArrayList<byte[]> endTags = new ArrayList<byte[]>();
+
+    private byte[] endTagPattern;
+
+    private byte[] startTagPattern;
+
+    private ArrayList<Long> boundaries = new ArrayList<Long>();
+
+    private byte[] window = new byte[WINDOW_SIZE];
+
+    /**
+     * @param _config
+     * @param _file
+     * @param _splitSize
+     */
+    public FileSplitter(Configuration _config, File _file, long _splitSize) {
+        config = _config;
+        file = _file;
+        splitSize = _splitSize;
+        logger = config.getLogger();
+        length = file.length();
+        charset = Charset.forName(config.getInputEncoding());
+    }
+
+    /**
+     * Find the range boundaries.
+     *
+     * @return false if the file cannot be split
+     * @throws IOException
+     */
+    public boolean split() throws IOException {
+        if (!RecordScanner.isAsciiCompatible(charset)) {
+            logger.warning("cannot split " + charset.name() + " input");
+            return false;
+        }
+
+        // find the first record and its ancestors
+        long firstOffset;
+        InputStream in = new FileInputStream(file);
+        try {
+            RecordScanner scanner = new RecordScanner(config, in, charset);
+            if (!scanner.nextRecord()) {
+                logger.warning("no records found in " + file.getPath());
+                return false;
+            }
+            firstOffset = scanner.getRecordOffset();
+            byte[] name = scanner.getRecordTagName();
+            endTagPattern = concat(END_TAG_START, name);
+            startTagPattern = concat(LT, name);
+        } catch (LoaderException e) {
+            logger.logException("cannot split " + file.getPath(), e);
+            return false;
+        } finally {
+            in.close();
+        }
+
+        // the first range starts with the prolog
+        boundaries.add(0L);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long target = firstOffset + splitSize;
+            long boundary;
+            while (target < length) {
+                boundary = findBoundary(raf, target);
+                if (boundary < 0) {
+                    break;
+                }
+                boundaries.add(boundary);
+                target = boundary + splitSize;
+            }
+        } finally {
+            raf.close();
+        }
+        if (boundaries.size() < 2) {
+            return false;
+        }
+        if (!findAncestors()) {
+            return false;
+        }
+        logger.info("split " + file.getPath() + " into "
+                + boundaries.size() + " ranges");
+        return true;
+    }
+
+    /**
+     * Read the whole file, tracking open elements, and keep the ancestors
+     * of the record that starts each range. A file whose records sit under
+     * different parents gets different wrappers for different ranges.
+     *
+     * @return false if the markup could not be followed
+     * @throws IOException
+     */
+    private boolean findAncestors() throws IOException {
+        // offsets and lengths of the open start tags
+        long[] tagStarts = new long[16];
+        int[] tagLengths = new int[16];
+        int depth = 0;
+        int next = 1;
+        long lt;
+        int b;
+        TagReader reader = new TagReader(new FileInputStream(file));
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            while (next < boundaries.size()) {
+                lt = reader.skipTo('<');
+                if (lt < 0 || lt > boundaries.get(next)) {
+                    logger.warning("lost track of the markup in "
+                            + file.getPath() + " before "
+                            + boundaries.get(next));
+                    return false;
+                }
+                if (lt == boundaries.get(next)) {
+                    addAncestors(raf, tagStarts, tagLengths, depth);
+                    next++;
+                }
+                b = reader.read();
+                if ('?' == b) {
+                    reader.skipPast(MARKUP_END[2]);
+                } else if ('!' == b) {
+                    reader.skipDeclaration();
+                } else if ('/' == b) {
+                    reader.skipTag();
+                    if (0 == depth) {
+                        logger.warning("unbalanced end tag in "
+                                + file.getPath() + " at " + lt);
+                        return false;
+                    }
+                    depth--;
+                } else if (!reader.skipTag()) {
+                    // not an empty-element tag
+                    if (depth == tagStarts.length) {
+                        tagStarts = Arrays.copyOf(tagStarts, 2 * depth);
+                        tagLengths = Arrays.copyOf(tagLengths, 2 * depth);
+                    }
+                    tagStarts[depth] = lt;
+                    tagLengths[depth] = (int) (reader.getOffset() - lt);
+                    depth++;
+                }
+            }
+        } finally {
+            reader.close();
+            raf.close();
+        }
+        return true;
+    }
+
+    /**
+     * @param _raf
+     * @param _tagStarts
+     * @param _tagLengths
+     * @param _depth
+     * @throws IOException
+     */
+    private void addAncestors(RandomAccessFile _raf, long[] _tagStarts,
+            int[] _tagLengths, int _depth) throws IOException {
+        ByteArrayOutputStream start = new ByteArrayOutputStream();
+        ByteArrayOutputStream end = new ByteArrayOutputStream();
+        byte[] tag;
+        int nameEnd;
+        for (int i = 0; i < _depth; i++) {
+            tag = new byte[_tagLengths[i]];
+            _raf.seek(_tagStarts[i]);
+            _raf.readFully(tag);
+            start.write(tag, 0, tag.length);
+        }
+        for (int i = _depth - 1; i > -1; i--) {
+            tag = new byte[_tagLengths[i]];
+            _raf.seek(_tagStarts[i]);
+            _raf.readFully(tag);
+            nameEnd = 1;
+            while (nameEnd < tag.length && !isNameEnd(tag[nameEnd])) {
+                nameEnd++;
+            }
+            end.write(END_TAG_START, 0, END_TAG_START.length);
+            end.write(tag, 1, nameEnd - 1);
+            end.write('>');
+        }
+        startTags.add(start.toByteArray());
+        endTags.add(end.toByteArray());
+    }
+
+    /**
+     * @param _b
+     * @return true if the byte ends a tag name
+     */
+    private static boolean isNameEnd(byte _b) {
+        return ' ' == _b || '\t' == _b || '\r' == _b || '\n' == _b
+                || '>' == _b || '/' == _b;
+    }
+
+    /**
+     * @param _raf
+     * @param _from
+     * @return the offset of the next record start tag that follows a record
+     *         end tag, or -1 if there is none
+     * @throws IOException
+     */
+    private long findBoundary(RandomAccessFile _raf, long _from)
+            throws IOException {
+        long windowStart = synchronize(_raf, _from);
+        int windowLength;
+        int i;
+        int lt;
+        int match;
+        while (windowStart < length) {
+            windowLength = readWindow(_raf, windowStart);
+            boolean isEof = windowStart + windowLength >= length;
+            i = 0;
+            while (true) {
+                lt = indexOf(LT, windowLength, i);
+                if (lt < 0) {
+                    if (isEof) {
+                        return -1;
+                    }
+                    windowStart += windowLength;
+                    break;
+                }
+                // skip anything that might contain a false match
+                match = skipMarkup(windowLength, lt);
+                if (0 == match) {
+                    match = matchBoundary(windowLength, lt);
+                    if (match > 0) {
+                        return windowStart + match;
+                    }
+                }
+                if (match > 0) {
+                    i = match;
+                    continue;
+                }
+                if (-1 == match) {
+                    i = lt + 1;
+                    continue;
+                }
+                // ran out of window: start again from here
+                if (0 == lt || isEof) {
+                    // too large for the window, or truncated
+                    return -1;
+                }
+                windowStart += lt;
+                break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The split target may fall inside a comment, CDATA section, or
+     * processing instruction. If so, skip past its end.
+     *
+     * @param _raf
+     * @param _from
+     * @return
+     * @throws IOException
+     */
+    private long synchronize(RandomAccessFile _raf, long _from)
+            throws IOException {
+        long from = _from;
+        boolean changed = true;
+        int windowLength;
+        int open;
+        int close;
+        while (changed && from < length) {
+            changed = false;
+            windowLength = readWindow(_raf, from);
+            for (int i = 0; i < MARKUP_START.length; i++) {
+                close = indexOf(MARKUP_END[i], windowLength, 0);
+                open = indexOf(MARKUP_START[i], windowLength, 0);
+                if (close > -1 && (open < 0 || close < open)) {
+                    from += close + MARKUP_END[i].length;
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return from;
+    }
+
+    /**
+     * @param _windowLength
+     * @param _lt
+     * @return the offset after a comment, CDATA section, or processing
+     *         instruction at _lt; 0 if there is none; or -2 if the window
+     *         ends too soon
+     */
+    private int skipMarkup(int _windowLength, int _lt) {
+        for (int i = 0; i < MARKUP_START.length; i++) {
+            if (_lt + MARKUP_START[i].length > _windowLength) {
+                return -2;
+            }
+            if (!regionMatches(MARKUP_START[i], _lt)) {
+                continue;
+            }
+            int end = indexOf(MARKUP_END[i], _windowLength, _lt
+                    + MARKUP_START[i].length);
+            return (end < 0) ? -2 : end + MARKUP_END[i].length;
+        }
+        return 0;
+    }
+
+    /**
+     * @param _raf
+     * @param _windowStart
+     * @return
+     * @throws IOException
+     */
+    private int readWindow(RandomAccessFile _raf, long _windowStart)
+            throws IOException {
+        int windowLength = (int) Math.min(window.length, length
+                - _windowStart);
+        _raf.seek(_windowStart);
+        _raf.readFully(window, 0, windowLength);
+        return windowLength;
+    }
+
+    /**
+     * @param _windowLength
+     * @param _i
+     *            offset of a tag
+     * @return the offset of the following record start tag, if _i is a
+     *         record end tag; -2 if the window ends too soon; otherwise -1
+     */
+    private int matchBoundary(int _windowLength, int _i) {
+        if (_i + endTagPattern.length > _windowLength) {
+            return -2;
+        }
+        if (!regionMatches(endTagPattern, _i)) {
+            return -1;
+        }
+        int j = skipWhitespace(_i + endTagPattern.length, _windowLength);
+        if (j >= _windowLength) {
+            return -2;
+        }
+        if ('>' != window[j]) {
+            return -1;
+        }
+        j = skipWhitespace(j + 1, _windowLength);
+        if (j + startTagPattern.length >= _windowLength) {
+            return -2;
+        }
+        if (!regionMatches(startTagPattern, j)) {
+            return -1;
+        }
+        byte b = window[j + startTagPattern.length];
+        if (' ' == b || '\t' == b || '\r' == b || '\n' == b || '>' == b
+                || '/' == b) {
+            return j;
+        }
+        return -1;
+    }
+
+    /**
+     * @param _pattern
+     * @param _offset
+     * @return
+     */
+    private boolean regionMatches(byte[] _pattern, int _offset) {
+        for (int k = 0; k < _pattern.length; k++) {
+            if (_pattern[k] != window[_offset + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param _pattern
+     * @param _limit
+     * @param _from
+     * @return
+     */
+    private int indexOf(byte[] _pattern, int _limit, int _from) {
+        int last = _limit - _pattern.length;
+        outer: for (int i = _from; i <= last; i++) {
+            for (int k = 0; k < _pattern.length; k++) {
+                if (_pattern[k] != window[i + k]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param _from
+     * @param _limit
+     * @return
+     */
+    private int skipWhitespace(int _from, int _limit) {
+        int i = _from;
+        byte b;
+        while (i < _limit) {
+            b = window[i];
+            if (' ' != b && '\t' != b && '\r' != b && '\n' != b) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @param _a
+     * @param _b
+     * @return
+     */
+    private static byte[] concat(byte[] _a, byte[] _b) {
+        byte[] c = new byte[_a.length + _b.length];
+        System.arraycopy(_a, 0, c, 0, _a.length);
+        System.arraycopy(_b, 0, c, _a.length, _b.length);
+        return c;
+    }
+
+    /**
+     * @return
+     */
+    public int getRangeCount() {
+        return boundaries.size();
+    }
+
+    /**
+     * The file is not opened until the first read.
+     *
+     * @param _index
+     * @return a well-formed document for the range
+     */
+    public InputStream getRange(int _index) {
+        long start = boundaries.get(_index);
+        boolean isLast = (_index == boundaries.size() - 1);
+        long end = isLast ? length : boundaries.get(_index + 1);
+        InputStream in = new FileRangeInputStream(file, start, end - start);
+        if (_index > 0) {
+            in = new SequenceInputStream(new ByteArrayInputStream(startTags
+                    .get(_index - 1)), in);
+        }
+        if (!isLast) {
+            // the next range starts under the same ancestors
+            in = new SequenceInputStream(in, new ByteArrayInputStream(
+                    endTags.get(_index)));
+        }
+        return in;
+    }
+
+    /**
+     * Reads a file sequentially, skipping over markup that cannot hold
+     * elements. Tags are not parsed, beyond finding where they end.
+     */
+    protected static class TagReader {
+
+        private InputStream in;
+
+        private byte[] buf = new byte[WINDOW_SIZE];
+
+        private int pos = 0;
+
+        private int limit = 0;
+
+        // file offset of buf[0]
+        private long offset = 0;
+
+        /**
+         * @param _in
+         */
+        public TagReader(InputStream _in) {
+            in = _in;
+        }
+
+        /**
+         * @return the next byte, or -1 at the end of the file
+         * @throws IOException
+         */
+        public int read() throws IOException {
+            if (pos >= limit && !fill()) {
+                return -1;
+            }
+            return buf[pos++] & 0xff;
+        }
+
+        /**
+         * @return the file offset of the next byte
+         */
+        public long getOffset() {
+            return offset + pos;
+        }
+
+        /**
+         * @return false at the end of the file
+         * @throws IOException
+         */
+        private boolean fill() throws IOException {
+            offset += limit;
+            pos = 0;
+            limit = 0;
+            int count;
+            while (0 == limit) {
+                count = in.read(buf);
+                if (count < 0) {
+                    return false;
+                }
+                limit = count;
+            }
+            return true;
+        }
+
+        /**
+         * @param _b
+         * @return the offset of the byte, which has been read, or -1 if it
+         *         was not found
+         * @throws IOException
+         */
+        public long skipTo(int _b) throws IOException {
+            byte b = (byte) _b;
+            while (pos < limit || fill()) {
+                for (int i = pos; i < limit; i++) {
+                    if (b == buf[i]) {
+                        pos = i + 1;
+                        return offset + i;
+                    }
+                }
+                pos = limit;
+            }
+            return -1;
+        }
+
+        /**
+         * @param _pattern
+         *            three bytes or fewer
+         * @throws IOException
+         */
+        public void skipPast(byte[] _pattern) throws IOException {
+            // the last few bytes read, for comparison
+            byte[] last = new byte[_pattern.length];
+            int b;
+            while (-1 < (b = read())) {
+                System.arraycopy(last, 1, last, 0, last.length - 1);
+                last[last.length - 1] = (byte) b;
+                if (Arrays.equals(last, _pattern)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Skip a tag, after its name has started.
+         *
+         * @return true if this was an empty-element tag
+         * @throws IOException
+         */
+        public boolean skipTag() throws IOException {
+            int quote = 0;
+            int previous = 0;
+            int b;
+            while (-1 < (b = read())) {
+                if (0 != quote) {
+                    if (quote == b) {
+                        quote = 0;
+                    }
+                } else if ('"' == b || '\'' == b) {
+                    quote = b;
+                } else if ('>' == b) {
+                    return '/' == previous;
+                }
+                previous = b;
+            }
+            return false;
+        }
+
+        /**
+         * Skip a comment, CDATA section, or DOCTYPE declaration, after its
+         * "&lt;!".
+         *
+         * @throws IOException
+         */
+        public void skipDeclaration() throws IOException {
+            int b = read();
+            if ('-' == b) {
+                // a comment may contain anything
+                read();
+                skipPast(MARKUP_END[0]);
+                return;
+            }
+            if ('[' == b) {
+                skipPast(MARKUP_END[1]);
+                return;
+            }
+            // a DOCTYPE may hold an internal subset, in brackets
+            int quote = 0;
+            int brackets = 0;
+            while (-1 < b) {
+                if (0 != quote) {
+                    if (quote == b) {
+                        quote = 0;
+                    }
+                } else if ('"' == b || '\'' == b) {
+                    quote = b;
+                } else if ('[' == b) {
+                    brackets++;
+                } else if (']' == b) {
+                    brackets--;
+                } else if ('>' == b && brackets < 1) {
+                    return;
+                }
+                b = read();
+            }
+        }
+
+        /**
+         * @throws IOException
+         */
+        public void close() throws IOException {
+            in.close();
+        }
+
+    }
+
+    /**
+     * Reads a byte range from a file, opening it lazily to limit the number
+     * of open file descriptors.
+     */
+    protected static class FileRangeInputStream extends InputStream {
+
+        private File file;
+
+        private long start;
+
+        private long remaining;
+
+        private InputStream in;
+
+        /**
+         * @param _file
+         * @param _start
+         * @param _length
+         */
+        public FileRangeInputStream(File _file, long _start, long _length) {
+            file = _file;
+            start = _start;
+            remaining = _length;
+        }
+
+        /**
+         * @throws IOException
+         */
+        private void open() throws IOException {
+            if (null != in) {
+                return;
+            }
+            in = new FileInputStream(file);
+            long skip = start;
+            long len;
+            while (skip > 0) {
+                len = in.skip(skip);
+                if (len < 1) {
+                    throw new IOException("cannot skip to " + start
+                            + " in " + file.getPath());
+                }
+                skip -= len;
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+            if (remaining < 1) {
+                return -1;
+            }
+            open();
+            int b = in.read();
+            if (b > -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] _b, int _off, int _len) throws IOException {
+            if (remaining < 1) {
+                return -1;
+            }
+            open();
+            int len = in.read(_b, _off, (int) Math.min(_len, remaining));
+            if (len > 0) {
+                remaining -= len;
+            }
+            return len;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#close()
+         */
+        @Override
+        public void close() throws IOException {
+            if (null != in) {
+                in.close();
+                in = null;
+            }
+            remaining = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,442 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.marklogic.ps.SimpleLogger;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         Chooses a connection string for each request. Each host keeps a
+ *         moving average of its latency and error rate, and traffic is
+ *         weighted toward hosts that are fast, healthy, and not already
+ *         busy. A host that fails several times in a row is ejected for a
+ *         while, and must pass a probe before it gets traffic again.
+ *         Probes run on a background thread, so that {@link #select()}
+ *         never waits on the network.
+ *
+ *         Only host errors (connection failures) count against a host.
+ *         Document errors say nothing about the host.
+ */
+public class HostBalancer {
+
+    /**
+     * Weight of the newest sample in the moving averages.
+     */
+    protected static final double ALPHA = 0.2;
+
+    /**
+     * Repeated ejections back off, up to this many doublings.
+     */
+    protected static final int MAX_BACKOFF = 5;
+
+    /**
+     * How often the background thread looks for hosts to probe.
+     */
+    protected static final long PROBE_MILLIS = 1000;
+
+    /**
+     * Per-host statistics and state.
+     */
+    public class Host {
+
+        private URI uri;
+
+        private String name;
+
+        // moving averages: -1 means no samples yet
+        private double latencyMillis = -1;
+
+        private double errorRate = 0;
+
+        private int inFlight = 0;
+
+        private long requests = 0;
+
+        private long errors = 0;
+
+        private int consecutiveErrors = 0;
+
+        private long ejections = 0;
+
+        private int backoff = 0;
+
+        // zero when the host is in service
+        private long ejectedUntil = 0;
+
+        private boolean probing = false;
+
+        Host(URI _uri) {
+            uri = _uri;
+            name = _uri.getHost() + ":" + _uri.getPort();
+        }
+
+        /**
+         * @return
+         */
+        public URI getUri() {
+            return uri;
+        }
+
+        /**
+         * @return host:port, without credentials
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Call this as a request starts.
+         *
+         * @return a start time, for {@link #finish(long, boolean)}
+         */
+        public long start() {
+            synchronized (this) {
+                inFlight++;
+            }
+            return System.nanoTime();
+        }
+
+        /**
+         * Call this as a request ends.
+         *
+         * @param _start
+         *            from {@link #start()}
+         * @param _isHostError
+         *            true if the request failed because of the host
+         */
+        public void finish(long _start, boolean _isHostError) {
+            double millis = (System.nanoTime() - _start) / 1000000.0;
+            boolean eject = false;
+            long seconds = 0;
+            synchronized (this) {
+                inFlight = Math.max(0, inFlight - 1);
+                requests++;
+                errorRate += ALPHA * ((_isHostError ? 1 : 0) - errorRate);
+                if (!_isHostError) {
+                    latencyMillis = (latencyMillis < 0) ? millis
+                            : latencyMillis + ALPHA
+                                    * (millis - latencyMillis);
+                    consecutiveErrors = 0;
+                    backoff = 0;
+                    return;
+                }
+                errors++;
+                consecutiveErrors++;
+                if (0 == ejectedUntil && consecutiveErrors >= ejectErrors) {
+                    seconds = eject();
+                    eject = true;
+                }
+            }
+            if (eject) {
+                logger.warning("ejecting " + name + " for " + seconds
+                        + " s, after " + ejectErrors + " error(s)");
+            }
+        }
+
+        /**
+         * @return the ejection time, in seconds
+         */
+        private synchronized long eject() {
+            long seconds = ejectSeconds << backoff;
+            backoff = Math.min(MAX_BACKOFF, backoff + 1);
+            ejectedUntil = System.currentTimeMillis() + 1000 * seconds;
+            ejections++;
+            consecutiveErrors = 0;
+            return seconds;
+        }
+
+        /**
+         * @param _now
+         * @return true if the caller should probe the host
+         */
+        synchronized boolean tryProbe(long _now) {
+            if (0 == ejectedUntil || probing || _now < ejectedUntil) {
+                return false;
+            }
+            probing = true;
+            return true;
+        }
+
+        /**
+         *
+         */
+        void probe() {
+            boolean ok = false;
+            try {
+                ok = config.probeHost(uri);
+            } catch (Throwable t) {
+                logger.logException("probing " + name, t);
+            }
+            long seconds = 0;
+            synchronized (this) {
+                probing = false;
+                if (ok) {
+                    ejectedUntil = 0;
+                    consecutiveErrors = 0;
+                    // give it a clean slate, except for the backoff
+                    errorRate = 0;
+                } else {
+                    seconds = eject();
+                }
+            }
+            if (ok) {
+                logger.info("readmitting " + name);
+            } else {
+                logger.warning("probe failed: ejecting " + name + " for "
+                        + seconds + " s");
+            }
+        }
+
+        /**
+         * @param _defaultLatency
+         *            for hosts without samples
+         * @return
+         */
+        synchronized double getWeight(double _defaultLatency) {
+            double latency = (latencyMillis < 0) ? _defaultLatency
+                    : latencyMillis;
+            return Math.max(0.01, 1 - errorRate)
+                    / (Math.max(0.1, latency) * (1 + inFlight));
+        }
+
+        /**
+         * @return the moving average latency, or -1
+         */
+        public synchronized double getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        /**
+         * @return the moving average host error rate, from 0 to 1
+         */
+        public synchronized double getErrorRate() {
+            return errorRate;
+        }
+
+        /**
+         * @return
+         */
+        public synchronized int getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * @return
+         */
+        public synchronized long getRequestCount() {
+            return requests;
+        }
+
+        /**
+         * @return
+         */
+        public synchronized long getErrorCount() {
+            return errors;
+        }
+
+        /**
+         * @return
+         */
+        public synchronized long getEjectionCount() {
+            return ejections;
+        }
+
+        /**
+         * @return true if the host is ejected
+         */
+        public synchronized boolean isEjected() {
+            return 0 != ejectedUntil;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        public synchronized String toString() {
+            return name
+                    + ": "
+                    + requests
+                    + " request(s), "
+                    + errors
+                    + " error(s), "
+                    + (latencyMillis < 0 ? "-" : String.format("%.1f",
+                            latencyMillis)) + " ms, "
+                    + String.format("%.1f", 100 * errorRate) + "% errors, "
+                    + inFlight + " in flight"
+                    + (0 == ejectedUntil ? "" : ", ejected");
+        }
+    }
+
+    protected SimpleLogger logger;
+
+    protected Configuration config;
+
+    private Host[] hosts;
+
+    private int ejectErrors;
+
+    private long ejectSeconds;
+
+    private Random random = new Random();
+
+    private ScheduledExecutorService prober = null;
+
+    /**
+     * @param _config
+     */
+    public HostBalancer(Configuration _config) {
+        config = _config;
+        logger = config.getLogger();
+        ejectErrors = Math.max(1, config.getHostEjectErrors());
+        ejectSeconds = Math.max(1, config.getHostEjectSeconds());
+        URI[] uris = config.getConnectionStrings();
+        hosts = new Host[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            hosts[i] = new Host(uris[i]);
+        }
+        if (hosts.length > 1) {
+            startProber();
+        }
+    }
+
+    /**
+     *
+     */
+    private void startProber() {
+        ThreadFactory factory = new ThreadFactory() {
+            public Thread newThread(Runnable _r) {
+                Thread t = new Thread(_r, "host-probe");
+                // do not keep the VM alive after a halt
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        prober = Executors.newSingleThreadScheduledExecutor(factory);
+        prober.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                probeEjected();
+            }
+        }, PROBE_MILLIS, PROBE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Probe each ejected host whose time is up. This runs on the background
+     * thread, and may block for as long as the probes take.
+     */
+    public void probeEjected() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < hosts.length; i++) {
+            if (hosts[i].tryProbe(now)) {
+                // probe() logs its own errors, so the schedule survives
+                hosts[i].probe();
+            }
+        }
+    }
+
+    /**
+     * Stop probing ejected hosts.
+     */
+    public void shutdown() {
+        if (null != prober) {
+            prober.shutdownNow();
+        }
+    }
+
+    /**
+     * Ejected hosts get no traffic until the background probe readmits them.
+     *
+     * @return the host for the next request
+     */
+    public Host select() {
+        if (1 == hosts.length) {
+            return hosts[0];
+        }
+
+        // hosts without samples get the average latency
+        double latency = 0;
+        int sampled = 0;
+        double l;
+        for (int i = 0; i < hosts.length; i++) {
+            l = hosts[i].getLatencyMillis();
+            if (l >= 0) {
+                latency += l;
+                sampled++;
+            }
+        }
+        latency = (0 == sampled) ? 1 : latency / sampled;
+
+        double[] weights = new double[hosts.length];
+        double total = 0;
+        for (int i = 0; i < hosts.length; i++) {
+            if (!hosts[i].isEjected()) {
+                weights[i] = hosts[i].getWeight(latency);
+                total += weights[i];
+            }
+        }
+        if (0 == total) {
+            // everything is ejected: keep going, and let the errors show
+            return hosts[random.nextInt(hosts.length)];
+        }
+        double r = random.nextDouble() * total;
+        for (int i = 0; i < hosts.length; i++) {
+            r -= weights[i];
+            if (weights[i] > 0 && r <= 0) {
+                return hosts[i];
+            }
+        }
+        // rounding
+        for (int i = hosts.length - 1; i > -1; i--) {
+            if (weights[i] > 0) {
+                return hosts[i];
+            }
+        }
+        return hosts[0];
+    }
+
+    /**
+     * @return
+     */
+    public Host[] getHosts() {
+        return hosts;
+    }
+
+    /**
+     * @return one line per host
+     */
+    public String getStatusMessage() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < hosts.length; i++) {
+            if (i > 0) {
+                sb.append("; ");
+            }
+            sb.append(hosts[i].toString());
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,374 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.marklogic.ps.BloomFilter;
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.Utilities;
+import com.marklogic.ps.timing.TimedEvent;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         Accumulates content for a single multi-document insert, up to
+ *         BATCH_SIZE documents or BATCH_BYTES bytes. If the batch insert
+ *         fails, each document is retried on its own, so that every record
+ *         is reported to the monitor with its own outcome.
+ *
+ *         When existence checks are batched, the batch holds up to
+ *         EXISTING_BATCH_SIZE documents, checks them in one request, and
+ *         inserts the rest BATCH_SIZE at a time.
+ *
+ *         Each instance belongs to a single thread.
+ */
+public class InsertBatch {
+
+    protected SimpleLogger logger;
+
+    private Configuration config;
+
+    private Monitor monitor;
+
+    private InsertRetry retry;
+
+    private int maxSize;
+
+    // documents per insert request
+    private int insertSize;
+
+    private long maxBytes;
+
+    private long bytes = 0;
+
+    private ArrayList<ContentInterface> contents = new ArrayList<ContentInterface>();
+
+    private ArrayList<String> uris = new ArrayList<String>();
+
+    private ArrayList<TimedEvent> events = new ArrayList<TimedEvent>();
+
+    /**
+     * @param _config
+     * @param _monitor
+     */
+    public InsertBatch(Configuration _config, Monitor _monitor) {
+        config = _config;
+        monitor = _monitor;
+        logger = config.getLogger();
+        insertSize = Math.max(1, config.getBatchSize());
+        maxSize = config.isExistingBatching() ? Math.max(insertSize, config
+                .getExistingBatchSize()) : insertSize;
+        maxBytes = config.getBatchBytes();
+        retry = new InsertRetry(config);
+    }
+
+    /**
+     * The batch takes ownership of the content and the event: it will close
+     * the content, and report the event to the monitor.
+     *
+     * @param _content
+     * @param _uri
+     * @param _event
+     * @param _bytes
+     * @return true if the batch is full, and should be flushed
+     */
+    public boolean add(ContentInterface _content, String _uri,
+            TimedEvent _event, long _bytes) {
+        contents.add(_content);
+        uris.add(_uri);
+        events.add(_event);
+        bytes += _bytes;
+        return isFull();
+    }
+
+    /**
+     * @return
+     */
+    public boolean isFull() {
+        return contents.size() >= maxSize
+                || (maxBytes > 0 && bytes >= maxBytes);
+    }
+
+    /**
+     * @return
+     */
+    public boolean isEmpty() {
+        return contents.isEmpty();
+    }
+
+    /**
+     * @return
+     */
+    public int size() {
+        return contents.size();
+    }
+
+    /**
+     * Insert everything in the batch, and report each record to the
+     * monitor.
+     *
+     * @throws FatalException
+     *             if FATAL_ERRORS is set and any insert failed
+     */
+    public void flush() {
+        if (contents.isEmpty()) {
+            return;
+        }
+        try {
+            boolean[] isSkipped = checkExisting();
+            // group the indexes of batchable content by class and key
+            Map<List<Object>, ArrayList<Integer>> batches = new LinkedHashMap<List<Object>, ArrayList<Integer>>();
+            ArrayList<Integer> batch;
+            BatchContentInterface batchable;
+            List<Object> key;
+            ContentInterface content;
+            for (int i = 0; i < contents.size(); i++) {
+                if (isSkipped[i]) {
+                    continue;
+                }
+                content = contents.get(i);
+                if (!(content instanceof BatchContentInterface)
+                        || !((BatchContentInterface) content).isBatchable()) {
+                    // not batchable: insert by itself
+                    insert(i);
+                    continue;
+                }
+                batchable = (BatchContentInterface) content;
+                key = Arrays.asList(new Object[] { content.getClass(),
+                        batchable.getBatchKey() });
+                batch = batches.get(key);
+                if (null == batch) {
+                    batch = new ArrayList<Integer>();
+                    batches.put(key, batch);
+                }
+                batch.add(i);
+            }
+            List<Integer> chunk;
+            for (ArrayList<Integer> b : batches.values()) {
+                // existence checks may have gathered more than BATCH_SIZE
+                for (int i = 0; i < b.size(); i += insertSize) {
+                    chunk = b.subList(i, Math.min(b.size(), i + insertSize));
+                    if (chunk.size() > 1) {
+                        insertBatch(chunk);
+                    } else {
+                        insert(chunk.get(0));
+                    }
+                }
+            }
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * With SKIP_EXISTING or ERROR_EXISTING, loaders defer existence checks for
+     * batchable content to the batch, so that a single request can check
+     * every URI.
+     * 
+     * @return true for each document that must not be inserted
+     */
+    private boolean[] checkExisting() {
+        int size = contents.size();
+        boolean[] isSkipped = new boolean[size];
+        if (!config.isSkipExisting() && !config.isErrorExisting()) {
+            return isSkipped;
+        }
+        BloomFilter filter = config.getExistingUriFilter();
+        ArrayList<Integer> indexes = new ArrayList<Integer>();
+        BatchContentInterface checker = null;
+        for (int i = 0; i < size; i++) {
+            if (!(contents.get(i) instanceof BatchContentInterface)) {
+                // already checked by the loader
+                continue;
+            }
+            // the loader has already applied the filter
+            if (null == filter || filter.mightContain(uris.get(i))) {
+                indexes.add(i);
+                checker = (BatchContentInterface) contents.get(i);
+            }
+        }
+        if (null == checker) {
+            return isSkipped;
+        }
+
+        String[] checkUris = new String[indexes.size()];
+        for (int i = 0; i < checkUris.length; i++) {
+            checkUris[i] = uris.get(indexes.get(i));
+        }
+        boolean[] exists;
+        try {
+            long start = System.nanoTime();
+            exists = checker.checkDocumentUris(checkUris);
+            // each document waited for the whole request
+            addStage(indexes, TimedEvent.STAGE_EXISTS, System.nanoTime()
+                    - start);
+            monitor.addExistenceCheck(checkUris.length);
+        } catch (LoaderException e) {
+            // treat every document in the batch as a failure
+            logger.warning("error checking " + checkUris.length
+                    + " uri(s)");
+            logger.logException("exception", Utilities.getCause(e));
+            for (int i = 0; i < size; i++) {
+                events.get(i).stop(true);
+            }
+            Arrays.fill(isSkipped, true);
+            if (config.isFatalErrors()) {
+                throw new FatalException(e);
+            }
+            return isSkipped;
+        }
+
+        int index;
+        for (int i = 0; i < checkUris.length; i++) {
+            index = indexes.get(i);
+            if (!exists[i]) {
+                if (config.isSkipExistingUntilFirstMiss()
+                        && config.isSkipExisting()) {
+                    // from here on, insert everything
+                    monitor.resetSkipExisting(checkUris[i]);
+                    if (!config.isErrorExisting()) {
+                        break;
+                    }
+                }
+                continue;
+            }
+            if (config.isErrorExisting()) {
+                logger.warning("ERROR_EXISTING=true,"
+                        + " cannot overwrite existing document: "
+                        + checkUris[i]);
+                events.get(index).stop(true);
+                isSkipped[index] = true;
+                if (config.isFatalErrors()) {
+                    throw new FatalException(
+                            "ERROR_EXISTING=true, cannot overwrite existing document: "
+                                    + checkUris[i]);
+                }
+                continue;
+            }
+            if (!config.isSkipExisting()) {
+                // SKIP_EXISTING_UNTIL_FIRST_MISS has already been reset
+                continue;
+            }
+            monitor.incrementSkipped("existing uri " + checkUris[i]);
+            isSkipped[index] = true;
+        }
+        return isSkipped;
+    }
+
+    /**
+     * @param _indexes
+     *            of batchable content of the same class and key
+     */
+    private void insertBatch(List<Integer> _indexes) {
+        BatchContentInterface[] array = new BatchContentInterface[_indexes
+                .size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = (BatchContentInterface) contents.get(_indexes.get(i));
+        }
+        long start = System.nanoTime();
+        try {
+            logger.fine("inserting batch of " + array.length);
+            retry.insert(array);
+            addStage(_indexes, TimedEvent.STAGE_INSERT, System.nanoTime()
+                    - start);
+        } catch (LoaderException e) {
+            logger.warning("batch of " + array.length
+                    + " failed: retrying each document: " + e.getMessage());
+            logger.logException("batch insert", Utilities.getCause(e));
+            // fall back to single-document inserts
+            for (int i = 0; i < array.length; i++) {
+                insert(_indexes.get(i));
+            }
+            return;
+        }
+        // a module may have rejected some of the documents
+        for (int i = 0; i < array.length; i++) {
+            if (!(array[i] instanceof ModuleContentInterface)) {
+                continue;
+            }
+            try {
+                ModuleResult.check(((ModuleContentInterface) array[i])
+                        .getResult());
+            } catch (LoaderException e) {
+                error(_indexes.get(i), e);
+            }
+        }
+    }
+
+    /**
+     * @param _index
+     */
+    private void insert(int _index) {
+        TimedEvent event = events.get(_index);
+        try {
+            logger.fine("inserting " + uris.get(_index));
+            event.startStage();
+            retry.insert(contents.get(_index));
+            event.endStage(TimedEvent.STAGE_INSERT);
+        } catch (LoaderException e) {
+            error(_index, e);
+        }
+    }
+
+    /**
+     * @param _indexes
+     * @param _stage
+     * @param _nanos
+     */
+    private void addStage(List<Integer> _indexes, int _stage, long _nanos) {
+        for (int i = 0; i < _indexes.size(); i++) {
+            events.get(_indexes.get(i)).addStage(_stage, _nanos);
+        }
+    }
+
+    /**
+     * @param _index
+     * @param _e
+     */
+    private void error(int _index, LoaderException _e) {
+        logger.warning("error inserting " + uris.get(_index));
+        // get to the init cause, if there is one
+        logger.logException("exception", Utilities.getCause(_e));
+        events.get(_index).stop(true);
+        if (config.isFatalErrors()) {
+            throw new FatalException(_e);
+        }
+        logger.logException("non-fatal: skipping", _e);
+    }
+
+    /**
+     * Close everything and report to the monitor, even after a fatal error.
+     */
+    private void finish() {
+        for (int i = 0; i < contents.size(); i++) {
+            contents.get(i).close();
+            monitor.add(uris.get(i), events.get(i), contents.get(i));
+        }
+        contents.clear();
+        uris.clear();
+        events.clear();
+        bytes = 0;
+    }
+
+}
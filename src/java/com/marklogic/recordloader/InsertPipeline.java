@@ -0,0 +1,387 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.Utilities;
+import com.marklogic.ps.timing.TimedEvent;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         Decouples parsing from inserts. Loader threads put finished
+ *         content into a bounded queue, and a separate set of insert threads
+ *         drains it. When the queued content reaches INSERT_QUEUE_BYTES, the
+ *         loader threads block until the insert threads catch up.
+ *
+ *         When inserts are batched, an insert thread waits briefly for a
+ *         partial batch to fill, up to INSERT_BATCH_LINGER_MILLIS. Otherwise,
+ *         under light load, it would mostly send batches of one.
+ */
+public class InsertPipeline {
+
+    protected SimpleLogger logger;
+
+    private Configuration config;
+
+    private InsertRetry retry;
+
+    private Monitor monitor;
+
+    private LinkedList<Job> queue = new LinkedList<Job>();
+
+    private long queuedBytes = 0;
+
+    private long maxBytes;
+
+    private long lingerMillis;
+
+    // loader threads waiting for room in the queue
+    private int blockedCount = 0;
+
+    // callers of drain()
+    private int drainingCount = 0;
+
+    private int activeCount = 0;
+
+    private boolean running = true;
+
+    private Thread[] workers;
+
+    private static class Job {
+
+        ContentInterface content;
+
+        String uri;
+
+        TimedEvent event;
+
+        long bytes;
+
+        Job(ContentInterface _content, String _uri, TimedEvent _event,
+                long _bytes) {
+            content = _content;
+            uri = _uri;
+            event = _event;
+            bytes = _bytes;
+        }
+    }
+
+    private class Worker extends Thread {
+
+        Worker(int _index) {
+            super("insert-" + _index);
+            // do not keep the VM alive after a halt
+            setDaemon(true);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Thread#run()
+         */
+        @Override
+        public void run() {
+            if (config.isBatching()) {
+                runBatches();
+                return;
+            }
+            Job job;
+            while (null != (job = take())) {
+                try {
+                    insert(job);
+                } finally {
+                    done(job);
+                }
+            }
+            logger.fine("exiting");
+        }
+
+        private void runBatches() {
+            InsertBatch batch = new InsertBatch(config, monitor);
+            ArrayList<Job> jobs = new ArrayList<Job>();
+            while (take(jobs, batch)) {
+                try {
+                    batch.flush();
+                } catch (Throwable t) {
+                    // the batch has already reported each event
+                    monitor.halt(t);
+                } finally {
+                    for (Job job : jobs) {
+                        done(job);
+                    }
+                    jobs.clear();
+                }
+            }
+            logger.fine("exiting");
+        }
+    }
+
+    /**
+     * @param _config
+     * @param _monitor
+     */
+    public InsertPipeline(Configuration _config, Monitor _monitor) {
+        config = _config;
+        monitor = _monitor;
+        logger = config.getLogger();
+        maxBytes = config.getInsertQueueBytes();
+        lingerMillis = config.getInsertBatchLingerMillis();
+        retry = new InsertRetry(config);
+    }
+
+    /**
+     *
+     */
+    public void start() {
+        int count = config.getInsertThreadCount();
+        logger.info("insert thread count = " + count + ", queue limit = "
+                + maxBytes + " B");
+        workers = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queue content for insertion. The pipeline takes ownership of the
+     * content and the event: it will close the content, and report the event
+     * to the monitor.
+     *
+     * @param _content
+     * @param _uri
+     * @param _event
+     * @param _bytes
+     */
+    public void put(ContentInterface _content, String _uri,
+            TimedEvent _event, long _bytes) {
+        Job job = new Job(_content, _uri, _event, _bytes);
+        synchronized (this) {
+            // always admit one job, no matter how large
+            while (running && queuedBytes > 0
+                    && queuedBytes + _bytes > maxBytes) {
+                // a lingering insert thread must not wait for us
+                blockedCount++;
+                notifyAll();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // reset interrupt status and give up
+                    Thread.currentThread().interrupt();
+                    _content.close();
+                    throw new FatalException(
+                            "interrupted while queuing " + _uri);
+                } finally {
+                    blockedCount--;
+                }
+            }
+            if (!running) {
+                _content.close();
+                throw new FatalException("insert pipeline halted");
+            }
+            queue.addLast(job);
+            queuedBytes += _bytes;
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the next job, or null when the pipeline has halted
+     */
+    private synchronized Job take() {
+        while (running && queue.isEmpty()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // halt() interrupts us
+                Thread.interrupted();
+            }
+        }
+        if (!running) {
+            return null;
+        }
+        activeCount++;
+        return queue.removeFirst();
+    }
+
+    /**
+     * Take whatever is waiting, up to a full batch. If the batch is not
+     * full, wait up to the linger time for more, unless a loader thread is
+     * blocked or the pipeline is draining.
+     *
+     * @param _jobs
+     * @param _batch
+     * @return false when the pipeline has halted
+     */
+    private synchronized boolean take(ArrayList<Job> _jobs,
+            InsertBatch _batch) {
+        while (running && queue.isEmpty()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // halt() interrupts us
+                Thread.interrupted();
+            }
+        }
+        if (!running) {
+            return false;
+        }
+        Job job;
+        boolean isFull = false;
+        long deadline = System.currentTimeMillis() + lingerMillis;
+        long remaining;
+        while (true) {
+            while (!isFull && !queue.isEmpty()) {
+                activeCount++;
+                job = queue.removeFirst();
+                _jobs.add(job);
+                isFull = _batch.add(job.content, job.uri, job.event,
+                        job.bytes);
+            }
+            remaining = deadline - System.currentTimeMillis();
+            if (isFull || remaining < 1 || !running || blockedCount > 0
+                    || drainingCount > 0) {
+                // the jobs already taken still belong to this thread
+                return true;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                // halt() interrupts us
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * @param _job
+     */
+    private synchronized void done(Job _job) {
+        activeCount--;
+        if (running) {
+            // halt() has already reset the count
+            queuedBytes -= _job.bytes;
+        }
+        notifyAll();
+    }
+
+    /**
+     * @param _job
+     */
+    private void insert(Job _job) {
+        try {
+            logger.fine("inserting " + _job.uri);
+            _job.event.startStage();
+            retry.insert(_job.content);
+            _job.event.endStage(TimedEvent.STAGE_INSERT);
+        } catch (Throwable t) {
+            logger.warning("error inserting " + _job.uri);
+            // get to the init cause, if there is one
+            logger.logException("exception", Utilities.getCause(t));
+            _job.event.stop(true);
+            if (config.isFatalErrors() || !(t instanceof Exception)) {
+                _job.content.close();
+                monitor.add(_job.uri, _job.event);
+                monitor.halt(t);
+                return;
+            }
+            logger.logException("non-fatal: skipping", t);
+        }
+        _job.content.close();
+        monitor.add(_job.uri, _job.event, _job.content);
+    }
+
+    /**
+     * Wait until every queued insert has finished.
+     */
+    public synchronized void drain() {
+        // stop any insert thread from waiting for a fuller batch
+        drainingCount++;
+        notifyAll();
+        try {
+            while (running && (!queue.isEmpty() || activeCount > 0)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // reset interrupt status and give up
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        } finally {
+            drainingCount--;
+        }
+    }
+
+    /**
+     * Stop the insert threads, discarding anything still queued.
+     */
+    public void halt() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            if (!queue.isEmpty()) {
+                logger.warning("discarding " + queue.size()
+                        + " queued insert(s)");
+            }
+            for (Job job : queue) {
+                job.content.close();
+            }
+            queue.clear();
+            queuedBytes = 0;
+            notifyAll();
+        }
+        if (null == workers) {
+            return;
+        }
+        for (int i = 0; i < workers.length; i++) {
+            if (workers[i] != Thread.currentThread()) {
+                workers[i].interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return
+     */
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * @return
+     */
+    public synchronized int getActiveCount() {
+        return activeCount;
+    }
+
+}
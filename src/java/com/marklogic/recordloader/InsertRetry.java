@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.util.Random;
+
+import com.marklogic.ps.SimpleLogger;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         Retries inserts that fail with a retryable LoaderException, with
+ *         exponential backoff and jitter. Content decides what is
+ *         retryable: typically a connection or deadlock error, on content
+ *         that can be replayed.
+ */
+public class InsertRetry {
+
+    protected SimpleLogger logger;
+
+    private int retries;
+
+    private long initialMillis;
+
+    private long maxMillis;
+
+    private Random random = new Random();
+
+    /**
+     * @param _config
+     */
+    public InsertRetry(Configuration _config) {
+        logger = _config.getLogger();
+        retries = _config.getInsertRetries();
+        initialMillis = Math.max(1, _config.getInsertRetryMillis());
+        maxMillis = Math.max(initialMillis, _config
+                .getInsertRetryMaxMillis());
+    }
+
+    /**
+     * @param _content
+     * @throws LoaderException
+     */
+    public void insert(ContentInterface _content) throws LoaderException {
+        int attempt = 0;
+        while (true) {
+            try {
+                _content.insert();
+                return;
+            } catch (LoaderException e) {
+                backoff(e, attempt++);
+            }
+        }
+    }
+
+    /**
+     * @param _batch
+     *            inserted together, by the first entry
+     * @throws LoaderException
+     */
+    public void insert(BatchContentInterface[] _batch)
+            throws LoaderException {
+        int attempt = 0;
+        while (true) {
+            try {
+                _batch[0].insert(_batch);
+                return;
+            } catch (LoaderException e) {
+                backoff(e, attempt++);
+            }
+        }
+    }
+
+    /**
+     * Wait before the next attempt, or rethrow.
+     *
+     * @param _e
+     * @param _attempt
+     *            zero for the first retry
+     * @throws LoaderException
+     */
+    private void backoff(LoaderException _e, int _attempt)
+            throws LoaderException {
+        long millis = getDelay(_e, _attempt);
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw _e;
+        }
+    }
+
+    /**
+     * For callers that schedule their own retries, rather than sleeping.
+     *
+     * @param _e
+     * @param _attempt
+     *            zero for the first retry
+     * @return milliseconds to wait before the next attempt
+     * @throws LoaderException
+     *             the same exception, if it should not be retried
+     */
+    public long getDelay(LoaderException _e, int _attempt)
+            throws LoaderException {
+        if (!_e.isRetryable() || _attempt >= retries) {
+            throw _e;
+        }
+        long millis = Math.min(maxMillis, initialMillis << Math.min(30,
+                _attempt));
+        // half fixed, half random, so that threads do not retry in step
+        millis = millis / 2 + (long) (random.nextDouble() * (millis / 2));
+        logger.warning("retry " + (1 + _attempt) + " of " + retries
+                + " in " + millis + " ms: " + _e.getMessage());
+        return millis;
+    }
+
+}
@@ -272,7 +272,7 @@ public class Loader extends TranscodingLoader {
             // start of a new record
             logger.fine("found record element: '" + recordName + "' in '"
                     + recordNamespace + "'");
-            event = new TimedEvent();
+            event = newEvent();
 
             // hand off the work to a new producer
             producer = producerFactory.newProducer();
@@ -287,6 +287,10 @@ public class Loader extends TranscodingLoader {
             // must create content object before checking its uri
             currentUri = composeUri(id);
             content = contentFactory.newContent(currentUri);
+            // "read" is parsing up to the record start tag and its id:
+            // the rest of the record is parsed as the producer serializes
+            // it, so that time counts as "serialize"
+            event.endStage(TimedEvent.STAGE_READ);
             producer.setSkippingRecord(checkIdAndUri(id));
             if (!producer.isSkippingRecord()) {
                 // are we streaming this content?
@@ -295,6 +299,7 @@ public class Loader extends TranscodingLoader {
                 } else {
                     content.setBytes(Utilities.read(producer));
                 }
+                event.endStage(TimedEvent.STAGE_SERIALIZE);
 
                 insert();
             }
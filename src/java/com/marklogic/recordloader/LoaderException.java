@@ -47,6 +47,25 @@ public class LoaderException extends Exception {
         super(message);
     }
 
+    /**
+     * @param _retryable
+     *            true if the same request may succeed later
+     * @return this exception
+     */
+    public LoaderException setRetryable(boolean _retryable) {
+        retryable = _retryable;
+        return this;
+    }
+
+    /**
+     * @return true if the same request may succeed later
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+
+    private boolean retryable = false;
+
     /**
      * 
      */
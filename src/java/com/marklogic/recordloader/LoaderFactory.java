@@ -26,6 +26,7 @@ import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.URI;
 import java.util.logging.Logger;
 
 import org.xmlpull.v1.XmlPullParserException;
@@ -97,13 +98,18 @@ public class LoaderFactory {
     }
 
     private LoaderInterface getLoader() throws LoaderException {
-        // if multiple connString are available, we round-robin
-        int x = (int) (count++ % config.getConnectionStrings().length);
+        // if multiple connString are available, we round-robin,
+        // unless the balancer has a better idea.
+        // content factories may also choose a host for each request.
+        HostBalancer balancer = config.getHostBalancer();
+        URI[] uris = config.getConnectionStrings();
+        URI uri = (null == balancer) ? uris[(int) (count++ % uris.length)]
+                : balancer.select().getUri();
         try {
             LoaderInterface loader = loaderConstructor.newInstance();
             loader.setConfiguration(config);
             loader.setMonitor(monitor);
-            loader.setConnectionUri(config.getConnectionStrings()[x]);
+            loader.setConnectionUri(uri);
             logger.finer("loader " + loader);
             return loader;
         } catch (IllegalArgumentException e) {
@@ -90,4 +90,10 @@ public interface LoaderInterface extends Callable<Object> {
      */
     public abstract void setConnectionUri(URI uri) throws LoaderException;
 
+    /**
+     * @param _unit
+     *            progress tracking for this input, from the checkpoint journal
+     */
+    public abstract void setCheckpoint(CheckpointJournal.Unit _unit);
+
 }
\ No newline at end of file
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         What a content module did with one record. Modules report one
+ *         line per record, in the order that the records were passed:
+ *
+ *         <pre>
+ * inserted  TAB uri
+ * skipped   TAB uri
+ * error     TAB uri TAB message
+ * </pre>
+ *
+ *         The URI is the one the module used, which may differ from the one
+ *         it was given. Other lines are ignored, so modules that return
+ *         nothing, or something else, are treated as before: every call
+ *         that does not throw is a success.
+ */
+public class ModuleResult {
+
+    public static final String INSERTED = "inserted";
+
+    public static final String SKIPPED = "skipped";
+
+    public static final String ERROR = "error";
+
+    private String status;
+
+    private String uri;
+
+    private String message;
+
+    /**
+     * @param _status
+     * @param _uri
+     * @param _message
+     *            or null
+     */
+    public ModuleResult(String _status, String _uri, String _message) {
+        status = _status;
+        uri = _uri;
+        message = _message;
+    }
+
+    /**
+     * @param _items
+     *            module results, each of which may hold several lines
+     * @return the results, in order
+     */
+    public static List<ModuleResult> parse(String[] _items) {
+        List<ModuleResult> results = new ArrayList<ModuleResult>();
+        if (null == _items) {
+            return results;
+        }
+        String[] lines;
+        String[] fields;
+        for (int i = 0; i < _items.length; i++) {
+            if (null == _items[i]) {
+                continue;
+            }
+            lines = _items[i].split("\\r?\\n");
+            for (int j = 0; j < lines.length; j++) {
+                fields = lines[j].split("\\t", 3);
+                if (fields.length < 2) {
+                    continue;
+                }
+                String status = fields[0].trim().toLowerCase();
+                if (INSERTED.equals(status) || SKIPPED.equals(status)
+                        || ERROR.equals(status)) {
+                    results.add(new ModuleResult(status, fields[1],
+                            fields.length > 2 ? fields[2] : null));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @param _results
+     * @param _uris
+     *            the URIs of the records that were passed to the module
+     * @return a result for each URI, or null where the module did not say
+     */
+    public static ModuleResult[] match(List<ModuleResult> _results,
+            String[] _uris) {
+        ModuleResult[] matched = new ModuleResult[_uris.length];
+        if (_results.size() == _uris.length) {
+            // one per record, in order, even if the module rewrote uris
+            return _results.toArray(matched);
+        }
+        if (_results.isEmpty()) {
+            return matched;
+        }
+        Map<String, ModuleResult> byUri = new HashMap<String, ModuleResult>();
+        for (ModuleResult r : _results) {
+            byUri.put(r.uri, r);
+        }
+        for (int i = 0; i < _uris.length; i++) {
+            matched[i] = byUri.get(_uris[i]);
+        }
+        return matched;
+    }
+
+    /**
+     * @param _result
+     *            or null
+     * @throws LoaderException
+     *             if the module reported an error
+     */
+    public static void check(ModuleResult _result) throws LoaderException {
+        if (null != _result && _result.isError()) {
+            throw new LoaderException(_result.uri + ": "
+                    + (null == _result.message ? "error" : _result.message));
+        }
+    }
+
+    /**
+     * @return
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the URI that the module used
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return the error message, or null
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isInserted() {
+        return INSERTED.equals(status);
+    }
+
+    /**
+     * @return
+     */
+    public boolean isSkipped() {
+        return SKIPPED.equals(status);
+    }
+
+    /**
+     * @return
+     */
+    public boolean isError() {
+        return ERROR.equals(status);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return status + "\t" + uri + (null == message ? "" : ("\t" + message));
+    }
+
+}
@@ -27,8 +27,11 @@ import java.util.logging.Level;
 
 import com.marklogic.ps.SimpleLogger;
 import com.marklogic.ps.Utilities;
+import com.marklogic.ps.timing.LatencyHistogram;
+import com.marklogic.ps.timing.StripedCounter;
 import com.marklogic.ps.timing.TimedEvent;
 import com.marklogic.ps.timing.Timer;
+import com.marklogic.recordloader.metrics.Metrics;
 
 /**
  * @author Michael Blakeley, michael.blakeley@marklogic.com
@@ -44,7 +47,7 @@ public class Monitor extends Thread {
 
     private volatile String lastUri;
 
-    private boolean running = true;
+    private volatile boolean running = true;
 
     protected Map<String, ZipReference> openZipFiles = Collections
             .synchronizedMap(new HashMap<String, ZipReference>());
@@ -53,14 +56,37 @@ public class Monitor extends Thread {
 
     private Configuration config;
 
-    private int totalSkipped = 0;
+    // striped, like the timer, so that loader threads do not contend
+    private final StripedCounter skipped = new StripedCounter();
 
     private Thread parent;
 
-    private int lastSkipped = 0;
+    private long lastSkipped = 0;
+
+    // for percentiles since the last report
+    private LatencyHistogram[] lastLatency = null;
 
     private long lastCount = 0;
 
+    private InsertPipeline insertPipeline;
+
+    private CheckpointJournal checkpointJournal;
+
+    // existence checks for SKIP_EXISTING and ERROR_EXISTING
+    private final StripedCounter existenceRequests = new StripedCounter();
+
+    private final StripedCounter existenceChecked = new StripedCounter();
+
+    private final StripedCounter existenceFiltered = new StripedCounter();
+
+    // asynchronous inserts that have not called back yet
+    private int inFlight = 0;
+
+    private final Object inFlightLock = new Object();
+
+    // replaced when skipping ends, so never null
+    private volatile Throttle throttle;
+
     @SuppressWarnings("unused")
     private Monitor() {
         // avoid no-argument constructors
@@ -74,22 +100,32 @@ public class Monitor extends Thread {
         config = _c;
         parent = _p;
         logger = config.getLogger();
+        // ready before the thread starts, so that early records count
+        timer = new Timer();
+        throttle = new Throttle(config);
     }
 
     public void run() {
         logger.fine("starting");
 
-        timer = new Timer();
+        Metrics metrics = new Metrics(config, this);
         try {
+            metrics.start();
             monitor();
             // successful exit
             timer.stop();
             logger.info("loaded " + timer.getSuccessfulEventCount()
                     + " records ok (" + timer.getProgressMessage(true)
-                    + "), with " + timer.getErrorCount() + " error(s)");
+                    + "), with " + timer.getErrorCount() + " error(s)"
+                    + getExistenceMessage(skipped.sum()));
+            if (timer.getEventCount() > 0) {
+                logger.info("latency " + timer.getLatencyMessage());
+            }
+            logStatus();
         } catch (Throwable t) {
             logger.logException("fatal error", t);
         } finally {
+            metrics.stop();
             cleanup();
         }
         logger.fine("exiting");
@@ -97,6 +133,10 @@ public class Monitor extends Thread {
 
     private void cleanup() {
         pool.shutdownNow();
+        HostBalancer balancer = config.getHostBalancer();
+        if (null != balancer) {
+            balancer.shutdown();
+        }
 
         logger.fine("waiting for pool to terminate");
 
@@ -134,20 +174,13 @@ public class Monitor extends Thread {
 
             currentMillis = System.currentTimeMillis();
             if (lastUri != null
-                    && currentMillis - lastDisplayMillis > displayMillis
-                    && (lastSkipped < totalSkipped || lastCount < timer
-                            .getEventCount())) {
-                lastDisplayMillis = currentMillis;
-                lastSkipped = totalSkipped;
-                // events include errors
-                lastCount = timer.getEventCount();
-                logger.info("inserted record " + timer.getEventCount()
-                        + " as " + lastUri + " ("
-                        + timer.getProgressMessage() + "), with "
-                        + timer.getErrorCount() + " error(s)");
-                logger.fine("thread count: core="
-                        + pool.getCorePoolSize() + ", active="
-                        + pool.getActiveCount());
+                    && currentMillis - lastDisplayMillis > displayMillis) {
+                // sum the striped counters once per report
+                long totalSkipped = skipped.sum();
+                long count = timer.getEventCount();
+                if (lastSkipped < totalSkipped || lastCount < count) {
+                    report(currentMillis, totalSkipped, count);
+                }
             }
 
             try {
@@ -161,6 +194,52 @@ public class Monitor extends Thread {
         }
     }
 
+    /**
+     * @param _millis
+     * @param _skipped
+     * @param _count
+     */
+    private void report(long _millis, long _skipped, long _count) {
+        lastDisplayMillis = _millis;
+        lastSkipped = _skipped;
+        // events include errors
+        lastCount = _count;
+        logger.info("inserted record "
+                + _count
+                + " as "
+                + lastUri
+                + " ("
+                + timer.getProgressMessage()
+                + "), with "
+                + timer.getErrorCount()
+                + " error(s)"
+                + (null == insertPipeline ? ""
+                        : (", queue depth "
+                                + insertPipeline.getQueueDepth()
+                                + " ("
+                                + insertPipeline.getQueuedBytes() + " B)"))
+                + getInFlightMessage()
+                + getExistenceMessage(_skipped));
+        // percentiles since the last report
+        LatencyHistogram[] snapshot = timer.getLatencySnapshot();
+        LatencyHistogram[] interval = snapshot;
+        if (null != lastLatency) {
+            interval = new LatencyHistogram[snapshot.length];
+            for (int i = 0; i < interval.length; i++) {
+                interval[i] = snapshot[i].copy();
+                interval[i].subtract(lastLatency[i]);
+            }
+        }
+        lastLatency = snapshot;
+        if (interval[0].getCount() > 0) {
+            logger.info("latency " + Timer.getLatencyMessage(interval));
+        }
+        logStatus();
+        logger.fine("thread count: core="
+                + pool.getCorePoolSize() + ", active="
+                + pool.getActiveCount());
+    }
+
     /**
      * 
      */
@@ -171,6 +250,9 @@ public class Monitor extends Thread {
         logger.info("halting");
         running = false;
         pool.shutdownNow();
+        if (null != insertPipeline) {
+            insertPipeline.halt();
+        }
         // for quicker shutdown
         interrupt();
     }
@@ -185,70 +267,67 @@ public class Monitor extends Thread {
     }
 
     /**
+     * Report an insert, and act on the module's result, if there is one.
+     * 
      * @param _uri
      * @param _event
+     * @param _content
      */
-    public synchronized void add(String _uri, TimedEvent _event) {
-        if (_uri != null) {
-            logger.finer("adding event for " + _uri);
-            lastUri = _uri;
+    public void add(String _uri, TimedEvent _event,
+            ContentInterface _content) {
+        ModuleResult result = (_content instanceof ModuleContentInterface) ? ((ModuleContentInterface) _content)
+                .getResult()
+                : null;
+        if (null != result && !_event.isError()) {
+            if (result.isSkipped()) {
+                incrementSkipped("existing uri " + result.getUri());
+            } else if (result.isInserted()
+                    && config.isSkipExistingUntilFirstMiss()
+                    && config.isSkipExisting()) {
+                // the module has found the first new record
+                resetSkipExisting(result.getUri());
+            }
         }
-        // do not keep the TimedEvent objects in the timer: 48-B each
-        timer.add(_event, false);
-
-        checkThrottle();
+        addEvent(_uri, _event,
+                (_content instanceof HostContentInterface) ? ((HostContentInterface) _content)
+                        .getConnectionString()
+                        : null);
+    }
 
+    /**
+     * @param _uri
+     * @param _event
+     */
+    public void add(String _uri, TimedEvent _event) {
+        addEvent(_uri, _event, null);
     }
 
     /**
-     * 
+     * @param _uri
+     * @param _event
+     * @param _connection
+     *            the connection string for the event's host, or null
      */
-    private void checkThrottle() {
-        // optional throttling
-        if (!config.isThrottled()) {
-            return;
+    private void addEvent(String _uri, TimedEvent _event,
+            String _connection) {
+        // no lock: the timer counters are striped,
+        // and the checkpoint unit locks itself
+        if (_uri != null) {
+            logger.finer("adding event for " + _uri);
+            lastUri = _uri;
         }
-        long sleepMillis;
-        double throttledEventsPerSecond = config
-                .getThrottledEventsPerSecond();
-        boolean isEvents = (throttledEventsPerSecond > 0);
-        int throttledBytesPerSecond = isEvents ? 0 : config
-                .getThrottledBytesPerSecond();
-        logger.fine("throttling "
-                + (isEvents
-                // events
-                ? (timer.getEventsPerSecond() + " tps to "
-                        + throttledEventsPerSecond + " tps")
-                        // bytes
-                        : (timer.getBytesPerSecond() + " B/sec to "
-                                + throttledBytesPerSecond + " B/sec")));
-        // call the methods every time
-        while ((throttledEventsPerSecond > 0 && (throttledEventsPerSecond < timer
-                .getEventsPerSecond()))
-                || (throttledBytesPerSecond > 0 && (throttledBytesPerSecond < timer
-                        .getBytesPerSecond()))) {
-            if (isEvents) {
-                sleepMillis = (long) Math
-                        .ceil(Timer.MILLISECONDS_PER_SECOND
-                                * ((timer.getEventCount() / throttledEventsPerSecond) - timer
-                                        .getDurationSeconds()));
-            } else {
-                sleepMillis = (long) Math
-                        .ceil(Timer.MILLISECONDS_PER_SECOND
-                                * ((timer.getBytes() / throttledBytesPerSecond) - timer
-                                        .getDurationSeconds()));
-            }
-            sleepMillis = Math.max(sleepMillis, 1);
-            logger.finer("sleeping " + sleepMillis);
-            try {
-                Thread.sleep(sleepMillis);
-            } catch (InterruptedException e) {
-                // caller will reset interrupted status
-            }
+        // the timer keeps histograms, not the TimedEvent objects
+        timer.add(_event);
+
+        if (_event instanceof CheckpointEvent) {
+            ((CheckpointEvent) _event).complete();
+        }
+
+        // only this thread waits
+        Throttle t = throttle;
+        if (t.isEnabled()) {
+            t.acquire(_event.getBytes(), _connection);
         }
-        logger.fine("throttled to "
-                + (isEvents ? (timer.getEventsPerSecond() + " tps")
-                        : (timer.getBytesPerSecond() + " B/sec")));
     }
 
     /**
@@ -290,12 +369,128 @@ public class Monitor extends Thread {
     }
 
     /**
-     * 
+     * Count a skipped record. The monitor thread reports the total with
+     * its progress, so loader threads never sum the counter.
      */
     public void incrementSkipped(String message) {
-        totalSkipped++;
-        logger.log((totalSkipped % 500 == 0) ? Level.INFO : Level.FINE,
-                "skipping " + totalSkipped + ": " + message);
+        skipped.increment();
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("skipping: " + message);
+        }
+    }
+
+    /**
+     * @param _count
+     *            the number of URIs checked in a single request
+     */
+    public void addExistenceCheck(int _count) {
+        existenceRequests.increment();
+        existenceChecked.add(_count);
+    }
+
+    /**
+     * Count a URI that did not need to be checked.
+     */
+    public void incrementExistenceFiltered() {
+        existenceFiltered.increment();
+    }
+
+    /**
+     * @param _skipped
+     *            the total, summed once by the caller
+     * @return
+     */
+    private String getExistenceMessage(long _skipped) {
+        long requests = existenceRequests.sum();
+        long filtered = existenceFiltered.sum();
+        if (0 == requests && 0 == filtered) {
+            return (0 == _skipped) ? "" : (", skipped " + _skipped);
+        }
+        return ", checked " + existenceChecked.sum() + " uri(s) in "
+                + requests + " request(s), " + filtered
+                + " filtered, skipped " + _skipped;
+    }
+
+    /**
+     * @return the current timer, which is replaced when skipping ends
+     */
+    public Timer getTimer() {
+        return timer;
+    }
+
+    /**
+     * @return
+     */
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    /**
+     * @return
+     */
+    public long getExistenceRequestCount() {
+        return existenceRequests.sum();
+    }
+
+    /**
+     * @return
+     */
+    public long getExistenceCheckedCount() {
+        return existenceChecked.sum();
+    }
+
+    /**
+     * @return
+     */
+    public long getExistenceFilteredCount() {
+        return existenceFiltered.sum();
+    }
+
+    /**
+     * @return per-host statistics, or an empty array if requests are not
+     *         balanced
+     */
+    public HostBalancer.Host[] getHosts() {
+        HostBalancer balancer = config.getHostBalancer();
+        return (null == balancer) ? new HostBalancer.Host[0] : balancer
+                .getHosts();
+    }
+
+    /**
+     *
+     */
+    private void logStatus() {
+        HostBalancer.Host[] hosts = getHosts();
+        for (int i = 0; i < hosts.length; i++) {
+            logger.info("host " + hosts[i]);
+        }
+        String message;
+        for (StatusInterface source : config.getStatusSources()) {
+            message = source.getStatusMessage();
+            if (null != message) {
+                logger.info(message);
+            }
+        }
+    }
+
+    /**
+     * The first missing URI ends SKIP_EXISTING_UNTIL_FIRST_MISS.
+     * 
+     * @param _uri
+     */
+    public void resetSkipExisting(String _uri) {
+        synchronized (this) {
+            if (!config.isSkipExisting()) {
+                // another thread got here first
+                return;
+            }
+            logger.info("resetting " + Configuration.SKIP_EXISTING_KEY
+                    + " at " + _uri);
+            config.setSkipExisting(false);
+            config.configureThrottling();
+            throttle = new Throttle(config);
+            resetTimer("skipped");
+        }
     }
 
     public ThreadPoolExecutor getPool() {
@@ -306,6 +501,89 @@ public class Monitor extends Thread {
         this.pool = pool;
     }
 
+    /**
+     * @return the insert pipeline, or null if loaders insert directly
+     */
+    public InsertPipeline getInsertPipeline() {
+        return insertPipeline;
+    }
+
+    /**
+     * @param _pipeline
+     */
+    public void setInsertPipeline(InsertPipeline _pipeline) {
+        insertPipeline = _pipeline;
+    }
+
+    /**
+     * Count an asynchronous insert, until it calls back.
+     */
+    public void addInFlight() {
+        synchronized (inFlightLock) {
+            inFlight++;
+        }
+    }
+
+    /**
+     * 
+     */
+    public void removeInFlight() {
+        synchronized (inFlightLock) {
+            inFlight--;
+            inFlightLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of asynchronous inserts in flight
+     */
+    public int getInFlight() {
+        synchronized (inFlightLock) {
+            return inFlight;
+        }
+    }
+
+    /**
+     * @return
+     */
+    private String getInFlightMessage() {
+        int count = getInFlight();
+        return (0 == count) ? "" : (", in flight " + count);
+    }
+
+    /**
+     * Wait until every asynchronous insert has called back, or the monitor
+     * halts.
+     */
+    public void waitForInFlight() {
+        synchronized (inFlightLock) {
+            while (running && inFlight > 0) {
+                try {
+                    // halt() does not notify us
+                    inFlightLock.wait(Configuration.SLEEP_TIME);
+                } catch (InterruptedException e) {
+                    // reset interrupt status and give up
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the checkpoint journal, or null
+     */
+    public CheckpointJournal getCheckpointJournal() {
+        return checkpointJournal;
+    }
+
+    /**
+     * @param _journal
+     */
+    public void setCheckpointJournal(CheckpointJournal _journal) {
+        checkpointJournal = _journal;
+    }
+
     /**
      * @param zipFile
      * @param zipFileName
@@ -324,6 +602,7 @@ public class Monitor extends Thread {
                 + " records ok (" + timer.getProgressMessage(true)
                 + "), with " + timer.getErrorCount() + " error(s)");
         timer = new Timer();
+        lastLatency = null;
     }
 
     public void instanceInterrupted() {
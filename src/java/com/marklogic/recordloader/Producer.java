@@ -45,9 +45,10 @@ public class Producer extends InputStream {
 
     private int recordDepth = 0;
 
-    private StringBuilder buffer;
+    private ProducerOutput output;
 
-    private byte[] byteBuffer;
+    // reusable holder for getTextCharacters()
+    private int[] holder = new int[2];
 
     private Configuration config;
 
@@ -59,8 +60,6 @@ public class Producer extends InputStream {
 
     protected String currentId = null;
 
-    private int byteIndex = 0;
-
     private boolean keepGoing = true;
 
     private boolean copyNamespaceDeclarations = true;
@@ -85,6 +84,15 @@ public class Producer extends InputStream {
         logger.fine("recordName=" + recordName);
     }
 
+    /**
+     * @param _output
+     *            reusable output buffers, shared with earlier producers
+     */
+    void setOutput(ProducerOutput _output) {
+        output = _output;
+        output.clear();
+    }
+
     /**
      * @throws XmlPullParserException
      * 
@@ -159,7 +167,8 @@ public class Producer extends InputStream {
         String text = xpp.getText();
         logger.finest("text = " + text);
         // guard against and work around a known bug
-        if (!text.contains(name)) {
+        if (!text.startsWith(name, (null == prefix) ? 1
+                : prefix.length() + 2)) {
             logger.warning("working around xpp3 bug 249: name = " + name
                     + ", text = " + text);
             text = "<" + (null == prefix ? "" : (prefix + ":")) + name;
@@ -244,33 +253,17 @@ public class Producer extends InputStream {
             if (depth > 0) {
                 int stop = xpp.getNamespaceCount((depth > 1) ? depth - 1
                         : 1);
-                if (stop > 0) {
-                    StringBuilder decl = null;
-                    String nsDeclPrefix, nsDeclUri;
-                    logger.finer("checking namespace declarations");
-                    for (int i = 0; i < stop; i++) {
-                        if (decl == null) {
-                            decl = new StringBuilder();
-                        }
-                        nsDeclPrefix = xpp.getNamespacePrefix(i);
-                        nsDeclUri = xpp.getNamespaceUri(i);
-                        logger.finest("found namespace declaration "
-                                + nsDeclPrefix + " = " + nsDeclUri);
-                        decl.append(" xmlns");
-                        if (nsDeclPrefix != null) {
-                            decl.append(":");
-                            decl.append(nsDeclPrefix);
-                        }
-                        decl.append("=\"");
-                        decl.append(nsDeclUri);
-                        decl.append("\"");
-                    }
+                if (stop > 0 && text.endsWith(">")) {
+                    logger.finer("copying namespace declarations");
+                    // the output caches the declarations from record to record
+                    String decl = getOutput().getNamespaceDeclarations(xpp,
+                            stop);
+                    logger.finest("writing text = " + text);
                     // copy the namespace decls to the end of the tag
-                    if (decl != null) {
-                        logger.finer("copying namespace declarations");
-                        text = text.replaceFirst(">$", decl.toString()
-                                + (isEmpty ? "/" : "") + ">");
-                    }
+                    getOutput().write(text, 0, text.length() - 1);
+                    write(decl);
+                    write(">");
+                    return;
                 } else {
                     logger.finer("no namespace declarations to copy");
                 }
@@ -337,12 +330,30 @@ public class Producer extends InputStream {
             return;
         }
 
-        if (buffer == null) {
-            buffer = new StringBuilder();
+        // logger.finest("string = " + string); // DEBUG
+        getOutput().write(string);
+    }
+
+    /**
+     * Write the current event text without creating a String.
+     */
+    private void writeTextCharacters() {
+        if (skippingRecord) {
+            return;
         }
+        char[] ch = xpp.getTextCharacters(holder);
+        getOutput().write(ch, holder[0], holder[1]);
+    }
 
-        // logger.finest("string = " + string); // DEBUG
-        buffer.append(string);
+    /**
+     * @return
+     */
+    private ProducerOutput getOutput() {
+        if (null == output) {
+            // not created by a factory
+            output = new ProducerOutput(outputEncoding);
+        }
+        return output;
     }
 
     /* (non-Javadoc)
@@ -384,46 +395,35 @@ public class Producer extends InputStream {
     }
 
     private int readByteBuffer(int _readSize) throws IOException {
+        ProducerOutput out = getOutput();
         // do we have something ready to read?
-        if (byteBuffer != null) {
-            if (byteIndex < byteBuffer.length) {
-                logger.finer("existing = " + getByteBufferDescription());
-                return byteBuffer.length - byteIndex;
-            }
-            byteBuffer = null;
-            buffer = null;
+        int available = out.remaining();
+        if (available > 0) {
+            return available;
         }
 
-        if (buffer == null) {
-            logger.fine("buffer is null");
-            byteBuffer = null;
-            // must wrap any non-IOException in an IOException
-            try {
-                while (keepGoing
-                        && (buffer == null || buffer.length() < _readSize)) {
-                    processNext();
-                }
-            } catch (XmlPullParserException e) {
-                IOException ioe = new IOException();
-                ioe.initCause(e);
-                throw ioe;
+        // must wrap any non-IOException in an IOException
+        try {
+            while (keepGoing && out.length() < _readSize) {
+                processNext();
             }
+        } catch (XmlPullParserException e) {
+            IOException ioe = new IOException();
+            ioe.initCause(e);
+            throw ioe;
         }
 
-        if (buffer == null) {
+        if (out.length() < 1) {
             // indicate EOF
             logger.fine("EOF");
             return -1;
         }
 
-        if (byteBuffer == null) {
-            // get more bytes
-            byteBuffer = buffer.toString().getBytes(outputEncoding);
-            byteIndex = 0;
-        }
+        // get more bytes, reusing the same byte buffer
+        out.encode();
 
         // logger.fine("new = " + getByteBufferDescription()); // DEBUG
-        return byteBuffer.length - byteIndex;
+        return out.remaining();
     }
 
     /*
@@ -444,7 +444,7 @@ public class Producer extends InputStream {
         }
 
         bytesRead++;
-        return byteBuffer[byteIndex++];
+        return output.read();
     }
 
     /* (non-Javadoc)
@@ -466,9 +466,7 @@ public class Producer extends InputStream {
         }
 
         // copy byte buffer into target buffer
-        int copyLen = Math.min(available, len);
-        System.arraycopy(byteBuffer, byteIndex, b, off, copyLen);
-        byteIndex += copyLen;
+        int copyLen = output.read(b, off, len);
         bytesRead += copyLen;
 
         return copyLen;
@@ -505,19 +503,22 @@ public class Producer extends InputStream {
                 processStartElement();
                 break;
             case XmlPullParser.TEXT:
-                logger.finest("eventType = TEXT: " + xpp.getText());
-                write(Utilities.escapeXml(xpp.getText()));
+                logger.finest("eventType = TEXT");
+                if (!skippingRecord) {
+                    char[] ch = xpp.getTextCharacters(holder);
+                    getOutput().writeEscaped(ch, holder[0], holder[1]);
+                }
                 break;
             case XmlPullParser.CDSECT:
                 logger.finest("eventType = CDSECT");
                 // round-trip it
                 write("<![CDATA[");
-                write(xpp.getText());
+                writeTextCharacters();
                 write("]]>");
                 break;
             case XmlPullParser.IGNORABLE_WHITESPACE:
                 logger.finest("eventType = IGNORABLE_WHITESPACE");
-                write(xpp.getText());
+                writeTextCharacters();
                 break;
             case XmlPullParser.ENTITY_REF:
                 logger.finest("eventType = ENTITY_REF");
@@ -540,7 +541,7 @@ public class Producer extends InputStream {
             case XmlPullParser.COMMENT:
                 logger.finest("eventType = COMMENT");
                 write("<!--");
-                write(xpp.getText());
+                writeTextCharacters();
                 write("-->");
                 break;
             case XmlPullParser.END_TAG:
@@ -599,18 +600,17 @@ public class Producer extends InputStream {
      * @see com.marklogic.recordloader.ProducerInterface#getByteBufferDescription()
      */
     public String getByteBufferDescription() {
-        if (byteBuffer == null) {
-            return "" + byteIndex + " in empty byteBuffer";
+        if (null == output) {
+            return "empty byteBuffer";
         }
-        return "" + byteIndex + "/" + byteBuffer.length + " of "
-                + new String(byteBuffer);
+        return output.getDescription();
     }
 
     /* (non-Javadoc)
      * @see com.marklogic.recordloader.ProducerInterface#getBuffer()
      */
     public String getBuffer() {
-        return (null != buffer) ? buffer.toString() : null;
+        return (null != output) ? output.getPending() : null;
     }
 
 }
@@ -40,6 +40,10 @@ public class ProducerFactory {
 
     private Constructor<? extends Producer> producerConstructor;
 
+    // recycled by every producer from this factory
+    private ProducerOutput output = new ProducerOutput(
+            Configuration.OUTPUT_ENCODING_DEFAULT);
+
     protected static boolean isFirstInit = true;
 
     protected static Object staticMutex = new Object();
@@ -88,8 +92,20 @@ public class ProducerFactory {
      * @throws LoaderException
      */
     public Producer newProducer() throws LoaderException {
+        return newProducer(xpp);
+    }
+
+    /**
+     * @param _xpp
+     * @return
+     * @throws LoaderException
+     */
+    public Producer newProducer(XmlPullParser _xpp) throws LoaderException {
         try {
-            return producerConstructor.newInstance(config, xpp);
+            Producer producer = producerConstructor.newInstance(config,
+                    _xpp);
+            producer.setOutput(output);
+            return producer;
         } catch (IllegalArgumentException e) {
             throw new LoaderException(e);
         } catch (InstantiationException e) {
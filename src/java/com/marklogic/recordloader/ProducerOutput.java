@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.marklogic.ps.Utilities;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         Reusable output buffers for a Producer. Serialized characters
+ *         accumulate in a char array, and are encoded in place into a byte
+ *         buffer. A ProducerFactory hands the same instance to each of its
+ *         producers, so that the buffers are recycled from record to record.
+ *
+ *         Not thread-safe: only one producer may use it at a time.
+ */
+public class ProducerOutput {
+
+    protected static final int BUFFER_SIZE = 8 * 1024;
+
+    private char[] chars = new char[BUFFER_SIZE];
+
+    private int length = 0;
+
+    private CharBuffer charBuffer = CharBuffer.wrap(chars);
+
+    private ByteBuffer bytes;
+
+    private CharsetEncoder encoder;
+
+    // namespace declarations are usually the same for every record
+    private String[] declPrefixes = new String[0];
+
+    private String[] declUris = new String[0];
+
+    private String declarations = "";
+
+    /**
+     * @param _encoding
+     */
+    public ProducerOutput(String _encoding) {
+        encoder = Charset.forName(_encoding).newEncoder();
+        // same behavior as String.getBytes()
+        encoder.onMalformedInput(CodingErrorAction.REPLACE);
+        encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        bytes = ByteBuffer.allocate((int) (BUFFER_SIZE * encoder
+                .maxBytesPerChar()));
+        bytes.flip();
+    }
+
+    /**
+     * Discard any pending characters and bytes.
+     */
+    public void clear() {
+        length = 0;
+        bytes.clear();
+        bytes.flip();
+    }
+
+    /**
+     * @param _minimum
+     */
+    private void ensureCapacity(int _minimum) {
+        if (_minimum <= chars.length) {
+            return;
+        }
+        char[] newChars = new char[Math.max(_minimum, 2 * chars.length)];
+        System.arraycopy(chars, 0, newChars, 0, length);
+        chars = newChars;
+        charBuffer = CharBuffer.wrap(chars);
+    }
+
+    /**
+     * @param _string
+     */
+    public void write(String _string) {
+        int len = _string.length();
+        ensureCapacity(length + len);
+        _string.getChars(0, len, chars, length);
+        length += len;
+    }
+
+    /**
+     * @param _string
+     * @param _start
+     * @param _end
+     */
+    public void write(String _string, int _start, int _end) {
+        int len = _end - _start;
+        ensureCapacity(length + len);
+        _string.getChars(_start, _end, chars, length);
+        length += len;
+    }
+
+    /**
+     * @param _ch
+     * @param _start
+     * @param _len
+     */
+    public void write(char[] _ch, int _start, int _len) {
+        ensureCapacity(length + _len);
+        System.arraycopy(_ch, _start, chars, length, _len);
+        length += _len;
+    }
+
+    /**
+     * Escape and write the characters in a single pass.
+     *
+     * @param _ch
+     * @param _start
+     * @param _len
+     */
+    public void writeEscaped(char[] _ch, int _start, int _len) {
+        int end = _start + _len;
+        int mark = _start;
+        String entity;
+        for (int i = _start; i < end; i++) {
+            entity = Utilities.getEntity(_ch[i], false);
+            if (null == entity) {
+                continue;
+            }
+            write(_ch, mark, i - mark);
+            write(entity);
+            mark = i + 1;
+        }
+        write(_ch, mark, end - mark);
+    }
+
+    /**
+     * @return the number of characters waiting to be encoded
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Encode all pending characters into the byte buffer, which must be
+     * empty.
+     */
+    public void encode() {
+        int max = (int) Math.ceil(length * encoder.maxBytesPerChar());
+        if (bytes.capacity() < max) {
+            bytes = ByteBuffer.allocate(max);
+        }
+        bytes.clear();
+        charBuffer.limit(length);
+        charBuffer.position(0);
+        encoder.reset();
+        CoderResult result = encoder.encode(charBuffer, bytes, true);
+        if (!result.isUnderflow()) {
+            // cannot happen with REPLACE, given the capacity check
+            throw new FatalException("unexpected encoder result: "
+                    + result);
+        }
+        encoder.flush(bytes);
+        bytes.flip();
+        length = 0;
+    }
+
+    /**
+     * @return the number of encoded bytes that have not been read
+     */
+    public int remaining() {
+        return bytes.remaining();
+    }
+
+    /**
+     * @return the next encoded byte, as 0-255
+     */
+    public int read() {
+        return bytes.get() & 0xff;
+    }
+
+    /**
+     * @param _b
+     * @param _off
+     * @param _len
+     * @return the number of bytes copied
+     */
+    public int read(byte[] _b, int _off, int _len) {
+        int len = Math.min(_len, bytes.remaining());
+        bytes.get(_b, _off, len);
+        return len;
+    }
+
+    /**
+     * @param _xpp
+     * @param _count
+     * @return namespace declarations for the first _count namespaces, as
+     *         they would appear in a start tag
+     */
+    public String getNamespaceDeclarations(XmlPullParser _xpp, int _count)
+            throws XmlPullParserException {
+        if (_count == declPrefixes.length) {
+            boolean same = true;
+            for (int i = 0; same && i < _count; i++) {
+                same = equals(declPrefixes[i], _xpp.getNamespacePrefix(i))
+                        && equals(declUris[i], _xpp.getNamespaceUri(i));
+            }
+            if (same) {
+                return declarations;
+            }
+        }
+
+        declPrefixes = new String[_count];
+        declUris = new String[_count];
+        StringBuilder decl = new StringBuilder();
+        for (int i = 0; i < _count; i++) {
+            declPrefixes[i] = _xpp.getNamespacePrefix(i);
+            declUris[i] = _xpp.getNamespaceUri(i);
+            decl.append(" xmlns");
+            if (declPrefixes[i] != null) {
+                decl.append(":");
+                decl.append(declPrefixes[i]);
+            }
+            decl.append("=\"");
+            decl.append(Utilities.escapeXml(declUris[i], true));
+            decl.append("\"");
+        }
+        declarations = decl.toString();
+        return declarations;
+    }
+
+    /**
+     * @param _a
+     * @param _b
+     * @return
+     */
+    private static boolean equals(String _a, String _b) {
+        return (null == _a) ? null == _b : _a.equals(_b);
+    }
+
+    /**
+     * @return the pending characters, for diagnostics
+     */
+    public String getPending() {
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * @return the unread bytes, for diagnostics
+     */
+    public String getDescription() {
+        return "" + bytes.position() + "/" + bytes.limit() + " of "
+                + new String(bytes.array(), 0, bytes.limit());
+    }
+
+}
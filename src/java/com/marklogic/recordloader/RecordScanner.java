@@ -0,0 +1,1088 @@
+/**
+ * Copyright (c) 2006-2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.Utilities;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         Splits an XML input into records by scanning the raw bytes for
+ *         record start and end tags. Record bytes are never decoded, so the
+ *         input encoding must be ASCII-compatible (UTF-8, ISO-8859-1, etc).
+ *
+ *         Namespace declarations from ancestor elements are not copied into
+ *         the record. Instead, the scanner reports whether the record uses a
+ *         prefix bound by an ancestor: see {@link #isNamespaceFallback()}.
+ *         Prefixes that appear only in content, such as xsi:type values, are
+ *         not detected.
+ */
+public class RecordScanner {
+
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte LT = '<';
+
+    private static final byte GT = '>';
+
+    private static final byte SLASH = '/';
+
+    private static final byte QUESTION = '?';
+
+    private static final byte BANG = '!';
+
+    private static final byte COLON = ':';
+
+    private static final byte EQUALS = '=';
+
+    private static final byte QUOT = '"';
+
+    private static final byte APOS = '\'';
+
+    private static final byte OPEN_BRACKET = '[';
+
+    private static final byte CLOSE_BRACKET = ']';
+
+    private static final byte[] PI_END = "?>".getBytes();
+
+    private static final byte[] COMMENT_START = "!--".getBytes();
+
+    private static final byte[] COMMENT_END = "-->".getBytes();
+
+    private static final byte[] CDATA_START = "![CDATA[".getBytes();
+
+    private static final byte[] CDATA_END = "]]>".getBytes();
+
+    private static final byte[] XMLNS = "xmlns".getBytes();
+
+    private static final byte[] XML = "xml".getBytes();
+
+    private static final byte[] EMPTY = new byte[0];
+
+    protected SimpleLogger logger;
+
+    private Configuration config;
+
+    private InputStream input;
+
+    private Charset charset;
+
+    private byte[] buf = new byte[BUFFER_SIZE];
+
+    // next byte to scan
+    private int pos = 0;
+
+    // end of valid bytes
+    private int limit = 0;
+
+    private boolean eof = false;
+
+    // bytes discarded from the start of the buffer
+    private long consumed = 0;
+
+    private String recordName;
+
+    private String recordNamespace;
+
+    private byte[] recordNameBytes;
+
+    private boolean useDocumentRoot;
+
+    private boolean copyNamespaceDeclarations;
+
+    private byte[] idElementName;
+
+    private byte[] idAttributeName;
+
+    private boolean foundRoot = false;
+
+    // namespace bindings for open elements outside of any record
+    private ArrayList<byte[]> nsPrefixes = new ArrayList<byte[]>();
+
+    private ArrayList<String> nsUris = new ArrayList<String>();
+
+    // raw start tags for open elements outside of any record
+    private ArrayList<byte[]> frameTags = new ArrayList<byte[]>();
+
+    private ArrayList<byte[]> frameNames = new ArrayList<byte[]>();
+
+    private int[] frameSizes = new int[16];
+
+    private int depth = 0;
+
+    // namespace declarations made inside the current record
+    private int[] localPrefixStart = new int[8];
+
+    private int[] localPrefixLength = new int[8];
+
+    private int[] localPrefixDepth = new int[8];
+
+    private int localCount = 0;
+
+    // current record
+    private int recordStart = 0;
+
+    private int recordEnd = 0;
+
+    private long recordOffset = 0;
+
+    private byte[] recordTagName;
+
+    private String currentId;
+
+    private boolean namespaceFallback;
+
+    private long recordCount = 0;
+
+    // current tag, reused for every tag
+    private int tagNameStart;
+
+    private int tagNameEnd;
+
+    private int tagColon;
+
+    private int tagEnd;
+
+    private boolean tagEmpty;
+
+    private int attrCount;
+
+    private int[] attrNameStart = new int[8];
+
+    private int[] attrNameEnd = new int[8];
+
+    private int[] attrColon = new int[8];
+
+    private int[] attrValueStart = new int[8];
+
+    private int[] attrValueEnd = new int[8];
+
+    /**
+     * @param _config
+     * @param _input
+     * @param _charset
+     */
+    public RecordScanner(Configuration _config, InputStream _input,
+            Charset _charset) {
+        config = _config;
+        input = _input;
+        charset = _charset;
+        logger = config.getLogger();
+
+        useDocumentRoot = config.isUseDocumentRoot();
+        copyNamespaceDeclarations = config.isCopyNamespaceDeclarations();
+        setRecordName(config.getRecordName(), config.getRecordNamespace());
+
+        String idName = config.getIdNodeName();
+        if (config.isUseAutomaticIds() || config.isUseFilenameIds()) {
+            // nothing to look for
+        } else if (idName.startsWith("@")) {
+            idAttributeName = idName.substring(1).getBytes(charset);
+        } else {
+            idElementName = idName.getBytes(charset);
+        }
+    }
+
+    /**
+     * @param _charset
+     * @return true if every markup character is encoded as a single
+     *         US-ASCII byte, so that the raw bytes can be scanned
+     */
+    public static boolean isAsciiCompatible(Charset _charset) {
+        String markup = "<>/?!=:\"'[]-_. \t\r\n";
+        try {
+            return Arrays.equals(markup.getBytes("US-ASCII"), markup
+                    .getBytes(_charset.name()));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param _name
+     * @param _namespace
+     */
+    private void setRecordName(String _name, String _namespace) {
+        recordName = _name;
+        recordNamespace = (null == _namespace) ? "" : _namespace;
+        recordNameBytes = (null == _name) ? null : _name.getBytes(charset);
+    }
+
+    /**
+     * Advance to the start of the next record.
+     *
+     * @return false at the end of the input
+     * @throws IOException
+     * @throws LoaderException
+     */
+    public boolean nextRecord() throws IOException, LoaderException {
+        currentId = null;
+        namespaceFallback = false;
+        localCount = 0;
+        int lt;
+        byte b;
+        while (true) {
+            // outside of a record, nothing before pos is needed
+            compact(pos);
+            lt = indexOf(LT, pos);
+            if (lt < 0) {
+                if (depth > 0) {
+                    throw new LoaderException(
+                            "end of input inside element at depth "
+                                    + depth);
+                }
+                logger.fine("end of input after " + recordCount
+                        + " records");
+                return false;
+            }
+            b = byteAt(lt + 1);
+            if (QUESTION == b) {
+                pos = skipPast(PI_END, lt + 2);
+                continue;
+            }
+            if (BANG == b) {
+                pos = skipMarkup(lt);
+                continue;
+            }
+            if (SLASH == b) {
+                // end of an ancestor element
+                pos = skipPast(GT, lt + 2);
+                if (depth > 0) {
+                    popFrame();
+                }
+                continue;
+            }
+
+            parseStartTag(lt);
+            pos = tagEnd;
+
+            if (!foundRoot) {
+                foundRoot = true;
+                logger.fine("found document root: "
+                        + decode(tagNameStart, tagNameEnd));
+                if (!useDocumentRoot) {
+                    pushFrame();
+                    continue;
+                }
+            }
+
+            if (null == recordName && !useDocumentRoot) {
+                detectRecordName();
+            }
+
+            if (useDocumentRoot || isRecordStart()) {
+                scanRecord(lt);
+                recordCount++;
+                return true;
+            }
+
+            // some other element
+            if (config.isIgnoreUnknown()) {
+                logger.warning("skipping unknown non-record element: "
+                        + decode(tagNameStart, tagNameEnd));
+            }
+            pushFrame();
+        }
+    }
+
+    /**
+     *
+     */
+    private void detectRecordName() throws LoaderException {
+        synchronized (config) {
+            if (null == config.getRecordName()) {
+                // this must be the record-level element
+                config.setRecordName(decode(localNameStart(tagNameStart,
+                        tagColon), tagNameEnd));
+                config.setRecordNamespace(resolveTagNamespace());
+                logger.fine("autodetected record element: '"
+                        + config.getRecordName() + "' in '"
+                        + config.getRecordNamespace() + "'");
+            }
+            setRecordName(config.getRecordName(), config
+                    .getRecordNamespace());
+        }
+    }
+
+    /**
+     * @return
+     * @throws LoaderException
+     */
+    private boolean isRecordStart() throws LoaderException {
+        int localStart = localNameStart(tagNameStart, tagColon);
+        if (!regionEquals(recordNameBytes, localStart, tagNameEnd
+                - localStart)) {
+            return false;
+        }
+        return recordNamespace.equals(resolveTagNamespace());
+    }
+
+    /**
+     * @param _start
+     * @throws IOException
+     * @throws LoaderException
+     */
+    private void scanRecord(int _start) throws IOException,
+            LoaderException {
+        // keep the record bytes in the buffer until the next record
+        compact(_start);
+        _start = 0;
+        recordStart = _start;
+        recordOffset = consumed;
+        recordTagName = Arrays.copyOfRange(buf, tagNameStart, tagNameEnd);
+
+        if (null != idAttributeName) {
+            currentId = findIdAttribute();
+        }
+        checkTag(1);
+        if (tagEmpty) {
+            recordEnd = tagEnd;
+            return;
+        }
+
+        int recordDepth = 1;
+        int lt;
+        byte b;
+        while (recordDepth > 0) {
+            lt = indexOf(LT, pos);
+            if (lt < 0) {
+                throw new LoaderException(
+                        "end of input before end of current record: "
+                                + Configuration.RECORD_NAME_KEY + "="
+                                + recordName + ", "
+                                + Configuration.RECORD_NAMESPACE_KEY
+                                + "=" + recordNamespace);
+            }
+            b = byteAt(lt + 1);
+            if (QUESTION == b) {
+                pos = skipPast(PI_END, lt + 2);
+                continue;
+            }
+            if (BANG == b) {
+                pos = skipMarkup(lt);
+                continue;
+            }
+            if (SLASH == b) {
+                pos = skipPast(GT, lt + 2);
+                recordDepth--;
+                while (localCount > 0
+                        && localPrefixDepth[localCount - 1] > recordDepth) {
+                    localCount--;
+                }
+                continue;
+            }
+            parseStartTag(lt);
+            pos = tagEnd;
+            if (!tagEmpty) {
+                recordDepth++;
+            }
+            checkTag(recordDepth);
+        }
+        recordEnd = pos;
+    }
+
+    /**
+     * Look for the id element and for prefixes that must be declared.
+     *
+     * @param _depth
+     * @throws IOException
+     * @throws LoaderException
+     */
+    private void checkTag(int _depth) throws IOException, LoaderException {
+        if (null != idElementName && null == currentId) {
+            int localStart = localNameStart(tagNameStart, tagColon);
+            // NOTE: idName is namespace-insensitive
+            if (regionEquals(idElementName, localStart, tagNameEnd
+                    - localStart)) {
+                currentId = readIdText();
+            }
+        }
+
+        if (!copyNamespaceDeclarations || namespaceFallback
+                || nsPrefixes.isEmpty()) {
+            return;
+        }
+
+        // remember any declarations made on this tag
+        int prefixStart;
+        for (int i = 0; i < attrCount; i++) {
+            prefixStart = declarationPrefixStart(i);
+            if (prefixStart < 0) {
+                continue;
+            }
+            if (localCount == localPrefixStart.length) {
+                localPrefixStart = grow(localPrefixStart);
+                localPrefixLength = grow(localPrefixLength);
+                localPrefixDepth = grow(localPrefixDepth);
+            }
+            localPrefixStart[localCount] = prefixStart;
+            localPrefixLength[localCount] = attrNameEnd[i] - prefixStart;
+            // an empty tag's declarations go out of scope immediately
+            localPrefixDepth[localCount] = tagEmpty ? _depth + 1 : _depth;
+            localCount++;
+        }
+
+        checkPrefix(tagNameStart, (tagColon < 0) ? tagNameStart : tagColon);
+        for (int i = 0; i < attrCount; i++) {
+            if (attrColon[i] < 0 || declarationPrefixStart(i) > -1) {
+                // unprefixed attributes are in no namespace
+                continue;
+            }
+            checkPrefix(attrNameStart[i], attrColon[i]);
+        }
+
+        // discard declarations on an empty tag
+        while (localCount > 0 && localPrefixDepth[localCount - 1] > _depth) {
+            localCount--;
+        }
+    }
+
+    /**
+     * @param _start
+     * @param _end
+     */
+    private void checkPrefix(int _start, int _end) {
+        if (namespaceFallback) {
+            return;
+        }
+        int length = _end - _start;
+        if (regionEquals(XML, _start, length)) {
+            return;
+        }
+        for (int i = localCount - 1; i > -1; i--) {
+            if (length == localPrefixLength[i]
+                    && regionEquals(buf, localPrefixStart[i], length,
+                            _start)) {
+                return;
+            }
+        }
+        for (int i = nsPrefixes.size() - 1; i > -1; i--) {
+            if (regionEquals(nsPrefixes.get(i), _start, length)) {
+                // undeclaring the default namespace needs no copy
+                namespaceFallback = length > 0
+                        || nsUris.get(i).length() > 0;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return
+     * @throws IOException
+     * @throws LoaderException
+     */
+    private String readIdText() throws IOException, LoaderException {
+        if (tagEmpty) {
+            throw new LoaderException("badly formed xml or "
+                    + config.getIdNodeName() + " is not a simple node: "
+                    + decode(tagNameStart, tagNameEnd));
+        }
+        int lt = indexOf(LT, tagEnd);
+        if (lt < 0 || SLASH != byteAt(lt + 1)) {
+            throw new LoaderException("badly formed xml or "
+                    + config.getIdNodeName() + " is not a simple node: "
+                    + decode(tagNameStart, tagNameEnd));
+        }
+        String id = Utilities.unescapeXml(decode(tagEnd, lt));
+        logger.fine("found id " + config.getIdNodeName() + " = " + id);
+        return id;
+    }
+
+    /**
+     * @return
+     * @throws LoaderException
+     */
+    private String findIdAttribute() throws LoaderException {
+        // try with and without a namespace: first, try without
+        int match = -1;
+        int localStart;
+        for (int i = 0; i < attrCount; i++) {
+            localStart = localNameStart(attrNameStart[i], attrColon[i]);
+            if (!regionEquals(idAttributeName, localStart, attrNameEnd[i]
+                    - localStart)) {
+                continue;
+            }
+            match = i;
+            if (attrColon[i] < 0) {
+                break;
+            }
+        }
+        if (match < 0) {
+            throw new LoaderException("null id " + config.getIdNodeName()
+                    + " for recordName = " + recordName);
+        }
+        String id = Utilities.unescapeXml(decode(attrValueStart[match],
+                attrValueEnd[match]));
+        logger.fine("found id " + config.getIdNodeName() + " = " + id);
+        return id;
+    }
+
+    /**
+     * @return the namespace of the current start tag
+     * @throws LoaderException
+     */
+    private String resolveTagNamespace() throws LoaderException {
+        int prefixEnd = (tagColon < 0) ? tagNameStart : tagColon;
+        int length = prefixEnd - tagNameStart;
+        // declarations on the tag itself come first
+        int prefixStart;
+        for (int i = 0; i < attrCount; i++) {
+            prefixStart = declarationPrefixStart(i);
+            if (prefixStart > -1
+                    && length == attrNameEnd[i] - prefixStart
+                    && regionEquals(buf, prefixStart, length, tagNameStart)) {
+                return Utilities.unescapeXml(decode(attrValueStart[i],
+                        attrValueEnd[i]));
+            }
+        }
+        for (int i = nsPrefixes.size() - 1; i > -1; i--) {
+            if (regionEquals(nsPrefixes.get(i), tagNameStart, length)) {
+                return nsUris.get(i);
+            }
+        }
+        if (length > 0) {
+            throw new LoaderException("undeclared prefix: "
+                    + decode(tagNameStart, tagNameEnd));
+        }
+        return "";
+    }
+
+    /**
+     * @param _index
+     * @return the start of the declared prefix, or -1 if the attribute is
+     *         not a namespace declaration
+     */
+    private int declarationPrefixStart(int _index) {
+        int start = attrNameStart[_index];
+        int colon = attrColon[_index];
+        if (colon < 0) {
+            // default namespace declaration?
+            return regionEquals(XMLNS, start, attrNameEnd[_index] - start) ? attrNameEnd[_index]
+                    : -1;
+        }
+        return regionEquals(XMLNS, start, colon - start) ? colon + 1 : -1;
+    }
+
+    /**
+     *
+     */
+    private void pushFrame() throws LoaderException {
+        if (tagEmpty) {
+            return;
+        }
+        if (depth == frameSizes.length) {
+            frameSizes = grow(frameSizes);
+        }
+        frameSizes[depth++] = nsPrefixes.size();
+        frameTags.add(Arrays.copyOfRange(buf, tagNameStart - 1, tagEnd));
+        frameNames.add(Arrays.copyOfRange(buf, tagNameStart, tagNameEnd));
+        int prefixStart;
+        for (int i = 0; i < attrCount; i++) {
+            prefixStart = declarationPrefixStart(i);
+            if (prefixStart < 0) {
+                continue;
+            }
+            nsPrefixes.add(Arrays.copyOfRange(buf, prefixStart,
+                    attrNameEnd[i]));
+            nsUris.add(Utilities.unescapeXml(decode(attrValueStart[i],
+                    attrValueEnd[i])));
+        }
+    }
+
+    /**
+     *
+     */
+    private void popFrame() {
+        int size = frameSizes[--depth];
+        frameTags.remove(depth);
+        frameNames.remove(depth);
+        while (nsPrefixes.size() > size) {
+            nsPrefixes.remove(nsPrefixes.size() - 1);
+            nsUris.remove(nsUris.size() - 1);
+        }
+    }
+
+    /**
+     * Parse the start tag at the given offset into the reusable tag fields.
+     *
+     * @param _lt
+     * @throws IOException
+     * @throws LoaderException
+     */
+    private void parseStartTag(int _lt) throws IOException,
+            LoaderException {
+        int i = _lt + 1;
+        tagNameStart = i;
+        tagColon = -1;
+        byte b;
+        while (true) {
+            b = byteAt(i);
+            if (isNameEnd(b)) {
+                break;
+            }
+            if (COLON == b && tagColon < 0) {
+                tagColon = i;
+            }
+            i++;
+        }
+        tagNameEnd = i;
+        if (tagNameEnd == tagNameStart) {
+            throw new LoaderException("badly formed start tag: "
+                    + decode(_lt, Math.min(_lt + 32, limit)));
+        }
+
+        attrCount = 0;
+        tagEmpty = false;
+        byte quote;
+        while (true) {
+            b = byteAt(i);
+            if (GT == b) {
+                tagEnd = i + 1;
+                return;
+            }
+            if (SLASH == b) {
+                tagEmpty = true;
+                i++;
+                continue;
+            }
+            if (isWhitespace(b)) {
+                i++;
+                continue;
+            }
+
+            // attribute name
+            if (attrCount == attrNameStart.length) {
+                attrNameStart = grow(attrNameStart);
+                attrNameEnd = grow(attrNameEnd);
+                attrColon = grow(attrColon);
+                attrValueStart = grow(attrValueStart);
+                attrValueEnd = grow(attrValueEnd);
+            }
+            attrNameStart[attrCount] = i;
+            attrColon[attrCount] = -1;
+            while (!isNameEnd(b = byteAt(i)) && EQUALS != b) {
+                if (COLON == b && attrColon[attrCount] < 0) {
+                    attrColon[attrCount] = i;
+                }
+                i++;
+            }
+            attrNameEnd[attrCount] = i;
+
+            // attribute value
+            while (QUOT != (quote = byteAt(i)) && APOS != quote) {
+                if (!isWhitespace(quote) && EQUALS != quote) {
+                    throw new LoaderException("badly formed attribute in "
+                            + decode(tagNameStart, tagNameEnd));
+                }
+                i++;
+            }
+            attrValueStart[attrCount] = i + 1;
+            i = indexOf(quote, i + 1);
+            if (i < 0) {
+                throw new LoaderException("end of input inside tag "
+                        + decode(tagNameStart, tagNameEnd));
+            }
+            attrValueEnd[attrCount] = i;
+            attrCount++;
+            i++;
+        }
+    }
+
+    /**
+     * Skip a comment, CDATA section, or DOCTYPE declaration.
+     *
+     * @param _lt
+     * @return
+     * @throws IOException
+     * @throws LoaderException
+     */
+    private int skipMarkup(int _lt) throws IOException, LoaderException {
+        if (startsWith(COMMENT_START, _lt + 1)) {
+            return skipPast(COMMENT_END, _lt + 1 + COMMENT_START.length);
+        }
+        if (startsWith(CDATA_START, _lt + 1)) {
+            return skipPast(CDATA_END, _lt + 1 + CDATA_START.length);
+        }
+        // DOCTYPE, possibly with an internal subset
+        int brackets = 0;
+        int i = _lt + 2;
+        byte b;
+        while (true) {
+            b = byteAt(i);
+            if (QUOT == b || APOS == b) {
+                i = indexOf(b, i + 1);
+                if (i < 0) {
+                    break;
+                }
+            } else if (OPEN_BRACKET == b) {
+                brackets++;
+            } else if (CLOSE_BRACKET == b) {
+                brackets--;
+            } else if (GT == b && brackets < 1) {
+                return i + 1;
+            }
+            i++;
+        }
+        throw new LoaderException("end of input inside markup declaration");
+    }
+
+    /**
+     * @param _pattern
+     * @param _from
+     * @return the offset after the pattern
+     * @throws IOException
+     * @throws LoaderException
+     */
+    private int skipPast(byte[] _pattern, int _from) throws IOException,
+            LoaderException {
+        int i = _from;
+        while (true) {
+            i = indexOf(_pattern[0], i);
+            if (i < 0) {
+                throw new LoaderException("end of input while looking for "
+                        + new String(_pattern));
+            }
+            if (startsWith(_pattern, i)) {
+                return i + _pattern.length;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * @param _b
+     * @param _from
+     * @return
+     * @throws IOException
+     * @throws LoaderException
+     */
+    private int skipPast(byte _b, int _from) throws IOException,
+            LoaderException {
+        int i = indexOf(_b, _from);
+        if (i < 0) {
+            throw new LoaderException("end of input while looking for "
+                    + (char) _b);
+        }
+        return i + 1;
+    }
+
+    /**
+     * @param _pattern
+     * @param _offset
+     * @return
+     * @throws IOException
+     */
+    private boolean startsWith(byte[] _pattern, int _offset)
+            throws IOException {
+        while (limit - _offset < _pattern.length && fill()) {
+            // keep reading
+        }
+        if (limit - _offset < _pattern.length) {
+            return false;
+        }
+        return regionEquals(_pattern, _offset, _pattern.length);
+    }
+
+    /**
+     * @param _b
+     * @param _from
+     * @return the offset of the next matching byte, or -1 at end of input
+     * @throws IOException
+     */
+    private int indexOf(byte _b, int _from) throws IOException {
+        int i = _from;
+        while (true) {
+            for (; i < limit; i++) {
+                if (_b == buf[i]) {
+                    return i;
+                }
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @param _offset
+     * @return
+     * @throws IOException
+     * @throws LoaderException
+     */
+    private byte byteAt(int _offset) throws IOException, LoaderException {
+        while (_offset >= limit) {
+            if (!fill()) {
+                throw new LoaderException("unexpected end of input");
+            }
+        }
+        return buf[_offset];
+    }
+
+    /**
+     * Read more bytes, growing the buffer if needed. Offsets into the buffer
+     * remain valid.
+     *
+     * @return false at end of input
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (limit == buf.length) {
+            buf = Arrays.copyOf(buf, 2 * buf.length);
+        }
+        int len = input.read(buf, limit, buf.length - limit);
+        if (len < 0) {
+            eof = true;
+            return false;
+        }
+        limit += len;
+        return true;
+    }
+
+    /**
+     * Discard everything before the given offset.
+     *
+     * @param _offset
+     */
+    private void compact(int _offset) {
+        if (0 == _offset) {
+            return;
+        }
+        int remaining = limit - _offset;
+        System.arraycopy(buf, _offset, buf, 0, remaining);
+        limit = remaining;
+        consumed += _offset;
+        pos -= _offset;
+        tagNameStart -= _offset;
+        tagNameEnd -= _offset;
+        if (tagColon > -1) {
+            tagColon -= _offset;
+        }
+        tagEnd -= _offset;
+        for (int i = 0; i < attrCount; i++) {
+            attrNameStart[i] -= _offset;
+            attrNameEnd[i] -= _offset;
+            if (attrColon[i] > -1) {
+                attrColon[i] -= _offset;
+            }
+            attrValueStart[i] -= _offset;
+            attrValueEnd[i] -= _offset;
+        }
+    }
+
+    /**
+     * @param _pattern
+     * @param _offset
+     * @param _length
+     * @return
+     */
+    private boolean regionEquals(byte[] _pattern, int _offset, int _length) {
+        if (null == _pattern || _pattern.length != _length) {
+            return false;
+        }
+        return regionEquals(_pattern, 0, _length, _offset);
+    }
+
+    /**
+     * @param _a
+     * @param _aOffset
+     * @param _length
+     * @param _offset
+     *            offset into the buffer
+     * @return
+     */
+    private boolean regionEquals(byte[] _a, int _aOffset, int _length,
+            int _offset) {
+        for (int i = 0; i < _length; i++) {
+            if (_a[_aOffset + i] != buf[_offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param _start
+     * @param _colon
+     * @return
+     */
+    private static int localNameStart(int _start, int _colon) {
+        return (_colon < 0) ? _start : _colon + 1;
+    }
+
+    /**
+     * @param _b
+     * @return
+     */
+    private static boolean isWhitespace(byte _b) {
+        return ' ' == _b || '\t' == _b || '\n' == _b || '\r' == _b;
+    }
+
+    /**
+     * @param _b
+     * @return
+     */
+    private static boolean isNameEnd(byte _b) {
+        return isWhitespace(_b) || GT == _b || SLASH == _b;
+    }
+
+    /**
+     * @param _array
+     * @return
+     */
+    private static int[] grow(int[] _array) {
+        return Arrays.copyOf(_array, 2 * _array.length);
+    }
+
+    /**
+     * @param _start
+     * @param _end
+     * @return
+     */
+    private String decode(int _start, int _end) {
+        return new String(buf, _start, _end - _start, charset);
+    }
+
+    /**
+     * @return the id of the current record, or null if none was found
+     */
+    public String getCurrentId() {
+        return currentId;
+    }
+
+    /**
+     * @return true if the current record uses a namespace prefix that is
+     *         declared by an ancestor element
+     */
+    public boolean isNamespaceFallback() {
+        return namespaceFallback;
+    }
+
+    /**
+     * The buffer is only valid until the next call to {@link #nextRecord()}
+     *
+     * @return
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * @return
+     */
+    public int getRecordStart() {
+        return recordStart;
+    }
+
+    /**
+     * @return
+     */
+    public int getRecordLength() {
+        return recordEnd - recordStart;
+    }
+
+    /**
+     * @return a copy of the current record bytes
+     */
+    public byte[] getRecordBytes() {
+        return Arrays.copyOfRange(buf, recordStart, recordEnd);
+    }
+
+    /**
+     * @return the namespace declarations in scope for the current record,
+     *         as they would appear in a start tag
+     */
+    public String getNamespaceDeclarations() {
+        StringBuilder decl = new StringBuilder();
+        ArrayList<String> seen = new ArrayList<String>();
+        String prefix;
+        // the innermost declaration of each prefix wins
+        for (int i = nsPrefixes.size() - 1; i > -1; i--) {
+            prefix = new String(nsPrefixes.get(i), charset);
+            if (seen.contains(prefix)) {
+                continue;
+            }
+            seen.add(prefix);
+            decl.insert(0, " xmlns" + (prefix.length() > 0 ? ":" : "")
+                    + prefix + "=\""
+                    + Utilities.escapeXml(nsUris.get(i), true) + "\"");
+        }
+        return decl.toString();
+    }
+
+    /**
+     * @return the offset of the current record from the start of the input
+     */
+    public long getRecordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * @return the qualified name of the current record element, as bytes
+     */
+    public byte[] getRecordTagName() {
+        return recordTagName;
+    }
+
+    /**
+     * @return the start tags of the current record's ancestors, outermost
+     *         first, exactly as they appear in the input
+     */
+    public byte[] getAncestorStartTags() {
+        ByteArrayOutputStream tags = new ByteArrayOutputStream();
+        for (byte[] tag : frameTags) {
+            tags.write(tag, 0, tag.length);
+        }
+        return tags.toByteArray();
+    }
+
+    /**
+     * @return end tags that close the current record's ancestors
+     */
+    public byte[] getAncestorEndTags() {
+        ByteArrayOutputStream tags = new ByteArrayOutputStream();
+        byte[] name;
+        for (int i = frameNames.size() - 1; i > -1; i--) {
+            name = frameNames.get(i);
+            tags.write(LT);
+            tags.write(SLASH);
+            tags.write(name, 0, name.length);
+            tags.write(GT);
+        }
+        return tags.toByteArray();
+    }
+
+    /**
+     * @return
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         Holds one streamed record so that it can be read more than once.
+ *         Records up to the threshold stay in a pooled memory segment, and
+ *         larger records spill to a temporary file, so a record of any size
+ *         can be replayed without holding it all in the heap.
+ *
+ *         The segment starts small and doubles as the record grows, so a
+ *         record keeps at most twice its own length, and never the whole
+ *         threshold unless it needs it. Idle segments are pooled by size
+ *         class, up to a fixed number of bytes.
+ */
+public class ReplayBuffer {
+
+    /**
+     * The smallest segment, and the first size class.
+     */
+    protected static final int MIN_SEGMENT = 512;
+
+    /**
+     * Idle memory kept for reuse, at most, in bytes.
+     */
+    protected static final long MAX_POOLED_BYTES = 32 * 1024 * 1024;
+
+    // one class for each power of two, from MIN_SEGMENT up
+    private static final int CLASS_COUNT = 32 - Integer
+            .numberOfLeadingZeros(Integer.MAX_VALUE / MIN_SEGMENT) + 1;
+
+    private static final List<ConcurrentLinkedQueue<byte[]>> pools = new ArrayList<ConcurrentLinkedQueue<byte[]>>(
+            CLASS_COUNT);
+
+    static {
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            pools.add(new ConcurrentLinkedQueue<byte[]>());
+        }
+    }
+
+    private static final AtomicLong pooledBytes = new AtomicLong();
+
+    private int threshold;
+
+    private File directory;
+
+    private byte[] memory;
+
+    private int length = 0;
+
+    private File file;
+
+    private long size = 0;
+
+    /**
+     * @param _threshold
+     *            records larger than this spill to disk
+     * @param _directory
+     *            for spill files, or null for the default temp directory
+     */
+    public ReplayBuffer(int _threshold, File _directory) {
+        threshold = _threshold;
+        directory = _directory;
+    }
+
+    /**
+     * Read the stream to its end. The stream is not closed.
+     *
+     * @param _in
+     * @throws IOException
+     */
+    public void fill(InputStream _in) throws IOException {
+        memory = take(Math.min(MIN_SEGMENT, threshold));
+        // a pooled segment may be larger than this buffer's threshold
+        int capacity = Math.min(memory.length, threshold);
+        int count;
+        while (true) {
+            while (length < capacity
+                    && -1 < (count = _in.read(memory, length, capacity
+                            - length))) {
+                length += count;
+            }
+            size = length;
+            if (length < capacity || capacity >= threshold) {
+                break;
+            }
+            // full, but under the threshold: grow
+            byte[] larger = take((int) Math.min(threshold,
+                    2L * capacity));
+            System.arraycopy(memory, 0, larger, 0, length);
+            give(memory);
+            memory = larger;
+            capacity = Math.min(memory.length, threshold);
+        }
+        if (length < capacity) {
+            return;
+        }
+        int next = _in.read();
+        if (-1 == next) {
+            return;
+        }
+
+        // too big: move everything to disk
+        // close() deletes the file: registering every spill for deletion
+        // at exit would hold its path for the life of the VM
+        file = File.createTempFile("recordloader-", ".spill", directory);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(memory, 0, length);
+            out.write(next);
+            size++;
+            give(memory);
+            memory = null;
+            length = 0;
+            byte[] buf = new byte[64 * 1024];
+            while (-1 < (count = _in.read(buf))) {
+                out.write(buf, 0, count);
+                size += count;
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return true if the record is on disk
+     */
+    public boolean isSpilled() {
+        return null != file;
+    }
+
+    /**
+     * @return the spill file, or null
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the memory segment, or null if the record spilled. Only the
+     *         first {@link #getLength()} bytes belong to the record.
+     */
+    public byte[] getBytes() {
+        return memory;
+    }
+
+    /**
+     * @return the length of the record in memory
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the length of the record
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return a new stream over the whole record
+     * @throws IOException
+     */
+    public InputStream newInputStream() throws IOException {
+        if (null != file) {
+            return new BufferedInputStream(new FileInputStream(file));
+        }
+        return new ByteArrayInputStream(memory, 0, length);
+    }
+
+    /**
+     * Release the memory segment and delete the spill file.
+     */
+    public void close() {
+        if (null != memory) {
+            give(memory);
+            memory = null;
+        }
+        if (null != file) {
+            if (!file.delete()) {
+                // only the files that could not be deleted now
+                file.deleteOnExit();
+            }
+            file = null;
+        }
+    }
+
+    /**
+     * @param _size
+     * @return the size class that holds segments of this size
+     */
+    static int getSizeClass(int _size) {
+        if (_size <= MIN_SEGMENT) {
+            return 0;
+        }
+        // the smallest power of two that holds the size
+        return 32 - Integer.numberOfLeadingZeros((_size - 1) / MIN_SEGMENT);
+    }
+
+    /**
+     * @param _size
+     * @return a segment of at least this size, and less than twice it
+     */
+    private static byte[] take(int _size) {
+        byte[] segment = pools.get(getSizeClass(_size)).poll();
+        if (null != segment) {
+            pooledBytes.addAndGet(-segment.length);
+            if (segment.length >= _size) {
+                return segment;
+            }
+            // from a different threshold: let it go
+        }
+        return new byte[_size];
+    }
+
+    /**
+     * @param _segment
+     */
+    private static void give(byte[] _segment) {
+        if (pooledBytes.addAndGet(_segment.length) > MAX_POOLED_BYTES) {
+            pooledBytes.addAndGet(-_segment.length);
+            return;
+        }
+        pools.get(getSizeClass(_segment.length)).offer(_segment);
+    }
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.timing.TokenBucket;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Limits events and bytes per second, overall and optionally for
+ *         each connection, with token buckets. Idle time earns at most one
+ *         burst, so a stall is not followed by a long run at full speed.
+ *         Each caller sleeps outside any lock.
+ */
+public class Throttle {
+
+    private static final long NANOS_PER_MILLISECOND = 1000 * 1000;
+
+    private SimpleLogger logger;
+
+    private double burstSeconds;
+
+    // overall limits, or null
+    private TokenBucket events;
+
+    private TokenBucket bytes;
+
+    // per-connection limits, or zero
+    private double hostEventsPerSecond;
+
+    private double hostBytesPerSecond;
+
+    private ConcurrentMap<String, TokenBucket[]> hosts = new ConcurrentHashMap<String, TokenBucket[]>();
+
+    /**
+     * @param _config
+     */
+    public Throttle(Configuration _config) {
+        logger = _config.getLogger();
+        burstSeconds = _config.getThrottleBurstSeconds();
+        events = newBucket(_config.getThrottledEventsPerSecond(), 1);
+        bytes = newBucket(_config.getThrottledBytesPerSecond(), 0);
+        hostEventsPerSecond = _config.getThrottledHostEventsPerSecond();
+        hostBytesPerSecond = _config.getThrottledHostBytesPerSecond();
+        if (isEnabled()) {
+            logger.fine("throttling " + this);
+        }
+    }
+
+    /**
+     * @param _rate
+     * @param _minimum
+     *            the smallest useful burst
+     * @return a bucket, or null if the rate is not limited
+     */
+    private TokenBucket newBucket(double _rate, double _minimum) {
+        if (_rate <= 0) {
+            return null;
+        }
+        return new TokenBucket(_rate, Math.max(_minimum, _rate
+                * burstSeconds));
+    }
+
+    /**
+     * @return true if any limit is set
+     */
+    public boolean isEnabled() {
+        return null != events || null != bytes || hostEventsPerSecond > 0
+                || hostBytesPerSecond > 0;
+    }
+
+    /**
+     * Account for one event, and wait until the limits allow another.
+     * 
+     * @param _bytes
+     * @param _connection
+     *            the connection string for the event's host, or null
+     */
+    public void acquire(long _bytes, String _connection) {
+        long now = System.nanoTime();
+        long waitNanos = reserve(events, 1, now);
+        waitNanos = Math.max(waitNanos, reserve(bytes, _bytes, now));
+        if (null != _connection
+                && (hostEventsPerSecond > 0 || hostBytesPerSecond > 0)) {
+            TokenBucket[] host = getHost(_connection);
+            waitNanos = Math.max(waitNanos, reserve(host[0], 1, now));
+            waitNanos = Math.max(waitNanos, reserve(host[1], _bytes, now));
+        }
+        if (waitNanos < 1) {
+            return;
+        }
+        logger.finer("sleeping " + waitNanos + " ns");
+        try {
+            Thread.sleep(waitNanos / NANOS_PER_MILLISECOND,
+                    (int) (waitNanos % NANOS_PER_MILLISECOND));
+        } catch (InterruptedException e) {
+            // caller will reset interrupted status
+        }
+    }
+
+    /**
+     * @param _bucket
+     * @param _count
+     * @param _now
+     * @return nanoseconds to wait
+     */
+    private long reserve(TokenBucket _bucket, double _count, long _now) {
+        return (null == _bucket) ? 0 : _bucket.reserve(_count, _now);
+    }
+
+    /**
+     * @param _connection
+     * @return the buckets for events and bytes, either of which may be null
+     */
+    private TokenBucket[] getHost(String _connection) {
+        TokenBucket[] host = hosts.get(_connection);
+        if (null != host) {
+            return host;
+        }
+        host = new TokenBucket[] { newBucket(hostEventsPerSecond, 1),
+                newBucket(hostBytesPerSecond, 0) };
+        TokenBucket[] previous = hosts.putIfAbsent(_connection, host);
+        return (null == previous) ? host : previous;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "events " + (null == events ? "unlimited" : events)
+                + ", bytes " + (null == bytes ? "unlimited" : bytes)
+                + ", per host events "
+                + (hostEventsPerSecond > 0 ? hostEventsPerSecond + "/s"
+                        : "unlimited")
+                + ", per host bytes "
+                + (hostBytesPerSecond > 0 ? hostBytesPerSecond + "/s"
+                        : "unlimited");
+    }
+
+}
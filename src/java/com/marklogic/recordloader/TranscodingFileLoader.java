@@ -19,6 +19,7 @@
 package com.marklogic.recordloader;
 
 import com.marklogic.ps.Utilities;
+import com.marklogic.ps.timing.TimedEvent;
 
 /**
  * @author Michael Blakeley, Mark Logic Corporation
@@ -46,8 +47,10 @@ public class TranscodingFileLoader extends AbstractLoader {
             boolean skippingRecord = checkIdAndUri(currentRecordPath);
 
             // grab the entire document in the desired encoding
-            byte[] bytes = Utilities.read(input, decoder).getBytes(
-                    config.getOutputEncoding());
+            String text = Utilities.read(input, decoder);
+            event.endStage(TimedEvent.STAGE_READ);
+            byte[] bytes = text.getBytes(config.getOutputEncoding());
+            event.endStage(TimedEvent.STAGE_SERIALIZE);
             if (null == bytes) {
                 throw new LoaderException("null document: "
                         + currentRecordPath);
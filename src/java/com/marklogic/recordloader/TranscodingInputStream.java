@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         Re-encodes a stream as it is read, a buffer at a time, so that a
+ *         record can be transcoded without holding all of it in memory.
+ *         Closing this stream closes the underlying stream.
+ */
+public class TranscodingInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private Reader reader;
+
+    private CharsetEncoder encoder;
+
+    private CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+    private ByteBuffer bytes = ByteBuffer.allocate(2 * BUFFER_SIZE);
+
+    private boolean isEndOfInput = false;
+
+    private boolean isFlushed = false;
+
+    /**
+     * @param _in
+     * @param _decoder
+     *            for the encoding of the stream
+     * @param _charset
+     *            the encoding to read
+     */
+    public TranscodingInputStream(InputStream _in, CharsetDecoder _decoder,
+            String _charset) {
+        reader = new InputStreamReader(_in, _decoder);
+        encoder = Charset.forName(_charset).newEncoder();
+        // both empty
+        chars.flip();
+        bytes.flip();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#read()
+     */
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int count;
+        while (0 == (count = read(one, 0, 1))) {
+            // try again
+        }
+        return (-1 == count) ? -1 : (one[0] & 0xff);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] _b, int _off, int _len) throws IOException {
+        if (0 == _len) {
+            return 0;
+        }
+        if (!bytes.hasRemaining() && !fill()) {
+            return -1;
+        }
+        int count = Math.min(_len, bytes.remaining());
+        bytes.get(_b, _off, count);
+        return count;
+    }
+
+    /**
+     * @return false at the end of the stream
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        bytes.clear();
+        while (0 == bytes.position() && !isFlushed) {
+            if (!isEndOfInput) {
+                // keep any partial surrogate pair from the last pass
+                chars.compact();
+                isEndOfInput = -1 == reader.read(chars);
+                chars.flip();
+            }
+            CoderResult result = encoder.encode(chars, bytes, isEndOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (isEndOfInput && result.isUnderflow()) {
+                encoder.flush(bytes);
+                isFlushed = true;
+            }
+        }
+        bytes.flip();
+        return bytes.hasRemaining();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#close()
+     */
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
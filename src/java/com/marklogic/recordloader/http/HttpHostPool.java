@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2008-2010 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.http;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.marklogic.recordloader.Configuration;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         Bounds the number of concurrent requests to each host. The JVM
+ *         keeps the keep-alive connections themselves, as long as every
+ *         response is read to the end: this class sizes that cache to
+ *         match, and remembers whether a host has authenticated yet.
+ *
+ *         For threaded content, each host also has its own request
+ *         threads, one per connection, so that a few loader threads can
+ *         keep every connection busy. Each of those threads blocks for the
+ *         whole request.
+ */
+public class HttpHostPool {
+
+    private static final Map<String, HttpHostPool> pools = new HashMap<String, HttpHostPool>();
+
+    private String name;
+
+    private Semaphore permits;
+
+    private volatile boolean authenticated = false;
+
+    private int size;
+
+    // created on first use
+    private ThreadPoolExecutor executor;
+
+    /**
+     * @param _name
+     * @param _size
+     */
+    private HttpHostPool(String _name, int _size) {
+        name = _name;
+        size = _size;
+        permits = new Semaphore(_size, true);
+    }
+
+    /**
+     * @param _config
+     * @param _url
+     * @return the pool for the URL's host and port
+     */
+    public static HttpHostPool getPool(Configuration _config, URL _url) {
+        String key = _url.getProtocol() + "://" + _url.getHost() + ":"
+                + _url.getPort();
+        synchronized (pools) {
+            HttpHostPool pool = pools.get(key);
+            if (null != pool) {
+                return pool;
+            }
+            int size = _config.getHttpMaxConnections();
+            if (pools.isEmpty()
+                    && null == System.getProperty("http.maxConnections")) {
+                // the JVM keeps 5 idle connections per host, by default
+                System.setProperty("http.maxConnections", "" + size);
+            }
+            pool = new HttpHostPool(_url.getHost() + ":" + _url.getPort(),
+                    size);
+            pools.put(key, pool);
+            _config.getLogger().info(
+                    "http connections for " + pool.name + ": " + size);
+            return pool;
+        }
+    }
+
+    /**
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        permits.acquire();
+    }
+
+    /**
+     *
+     */
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * Run a task on one of this host's request threads. Tasks are handed
+     * off, not queued, so this blocks while every thread is busy.
+     *
+     * @param _task
+     * @throws InterruptedException
+     */
+    public void execute(Runnable _task) throws InterruptedException {
+        ThreadPoolExecutor tasks;
+        synchronized (this) {
+            if (null == executor) {
+                executor = newExecutor();
+            }
+            tasks = executor;
+        }
+        try {
+            tasks.execute(_task);
+        } catch (RejectedExecutionException e) {
+            if (e.getCause() instanceof InterruptedException) {
+                throw (InterruptedException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return
+     */
+    private ThreadPoolExecutor newExecutor() {
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = new ThreadFactory() {
+            public Thread newThread(Runnable _r) {
+                Thread t = new Thread(_r, "http-" + name + "-"
+                        + count.incrementAndGet());
+                // do not keep the VM alive after a halt
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        RejectedExecutionHandler blocks = new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable _r,
+                    ThreadPoolExecutor _executor) {
+                try {
+                    // wait for a thread to take it
+                    _executor.getQueue().put(_r);
+                } catch (InterruptedException e) {
+                    throw new RejectedExecutionException(e);
+                }
+            }
+        };
+        return new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), factory, blocks);
+    }
+
+    /**
+     * @return true if a request has already authenticated, so that the JVM
+     *         can send credentials without waiting for a challenge
+     */
+    public boolean isAuthenticated() {
+        return authenticated;
+    }
+
+    /**
+     *
+     */
+    public void setAuthenticated() {
+        authenticated = true;
+    }
+
+}
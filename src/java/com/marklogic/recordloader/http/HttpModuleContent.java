@@ -18,109 +18,169 @@
  */
 package com.marklogic.recordloader.http;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.io.StringWriter;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.io.UnsupportedEncodingException;
-import java.io.Writer;
+import java.net.HttpRetryException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.CharsetDecoder;
-import java.util.Arrays;
+import java.util.Random;
+import java.util.Vector;
 
 import com.marklogic.recordloader.AbstractContent;
+import com.marklogic.recordloader.BatchContentInterface;
+import com.marklogic.recordloader.Configuration;
 import com.marklogic.recordloader.ContentInterface;
+import com.marklogic.recordloader.HostBalancer;
+import com.marklogic.recordloader.HostContentInterface;
 import com.marklogic.recordloader.LoaderException;
+import com.marklogic.recordloader.ModuleContentInterface;
+import com.marklogic.recordloader.ModuleResult;
+import com.marklogic.recordloader.ReplayBuffer;
 
 /**
  * @author Michael Blakeley, michael.blakeley@marklogic.com
  * 
- *         This implementation passes the XML source to a defined module. As
- *         such, it cannot handle documents larger than available memory.
+ *         This implementation passes each record to a module over HTTP.
  * 
- *         Also, this class can only handle XML, and possibly text: no binaries!
+ *         By default, the request body is the record itself, streamed as-is,
+ *         and the other fields (URI, NAMESPACE, ROLES-*, COLLECTIONS, and so
+ *         on) are in the query string. The module reads the record with
+ *         xdmp:get-request-body(). With HTTP_MODULE_BODY=form, the request is
+ *         a form that includes XML-STRING, as older modules expect.
  * 
- */
-/**
- * @author Michael Blakeley, Mark Logic Corporation
+ *         With HTTP_MODULE_BODY=multipart, each request is a multipart/mixed
+ *         batch. The first part is a form, with the fields that the batch
+ *         shares. Each record follows in its own part, with its URI in the
+ *         X-URI header, URL-encoded. A record whose fields differ from the
+ *         first part, for example because it came from another input file,
+ *         also has an X-PARAMETERS header, which replaces the shared form.
+ *         The module can read the request with xdmp:multipart-decode().
  * 
+ *         The response body may hold one result line per record, as
+ *         described in ModuleResult.
+ * 
+ *         Streamed records are buffered with spill to disk, so that they can
+ *         be retried, and responses are read to the end, so that
+ *         connections can be kept alive.
  */
 public class HttpModuleContent extends AbstractContent implements
-        ContentInterface {
+        ContentInterface, BatchContentInterface, ModuleContentInterface,
+        HostContentInterface {
 
-    protected String xml = null;
+    protected static final int CHUNK_SIZE = 32 * 1024;
 
-    protected String[] executeRoles;
+    protected static final String CRLF = "\r\n";
 
-    protected String[] insertRoles;
+    private static final Random random = new Random();
 
-    protected String[] readRoles;
+    // response bodies longer than this are not kept for error messages
+    protected static final int MAX_MESSAGE = 4 * 1024;
 
-    protected String[] updateRoles;
+    // ...or for results
+    protected static final int MAX_RESULTS = 4 * 1024 * 1024;
 
-    protected String[] collections;
+    protected CharsetDecoder decoder;
 
-    protected String[] placeKeys;
+    // URL-encoded fields, shared by every record
+    protected String parameters;
 
-    protected String language;
+    protected boolean isForm;
 
-    protected String namespace;
+    protected boolean isMultipart = false;
 
-    protected boolean skipExisting;
+    // the record, as bytes or buffered, or decoded for a form
+    protected byte[] bytes = null;
 
-    protected boolean errorExisting;
+    protected String xml = null;
 
-    protected CharsetDecoder decoder;
+    protected ReplayBuffer buffer = null;
 
-    protected String uri;
+    // the encoding of the record bytes
+    protected String charset = "UTF-8";
+
+    protected int replayThreshold = 1024 * 1024;
+
+    protected File spillDirectory = null;
+
+    // the encoding of streamed records
+    protected String streamEncoding = Configuration.OUTPUT_ENCODING_DEFAULT;
 
     private URL connectionUrl;
 
+    protected HttpHostPool pool;
+
+    // balanced host, or null
+    private HostBalancer.Host host;
+
+    // from the module, for the last insert
+    protected ModuleResult result = null;
+
     /**
      * @param _connectionUrl
+     * @param _pool
      * @param _uri
-     * @param _executeRoles
-     * @param _insertRoles
-     * @param _readRoles
-     * @param _updateRoles
-     * @param _collections
-     * @param _language
-     * @param _namespace
-     * @param _skipExisting
-     * @param _errorExisting
-     * @param _placeKeys
+     * @param _parameters
+     *            URL-encoded fields, without the URI
+     * @param _isForm
+     *            true if the record is sent as a form field
      * @param _decoder
      */
-    public HttpModuleContent(URL _connectionUrl, String _uri,
-            String[] _executeRoles, String[] _insertRoles,
-            String[] _readRoles, String[] _updateRoles,
-            String[] _collections, String _language, String _namespace,
-            boolean _skipExisting, boolean _errorExisting,
-            String[] _placeKeys, CharsetDecoder _decoder) {
+    public HttpModuleContent(URL _connectionUrl, HttpHostPool _pool,
+            String _uri, String _parameters, boolean _isForm,
+            CharsetDecoder _decoder) {
         connectionUrl = _connectionUrl;
+        pool = _pool;
         uri = _uri;
-        executeRoles = _executeRoles;
-        insertRoles = _insertRoles;
-        readRoles = _readRoles;
-        updateRoles = _updateRoles;
-        collections = _collections;
-        language = _language;
-        namespace = _namespace;
-        skipExisting = _skipExisting;
-        errorExisting = _errorExisting;
+        parameters = _parameters;
+        isForm = _isForm;
         decoder = _decoder;
-        if (null == _placeKeys) {
-            placeKeys = new String[0];
-        } else {
-            placeKeys = Arrays.copyOf(_placeKeys, _placeKeys.length);
+    }
+
+    /**
+     * @param _host
+     */
+    public void setHost(HostBalancer.Host _host) {
+        host = _host;
+    }
+
+    /**
+     * @param _isMultipart
+     *            true if records are sent in multipart batches
+     */
+    public void setMultipart(boolean _isMultipart) {
+        isMultipart = _isMultipart;
+    }
+
+    /**
+     * @param _threshold
+     *            streamed records larger than this spill to disk, or zero
+     *            for the default
+     * @param _directory
+     *            for spill files, or null
+     */
+    public void setReplayThreshold(int _threshold, File _directory) {
+        if (_threshold > 0) {
+            replayThreshold = _threshold;
         }
+        spillDirectory = _directory;
+    }
+
+    /**
+     * @param _encoding
+     *            of the records passed to setInputStream
+     */
+    public void setStreamEncoding(String _encoding) {
+        streamEncoding = _encoding;
     }
 
     /*
@@ -132,59 +192,432 @@ public class HttpModuleContent extends AbstractContent implements
         if (null == uri) {
             throw new NullPointerException("URI cannot be null");
         }
+        if (isMultipart) {
+            // the module expects a batch, so send a batch of one
+            insert(new BatchContentInterface[] { this });
+        } else {
+            setResults(null, send(null));
+        }
+        ModuleResult.check(result);
+    }
 
-        StringBuilder body = new StringBuilder();
-        try {
-            append(body, "URI", uri);
-            append(body, "XML-STRING", xml);
-            append(body, "NAMESPACE", namespace);
-            append(body, "LANGUAGE", (null == language) ? "" : language);
-            append(body, "ROLES-EXECUTE", executeRoles);
-            append(body, "ROLES-INSERT", insertRoles);
-            append(body, "ROLES-READ", readRoles);
-            append(body, "ROLES-UPDATE", updateRoles);
-            append(body, "COLLECTIONS", collections);
-            // TODO skip existing until first miss
-            append(body, "SKIP-EXISTING", Boolean.toString(skipExisting));
-            append(body, "ERROR-EXISTING", Boolean
-                    .toString(errorExisting));
-            append(body, "FORESTS", placeKeys);
-
-            HttpURLConnection conn = (HttpURLConnection) connectionUrl
-                    .openConnection();
-            conn.setUseCaches(false);
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type",
-                    "application/x-www-form-urlencoded");
-            // use keep-alive to reduce open sockets
-            conn.setRequestProperty("Connection", "keep-alive");
-            conn.setDoOutput(true);
-            OutputStreamWriter osw = new OutputStreamWriter(conn
-                    .getOutputStream());
-            osw.write(body.toString());
-            osw.flush();
-
-            BufferedReader in = new BufferedReader(new InputStreamReader(
-                    conn.getInputStream()));
-            String line;
-            while ((line = in.readLine()) != null) {
-                System.out.println(line);
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.ModuleContentInterface#getResult()
+     */
+    public ModuleResult getResult() {
+        return result;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.BatchContentInterface#insert(com.marklogic
+     * .recordloader.BatchContentInterface[])
+     */
+    public void insert(BatchContentInterface[] _batch)
+            throws LoaderException {
+        HttpModuleContent[] batch = new HttpModuleContent[_batch.length];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = (HttpModuleContent) _batch[i];
+            if (null == batch[i].uri) {
+                throw new NullPointerException("URI cannot be null");
             }
-            in.close();
+        }
+        setResults(batch, send(batch));
+    }
 
+    /**
+     * @param _batch
+     *            a multipart batch, or null for this record by itself
+     * @param _body
+     *            the response body
+     * @throws LoaderException
+     */
+    protected void setResults(HttpModuleContent[] _batch, String _body)
+            throws LoaderException {
+        if (null == _batch) {
+            result = ModuleResult.match(ModuleResult
+                    .parse(new String[] { _body }), new String[] { uri })[0];
             return;
+        }
+        String[] uris = new String[_batch.length];
+        for (int i = 0; i < _batch.length; i++) {
+            uris[i] = _batch[i].uri;
+        }
+        ModuleResult[] results = ModuleResult.match(ModuleResult
+                .parse(new String[] { _body }), uris);
+        for (int i = 0; i < _batch.length; i++) {
+            _batch[i].result = results[i];
+        }
+    }
+
+    /**
+     * @param _batch
+     *            a multipart batch, or null
+     * @return a label for errors
+     */
+    protected String getLabel(HttpModuleContent[] _batch) {
+        return (null == _batch) ? uri : ("batch of " + _batch.length
+                + " from " + uri);
+    }
+
+    /**
+     * Wait for a request slot on this host, and start timing the request.
+     * Every call must be matched by a call to end().
+     * 
+     * @param _label
+     *            for errors
+     * @return the start time, for end()
+     * @throws LoaderException
+     */
+    protected long begin(String _label) throws LoaderException {
+        try {
+            pool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoaderException(_label, e);
+        }
+        return (null == host) ? 0 : host.start();
+    }
+
+    /**
+     * @param _start
+     *            from begin()
+     * @param _isHostError
+     *            true if the host failed the request
+     */
+    protected void end(long _start, boolean _isHostError) {
+        if (null != host) {
+            host.finish(_start, _isHostError);
+        }
+        pool.release();
+    }
+
+    /**
+     * @param _status
+     *            the response code, or -1 if there was no response
+     * @return true if the failure is the host's fault, and worth a retry
+     */
+    protected static boolean isHostError(int _status) {
+        // no response, or an unavailable server, is the host's fault
+        return _status < 0 || HttpURLConnection.HTTP_UNAVAILABLE == _status;
+    }
+
+    /**
+     * @param _batch
+     *            a multipart batch, or null to send this record by itself
+     * @return the response body
+     * @throws LoaderException
+     */
+    private String send(HttpModuleContent[] _batch) throws LoaderException {
+        String label = getLabel(_batch);
+        long start = begin(label);
+        int[] status = new int[] { -1 };
+        boolean isHostError = false;
+        try {
+            Request request = newRequest(_batch);
+            String body;
+            try {
+                // streaming cannot answer an authentication challenge
+                body = post(request, pool.isAuthenticated(), status);
+            } catch (HttpRetryException e) {
+                status[0] = -1;
+                body = post(request, false, status);
+            }
+            pool.setAuthenticated();
+            return body;
         } catch (IOException e) {
-            throw new LoaderException(e);
+            isHostError = isHostError(status[0]);
+            throw new LoaderException(label, e).setRetryable(isHostError);
+        } finally {
+            end(start, isHostError);
         }
     }
 
+    /**
+     * One POST: where it goes, and what it carries. The body can be read
+     * more than once, for retries.
+     */
+    protected class Request {
+
+        protected URL url;
+
+        protected String type;
+
+        // in bytes, or -1 if not known in advance
+        protected long length = -1;
+
+        private HttpModuleContent[] batch;
+
+        private byte[][] heads;
+
+        private byte[] tail;
+
+        /**
+         * @return a new stream over the request body
+         * @throws IOException
+         */
+        protected InputStream newBody() throws IOException {
+            if (null == batch) {
+                return isForm ? new ByteArrayInputStream(getForm()
+                        .getBytes("US-ASCII")) : newRecordStream();
+            }
+            Vector<InputStream> parts = new Vector<InputStream>();
+            try {
+                parts.add(new ByteArrayInputStream(heads[0]));
+                for (int i = 0; i < batch.length; i++) {
+                    parts.add(new ByteArrayInputStream(heads[1 + i]));
+                    parts.add(batch[i].newRecordStream());
+                }
+                parts.add(new ByteArrayInputStream(tail));
+            } catch (IOException e) {
+                for (int i = 0; i < parts.size(); i++) {
+                    parts.get(i).close();
+                }
+                throw e;
+            }
+            return new SequenceInputStream(parts.elements());
+        }
+
+    }
+
+    /**
+     * @param _batch
+     *            a multipart batch, or null
+     * @return
+     * @throws IOException
+     */
+    protected Request newRequest(HttpModuleContent[] _batch)
+            throws IOException {
+        Request request = new Request();
+        request.url = connectionUrl;
+        request.batch = _batch;
+        if (null != _batch) {
+            // a new boundary for every request, since records are opaque
+            String boundary = "recordloader-"
+                    + Long.toHexString(random.nextLong())
+                    + Long.toHexString(System.nanoTime());
+            request.type = "multipart/mixed; boundary=" + boundary;
+            request.heads = new byte[1 + _batch.length][];
+            request.heads[0] = ("--" + boundary + CRLF
+                    + "Content-Type: application/x-www-form-urlencoded"
+                    + CRLF + CRLF + parameters).getBytes("US-ASCII");
+            long length = request.heads[0].length;
+            for (int i = 0; i < _batch.length; i++) {
+                request.heads[1 + i] = _batch[i].getPartHeaders(boundary,
+                        parameters).getBytes("US-ASCII");
+                length += request.heads[1 + i].length
+                        + _batch[i].getLength();
+            }
+            request.tail = (CRLF + "--" + boundary + "--" + CRLF)
+                    .getBytes("US-ASCII");
+            request.length = length + request.tail.length;
+        } else if (isForm) {
+            request.type = "application/x-www-form-urlencoded";
+        } else {
+            request.url = new URL(connectionUrl.toExternalForm()
+                    + (null == connectionUrl.getQuery() ? "?" : "&")
+                    + parameters + "&URI=" + encode(uri));
+            request.type = "application/xml; charset=" + charset;
+            request.length = getLength();
+        }
+        return request;
+    }
+
+    /**
+     * @param _request
+     * @param _isStreaming
+     *            if false, the JVM buffers the body so that it can answer
+     *            an authentication challenge
+     * @param _status
+     *            set to the response code, once there is one
+     * @return the response body
+     * @throws IOException
+     */
+    private String post(Request _request, boolean _isStreaming,
+            int[] _status) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) _request.url
+                .openConnection();
+        conn.setUseCaches(false);
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        if (_isStreaming) {
+            if (_request.length > -1 && _request.length <= Integer.MAX_VALUE) {
+                conn.setFixedLengthStreamingMode((int) _request.length);
+            } else {
+                conn.setChunkedStreamingMode(CHUNK_SIZE);
+            }
+        }
+        conn.setRequestProperty("Content-Type", _request.type);
+
+        OutputStream out = conn.getOutputStream();
+        try {
+            InputStream in = _request.newBody();
+            try {
+                byte[] buf = new byte[CHUNK_SIZE];
+                int count;
+                while (-1 < (count = in.read(buf))) {
+                    out.write(buf, 0, count);
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            out.close();
+        }
+
+        _status[0] = conn.getResponseCode();
+        if (_status[0] >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            throw new IOException("HTTP " + _status[0] + " "
+                    + conn.getResponseMessage() + ": "
+                    + drain(conn.getErrorStream(), MAX_MESSAGE));
+        }
+        return drain(conn.getInputStream(), MAX_RESULTS);
+    }
+
+    /**
+     * @param _boundary
+     * @param _shared
+     *            the fields in the first part
+     * @return the delimiter and headers that precede this record, in a
+     *         multipart batch
+     * @throws UnsupportedEncodingException
+     */
+    private String getPartHeaders(String _boundary, String _shared)
+            throws UnsupportedEncodingException {
+        StringBuilder sb = new StringBuilder(CRLF).append("--").append(
+                _boundary).append(CRLF);
+        sb.append("Content-Type: application/xml; charset=").append(charset)
+                .append(CRLF);
+        sb.append("X-URI: ").append(encode(uri)).append(CRLF);
+        if (!parameters.equals(_shared)) {
+            sb.append("X-PARAMETERS: ").append(parameters).append(CRLF);
+        }
+        return sb.append(CRLF).toString();
+    }
+
+    /**
+     * @return the length of the record in bytes
+     */
+    private long getLength() {
+        return (null == bytes) ? buffer.size() : bytes.length;
+    }
+
+    /**
+     * @return a new stream over the record bytes
+     * @throws IOException
+     */
+    private InputStream newRecordStream() throws IOException {
+        if (null != bytes) {
+            return new ByteArrayInputStream(bytes);
+        }
+        return buffer.newInputStream();
+    }
+
+    /**
+     * @return the form fields, URL-encoded
+     * @throws IOException
+     */
+    private String getForm() throws IOException {
+        return parameters + "&URI=" + encode(uri) + "&XML-STRING="
+                + encode(getXml());
+    }
+
+    /**
+     * @return the record, decoded
+     * @throws IOException
+     */
+    private String getXml() throws IOException {
+        if (null != xml) {
+            return xml;
+        }
+        if (null != bytes) {
+            return new String(bytes, charset);
+        }
+        InputStream in = buffer.newInputStream();
+        try {
+            // a form field cannot be streamed: this won't scale past the VM
+            // size
+            byte[] all = new byte[(int) buffer.size()];
+            int offset = 0;
+            int count;
+            while (offset < all.length
+                    && -1 < (count = in.read(all, offset, all.length
+                            - offset))) {
+                offset += count;
+            }
+            return new String(all, 0, offset, charset);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read a response to the end, so that the connection can be reused.
+     * 
+     * @param _in
+     * @param _max
+     *            bytes to keep
+     * @return the start of the response
+     * @throws IOException
+     */
+    private static String drain(InputStream _in, int _max)
+            throws IOException {
+        if (null == _in) {
+            return "";
+        }
+        // decode once, so that characters are not split across reads
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        byte[] buf = new byte[CHUNK_SIZE];
+        int count;
+        try {
+            while (-1 < (count = _in.read(buf))) {
+                if (message.size() < _max) {
+                    message.write(buf, 0, Math.min(count, _max
+                            - message.size()));
+                }
+            }
+        } finally {
+            _in.close();
+        }
+        return message.toString("UTF-8");
+    }
+
+    /**
+     * @param _body
+     *            a response body
+     * @param _max
+     *            bytes to keep
+     * @return the start of the response
+     * @throws UnsupportedEncodingException
+     */
+    protected static String decode(byte[] _body, int _max)
+            throws UnsupportedEncodingException {
+        if (null == _body) {
+            return "";
+        }
+        return new String(_body, 0, Math.min(_max, _body.length), "UTF-8");
+    }
+
+    /**
+     * @param _value
+     * @return
+     * @throws UnsupportedEncodingException
+     */
+    static String encode(String _value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(null == _value ? "" : _value, "UTF-8");
+    }
+
     /**
      * @param _query
      * @param _key
      * @param _value
      * @throws UnsupportedEncodingException
      */
-    private void append(StringBuilder _query, String _key, String _value)
+    static void append(StringBuilder _query, String _key, String _value)
             throws UnsupportedEncodingException {
         append(_query, _key, new String[] { _value });
     }
@@ -195,7 +628,7 @@ public class HttpModuleContent extends AbstractContent implements
      * @param _value
      * @throws UnsupportedEncodingException
      */
-    private void append(StringBuilder _query, String _key, String[] _value)
+    static void append(StringBuilder _query, String _key, String[] _value)
             throws UnsupportedEncodingException {
         if (null == _value || 1 > _value.length) {
             return;
@@ -204,8 +637,7 @@ public class HttpModuleContent extends AbstractContent implements
             if (_query.length() > 0) {
                 _query.append("&");
             }
-            _query.append(_key).append("=").append(
-                    URLEncoder.encode(_value[i], "UTF-8"));
+            _query.append(_key).append("=").append(encode(_value[i]));
         }
     }
 
@@ -222,23 +654,16 @@ public class HttpModuleContent extends AbstractContent implements
             throw new LoaderException("URI cannot be null");
         }
 
-        // by now, the producer is in the configured output encoding,
-        // so no decoder is needed
-        Reader reader = new InputStreamReader(_producer);
-        Writer writer = new StringWriter();
-        char[] buf = new char[32 * 1024];
-        int count = -1;
+        // a transcoding loader streams its output encoding, and the others
+        // stream the input as it is
+        charset = streamEncoding;
+        buffer = new ReplayBuffer(replayThreshold, spillDirectory);
         try {
-            // read the entire doc - this won't scale past the VM size
-            while ((count = reader.read(buf)) > -1) {
-                writer.write(buf, 0, count);
-            }
-            writer.flush();
-            xml = writer.toString();
-            writer.close();
-            reader.close();
+            buffer.fill(_producer);
         } catch (IOException e) {
-            throw new LoaderException(e);
+            buffer.close();
+            buffer = null;
+            throw new LoaderException(uri, e);
         }
     }
 
@@ -248,8 +673,12 @@ public class HttpModuleContent extends AbstractContent implements
      * @see com.marklogic.recordloader.ContentInterface#setXml(java.lang.String)
      */
     public void setBytes(byte[] _xml) throws LoaderException {
-        // ModuleContent only works with strings
-        // TODO support text? binary?
+        if (!isForm) {
+            // send the bytes as they are, and say how they are encoded
+            bytes = _xml;
+            charset = decoder.charset().name();
+            return;
+        }
         try {
             // use the correct decoder
             xml = decoder.decode(ByteBuffer.wrap(_xml)).toString();
@@ -258,6 +687,20 @@ public class HttpModuleContent extends AbstractContent implements
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.AbstractContent#close()
+     */
+    public void close() {
+        if (null != buffer) {
+            buffer.close();
+            buffer = null;
+        }
+        bytes = null;
+        xml = null;
+    }
+
     @SuppressWarnings("unused")
     public boolean checkDocumentUri(String _uri) throws LoaderException {
         // checking the database does not work, as modules can rewrite uris.
@@ -266,4 +709,44 @@ public class HttpModuleContent extends AbstractContent implements
         return false;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.BatchContentInterface#isBatchable()
+     */
+    public boolean isBatchable() {
+        return isMultipart;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.BatchContentInterface#getBatchKey()
+     */
+    public Object getBatchKey() {
+        // the batch goes to one host
+        return connectionUrl.toExternalForm();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.HostContentInterface#getConnectionString()
+     */
+    public String getConnectionString() {
+        return connectionUrl.toExternalForm();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.BatchContentInterface#checkDocumentUris(java
+     * .lang.String[])
+     */
+    public boolean[] checkDocumentUris(String[] _uris) {
+        // the module decides, as it may rewrite uris
+        return new boolean[_uris.length];
+    }
+
 }
@@ -21,16 +21,20 @@ package com.marklogic.recordloader.http;
 import java.net.Authenticator;
 import java.net.MalformedURLException;
 import java.net.PasswordAuthentication;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.marklogic.ps.SimpleLogger;
 import com.marklogic.recordloader.Configuration;
 import com.marklogic.recordloader.ContentFactory;
 import com.marklogic.recordloader.ContentInterface;
+import com.marklogic.recordloader.HostBalancer;
 import com.marklogic.recordloader.LoaderException;
 
 /**
@@ -65,6 +69,21 @@ public class HttpModuleContentFactory implements ContentFactory {
 
     protected boolean authorityIsInitialized;
 
+    // null unless requests are balanced across hosts
+    protected HostBalancer balancer;
+
+    protected Map<URI, URL> urls = new HashMap<URI, URL>();
+
+    protected boolean isForm;
+
+    protected boolean isMultipart;
+
+    // URL-encoded per-run fields, or null
+    protected String parameters;
+
+    // the skip setting that the parameters were encoded with
+    protected boolean skipExisting;
+
     /**
      * @throws LoaderException
      */
@@ -78,6 +97,9 @@ public class HttpModuleContentFactory implements ContentFactory {
         namespace = configuration.getOutputNamespace();
         // NB - it is up to the module to get forests from forest names
         placeKeys = configuration.getOutputForests();
+        isForm = configuration.isHttpModuleForm();
+        isMultipart = configuration.isHttpModuleMultipart();
+        parameters = null;
     }
 
     /*
@@ -90,12 +112,88 @@ public class HttpModuleContentFactory implements ContentFactory {
     @SuppressWarnings("unused")
     public ContentInterface newContent(String _uri)
             throws LoaderException {
-        // TODO add isSkipExistingUntilFirstMiss
-        return new HttpModuleContent(connectionUrl, _uri, executeRoles,
-                insertRoles, readRoles, updateRoles, collectionsArray,
-                language, namespace, configuration.isSkipExisting(),
-                configuration.isErrorExisting(), placeKeys, configuration
-                        .getDecoder());
+        if (null == parameters
+                || skipExisting != configuration.isSkipExisting()) {
+            initParameters();
+        }
+        URL url = connectionUrl;
+        HostBalancer.Host host = null;
+        if (null != balancer) {
+            host = balancer.select();
+            url = getUrl(host.getUri());
+        }
+        HttpModuleContent content = newContent(url, HttpHostPool.getPool(
+                configuration, url), _uri);
+        content.setHost(host);
+        content.setMultipart(isMultipart);
+        content.setStreamEncoding(configuration.getStreamEncoding());
+        content.setReplayThreshold(configuration
+                .getInputStreamingBufferBytes(), configuration
+                .getInputSpillDirectory());
+        return content;
+    }
+
+    /**
+     * @param _url
+     * @param _pool
+     * @param _uri
+     * @return
+     */
+    protected HttpModuleContent newContent(URL _url, HttpHostPool _pool,
+            String _uri) {
+        return new HttpModuleContent(_url, _pool, _uri, parameters, isForm,
+                configuration.getDecoder());
+    }
+
+    /**
+     * Encode the per-run fields once, rather than for every record.
+     * 
+     * @throws LoaderException
+     */
+    protected void initParameters() throws LoaderException {
+        skipExisting = configuration.isSkipExisting();
+        StringBuilder query = new StringBuilder();
+        try {
+            HttpModuleContent.append(query, "NAMESPACE", namespace);
+            HttpModuleContent.append(query, "LANGUAGE",
+                    (null == language) ? "" : language);
+            HttpModuleContent.append(query, "ROLES-EXECUTE", executeRoles);
+            HttpModuleContent.append(query, "ROLES-INSERT", insertRoles);
+            HttpModuleContent.append(query, "ROLES-READ", readRoles);
+            HttpModuleContent.append(query, "ROLES-UPDATE", updateRoles);
+            HttpModuleContent.append(query, "COLLECTIONS",
+                    collectionsArray);
+            HttpModuleContent.append(query, "SKIP-EXISTING", Boolean
+                    .toString(skipExisting));
+            HttpModuleContent.append(query,
+                    "SKIP-EXISTING-UNTIL-FIRST-MISS", Boolean
+                            .toString(configuration
+                                    .isSkipExistingUntilFirstMiss()));
+            HttpModuleContent.append(query, "ERROR-EXISTING", Boolean
+                    .toString(configuration.isErrorExisting()));
+            HttpModuleContent.append(query, "FORESTS", placeKeys);
+        } catch (UnsupportedEncodingException e) {
+            throw new LoaderException(e);
+        }
+        parameters = query.toString();
+    }
+
+    /**
+     * @param _uri
+     * @return
+     * @throws LoaderException
+     */
+    private URL getUrl(URI _uri) throws LoaderException {
+        URL url = urls.get(_uri);
+        if (null == url) {
+            try {
+                url = _uri.toURL();
+            } catch (MalformedURLException e) {
+                throw new LoaderException(_uri.toString(), e);
+            }
+            urls.put(_uri, url);
+        }
+        return url;
     }
 
     /*
@@ -115,6 +213,7 @@ public class HttpModuleContentFactory implements ContentFactory {
 
         // update content options with the latest collections
         collectionsArray = collections.toArray(new String[0]);
+        parameters = null;
     }
 
     /*
@@ -137,6 +236,7 @@ public class HttpModuleContentFactory implements ContentFactory {
             throws LoaderException {
         configuration = _configuration;
         logger = configuration.getLogger();
+        balancer = configuration.getHostBalancer();
         initOptions();
     }
 
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.http;
+
+import java.net.URL;
+import java.nio.charset.CharsetDecoder;
+
+import com.marklogic.recordloader.AsyncContentInterface;
+import com.marklogic.recordloader.InsertRetry;
+import com.marklogic.recordloader.LoaderException;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         HTTP module content that inserts itself on one of its host's
+ *         request threads. Retries happen on that thread, too, so the
+ *         loader thread only waits when every request thread for the host
+ *         is busy.
+ * 
+ *         This is a bounded pool of blocking requests, not asynchronous
+ *         I/O: each request thread holds one HttpURLConnection until the
+ *         response has been read, and there is no HTTP/2 multiplexing.
+ */
+public class HttpThreadedContent extends HttpModuleContent implements
+        AsyncContentInterface {
+
+    private InsertRetry retry;
+
+    /**
+     * @param _connectionUrl
+     * @param _pool
+     * @param _uri
+     * @param _parameters
+     * @param _isForm
+     * @param _decoder
+     * @param _retry
+     */
+    public HttpThreadedContent(URL _connectionUrl, HttpHostPool _pool,
+            String _uri, String _parameters, boolean _isForm,
+            CharsetDecoder _decoder, InsertRetry _retry) {
+        super(_connectionUrl, _pool, _uri, _parameters, _isForm, _decoder);
+        retry = _retry;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.AsyncContentInterface#insert(com.marklogic
+     * .recordloader.AsyncContentInterface.Callback)
+     */
+    public void insert(final Callback _callback) throws LoaderException {
+        if (null == uri) {
+            throw new NullPointerException("URI cannot be null");
+        }
+        try {
+            pool.execute(new Runnable() {
+                public void run() {
+                    Throwable error = null;
+                    try {
+                        retry.insert(HttpThreadedContent.this);
+                    } catch (Throwable t) {
+                        error = t;
+                    }
+                    _callback.completed(error);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoaderException(uri, e);
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.http;
+
+import java.net.URL;
+
+import com.marklogic.recordloader.Configuration;
+import com.marklogic.recordloader.InsertRetry;
+import com.marklogic.recordloader.LoaderException;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Like HttpModuleContentFactory, but each insert runs in the
+ *         background on a request thread for its host, and reports to the
+ *         monitor when it finishes. HTTP_MAX_CONNECTIONS caps the request
+ *         threads, and so the inserts in flight, for each host, so a few
+ *         loader THREADS can drive many concurrent requests.
+ * 
+ *         Each request still blocks a thread and a connection for its whole
+ *         round trip: this is a bounded blocking pool, and it does not
+ *         multiplex requests. With Java 11 or later, the java11 build
+ *         profile adds HttpClientContentFactory, which does.
+ */
+public class HttpThreadedContentFactory extends HttpModuleContentFactory {
+
+    protected InsertRetry retry;
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.http.HttpModuleContentFactory#setConfiguration
+     * (com.marklogic.recordloader.Configuration)
+     */
+    @Override
+    public void setConfiguration(Configuration _configuration)
+            throws LoaderException {
+        super.setConfiguration(_configuration);
+        retry = new InsertRetry(configuration);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.http.HttpModuleContentFactory#newContent(java
+     * .net.URL, com.marklogic.recordloader.http.HttpHostPool,
+     * java.lang.String)
+     */
+    @Override
+    protected HttpModuleContent newContent(URL _url, HttpHostPool _pool,
+            String _uri) {
+        return new HttpThreadedContent(_url, _pool, _uri, parameters, isForm,
+                configuration.getDecoder(), retry);
+    }
+
+}
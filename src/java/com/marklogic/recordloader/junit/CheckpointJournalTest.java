@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.junit;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.recordloader.CheckpointJournal;
+import com.marklogic.recordloader.Configuration;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class CheckpointJournalTest extends TestCase {
+
+    SimpleLogger logger = SimpleLogger.getSimpleLogger();
+
+    private Configuration newConfiguration(File _file) {
+        Configuration config = new Configuration();
+        config.setLogger(logger);
+        config.getProperties().setProperty(
+                Configuration.CHECKPOINT_FILE_KEY, _file.getPath());
+        config.getProperties().setProperty(
+                Configuration.CHECKPOINT_INTERVAL_KEY, "2");
+        return config;
+    }
+
+    public void testResume() throws Exception {
+        File file = File.createTempFile("CheckpointJournalTest", ".txt");
+        file.delete();
+        file.deleteOnExit();
+
+        CheckpointJournal journal = new CheckpointJournal(
+                newConfiguration(file));
+
+        // every record succeeds, out of order
+        CheckpointJournal.Unit done = journal.open("done");
+        long[] seq = new long[5];
+        for (int i = 0; i < seq.length; i++) {
+            seq[i] = done.submit();
+        }
+        done.complete(seq[4], false);
+        done.complete(seq[0], false);
+        done.close(false);
+        done.complete(seq[2], false);
+        done.complete(seq[1], false);
+        done.complete(seq[3], false);
+
+        // the fourth record fails, but the fifth succeeds
+        CheckpointJournal.Unit partial = journal.open("partial");
+        for (int i = 0; i < seq.length; i++) {
+            seq[i] = partial.submit();
+        }
+        partial.complete(seq[0], false);
+        partial.complete(seq[1], false);
+        partial.complete(seq[2], false);
+        partial.complete(seq[4], false);
+        partial.complete(seq[3], true);
+        partial.close(false);
+
+        // the loader stops before the inserts finish
+        CheckpointJournal.Unit failed = journal.open("failed");
+        failed.submit();
+        failed.close(true);
+
+        assertEquals(1, journal.getCompletedCount());
+        journal.close();
+
+        journal = new CheckpointJournal(newConfiguration(file));
+        assertTrue(journal.isComplete("done"));
+        assertFalse(journal.isComplete("partial"));
+        assertFalse(journal.isComplete("failed"));
+        assertEquals(3, journal.open("partial").getSkipCount());
+        assertEquals(0, journal.open("failed").getSkipCount());
+        assertEquals(0, journal.open("new").getSkipCount());
+        journal.close();
+        file.delete();
+    }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.junit;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import com.marklogic.recordloader.CorpusGenerator;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class CorpusGeneratorTest extends TestCase {
+
+    private byte[] generate(Properties _properties) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CorpusGenerator generator = new CorpusGenerator(_properties);
+        if (CorpusGenerator.FORMAT_DELIMITED.equals(_properties
+                .getProperty(CorpusGenerator.FORMAT_KEY))) {
+            generator.writeDelimited(out);
+        } else {
+            generator.writeXml(out);
+        }
+        return out.toByteArray();
+    }
+
+    public void testRepeatable() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(CorpusGenerator.RECORDS_KEY, "100");
+        properties.setProperty(CorpusGenerator.RECORD_DISTRIBUTION_KEY,
+                CorpusGenerator.RECORD_DISTRIBUTION_EXPONENTIAL);
+        properties.setProperty(CorpusGenerator.NAMESPACE_DEPTH_KEY, "3");
+        byte[] first = generate(properties);
+        assertTrue(Arrays.equals(first, generate(properties)));
+
+        properties.setProperty(CorpusGenerator.SEED_KEY, "2");
+        assertFalse(Arrays.equals(first, generate(properties)));
+
+        String xml = new String(first, "UTF-8");
+        assertTrue(xml.contains("<n3:record id=\"99\">"));
+        assertTrue(xml.contains("<n2:level>2</n2:level>"));
+        assertEquals(100, xml.split("</n3:record>").length - 1);
+    }
+
+    public void testDelimited() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(CorpusGenerator.FORMAT_KEY,
+                CorpusGenerator.FORMAT_DELIMITED);
+        properties.setProperty(CorpusGenerator.RECORDS_KEY, "10");
+        properties.setProperty(CorpusGenerator.FIELDS_KEY, "5");
+        properties.setProperty(CorpusGenerator.FIELD_DELIMITER_KEY, ",");
+        String[] lines = new String(generate(properties), "UTF-8")
+                .split("\n");
+        assertEquals(11, lines.length);
+        assertEquals("id,field1,field2,field3,field4", lines[0]);
+        for (int i = 1; i < lines.length; i++) {
+            String[] fields = lines[i].split(",", -1);
+            assertEquals(5, fields.length);
+            assertEquals(Integer.toString(i - 1), fields[0]);
+        }
+    }
+
+}
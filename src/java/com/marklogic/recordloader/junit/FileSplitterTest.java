@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.junit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.recordloader.Configuration;
+import com.marklogic.recordloader.FileSplitter;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class FileSplitterTest extends TestCase {
+
+    SimpleLogger logger = SimpleLogger.getSimpleLogger();
+
+    public void testSplit() throws Exception {
+        File file = File.createTempFile("FileSplitterTest", ".xml");
+        file.deleteOnExit();
+        Writer w = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        w.write("<?xml version=\"1.0\"?>\n"
+                + "<root xmlns:t=\"test\"><wrap>\n");
+        int count = 10000;
+        for (int i = 0; i < count; i++) {
+            // the comment must not be mistaken for a boundary
+            w.write("<t:record id=\"" + i + "\"><t:x>" + i
+                    + "</t:x><!-- </t:record> <t:record> --></t:record>\n");
+        }
+        w.write("</wrap></root>\n");
+        w.close();
+
+        Configuration config = new Configuration();
+        config.setLogger(logger);
+        config.getProperties().setProperty(
+                Configuration.INPUT_ENCODING_KEY, "UTF-8");
+        config.setIdNodeName("@id");
+        config.setRecordName("record");
+        config.setRecordNamespace("test");
+
+        FileSplitter splitter = new FileSplitter(config, file, 32 * 1024);
+        assertTrue(splitter.split());
+        assertTrue(splitter.getRangeCount() > 1);
+
+        // every range must be a well-formed document
+        DocumentBuilderFactory factory = DocumentBuilderFactory
+                .newInstance();
+        factory.setNamespaceAware(true);
+        int total = 0;
+        Document doc;
+        for (int i = 0; i < splitter.getRangeCount(); i++) {
+            doc = factory.newDocumentBuilder().parse(splitter.getRange(i));
+            assertEquals("root", doc.getDocumentElement().getNodeName());
+            total += doc.getElementsByTagNameNS("test", "record")
+                    .getLength();
+        }
+        assertEquals(count, total);
+        file.delete();
+    }
+
+    public void testParentsVary() throws Exception {
+        File file = File.createTempFile("FileSplitterTest", ".xml");
+        file.deleteOnExit();
+        Writer w = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        // the same prefix is bound to a different namespace in each group
+        w.write("<?xml version=\"1.0\"?>\n<root>\n");
+        int groups = 4;
+        int count = 5000;
+        for (int g = 0; g < groups; g++) {
+            w.write("<group xmlns:p=\"urn:" + g + "\">\n");
+            for (int i = 0; i < count; i++) {
+                w.write("<record id=\"" + i + "\"><p:x>" + g
+                        + "</p:x><empty/></record>\n");
+            }
+            w.write("</group>\n");
+        }
+        w.write("</root>\n");
+        w.close();
+
+        Configuration config = new Configuration();
+        config.setLogger(logger);
+        config.getProperties().setProperty(
+                Configuration.INPUT_ENCODING_KEY, "UTF-8");
+        config.setIdNodeName("@id");
+        config.setRecordName("record");
+        config.setRecordNamespace("");
+
+        FileSplitter splitter = new FileSplitter(config, file, 32 * 1024);
+        assertTrue(splitter.split());
+        assertTrue(splitter.getRangeCount() > groups);
+
+        // every x must still be in the namespace of its own group
+        DocumentBuilderFactory factory = DocumentBuilderFactory
+                .newInstance();
+        factory.setNamespaceAware(true);
+        int total = 0;
+        NodeList xs;
+        Element x;
+        for (int i = 0; i < splitter.getRangeCount(); i++) {
+            xs = factory.newDocumentBuilder().parse(splitter.getRange(i))
+                    .getElementsByTagNameNS("*", "x");
+            for (int j = 0; j < xs.getLength(); j++) {
+                x = (Element) xs.item(j);
+                assertEquals("urn:" + x.getTextContent(), x
+                        .getNamespaceURI());
+            }
+            total += xs.getLength();
+        }
+        assertEquals(groups * count, total);
+        file.delete();
+    }
+
+}
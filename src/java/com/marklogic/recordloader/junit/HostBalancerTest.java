@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.junit;
+
+import java.net.URI;
+
+import junit.framework.TestCase;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.recordloader.Configuration;
+import com.marklogic.recordloader.HostBalancer;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class HostBalancerTest extends TestCase {
+
+    // the last thread to probe, and how often hosts were probed
+    volatile Thread prober;
+
+    volatile int probes;
+
+    private Configuration newConfig() throws Exception {
+        Configuration config = new Configuration() {
+            public boolean probeHost(URI _uri) {
+                prober = Thread.currentThread();
+                probes++;
+                return true;
+            }
+        };
+        config.setLogger(SimpleLogger.getSimpleLogger());
+        config.getProperties().setProperty(SimpleLogger.LOG_HANDLER,
+                "CONSOLE");
+        config.getProperties().setProperty(
+                Configuration.CONNECTION_STRING_KEY,
+                "null://a/,null://b/");
+        config.getProperties().setProperty(
+                Configuration.HOST_EJECT_SECONDS_KEY, "1");
+        config.configure();
+        return config;
+    }
+
+    public void testSelectDoesNotProbe() throws Exception {
+        HostBalancer balancer = newConfig().getHostBalancer();
+        try {
+            HostBalancer.Host a = balancer.getHosts()[0];
+            for (int i = 0; i < 3; i++) {
+                a.finish(a.start(), true);
+            }
+            assertTrue(a.isEjected());
+
+            // due for a probe, but selection must not make it
+            Thread.sleep(1100);
+            Thread self = Thread.currentThread();
+            for (int i = 0; i < 1000; i++) {
+                balancer.select();
+                assertNotSame(self, prober);
+            }
+
+            // the background thread readmits the host
+            long deadline = System.currentTimeMillis() + 5000;
+            while (a.isEjected() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertFalse(a.isEjected());
+            assertTrue(probes > 0);
+            assertEquals("host-probe", prober.getName());
+        } finally {
+            balancer.shutdown();
+        }
+    }
+
+    public void testProbeEjected() throws Exception {
+        HostBalancer balancer = newConfig().getHostBalancer();
+        balancer.shutdown();
+        HostBalancer.Host b = balancer.getHosts()[1];
+        for (int i = 0; i < 3; i++) {
+            b.finish(b.start(), true);
+        }
+        // not due yet
+        balancer.probeEjected();
+        assertEquals(0, probes);
+        assertTrue(b.isEjected());
+        Thread.sleep(1100);
+        balancer.probeEjected();
+        assertEquals(1, probes);
+        assertFalse(b.isEjected());
+    }
+
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.junit;
+
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.timing.TimedEvent;
+import com.marklogic.recordloader.AbstractContent;
+import com.marklogic.recordloader.BatchContentInterface;
+import com.marklogic.recordloader.Configuration;
+import com.marklogic.recordloader.InsertBatch;
+import com.marklogic.recordloader.Monitor;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class InsertBatchTest extends TestCase {
+
+    // what the fake content was asked to do
+    int checks;
+
+    int checkedUris;
+
+    int inserts;
+
+    int batchInserts;
+
+    int largestBatch;
+
+    /**
+     * Every third URI exists.
+     */
+    class Probe extends AbstractContent implements BatchContentInterface {
+
+        Probe(String _uri) {
+            uri = _uri;
+        }
+
+        public boolean checkDocumentUri(String _uri) {
+            fail("checked " + _uri + " by itself");
+            return false;
+        }
+
+        public boolean[] checkDocumentUris(String[] _uris) {
+            checks++;
+            checkedUris += _uris.length;
+            boolean[] exists = new boolean[_uris.length];
+            for (int i = 0; i < _uris.length; i++) {
+                exists[i] = 0 == Integer.parseInt(_uris[i].substring(1)) % 3;
+            }
+            return exists;
+        }
+
+        public void insert() {
+            inserts++;
+        }
+
+        public void insert(BatchContentInterface[] _batch) {
+            batchInserts++;
+            largestBatch = Math.max(largestBatch, _batch.length);
+        }
+
+        public boolean isBatchable() {
+            return true;
+        }
+
+        public Object getBatchKey() {
+            return "";
+        }
+
+        public void setBytes(byte[] _bytes) {
+            // not needed
+        }
+
+        public void setInputStream(InputStream _is) {
+            // not needed
+        }
+
+    }
+
+    private Configuration newConfig(String _batchSize,
+            String _existingBatchSize) throws Exception {
+        Configuration config = new Configuration();
+        config.setLogger(SimpleLogger.getSimpleLogger());
+        config.getProperties().setProperty(SimpleLogger.LOG_HANDLER,
+                "CONSOLE");
+        config.getProperties().setProperty(
+                Configuration.CONNECTION_STRING_KEY, "null://localhost/");
+        config.getProperties().setProperty(Configuration.SKIP_EXISTING_KEY,
+                "true");
+        config.getProperties().setProperty(Configuration.BATCH_SIZE_KEY,
+                _batchSize);
+        config.getProperties().setProperty(
+                Configuration.EXISTING_BATCH_SIZE_KEY, _existingBatchSize);
+        config.configure();
+        return config;
+    }
+
+    /**
+     * @return the number of records added before the batch was full
+     */
+    private int fill(Configuration _config) {
+        InsertBatch batch = new InsertBatch(_config, new Monitor(_config,
+                Thread.currentThread()));
+        int count = 0;
+        boolean isFull = false;
+        while (!isFull) {
+            String uri = "/" + count++;
+            isFull = batch.add(new Probe(uri), uri, new TimedEvent(), 10);
+        }
+        batch.flush();
+        return count;
+    }
+
+    public void testWithoutInsertBatches() throws Exception {
+        Configuration config = newConfig("1", "300");
+        assertTrue(config.isBatching());
+        assertEquals(300, fill(config));
+        // one request checks every uri
+        assertEquals(1, checks);
+        assertEquals(300, checkedUris);
+        // and the rest are inserted one at a time
+        assertEquals(200, inserts);
+        assertEquals(0, batchInserts);
+    }
+
+    public void testWithInsertBatches() throws Exception {
+        Configuration config = newConfig("7", "300");
+        assertEquals(300, fill(config));
+        assertEquals(1, checks);
+        // 200 new documents, up to 7 to a request
+        assertEquals(29, batchInserts);
+        assertEquals(7, largestBatch);
+        assertEquals(0, inserts);
+    }
+
+    public void testUnbatched() throws Exception {
+        Configuration config = newConfig("1", "1");
+        assertFalse(config.isBatching());
+        assertFalse(config.isExistingBatching());
+    }
+
+}
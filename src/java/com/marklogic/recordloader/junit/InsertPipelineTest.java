@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.junit;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.timing.TimedEvent;
+import com.marklogic.recordloader.AbstractContent;
+import com.marklogic.recordloader.BatchContentInterface;
+import com.marklogic.recordloader.Configuration;
+import com.marklogic.recordloader.InsertPipeline;
+import com.marklogic.recordloader.Monitor;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class InsertPipelineTest extends TestCase {
+
+    // the size of each insert request
+    List<Integer> sizes = Collections
+            .synchronizedList(new ArrayList<Integer>());
+
+    /**
+     * Records the size of each insert.
+     */
+    class Probe extends AbstractContent implements BatchContentInterface {
+
+        Probe(String _uri) {
+            uri = _uri;
+        }
+
+        public boolean checkDocumentUri(String _uri) {
+            return false;
+        }
+
+        public boolean[] checkDocumentUris(String[] _uris) {
+            return new boolean[_uris.length];
+        }
+
+        public void insert() {
+            sizes.add(1);
+        }
+
+        public void insert(BatchContentInterface[] _batch) {
+            sizes.add(_batch.length);
+        }
+
+        public boolean isBatchable() {
+            return true;
+        }
+
+        public Object getBatchKey() {
+            return "";
+        }
+
+        public void setBytes(byte[] _bytes) {
+            // not needed
+        }
+
+        public void setInputStream(InputStream _is) {
+            // not needed
+        }
+
+    }
+
+    private InsertPipeline newPipeline(String _lingerMillis)
+            throws Exception {
+        Configuration config = new Configuration();
+        config.setLogger(SimpleLogger.getSimpleLogger());
+        config.getProperties().setProperty(SimpleLogger.LOG_HANDLER,
+                "CONSOLE");
+        config.getProperties().setProperty(
+                Configuration.CONNECTION_STRING_KEY, "null://localhost/");
+        config.getProperties().setProperty(Configuration.BATCH_SIZE_KEY,
+                "10");
+        config.getProperties().setProperty(
+                Configuration.INSERT_THREADS_KEY, "1");
+        config.getProperties().setProperty(
+                Configuration.INSERT_BATCH_LINGER_MILLIS_KEY, _lingerMillis);
+        config.configure();
+        InsertPipeline pipeline = new InsertPipeline(config, new Monitor(
+                config, Thread.currentThread()));
+        pipeline.start();
+        return pipeline;
+    }
+
+    /**
+     * Put records a few milliseconds apart, as a slow loader would.
+     */
+    private void put(InsertPipeline _pipeline, int _count) throws Exception {
+        String uri;
+        for (int i = 0; i < _count; i++) {
+            uri = "/" + i;
+            _pipeline.put(new Probe(uri), uri, new TimedEvent(), 10);
+            Thread.sleep(5);
+        }
+    }
+
+    public void testLinger() throws Exception {
+        InsertPipeline pipeline = newPipeline("5000");
+        try {
+            put(pipeline, 20);
+            pipeline.drain();
+        } finally {
+            pipeline.halt();
+        }
+        // two full batches
+        assertEquals("" + sizes, 2, sizes.size());
+        assertEquals(10, sizes.get(0).intValue());
+        assertEquals(10, sizes.get(1).intValue());
+    }
+
+    public void testNoLinger() throws Exception {
+        InsertPipeline pipeline = newPipeline("0");
+        try {
+            put(pipeline, 20);
+            pipeline.drain();
+        } finally {
+            pipeline.halt();
+        }
+        // nothing waits, so the batches stay small
+        assertTrue("" + sizes, sizes.size() > 2);
+    }
+
+    public void testDrainEndsLinger() throws Exception {
+        InsertPipeline pipeline = newPipeline("60000");
+        long start = System.currentTimeMillis();
+        try {
+            put(pipeline, 3);
+            pipeline.drain();
+        } finally {
+            pipeline.halt();
+        }
+        assertTrue(System.currentTimeMillis() - start < 10 * 1000);
+        // the partial batch went as soon as the pipeline drained
+        assertEquals("" + sizes, 1, sizes.size());
+        assertEquals(3, sizes.get(0).intValue());
+    }
+
+}
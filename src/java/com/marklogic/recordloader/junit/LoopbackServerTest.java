@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.junit;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.recordloader.BatchContentInterface;
+import com.marklogic.recordloader.Configuration;
+import com.marklogic.recordloader.ContentInterface;
+import com.marklogic.recordloader.InsertRetry;
+import com.marklogic.recordloader.LoaderException;
+import com.marklogic.recordloader.http.HttpModuleContentFactory;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class LoopbackServerTest extends TestCase {
+
+    SimpleLogger logger = SimpleLogger.getSimpleLogger();
+
+    LoopbackServer server;
+
+    Configuration config;
+
+    protected void setUp() throws Exception {
+        server = new LoopbackServer(0);
+        server.setKeepingBodies(true);
+        server.start();
+    }
+
+    protected void tearDown() throws Exception {
+        server.stop();
+        // the server must have understood every request
+        assertNull(server.getLastFailure());
+        assertEquals(0, server.getFailureCount());
+    }
+
+    private HttpModuleContentFactory newFactory(String _body)
+            throws Exception {
+        return newFactory(_body, Configuration.INPUT_ENCODING_DEFAULT);
+    }
+
+    private HttpModuleContentFactory newFactory(String _body,
+            String _encoding) throws Exception {
+        config = new Configuration();
+        config.setLogger(logger);
+        config.getProperties().setProperty(SimpleLogger.LOG_HANDLER,
+                "CONSOLE");
+        config.getProperties().setProperty(
+                Configuration.CONNECTION_STRING_KEY,
+                server.getUri("/insert.xqy").toString());
+        config.getProperties().setProperty(
+                Configuration.HTTP_MODULE_BODY_KEY, _body);
+        config.getProperties().setProperty(
+                Configuration.INSERT_RETRY_MILLIS_KEY, "1");
+        config.getProperties().setProperty(
+                Configuration.INPUT_ENCODING_KEY, _encoding);
+        config.configure();
+        HttpModuleContentFactory factory = new HttpModuleContentFactory();
+        factory.setConfiguration(config);
+        factory.setConnectionUri(config.getConnectionStrings()[0]);
+        factory.setFileBasename("loopback");
+        return factory;
+    }
+
+    public void testRawAndForm() throws Exception {
+        String[] bodies = new String[] {
+                Configuration.HTTP_MODULE_BODY_RAW,
+                Configuration.HTTP_MODULE_BODY_FORM };
+        for (int i = 0; i < bodies.length; i++) {
+            server.reset();
+            HttpModuleContentFactory factory = newFactory(bodies[i]);
+            ContentInterface content = factory.newContent("/a b.xml");
+            content.setBytes("<a>\u00e9</a>".getBytes("UTF-8"));
+            content.insert();
+            content.close();
+            content = factory.newContent("/c.xml");
+            content.setInputStream(new ByteArrayInputStream("<c/>"
+                    .getBytes("UTF-8")));
+            content.insert();
+            content.close();
+
+            List<LoopbackServer.Document> docs = server.getDocuments();
+            assertEquals(bodies[i], 2, docs.size());
+            assertEquals("/a b.xml", docs.get(0).getUri());
+            assertEquals("<a>\u00e9</a>", new String(docs.get(0).getBody(),
+                    "UTF-8"));
+            assertEquals("/c.xml", docs.get(1).getUri());
+            assertTrue(docs.get(1).getParameters("COLLECTIONS").contains(
+                    "loopback"));
+        }
+    }
+
+    public void testStreamEncoding() throws Exception {
+        // FileLoader and ByteLoader stream the input encoding
+        HttpModuleContentFactory factory = newFactory(
+                Configuration.HTTP_MODULE_BODY_FORM, "ISO-8859-1");
+        ContentInterface content = factory.newContent("/latin.xml");
+        content.setInputStream(new ByteArrayInputStream("<a>\u00e9</a>"
+                .getBytes("ISO-8859-1")));
+        content.insert();
+        content.close();
+
+        List<LoopbackServer.Document> docs = server.getDocuments();
+        assertEquals(1, docs.size());
+        assertEquals("<a>\u00e9</a>", new String(docs.get(0).getBody(),
+                "UTF-8"));
+    }
+
+    public void testMultipart() throws Exception {
+        HttpModuleContentFactory factory = newFactory(Configuration.HTTP_MODULE_BODY_MULTIPART);
+        BatchContentInterface[] batch = new BatchContentInterface[3];
+        for (int i = 0; i < batch.length; i++) {
+            if (2 == i) {
+                // the last record has its own collections
+                factory.setFileBasename("other");
+            }
+            batch[i] = (BatchContentInterface) factory.newContent("/" + i
+                    + ".xml");
+            batch[i].setBytes(("<r>" + i + "</r>").getBytes("UTF-8"));
+        }
+        batch[0].insert(batch);
+
+        assertEquals(1, server.getRequestCount());
+        List<LoopbackServer.Document> docs = server.getDocuments();
+        assertEquals(3, docs.size());
+        for (int i = 0; i < batch.length; i++) {
+            assertEquals("/" + i + ".xml", docs.get(i).getUri());
+            assertEquals("<r>" + i + "</r>", new String(docs.get(i)
+                    .getBody(), "UTF-8"));
+        }
+        assertTrue(docs.get(1).getParameters("COLLECTIONS").contains(
+                "loopback"));
+        assertTrue(docs.get(2).getParameters("COLLECTIONS").contains(
+                "other"));
+    }
+
+    public void testErrors() throws Exception {
+        HttpModuleContentFactory factory = newFactory(Configuration.HTTP_MODULE_BODY_RAW);
+
+        // an unavailable server is retried
+        server.setSeed(1);
+        server.setRequestErrorRate(0.5);
+        InsertRetry retry = new InsertRetry(config);
+        for (int i = 0; i < 10; i++) {
+            ContentInterface content = factory.newContent("/" + i + ".xml");
+            content.setBytes("<r/>".getBytes("UTF-8"));
+            try {
+                retry.insert(content);
+            } catch (LoaderException e) {
+                // possible, after three retries
+                assertTrue(e.isRetryable());
+            }
+        }
+        assertTrue(server.getErrorCount() > 0);
+        assertEquals(10 + server.getErrorCount(), server.getRequestCount());
+
+        // a module error is not
+        server.reset();
+        server.setRequestErrorRate(0);
+        server.setDocumentErrorRate(1);
+        ContentInterface content = factory.newContent("/bad.xml");
+        content.setBytes("<r/>".getBytes("UTF-8"));
+        try {
+            retry.insert(content);
+            fail("expected an error");
+        } catch (LoaderException e) {
+            assertFalse(e.isRetryable());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+}
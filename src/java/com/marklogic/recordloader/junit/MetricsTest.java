@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.junit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.timing.TimedEvent;
+import com.marklogic.recordloader.Configuration;
+import com.marklogic.recordloader.Monitor;
+import com.marklogic.recordloader.metrics.Metrics;
+import com.marklogic.recordloader.metrics.MetricsServer;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class MetricsTest extends TestCase {
+
+    Configuration config;
+
+    Monitor monitor;
+
+    Metrics metrics;
+
+    protected void setUp() throws Exception {
+        config = new Configuration();
+        config.setLogger(SimpleLogger.getSimpleLogger());
+        config.getProperties().setProperty(SimpleLogger.LOG_HANDLER,
+                "CONSOLE");
+        config.getProperties().setProperty(
+                Configuration.CONNECTION_STRING_KEY, "null://localhost/");
+        config.configure();
+        monitor = new Monitor(config, Thread.currentThread());
+        for (int i = 0; i < 3; i++) {
+            TimedEvent event = new TimedEvent();
+            event.addStage(TimedEvent.STAGE_INSERT, 1000 * 1000);
+            event.stop(100, 2 == i);
+            monitor.add("/" + i + ".xml", event);
+        }
+        monitor.incrementSkipped("test");
+        metrics = new Metrics(config, monitor);
+        metrics.start();
+    }
+
+    protected void tearDown() throws Exception {
+        metrics.stop();
+    }
+
+    public void testJmx() throws Exception {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.DOMAIN + ":type=Loader");
+        assertEquals(Long.valueOf(3), mbs.getAttribute(name, "RecordCount"));
+        assertEquals(Long.valueOf(1), mbs.getAttribute(name, "ErrorCount"));
+        assertEquals(Long.valueOf(300), mbs
+                .getAttribute(name, "ByteCount"));
+        assertEquals(Long.valueOf(1), mbs.getAttribute(name,
+                "SkippedCount"));
+        metrics.stop();
+        assertFalse(mbs.isRegistered(name));
+    }
+
+    public void testPrometheus() throws Exception {
+        MetricsServer server = new MetricsServer(metrics, 0);
+        server.start();
+        try {
+            URL url = new URL(server.getUrl());
+            InputStream in = url.openStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int len;
+            while ((len = in.read(buf)) > -1) {
+                out.write(buf, 0, len);
+            }
+            in.close();
+            String text = out.toString("UTF-8");
+            assertTrue(text.contains("\nrecordloader_records_total 3\n"));
+            assertTrue(text.contains("\nrecordloader_errors_total 1\n"));
+            assertTrue(text.contains("\nrecordloader_skipped_total 1\n"));
+            assertTrue(text.contains("recordloader_latency_seconds_count"
+                    + "{stage=\"insert\"} 3\n"));
+            assertFalse(text.contains("stage=\"read\""));
+        } finally {
+            server.halt();
+        }
+    }
+
+    public void testFailedScrape() throws Exception {
+        Metrics failing = new Metrics(config, monitor) {
+            private int scrapes = 0;
+
+            public String getPrometheusText() {
+                if (1 == ++scrapes) {
+                    throw new IllegalStateException("first scrape");
+                }
+                return super.getPrometheusText();
+            }
+        };
+        MetricsServer server = new MetricsServer(failing, 0);
+        server.start();
+        try {
+            // listening on loopback only, by default
+            assertTrue(server.getUrl(), server.getUrl().startsWith(
+                    "http://127.0.0.1:"));
+            URL url = new URL(server.getUrl());
+            HttpURLConnection conn = (HttpURLConnection) url
+                    .openConnection();
+            assertEquals(500, conn.getResponseCode());
+            conn.disconnect();
+            // the acceptor is still there for the next scrape
+            conn = (HttpURLConnection) url.openConnection();
+            assertEquals(200, conn.getResponseCode());
+            conn.disconnect();
+        } finally {
+            server.halt();
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.junit;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.marklogic.recordloader.LoaderException;
+import com.marklogic.recordloader.ModuleResult;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ModuleResultTest extends TestCase {
+
+    public void testParse() throws Exception {
+        List<ModuleResult> results = ModuleResult.parse(new String[] {
+                "inserted\t/a.xml\r\nskipped\t/b.xml\n",
+                "some other output", null,
+                "ERROR\t/c.xml\tXDMP-DOCROOTTEXT: bad\tthing" });
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isInserted());
+        assertEquals("/a.xml", results.get(0).getUri());
+        assertTrue(results.get(1).isSkipped());
+        assertTrue(results.get(2).isError());
+        assertEquals("XDMP-DOCROOTTEXT: bad\tthing", results.get(2)
+                .getMessage());
+
+        try {
+            ModuleResult.check(results.get(2));
+            fail("expected an error");
+        } catch (LoaderException e) {
+            assertTrue(e.getMessage().startsWith("/c.xml: XDMP-DOCROOTTEXT"));
+        }
+        ModuleResult.check(results.get(0));
+        ModuleResult.check(null);
+    }
+
+    public void testMatch() throws Exception {
+        // one per record: matched in order, even with rewritten uris
+        ModuleResult[] matched = ModuleResult.match(ModuleResult
+                .parse(new String[] { "inserted\t/x/1\nskipped\t/x/2" }),
+                new String[] { "1", "2" });
+        assertEquals("/x/1", matched[0].getUri());
+        assertTrue(matched[1].isSkipped());
+
+        // otherwise, by uri
+        matched = ModuleResult.match(ModuleResult
+                .parse(new String[] { "error\t2\toops" }), new String[] {
+                "1", "2", "3" });
+        assertNull(matched[0]);
+        assertTrue(matched[1].isError());
+        assertNull(matched[2]);
+
+        // nothing at all, from an older module
+        matched = ModuleResult.match(ModuleResult.parse(new String[0]),
+                new String[] { "1" });
+        assertNull(matched[0]);
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.junit;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.recordloader.Configuration;
+import com.marklogic.recordloader.LoaderException;
+import com.marklogic.recordloader.RecordScanner;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class RecordScannerTest extends TestCase {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    SimpleLogger logger = SimpleLogger.getSimpleLogger();
+
+    private RecordScanner newScanner(String _idName, String _namespace,
+            String _xml) {
+        Configuration config = new Configuration();
+        config.setLogger(logger);
+        config.setIdNodeName(_idName);
+        config.setRecordNamespace(_namespace);
+        config.setRecordName("record");
+        return new RecordScanner(config, new ByteArrayInputStream(_xml
+                .getBytes(UTF8)), UTF8);
+    }
+
+    private String getRecord(RecordScanner _scanner) {
+        return new String(_scanner.getBuffer(), _scanner.getRecordStart(),
+                _scanner.getRecordLength(), UTF8);
+    }
+
+    public void testAttributeId() throws Exception {
+        String testXml = "<?xml version=\"1.0\"?>\n"
+                + "<root><record id=\"a&amp;b\" note='x>y'>one</record>"
+                + "<record id=\"2\"/></root>";
+        RecordScanner scanner = newScanner("@id", "", testXml);
+
+        assertTrue(scanner.nextRecord());
+        assertEquals("a&b", scanner.getCurrentId());
+        assertEquals("<record id=\"a&amp;b\" note='x>y'>one</record>",
+                getRecord(scanner));
+
+        assertTrue(scanner.nextRecord());
+        assertEquals("2", scanner.getCurrentId());
+        assertEquals("<record id=\"2\"/>", getRecord(scanner));
+
+        assertFalse(scanner.nextRecord());
+    }
+
+    public void testElementId() throws Exception {
+        String record = "<record><!-- </record> --><record>inner</record>"
+                + "<![CDATA[<record>]]><id>r1</id></record>";
+        String testXml = "<!DOCTYPE root [ <!ENTITY e \">\"> ]>"
+                + "<root>\n" + record + "\n</root>";
+        RecordScanner scanner = newScanner("id", "", testXml);
+
+        assertTrue(scanner.nextRecord());
+        assertEquals("r1", scanner.getCurrentId());
+        assertEquals(record, getRecord(scanner));
+        assertFalse(scanner.isNamespaceFallback());
+        assertFalse(scanner.nextRecord());
+    }
+
+    public void testComplexId() throws Exception {
+        String testXml = "<root><record><id><x/></id></record></root>";
+        RecordScanner scanner = newScanner("id", "", testXml);
+        try {
+            scanner.nextRecord();
+            fail("expected LoaderException");
+        } catch (LoaderException e) {
+            // expected
+        }
+    }
+
+    public void testPrefixes() throws Exception {
+        String testXml = "<root xmlns:t=\"test\" xmlns:u=\"other\">\n"
+                + "<t:record id=\"1\"><d xmlns:t=\"t2\">one</d></t:record>\n"
+                + "<t:record id=\"2\"><v:d xmlns:v=\"v\">two</v:d></t:record>\n"
+                + "<record xmlns=\"test\" id=\"3\"><d/></record>\n"
+                + "<t:record id=\"4\"><u:d>four</u:d></t:record>\n"
+                + "</root>";
+        RecordScanner scanner = newScanner("@id", "test", testXml);
+
+        // the record element itself uses an ancestor's prefix
+        assertTrue(scanner.nextRecord());
+        assertEquals("1", scanner.getCurrentId());
+        assertTrue(scanner.isNamespaceFallback());
+        assertEquals(" xmlns:t=\"test\" xmlns:u=\"other\"", scanner
+                .getNamespaceDeclarations());
+
+        assertTrue(scanner.nextRecord());
+        assertEquals("2", scanner.getCurrentId());
+        assertTrue(scanner.isNamespaceFallback());
+
+        // self-contained record
+        assertTrue(scanner.nextRecord());
+        assertEquals("3", scanner.getCurrentId());
+        assertFalse(scanner.isNamespaceFallback());
+
+        assertTrue(scanner.nextRecord());
+        assertEquals("4", scanner.getCurrentId());
+        assertTrue(scanner.isNamespaceFallback());
+
+        assertFalse(scanner.nextRecord());
+    }
+
+    public void testSmallReads() throws Exception {
+        // force many buffer refills and compactions
+        StringBuilder testXml = new StringBuilder("<root>");
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 64 * 1024; i++) {
+            body.append((char) ('a' + (i % 26)));
+        }
+        int count = 8;
+        for (int i = 0; i < count; i++) {
+            testXml.append("<record><id>" + i + "</id>" + body
+                    + "</record>");
+        }
+        testXml.append("</root>");
+        RecordScanner scanner = newScanner("id", "", testXml.toString());
+        for (int i = 0; i < count; i++) {
+            assertTrue(scanner.nextRecord());
+            assertEquals("" + i, scanner.getCurrentId());
+            assertEquals("<record><id>" + i + "</id>" + body + "</record>",
+                    getRecord(scanner));
+        }
+        assertFalse(scanner.nextRecord());
+    }
+
+}
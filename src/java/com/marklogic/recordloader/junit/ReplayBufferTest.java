@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.junit;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.marklogic.ps.Utilities;
+import com.marklogic.recordloader.ReplayBuffer;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ReplayBufferTest extends TestCase {
+
+    private static final int MEGABYTE = 1024 * 1024;
+
+    private byte[] record(int _length) {
+        byte[] bytes = new byte[_length];
+        for (int i = 0; i < _length; i++) {
+            bytes[i] = (byte) ('a' + i % 26);
+        }
+        return bytes;
+    }
+
+    public void testSmallRecords() throws Exception {
+        // like a full insert queue: many small records, all held at once
+        int count = 10000;
+        ReplayBuffer[] buffers = new ReplayBuffer[count];
+        byte[] bytes = record(200);
+        long kept = 0;
+        for (int i = 0; i < count; i++) {
+            buffers[i] = new ReplayBuffer(MEGABYTE, null);
+            buffers[i].fill(new ByteArrayInputStream(bytes));
+            assertFalse(buffers[i].isSpilled());
+            assertEquals(bytes.length, buffers[i].getLength());
+            kept += buffers[i].getBytes().length;
+        }
+        // not a megabyte apiece
+        assertTrue("kept " + kept, kept <= 1024L * count);
+        for (int i = 0; i < count; i++) {
+            buffers[i].close();
+        }
+    }
+
+    public void testGrowth() throws Exception {
+        byte[] bytes = record(100 * 1000);
+        ReplayBuffer buffer = new ReplayBuffer(MEGABYTE, null);
+        buffer.fill(new ByteArrayInputStream(bytes));
+        assertFalse(buffer.isSpilled());
+        assertEquals(bytes.length, buffer.size());
+        assertTrue(buffer.getBytes().length < 2 * bytes.length);
+        // replay it twice
+        for (int i = 0; i < 2; i++) {
+            InputStream in = buffer.newInputStream();
+            assertTrue(Arrays.equals(bytes, Utilities.read(in)));
+            in.close();
+        }
+        buffer.close();
+    }
+
+    public void testSpill() throws Exception {
+        byte[] bytes = record(3000);
+        // exactly the threshold stays in memory
+        ReplayBuffer buffer = new ReplayBuffer(3000, null);
+        buffer.fill(new ByteArrayInputStream(bytes));
+        assertFalse(buffer.isSpilled());
+        assertEquals(3000, buffer.getLength());
+        buffer.close();
+
+        // one byte more spills
+        buffer = new ReplayBuffer(2999, null);
+        buffer.fill(new ByteArrayInputStream(bytes));
+        assertTrue(buffer.isSpilled());
+        assertEquals(3000, buffer.size());
+        InputStream in = buffer.newInputStream();
+        assertTrue(Arrays.equals(bytes, Utilities.read(in)));
+        in.close();
+        buffer.close();
+    }
+
+}
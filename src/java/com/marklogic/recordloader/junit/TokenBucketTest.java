@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.junit;
+
+import junit.framework.TestCase;
+
+import com.marklogic.ps.timing.TokenBucket;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ */
+public class TokenBucketTest extends TestCase {
+
+    private static final long SECOND = 1000 * 1000 * 1000;
+
+    public void testBurst() {
+        // 10 tokens per second, with a burst of 5
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.reserve(1, now));
+        }
+        // the sixth must wait 100 ms, and the seventh 200 ms
+        assertEquals(SECOND / 10, bucket.reserve(1, now));
+        assertEquals(2 * SECOND / 10, bucket.reserve(1, now));
+    }
+
+    public void testStall() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        bucket.reserve(5, now);
+        // a long stall earns only one burst, not a minute of catch-up
+        now += 60 * SECOND;
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.reserve(1, now));
+        }
+        assertTrue(bucket.reserve(1, now) > 0);
+    }
+
+    public void testLarge() {
+        // a request larger than the burst proceeds, then repays its debt
+        TokenBucket bucket = new TokenBucket(1000, 1000);
+        long now = System.nanoTime();
+        assertEquals(0, bucket.reserve(1000, now));
+        assertEquals(4 * SECOND, bucket.reserve(4000, now));
+        now += 4 * SECOND;
+        assertEquals(0, bucket.reserve(0, now));
+    }
+
+}
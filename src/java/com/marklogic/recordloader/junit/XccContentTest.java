@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.junit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.Utilities;
+import com.marklogic.ps.timing.TimedEvent;
+import com.marklogic.recordloader.Configuration;
+import com.marklogic.recordloader.InsertBatch;
+import com.marklogic.recordloader.Monitor;
+import com.marklogic.recordloader.xcc.XccContent;
+import com.marklogic.xcc.Content;
+import com.marklogic.xcc.ContentCreateOptions;
+import com.marklogic.xcc.Session;
+import com.marklogic.xcc.exceptions.RequestException;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class XccContentTest extends TestCase {
+
+    // what the session inserted, one document at a time
+    List<String> inserted = new ArrayList<String>();
+
+    /**
+     * Like spilled or streamed content, each open stream continues where
+     * the last one stopped, until the content is rewound.
+     */
+    static class Record implements Content {
+
+        private String uri;
+
+        private byte[] bytes;
+
+        int position = 0;
+
+        Record(String _uri, String _xml) {
+            uri = _uri;
+            bytes = _xml.getBytes();
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public InputStream openDataStream() {
+            return new InputStream() {
+                public int read() {
+                    return position < bytes.length ? bytes[position++]
+                            : -1;
+                }
+            };
+        }
+
+        public boolean isRewindable() {
+            return true;
+        }
+
+        public void rewind() {
+            position = 0;
+        }
+
+        public long size() {
+            return bytes.length;
+        }
+
+        public ContentCreateOptions getCreateOptions() {
+            return null;
+        }
+
+        public void close() {
+            // nothing to release
+        }
+
+    }
+
+    /**
+     * Exposes the content.
+     */
+    static class Probe extends XccContent {
+
+        Probe(Session _session, String _uri) {
+            super(_session, _uri, null);
+            content = new Record(_uri, "<r>" + _uri + "</r>");
+        }
+
+    }
+
+    /**
+     * Batch inserts read part of each document, then fail. Single inserts
+     * read the whole document.
+     */
+    private Session newSession() {
+        InvocationHandler handler = new InvocationHandler() {
+            public Object invoke(Object _proxy, Method _method,
+                    Object[] _args) throws Throwable {
+                if (!"insertContent".equals(_method.getName())) {
+                    return "isClosed".equals(_method.getName()) ? Boolean.FALSE
+                            : null;
+                }
+                if (_args[0] instanceof Content[]) {
+                    Content[] batch = (Content[]) _args[0];
+                    for (int i = 0; i < batch.length; i++) {
+                        batch[i].openDataStream().read(new byte[3]);
+                    }
+                    throw new RequestException("batch failed", null);
+                }
+                inserted.add(read((Content) _args[0]));
+                return null;
+            }
+        };
+        return (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Session.class }, handler);
+    }
+
+    private static String read(Content _content) throws IOException {
+        InputStream in = _content.openDataStream();
+        try {
+            return new String(Utilities.read(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testBatchFallbackRewinds() throws Exception {
+        Configuration config = new Configuration();
+        config.setLogger(SimpleLogger.getSimpleLogger());
+        config.getProperties().setProperty(SimpleLogger.LOG_HANDLER,
+                "CONSOLE");
+        config.getProperties().setProperty(
+                Configuration.CONNECTION_STRING_KEY, "null://localhost/");
+        config.getProperties().setProperty(Configuration.BATCH_SIZE_KEY,
+                "3");
+        config.configure();
+
+        Session session = newSession();
+        InsertBatch batch = new InsertBatch(config, new Monitor(config,
+                Thread.currentThread()));
+        String uri;
+        for (int i = 0; i < 3; i++) {
+            uri = "/" + i;
+            batch.add(new Probe(session, uri), uri, new TimedEvent(), 10);
+        }
+        batch.flush();
+
+        // every document went in whole, on its own
+        assertEquals(3, inserted.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("<r>/" + i + "</r>", inserted.get(i));
+        }
+    }
+
+}
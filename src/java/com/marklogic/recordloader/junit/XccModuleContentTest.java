@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.junit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.marklogic.ps.Utilities;
+import com.marklogic.recordloader.BatchContentInterface;
+import com.marklogic.recordloader.TranscodingInputStream;
+import com.marklogic.recordloader.xcc.XccConfiguration;
+import com.marklogic.recordloader.xcc.XccModuleContent;
+import com.marklogic.xcc.types.XdmVariable;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class XccModuleContentTest extends TestCase {
+
+    private static final String LATIN_1 = "ISO-8859-1";
+
+    // e-acute, u-umlaut, and the pound sign
+    private static final String RECORD = "<r>caf\u00e9 \u00fcber \u00a3</r>";
+
+    /**
+     * Exposes what the module would be sent.
+     */
+    static class Probe extends XccModuleContent {
+
+        Probe(String _payload, String _streamEncoding) {
+            super(null, "/a.xml", "/module.xqy", new XdmVariable[0],
+                    Charset.forName(LATIN_1).newDecoder(), false);
+            if (!XccConfiguration.CONTENT_MODULE_PAYLOAD_STRING
+                    .equals(_payload)) {
+                setPayload(_payload, 0, null);
+            }
+            setStreamEncoding(_streamEncoding);
+        }
+
+        byte[] getPayload() throws Exception {
+            InputStream in = openPayload();
+            try {
+                return Utilities.read(in);
+            } finally {
+                in.close();
+            }
+        }
+
+        String getXml() {
+            return xml;
+        }
+
+    }
+
+    public void testStreamedDocument() throws Exception {
+        // FileLoader and ByteLoader stream the input encoding
+        Probe content = new Probe(
+                XccConfiguration.CONTENT_MODULE_PAYLOAD_DOCUMENT, LATIN_1);
+        content.setInputStream(new ByteArrayInputStream(RECORD
+                .getBytes(LATIN_1)));
+        // the server parses documents as UTF-8
+        assertTrue(Arrays.equals(RECORD.getBytes("UTF-8"), content
+                .getPayload()));
+        content.close();
+    }
+
+    public void testStreamedString() throws Exception {
+        Probe content = new Probe(
+                XccConfiguration.CONTENT_MODULE_PAYLOAD_STRING, LATIN_1);
+        content.setInputStream(new ByteArrayInputStream(RECORD
+                .getBytes(LATIN_1)));
+        assertEquals(RECORD, content.getXml());
+
+        // a transcoding loader streams UTF-8, whatever the input was
+        content = new Probe(XccConfiguration.CONTENT_MODULE_PAYLOAD_STRING,
+                "UTF-8");
+        content.setInputStream(new ByteArrayInputStream(RECORD
+                .getBytes("UTF-8")));
+        assertEquals(RECORD, content.getXml());
+    }
+
+    public void testStreamedBinary() throws Exception {
+        // binaries are never transcoded
+        byte[] bytes = RECORD.getBytes(LATIN_1);
+        Probe content = new Probe(
+                XccConfiguration.CONTENT_MODULE_PAYLOAD_BINARY, LATIN_1);
+        content.setInputStream(new ByteArrayInputStream(bytes));
+        assertTrue(Arrays.equals(bytes, content.getPayload()));
+        content.close();
+    }
+
+    public void testTranscodingInputStream() throws Exception {
+        // longer than any internal buffer, with pairs that may split
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 100 * 1000; i++) {
+            sb.append(RECORD).append("\ud834\udd1e").append(i);
+        }
+        String text = sb.toString();
+        InputStream in = new TranscodingInputStream(
+                new ByteArrayInputStream(text.getBytes("UTF-16")), Charset
+                        .forName("UTF-16").newDecoder(), "UTF-8");
+        // read a few bytes at a time
+        byte[] buf = new byte[7];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count;
+        while (-1 < (count = in.read(buf))) {
+            out.write(buf, 0, count);
+        }
+        in.close();
+        assertTrue(Arrays.equals(text.getBytes("UTF-8"), out.toByteArray()));
+    }
+
+    public void testNullUriInNodeBatch() throws Exception {
+        Probe first = new Probe(
+                XccConfiguration.CONTENT_MODULE_PAYLOAD_DOCUMENT, LATIN_1);
+        Probe second = new Probe(
+                XccConfiguration.CONTENT_MODULE_PAYLOAD_DOCUMENT, LATIN_1);
+        second.setUri(null);
+        try {
+            first.insert(new BatchContentInterface[] { first, second });
+            fail("inserted a batch with a null URI");
+        } catch (NullPointerException e) {
+            // the same message as a string batch
+            assertEquals("URI cannot be null", e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.metrics;
+
+import com.marklogic.recordloader.HostBalancer;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         A view of the balancer's own counters for one host.
+ */
+public class HostMetrics implements HostMetricsMBean {
+
+    private HostBalancer.Host host;
+
+    /**
+     * @param _host
+     */
+    public HostMetrics(HostBalancer.Host _host) {
+        host = _host;
+    }
+
+    public String getName() {
+        return host.getName();
+    }
+
+    public double getLatencyMillis() {
+        return host.getLatencyMillis();
+    }
+
+    public double getErrorRate() {
+        return host.getErrorRate();
+    }
+
+    public int getInFlightCount() {
+        return host.getInFlight();
+    }
+
+    public long getRequestCount() {
+        return host.getRequestCount();
+    }
+
+    public long getErrorCount() {
+        return host.getErrorCount();
+    }
+
+    public long getEjectionCount() {
+        return host.getEjectionCount();
+    }
+
+    public boolean isEjected() {
+        return host.isEjected();
+    }
+
+}
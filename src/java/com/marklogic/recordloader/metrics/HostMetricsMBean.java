@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.metrics;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Statistics for one balanced host, as JMX attributes.
+ */
+public interface HostMetricsMBean {
+
+    public String getName();
+
+    /**
+     * @return the moving average latency, or -1 before the first request
+     */
+    public double getLatencyMillis();
+
+    public double getErrorRate();
+
+    /**
+     * @return requests sent to the host and not yet finished
+     */
+    public int getInFlightCount();
+
+    public long getRequestCount();
+
+    public long getErrorCount();
+
+    public long getEjectionCount();
+
+    public boolean isEjected();
+
+}
@@ -0,0 +1,419 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.timing.LatencyHistogram;
+import com.marklogic.ps.timing.TimedEvent;
+import com.marklogic.ps.timing.Timer;
+import com.marklogic.recordloader.Configuration;
+import com.marklogic.recordloader.HostBalancer;
+import com.marklogic.recordloader.InsertPipeline;
+import com.marklogic.recordloader.Monitor;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Live statistics for a load, read from the counters that the
+ *         monitor, its timer and the host balancer already keep. The same
+ *         values are registered as MBeans, and written in Prometheus text
+ *         format for MetricsServer.
+ */
+public class Metrics implements MetricsMBean {
+
+    public static final String DOMAIN = "com.marklogic.recordloader";
+
+    private static final String PREFIX = "recordloader_";
+
+    private static final double[] QUANTILES = new double[] { 0.5, 0.9,
+            0.99, 0.999 };
+
+    private Configuration config;
+
+    private SimpleLogger logger;
+
+    private Monitor monitor;
+
+    private MetricsServer server;
+
+    private List<ObjectName> names = new ArrayList<ObjectName>();
+
+    /**
+     * @param _config
+     * @param _monitor
+     */
+    public Metrics(Configuration _config, Monitor _monitor) {
+        config = _config;
+        logger = config.getLogger();
+        monitor = _monitor;
+    }
+
+    /**
+     * Register the MBeans and start the HTTP endpoint, as configured.
+     * Neither is essential, so failures are only logged.
+     */
+    public void start() {
+        if (config.isMetricsJmx()) {
+            register();
+        }
+        int port = config.getMetricsHttpPort();
+        if (port > 0) {
+            String address = config.getMetricsHttpAddress();
+            try {
+                server = new MetricsServer(this, address, port);
+                server.start();
+                logger.info("serving metrics at " + server.getUrl());
+            } catch (IOException e) {
+                logger.logException("metrics server on " + address + ":"
+                        + port, e);
+            }
+        }
+    }
+
+    /**
+     * 
+     */
+    public void stop() {
+        if (null != server) {
+            server.halt();
+            server = null;
+        }
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : names) {
+            try {
+                mbs.unregisterMBean(name);
+            } catch (JMException e) {
+                logger.logException("unregistering " + name, e);
+            }
+        }
+        names.clear();
+    }
+
+    /**
+     * 
+     */
+    private void register() {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = null;
+        try {
+            name = new ObjectName(DOMAIN + ":type=Loader");
+            mbs.registerMBean(this, name);
+            names.add(name);
+            HostBalancer.Host[] hosts = monitor.getHosts();
+            for (int i = 0; i < hosts.length; i++) {
+                name = new ObjectName(DOMAIN + ":type=Host,name="
+                        + ObjectName.quote(hosts[i].getName()));
+                mbs.registerMBean(new HostMetrics(hosts[i]), name);
+                names.add(name);
+            }
+        } catch (JMException e) {
+            // for example, another loader in this JVM
+            logger.logException("registering " + name, e);
+        }
+    }
+
+    /**
+     * @return the server, or null if it is not running
+     */
+    public MetricsServer getServer() {
+        return server;
+    }
+
+    public long getRecordCount() {
+        return monitor.getTimer().getEventCount();
+    }
+
+    public long getErrorCount() {
+        return monitor.getTimer().getErrorCount();
+    }
+
+    public long getByteCount() {
+        return monitor.getTimer().getBytes();
+    }
+
+    public long getSkippedCount() {
+        return monitor.getSkippedCount();
+    }
+
+    public double getRecordsPerSecond() {
+        return monitor.getTimer().getEventsPerSecond();
+    }
+
+    public double getKilobytesPerSecond() {
+        return monitor.getTimer().getKilobytesPerSecond();
+    }
+
+    public int getPoolActiveCount() {
+        ThreadPoolExecutor pool = monitor.getPool();
+        return (null == pool) ? 0 : pool.getActiveCount();
+    }
+
+    public int getPoolQueuedCount() {
+        ThreadPoolExecutor pool = monitor.getPool();
+        return (null == pool) ? 0 : pool.getQueue().size();
+    }
+
+    public int getPipelineQueueDepth() {
+        InsertPipeline pipeline = monitor.getInsertPipeline();
+        return (null == pipeline) ? 0 : pipeline.getQueueDepth();
+    }
+
+    public long getPipelineQueuedBytes() {
+        InsertPipeline pipeline = monitor.getInsertPipeline();
+        return (null == pipeline) ? 0 : pipeline.getQueuedBytes();
+    }
+
+    public int getInFlightCount() {
+        return monitor.getInFlight();
+    }
+
+    public long getExistenceRequestCount() {
+        return monitor.getExistenceRequestCount();
+    }
+
+    public long getExistenceCheckedCount() {
+        return monitor.getExistenceCheckedCount();
+    }
+
+    public long getExistenceFilteredCount() {
+        return monitor.getExistenceFilteredCount();
+    }
+
+    public double getLatencyMillisP50() {
+        return getLatencyMillis(50);
+    }
+
+    public double getLatencyMillisP90() {
+        return getLatencyMillis(90);
+    }
+
+    public double getLatencyMillisP99() {
+        return getLatencyMillis(99);
+    }
+
+    public double getLatencyMillisP999() {
+        return getLatencyMillis(99.9);
+    }
+
+    /**
+     * @param _percentile
+     * @return
+     */
+    private double getLatencyMillis(double _percentile) {
+        return (double) monitor.getTimer().getPercentileDuration(
+                _percentile)
+                / Timer.NANOSECONDS_PER_MILLISECOND;
+    }
+
+    /**
+     * @return every metric, in Prometheus text format
+     */
+    public String getPrometheusText() {
+        StringBuilder sb = new StringBuilder();
+        Timer timer = monitor.getTimer();
+
+        counter(sb, "records_total", "Records processed, including errors.",
+                timer.getEventCount());
+        counter(sb, "errors_total", "Records that failed.", timer
+                .getErrorCount());
+        counter(sb, "bytes_total", "Record bytes processed.", timer
+                .getBytes());
+        counter(sb, "skipped_total", "Records skipped.", monitor
+                .getSkippedCount());
+        counter(sb, "existence_requests_total",
+                "Requests to check for existing documents.", monitor
+                        .getExistenceRequestCount());
+        counter(sb, "existence_checked_total",
+                "Document URIs checked for existence.", monitor
+                        .getExistenceCheckedCount());
+        counter(sb, "existence_filtered_total",
+                "Document URIs that the filter showed to be new.",
+                monitor.getExistenceFilteredCount());
+
+        gauge(sb, "pool_active_threads", "Loader threads at work.",
+                getPoolActiveCount());
+        gauge(sb, "pool_queued_tasks", "Inputs waiting for a loader.",
+                getPoolQueuedCount());
+        gauge(sb, "pipeline_queue_depth",
+                "Records waiting in the insert pipeline.",
+                getPipelineQueueDepth());
+        gauge(sb, "pipeline_queued_bytes",
+                "Bytes waiting in the insert pipeline.",
+                getPipelineQueuedBytes());
+        gauge(sb, "in_flight_inserts",
+                "Asynchronous inserts not yet finished.",
+                getInFlightCount());
+
+        // the timer's histograms, as a summary for each stage
+        String name = PREFIX + "latency_seconds";
+        header(sb, name, "summary",
+                "Record latency since the start, by stage.");
+        summary(sb, name, "record", timer.getLatency());
+        for (int i = 0; i < TimedEvent.STAGE_COUNT; i++) {
+            summary(sb, name, TimedEvent.STAGE_NAMES[i], timer
+                    .getLatency(i));
+        }
+
+        HostBalancer.Host[] hosts = monitor.getHosts();
+        if (hosts.length > 0) {
+            hosts(sb, hosts);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param _sb
+     * @param _hosts
+     */
+    private void hosts(StringBuilder _sb, HostBalancer.Host[] _hosts) {
+        String name = PREFIX + "host_latency_seconds";
+        header(_sb, name, "gauge",
+                "Moving average request latency for each host.");
+        for (int i = 0; i < _hosts.length; i++) {
+            double millis = _hosts[i].getLatencyMillis();
+            if (millis >= 0) {
+                sample(_sb, name, hostLabel(_hosts[i]), millis
+                        / Timer.MILLISECONDS_PER_SECOND);
+            }
+        }
+        name = PREFIX + "host_in_flight_requests";
+        header(_sb, name, "gauge", "Requests in flight to each host.");
+        for (int i = 0; i < _hosts.length; i++) {
+            sample(_sb, name, hostLabel(_hosts[i]), _hosts[i]
+                    .getInFlight());
+        }
+        name = PREFIX + "host_requests_total";
+        header(_sb, name, "counter", "Requests sent to each host.");
+        for (int i = 0; i < _hosts.length; i++) {
+            sample(_sb, name, hostLabel(_hosts[i]), _hosts[i]
+                    .getRequestCount());
+        }
+        name = PREFIX + "host_errors_total";
+        header(_sb, name, "counter", "Host errors for each host.");
+        for (int i = 0; i < _hosts.length; i++) {
+            sample(_sb, name, hostLabel(_hosts[i]), _hosts[i]
+                    .getErrorCount());
+        }
+        name = PREFIX + "host_ejected";
+        header(_sb, name, "gauge", "1 if the host is ejected, else 0.");
+        for (int i = 0; i < _hosts.length; i++) {
+            sample(_sb, name, hostLabel(_hosts[i]), _hosts[i]
+                    .isEjected() ? 1 : 0);
+        }
+    }
+
+    /**
+     * @param _host
+     * @return
+     */
+    private static String hostLabel(HostBalancer.Host _host) {
+        return "host=\"" + escape(_host.getName()) + "\"";
+    }
+
+    /**
+     * @param _sb
+     * @param _name
+     * @param _stage
+     * @param _histogram
+     */
+    private static void summary(StringBuilder _sb, String _name,
+            String _stage, LatencyHistogram _histogram) {
+        long count = _histogram.getCount();
+        if (count < 1) {
+            return;
+        }
+        String stage = "stage=\"" + _stage + "\"";
+        for (int i = 0; i < QUANTILES.length; i++) {
+            sample(_sb, _name, stage + ",quantile=\"" + QUANTILES[i]
+                    + "\"", seconds(_histogram
+                    .getValueAtPercentile(100 * QUANTILES[i])));
+        }
+        // the histogram mean is close enough for rates
+        sample(_sb, _name + "_sum", stage, count
+                * seconds(_histogram.getMean()));
+        sample(_sb, _name + "_count", stage, count);
+    }
+
+    /**
+     * @param _nanos
+     * @return
+     */
+    private static double seconds(long _nanos) {
+        return (double) _nanos / Timer.NANOSECONDS_PER_SECOND;
+    }
+
+    private static void counter(StringBuilder _sb, String _name,
+            String _help, long _value) {
+        header(_sb, PREFIX + _name, "counter", _help);
+        sample(_sb, PREFIX + _name, null, _value);
+    }
+
+    private static void gauge(StringBuilder _sb, String _name,
+            String _help, long _value) {
+        header(_sb, PREFIX + _name, "gauge", _help);
+        sample(_sb, PREFIX + _name, null, _value);
+    }
+
+    private static void header(StringBuilder _sb, String _name,
+            String _type, String _help) {
+        _sb.append("# HELP ").append(_name).append(' ').append(_help)
+                .append('\n');
+        _sb.append("# TYPE ").append(_name).append(' ').append(_type)
+                .append('\n');
+    }
+
+    private static void sample(StringBuilder _sb, String _name,
+            String _labels, long _value) {
+        sample(_sb, _name, _labels, Long.toString(_value));
+    }
+
+    private static void sample(StringBuilder _sb, String _name,
+            String _labels, double _value) {
+        sample(_sb, _name, _labels, Double.toString(_value));
+    }
+
+    private static void sample(StringBuilder _sb, String _name,
+            String _labels, String _value) {
+        _sb.append(_name);
+        if (null != _labels) {
+            _sb.append('{').append(_labels).append('}');
+        }
+        _sb.append(' ').append(_value).append('\n');
+    }
+
+    /**
+     * @param _value
+     * @return the value, escaped for a label
+     */
+    private static String escape(String _value) {
+        return _value.replace("\\", "\\\\").replace("\"", "\\\"").replace(
+                "\n", "\\n");
+    }
+
+}
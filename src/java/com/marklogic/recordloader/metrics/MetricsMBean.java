@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.metrics;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Loader statistics, as JMX attributes. Counts restart when
+ *         SKIP_EXISTING_UNTIL_FIRST_MISS finds its first new record.
+ */
+public interface MetricsMBean {
+
+    /**
+     * @return records processed, including errors
+     */
+    public long getRecordCount();
+
+    public long getErrorCount();
+
+    public long getByteCount();
+
+    public long getSkippedCount();
+
+    public double getRecordsPerSecond();
+
+    public double getKilobytesPerSecond();
+
+    public int getPoolActiveCount();
+
+    public int getPoolQueuedCount();
+
+    public int getPipelineQueueDepth();
+
+    public long getPipelineQueuedBytes();
+
+    public int getInFlightCount();
+
+    public long getExistenceRequestCount();
+
+    public long getExistenceCheckedCount();
+
+    public long getExistenceFilteredCount();
+
+    public double getLatencyMillisP50();
+
+    public double getLatencyMillisP90();
+
+    public double getLatencyMillisP99();
+
+    public double getLatencyMillisP999();
+
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.metrics;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         A minimal HTTP/1.0 server for scrapers: GET /metrics answers with
+ *         the metrics in Prometheus text format, and closes the connection.
+ *         Requests are served one at a time, by a single daemon thread.
+ *         There is no authentication, so the server only listens on
+ *         loopback unless it is given another address.
+ *
+ *         This uses a plain ServerSocket rather than com.sun.net.httpserver,
+ *         which is JDK-specific and not part of the Java SE API.
+ */
+public class MetricsServer implements Runnable {
+
+    public static final String PATH = "/metrics";
+
+    private static final String CRLF = "\r\n";
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // a scraper that stalls must not hold up the next one for long
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    // request lines and headers longer than this are refused
+    private static final int MAX_LINE = 8192;
+
+    private Metrics metrics;
+
+    private ServerSocket socket;
+
+    private Thread acceptor;
+
+    private volatile boolean running = false;
+
+    /**
+     * Listen on loopback only.
+     * 
+     * @param _metrics
+     * @param _port
+     *            or zero for any free port
+     * @throws IOException
+     */
+    public MetricsServer(Metrics _metrics, int _port) throws IOException {
+        this(_metrics, null, _port);
+    }
+
+    /**
+     * @param _metrics
+     * @param _address
+     *            to listen on, or null for loopback
+     * @param _port
+     *            or zero for any free port
+     * @throws IOException
+     */
+    public MetricsServer(Metrics _metrics, String _address, int _port)
+            throws IOException {
+        metrics = _metrics;
+        // InetAddress.getByName(null) is loopback
+        socket = new ServerSocket(_port, 0, InetAddress.getByName(_address));
+    }
+
+    /**
+     * 
+     */
+    public void start() {
+        running = true;
+        acceptor = new Thread(this, "metrics-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * 
+     */
+    public void halt() {
+        running = false;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * @return
+     */
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * @return the URL of the metrics, for the log
+     */
+    public String getUrl() {
+        String host = socket.getInetAddress().getHostAddress();
+        if (host.indexOf(':') > -1) {
+            // IPv6
+            host = "[" + host + "]";
+        }
+        return "http://" + host + ":" + getPort() + PATH;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Runnable#run()
+     */
+    public void run() {
+        Socket s;
+        while (running) {
+            try {
+                s = socket.accept();
+            } catch (IOException e) {
+                // halt() closes the socket
+                return;
+            }
+            try {
+                s.setSoTimeout(TIMEOUT_MILLIS);
+                serve(s);
+            } catch (IOException e) {
+                // the client went away, or was too slow
+            } catch (RuntimeException e) {
+                // one failed scrape must not stop the next
+            } finally {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    /**
+     * @param _socket
+     * @throws IOException
+     */
+    private void serve(Socket _socket) throws IOException {
+        InputStream in = new BufferedInputStream(_socket.getInputStream());
+        OutputStream out = _socket.getOutputStream();
+        String line = readLine(in);
+        if (null == line) {
+            return;
+        }
+        // skip the headers
+        String header;
+        do {
+            header = readLine(in);
+        } while (null != header && header.length() > 0);
+
+        String[] request = line.split(" ");
+        if (request.length < 2 || !"GET".equals(request[0])) {
+            respond(out, "405 Method Not Allowed", "GET only\n");
+            return;
+        }
+        String path = request[1];
+        int query = path.indexOf('?');
+        if (query > -1) {
+            path = path.substring(0, query);
+        }
+        if (!PATH.equals(path)) {
+            respond(out, "404 Not Found", "try " + PATH + "\n");
+            return;
+        }
+        String text;
+        try {
+            text = metrics.getPrometheusText();
+        } catch (RuntimeException e) {
+            respond(out, "500 Internal Server Error", e + "\n");
+            throw e;
+        }
+        respond(out, "200 OK", text);
+    }
+
+    /**
+     * @param _out
+     * @param _status
+     * @param _body
+     * @throws IOException
+     */
+    private void respond(OutputStream _out, String _status, String _body)
+            throws IOException {
+        byte[] body = _body.getBytes("UTF-8");
+        _out.write(("HTTP/1.0 " + _status + CRLF + "Content-Type: "
+                + CONTENT_TYPE + CRLF + "Content-Length: " + body.length
+                + CRLF + "Connection: close" + CRLF + CRLF)
+                .getBytes("UTF-8"));
+        _out.write(body);
+        _out.flush();
+    }
+
+    /**
+     * @param _in
+     * @return the next line, without its terminator, or null at the end
+     * @throws IOException
+     */
+    private static String readLine(InputStream _in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while (-1 != (c = _in.read())) {
+            if ('\n' == c) {
+                break;
+            }
+            if ('\r' != c) {
+                if (sb.length() >= MAX_LINE) {
+                    throw new IOException("line too long");
+                }
+                sb.append((char) c);
+            }
+        }
+        if (-1 == c && 0 == sb.length()) {
+            return null;
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.sink;
+
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.marklogic.recordloader.FatalException;
+import com.marklogic.recordloader.LoaderException;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Hashes the URI and the bytes of each record, and throws the
+ *         record away.
+ */
+public class ChecksumContent extends NullContent {
+
+    protected static final String ALGORITHM = "MD5";
+
+    private MessageDigest digest;
+
+    /**
+     * @param _uri
+     * @param _tally
+     */
+    public ChecksumContent(String _uri, SinkTally _tally) {
+        super(_uri, _tally);
+        digest = newDigest();
+    }
+
+    /**
+     * @return
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has it
+            throw new FatalException(e);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.sink.NullContent#insert()
+     */
+    @Override
+    public void insert() throws LoaderException {
+        if (null == uri) {
+            throw new NullPointerException("URI cannot be null");
+        }
+        MessageDigest record = newDigest();
+        try {
+            record.update(uri.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new LoaderException(uri, e);
+        }
+        record.update((byte) 0);
+        record.update(digest.digest());
+        tally.add(length, record.digest());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.sink.NullContent#setBytes(byte[])
+     */
+    @Override
+    public void setBytes(byte[] _bytes) throws LoaderException {
+        digest.reset();
+        super.setBytes(_bytes);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.sink.NullContent#setInputStream(java.io.
+     * InputStream)
+     */
+    @Override
+    public void setInputStream(InputStream _is)
+            throws LoaderException {
+        digest.reset();
+        super.setInputStream(_is);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.sink.NullContent#update(byte[], int,
+     * int)
+     */
+    @Override
+    protected void update(byte[] _bytes, int _offset, int _length) {
+        super.update(_bytes, _offset, _length);
+        digest.update(_bytes, _offset, _length);
+    }
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.sink;
+
+import com.marklogic.recordloader.ContentInterface;
+import com.marklogic.recordloader.LoaderException;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Like NullContentFactory, but the monitor also logs a checksum of
+ *         every URI and record. Two runs over the same input with the same
+ *         checksum produced the same documents, in any order.
+ */
+public class ChecksumContentFactory extends NullContentFactory {
+
+    private static final SinkTally tally = new SinkTally("checksum sink",
+            true);
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.sink.NullContentFactory#getTally()
+     */
+    @Override
+    public SinkTally getTally() {
+        return tally;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.sink.NullContentFactory#newContent(java.lang
+     * .String)
+     */
+    @Override
+    public ContentInterface newContent(String _uri) throws LoaderException {
+        return new ChecksumContent(_uri, getTally());
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.sink;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.marklogic.recordloader.AbstractContent;
+import com.marklogic.recordloader.ContentInterface;
+import com.marklogic.recordloader.LoaderException;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Reads each record to the end, counts it, and throws it away.
+ */
+public class NullContent extends AbstractContent implements
+        ContentInterface {
+
+    protected static final int BUFFER_SIZE = 32 * 1024;
+
+    protected SinkTally tally;
+
+    protected long length = 0;
+
+    /**
+     * @param _uri
+     * @param _tally
+     */
+    public NullContent(String _uri, SinkTally _tally) {
+        uri = _uri;
+        tally = _tally;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.ContentInterface#checkDocumentUri(java.lang
+     * .String)
+     */
+    public boolean checkDocumentUri(String _uri) {
+        // nothing exists
+        return false;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.ContentInterface#insert()
+     */
+    public void insert() throws LoaderException {
+        if (null == uri) {
+            throw new NullPointerException("URI cannot be null");
+        }
+        tally.add(length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.ContentInterface#setBytes(byte[])
+     */
+    public void setBytes(byte[] _bytes) throws LoaderException {
+        length = 0;
+        update(_bytes, 0, _bytes.length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.ContentInterface#setInputStream(java.io.
+     * InputStream)
+     */
+    public void setInputStream(InputStream _is) throws LoaderException {
+        length = 0;
+        byte[] buf = new byte[BUFFER_SIZE];
+        int count;
+        try {
+            // reading is what drives the producer
+            while (-1 < (count = _is.read(buf))) {
+                update(buf, 0, count);
+            }
+        } catch (IOException e) {
+            throw new LoaderException(uri, e);
+        }
+    }
+
+    /**
+     * @param _bytes
+     * @param _offset
+     * @param _length
+     */
+    protected void update(byte[] _bytes, int _offset, int _length) {
+        length += _length;
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.sink;
+
+import java.net.URI;
+
+import com.marklogic.recordloader.Configuration;
+import com.marklogic.recordloader.ContentFactory;
+import com.marklogic.recordloader.ContentInterface;
+import com.marklogic.recordloader.LoaderException;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Discards every record, so that parsing, transcoding and splitting
+ *         can be measured without a server. Set CONTENT_FACTORY_CLASSNAME to
+ *         this class: the monitor logs the usual progress messages, along
+ *         with the totals that reached the sink.
+ */
+public class NullContentFactory implements ContentFactory {
+
+    private static final SinkTally tally = new SinkTally("null sink", false);
+
+    protected Configuration configuration;
+
+    /**
+     * @return the totals, shared by every instance
+     */
+    public SinkTally getTally() {
+        return tally;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.ContentFactory#setConfiguration(com.marklogic
+     * .recordloader.Configuration)
+     */
+    public void setConfiguration(Configuration _configuration)
+            throws LoaderException {
+        configuration = _configuration;
+        configuration.addStatusSource(getTally());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.ContentFactory#setFileBasename(java.lang.String
+     * )
+     */
+    public void setFileBasename(String _name) {
+        // nothing to do
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.ContentFactory#newContent(java.lang.String)
+     */
+    public ContentInterface newContent(String _uri) throws LoaderException {
+        return new NullContent(_uri, getTally());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.ContentFactory#setConnectionUri(java.net.URI)
+     */
+    public void setConnectionUri(URI _uri) {
+        // nothing to connect to
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.ContentFactory#getVersionString()
+     */
+    public String getVersionString() {
+        return getClass().getSimpleName() + ": records are not stored";
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.ContentFactory#close()
+     */
+    public void close() {
+        // nothing to do
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.sink;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.marklogic.recordloader.StatusInterface;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Totals for a sink, shared by every loader thread. The checksum is
+ *         the sum of the record digests, in two 64-bit lanes, so it does not
+ *         depend on the order in which the threads finish.
+ */
+public class SinkTally implements StatusInterface {
+
+    private String name;
+
+    private boolean isChecksum;
+
+    private AtomicLong records = new AtomicLong();
+
+    private AtomicLong bytes = new AtomicLong();
+
+    private AtomicLong high = new AtomicLong();
+
+    private AtomicLong low = new AtomicLong();
+
+    /**
+     * @param _name
+     *            for the status line
+     * @param _isChecksum
+     *            true if the status line should include the checksum
+     */
+    public SinkTally(String _name, boolean _isChecksum) {
+        name = _name;
+        isChecksum = _isChecksum;
+    }
+
+    /**
+     * @param _bytes
+     *            the length of the record
+     */
+    public void add(long _bytes) {
+        records.incrementAndGet();
+        bytes.addAndGet(_bytes);
+    }
+
+    /**
+     * @param _bytes
+     *            the length of the record
+     * @param _digest
+     *            at least 16 bytes
+     */
+    public void add(long _bytes, byte[] _digest) {
+        add(_bytes);
+        high.addAndGet(toLong(_digest, 0));
+        low.addAndGet(toLong(_digest, 8));
+    }
+
+    /**
+     * @param _bytes
+     * @param _offset
+     * @return
+     */
+    private static long toLong(byte[] _bytes, int _offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (_bytes[_offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * @return
+     */
+    public long getRecordCount() {
+        return records.get();
+    }
+
+    /**
+     * @return
+     */
+    public long getByteCount() {
+        return bytes.get();
+    }
+
+    /**
+     * @return the checksum, as 32 hex digits
+     */
+    public String getChecksum() {
+        return String.format("%016x%016x", high.get(), low.get());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.StatusInterface#getStatusMessage()
+     */
+    public String getStatusMessage() {
+        return name + ": " + records.get() + " record(s), " + bytes.get()
+                + " B" + (isChecksum ? (", checksum " + getChecksum()) : "");
+    }
+
+}
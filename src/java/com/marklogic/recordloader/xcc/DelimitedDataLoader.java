@@ -23,7 +23,6 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 
 import com.marklogic.ps.Utilities;
-import com.marklogic.ps.timing.TimedEvent;
 import com.marklogic.recordloader.Configuration;
 import com.marklogic.recordloader.FatalException;
 import com.marklogic.recordloader.LoaderException;
@@ -156,7 +155,7 @@ public class DelimitedDataLoader extends TranscodingLoader {
             IOException {
         String xml;
         String id;
-        event = new TimedEvent();
+        event = newEvent();
         lineNumber++;
         // TODO this is too simplistic for CSV with quoted values
         // by default, split() discards empty strings
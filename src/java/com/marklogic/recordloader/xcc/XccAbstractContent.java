@@ -20,6 +20,8 @@ package com.marklogic.recordloader.xcc;
 
 import com.marklogic.recordloader.AbstractContent;
 import com.marklogic.recordloader.ContentInterface;
+import com.marklogic.recordloader.HostBalancer;
+import com.marklogic.recordloader.HostContentInterface;
 import com.marklogic.xcc.Session;
 
 /**
@@ -27,21 +29,123 @@ import com.marklogic.xcc.Session;
  * 
  */
 public abstract class XccAbstractContent extends AbstractContent
-        implements ContentInterface {
+        implements ContentInterface, HostContentInterface {
 
     Session session = null;
 
+    // if set, sessions are borrowed for each request
+    XccSessionPool pool = null;
+
+    // routed forest, or -1
+    int forestIndex = -1;
+
+    // balanced host, or null
+    HostBalancer.Host host = null;
+
+    // for per-host throttling, or null
+    String connectionString = null;
+
+    // start of the current request, for the balancer
+    long requestStart = -1;
+
     /*
      * (non-Javadoc)
      * 
      * @see com.marklogic.recordloader.ContentInterface#close()
      */
     public void close() {
+        if (null != pool) {
+            releaseSession(false);
+            return;
+        }
         if (null != session) {
             session.close();
         }
     }
 
+    /**
+     * @param _index
+     */
+    public void setForestIndex(int _index) {
+        forestIndex = _index;
+    }
+
+    /**
+     * @return
+     */
+    public int getForestIndex() {
+        return forestIndex;
+    }
+
+    /**
+     * @param _session
+     */
+    public void setSession(Session _session) {
+        session = _session;
+    }
+
+    /**
+     * @param _host
+     */
+    public void setHost(HostBalancer.Host _host) {
+        host = _host;
+    }
+
+    /**
+     * @param _connectionString
+     */
+    public void setConnectionString(String _connectionString) {
+        connectionString = _connectionString;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.HostContentInterface#getConnectionString()
+     */
+    public String getConnectionString() {
+        return connectionString;
+    }
+
+    /**
+     * @param _pool
+     */
+    public void setSessionPool(XccSessionPool _pool) {
+        pool = _pool;
+    }
+
+    /**
+     * @return the session for the next request
+     */
+    protected Session acquireSession() {
+        if (null != host && requestStart < 0) {
+            requestStart = host.start();
+        }
+        if (null == session && null != pool) {
+            session = pool.borrow();
+        }
+        return session;
+    }
+
+    /**
+     * Return a pooled session to its pool, as soon as a request is done,
+     * and report the request to the balancer.
+     * 
+     * @param _isBroken
+     *            true if the request failed with a connection error
+     */
+    protected void releaseSession(boolean _isBroken) {
+        if (null != host && requestStart > -1) {
+            host.finish(requestStart, _isBroken);
+            requestStart = -1;
+        }
+        if (null == pool || null == session) {
+            return;
+        }
+        pool.release(session, _isBroken);
+        session = null;
+    }
+
     /**
      * @return
      */
@@ -29,9 +29,10 @@ import com.marklogic.ps.SimpleLogger;
 import com.marklogic.recordloader.Configuration;
 import com.marklogic.recordloader.ContentFactory;
 import com.marklogic.recordloader.FatalException;
+import com.marklogic.recordloader.HostBalancer;
 import com.marklogic.recordloader.LoaderException;
 import com.marklogic.xcc.ContentSource;
-import com.marklogic.xcc.ContentSourceFactory;
+import com.marklogic.xcc.Session;
 import com.marklogic.xcc.exceptions.XccConfigException;
 import com.marklogic.xcc.exceptions.XccException;
 
@@ -43,8 +44,20 @@ public abstract class XccAbstractContentFactory implements ContentFactory {
 
     protected ContentSource cs;
 
+    // null unless sessions are pooled
+    protected XccSessionPool pool;
+
+    // null unless documents are routed to forests
+    protected XccForestRouter router;
+
+    // null unless requests are balanced across hosts
+    protected HostBalancer balancer;
+
     protected XccConfiguration configuration;
 
+    // for per-host throttling
+    protected String connectionString;
+
     protected List<String> collections;
 
     protected SimpleLogger logger;
@@ -80,6 +93,8 @@ public abstract class XccAbstractContentFactory implements ContentFactory {
             throws LoaderException {
         configuration = (XccConfiguration) _configuration;
         logger = configuration.getLogger();
+        router = configuration.getForestRouter();
+        balancer = configuration.getHostBalancer();
         initOptions();
     }
 
@@ -89,6 +104,57 @@ public abstract class XccAbstractContentFactory implements ContentFactory {
      */
     protected abstract void initOptions() throws LoaderException;
 
+    /**
+     * @param _uri
+     * @return the routed forest index for the document, or -1
+     */
+    protected int getForestIndex(String _uri) {
+        return (null == router) ? -1 : router.getForestIndex(_uri);
+    }
+
+    /**
+     * Content from this factory either takes a new session, or borrows one
+     * from a pool for each request.
+     * 
+     * @param _content
+     * @param _forest
+     *            a routed forest index, or -1
+     * @return a new session, or null if the content should use a pool
+     * @throws LoaderException
+     */
+    protected Session newSession(XccAbstractContent _content, int _forest)
+            throws LoaderException {
+        XccSessionPool p = pool;
+        ContentSource s = cs;
+        String connection = connectionString;
+        if (_forest > -1 && null != router.getContentSource(_forest)) {
+            // go straight to the forest's host
+            p = router.getSessionPool(_forest);
+            s = router.getContentSource(_forest);
+            connection = router.getConnectionUri(_forest).toString();
+        } else if (null != balancer) {
+            HostBalancer.Host host = balancer.select();
+            _content.setHost(host);
+            connection = host.getUri().toString();
+            p = XccSessionPool.getPool(configuration, host.getUri());
+            try {
+                s = (null == p) ? configuration.getContentSource(host
+                        .getUri()) : p.getContentSource();
+            } catch (XccConfigException e) {
+                throw new LoaderException(e);
+            } catch (KeyManagementException e) {
+                throw new LoaderException(e);
+            } catch (NoSuchAlgorithmException e) {
+                throw new LoaderException(e);
+            }
+        }
+        _content.setForestIndex(_forest);
+        _content.setConnectionString(connection);
+        _content.setSessionPool(p);
+        // NB - this is closed in XccAbstractContent.close()
+        return (null == p) ? s.newSession() : null;
+    }
+
     /**
      * @param _uri
      * @throws LoaderException
@@ -96,12 +162,14 @@ public abstract class XccAbstractContentFactory implements ContentFactory {
     public void setConnectionUri(URI _uri) throws LoaderException {
         // this is sort of redundant, but the Loader doesn't know which
         // round-robin index to use.
+        connectionString = _uri.toString();
+        pool = XccSessionPool.getPool(configuration, _uri);
+        if (null != pool) {
+            cs = pool.getContentSource();
+            return;
+        }
         try {
-            // support SSL or plain-text
-            cs = configuration.isSecure(_uri) ? ContentSourceFactory
-                    .newContentSource(_uri, configuration
-                            .getSecurityOptions()) : ContentSourceFactory
-                    .newContentSource(_uri);
+            cs = configuration.newContentSource(_uri);
         } catch (XccConfigException e) {
             throw new LoaderException(e);
         } catch (KeyManagementException e) {
@@ -24,6 +24,8 @@ import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -32,9 +34,11 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
+import com.marklogic.ps.Utilities;
 import com.marklogic.recordloader.Configuration;
 import com.marklogic.recordloader.FatalException;
 import com.marklogic.recordloader.FileLoader;
+import com.marklogic.recordloader.LoaderException;
 import com.marklogic.xcc.ContentCapability;
 import com.marklogic.xcc.ContentPermission;
 import com.marklogic.xcc.ContentSource;
@@ -57,6 +61,29 @@ public class XccConfiguration extends Configuration {
 
     public static final String CONTENT_MODULE_KEY = "CONTENT_MODULE_URI";
 
+    /**
+     * If true, the content module expects batches of records, as described
+     * in XccModuleContent. Use BATCH_SIZE to set the batch size.
+     */
+    public static final String CONTENT_MODULE_BATCH_KEY = "CONTENT_MODULE_BATCH";
+
+    public static final String CONTENT_MODULE_BATCH_DEFAULT = "false";
+
+    /**
+     * How the content module receives each record: "string" decodes it into
+     * XML-STRING, while "document" and "binary" pass the bytes in CONTENT,
+     * as a document node or a binary node.
+     */
+    public static final String CONTENT_MODULE_PAYLOAD_KEY = "CONTENT_MODULE_PAYLOAD";
+
+    public static final String CONTENT_MODULE_PAYLOAD_STRING = "string";
+
+    public static final String CONTENT_MODULE_PAYLOAD_DOCUMENT = "document";
+
+    public static final String CONTENT_MODULE_PAYLOAD_BINARY = "binary";
+
+    public static final String CONTENT_MODULE_PAYLOAD_DEFAULT = CONTENT_MODULE_PAYLOAD_STRING;
+
     public static final String DOCUMENT_FORMAT_DEFAULT = DocumentFormat.XML
             .toString();
 
@@ -64,12 +91,52 @@ public class XccConfiguration extends Configuration {
 
     public static final String QUALITY_DEFAULT = "0";
 
+    /**
+     * Maximum number of idle sessions to keep for each connection URI. Zero
+     * disables pooling, so that every document gets its own session. The
+     * default, -1, means THREADS plus INSERT_THREADS.
+     */
+    public static final String SESSION_POOL_SIZE_KEY = "XCC_SESSION_POOL_SIZE";
+
+    public static final String SESSION_POOL_SIZE_DEFAULT = "-1";
+
+    /**
+     * Pooled sessions older than this are closed instead of reused. Zero
+     * means no limit.
+     */
+    public static final String SESSION_MAX_AGE_KEY = "XCC_SESSION_MAX_AGE_SECONDS";
+
+    public static final String SESSION_MAX_AGE_DEFAULT = "600";
+
+    /**
+     * Pooled sessions that have been idle for this long are checked before
+     * they are reused. Zero disables the check.
+     */
+    public static final String SESSION_CHECK_KEY = "XCC_SESSION_CHECK_SECONDS";
+
+    public static final String SESSION_CHECK_DEFAULT = "30";
+
+    /**
+     * If true, each document is assigned to a forest on the client, and sent
+     * to a connection string on the host that owns that forest. The forests
+     * are OUTPUT_FORESTS, or every forest in the database.
+     */
+    public static final String OUTPUT_FOREST_ROUTING_KEY = "OUTPUT_FOREST_ROUTING";
+
+    public static final String OUTPUT_FOREST_ROUTING_DEFAULT = "false";
+
     Object metadataMutex = new Object();
 
     volatile BigInteger[] placeKeys;
 
     volatile ContentbaseMetaData metadata;
 
+    Object routerMutex = new Object();
+
+    Map<URI, ContentSource> contentSources = new HashMap<URI, ContentSource>();
+
+    volatile XccForestRouter router;
+
     protected SecurityOptions securityOptions = null;
 
     Object securityOptionsMutex = new Object();
@@ -103,11 +170,7 @@ public class XccConfiguration extends Configuration {
             if (null != metadata) {
                 return;
             }
-            URI uri = getConnectionStrings()[0];
-            // support SSL or plain-text
-            ContentSource cs = isSecure(uri) ? ContentSourceFactory
-                    .newContentSource(uri, getSecurityOptions())
-                    : ContentSourceFactory.newContentSource(uri);
+            ContentSource cs = newContentSource(getConnectionStrings()[0]);
             // be sure to use the default db
             Session session = cs.newSession();
             metadata = session.getContentbaseMetaData();
@@ -142,6 +205,20 @@ public class XccConfiguration extends Configuration {
             format = DocumentFormat.XML;
         }
 
+        String payload = getContentModulePayload();
+        if (!CONTENT_MODULE_PAYLOAD_STRING.equals(payload)
+                && !CONTENT_MODULE_PAYLOAD_DOCUMENT.equals(payload)
+                && !CONTENT_MODULE_PAYLOAD_BINARY.equals(payload)) {
+            throw new FatalException("unexpected "
+                    + CONTENT_MODULE_PAYLOAD_KEY + "=" + payload);
+        }
+        if (CONTENT_MODULE_PAYLOAD_BINARY.equals(payload)
+                && isContentModuleBatch()) {
+            throw new FatalException(CONTENT_MODULE_PAYLOAD_KEY + "="
+                    + payload + " cannot be used with "
+                    + CONTENT_MODULE_BATCH_KEY);
+        }
+
         String[] placeNames = getOutputForests();
         if (null != placeNames) {
             try {
@@ -168,6 +245,14 @@ public class XccConfiguration extends Configuration {
             }
         }
 
+        if (isForestRouting()) {
+            try {
+                // fail fast, and log the routing table once
+                getForestRouter();
+            } catch (LoaderException e) {
+                throw new FatalException(e);
+            }
+        }
     }
 
     protected static SecurityOptions newTrustAnyoneOptions()
@@ -220,6 +305,64 @@ public class XccConfiguration extends Configuration {
         }
     }
 
+    /**
+     * @param _uri
+     * @return
+     * @throws XccConfigException
+     * @throws KeyManagementException
+     * @throws NoSuchAlgorithmException
+     */
+    public ContentSource newContentSource(URI _uri)
+            throws XccConfigException, KeyManagementException,
+            NoSuchAlgorithmException {
+        // support SSL or plain-text
+        return isSecure(_uri) ? ContentSourceFactory.newContentSource(_uri,
+                getSecurityOptions()) : ContentSourceFactory
+                .newContentSource(_uri);
+    }
+
+    /**
+     * @param _uri
+     * @return a shared content source for the connection string
+     * @throws XccConfigException
+     * @throws KeyManagementException
+     * @throws NoSuchAlgorithmException
+     */
+    public ContentSource getContentSource(URI _uri)
+            throws XccConfigException, KeyManagementException,
+            NoSuchAlgorithmException {
+        synchronized (contentSources) {
+            ContentSource source = contentSources.get(_uri);
+            if (null == source) {
+                source = newContentSource(_uri);
+                contentSources.put(_uri, source);
+            }
+            return source;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.marklogic.recordloader.Configuration#probeHost(java.net.URI)
+     */
+    @Override
+    public boolean probeHost(URI _uri) {
+        Session session = null;
+        try {
+            session = newContentSource(_uri).newSession();
+            session.getCurrentServerPointInTime();
+            return true;
+        } catch (Exception e) {
+            logger.fine("probe " + _uri.getHost() + ": " + e);
+            return false;
+        } finally {
+            if (null != session) {
+                session.close();
+            }
+        }
+    }
+
     /**
      * @param _uri
      * @return
@@ -312,6 +455,98 @@ public class XccConfiguration extends Configuration {
         return properties.getProperty(CONTENT_MODULE_KEY);
     }
 
+    /**
+     * @return
+     */
+    public String getContentModulePayload() {
+        return properties.getProperty(CONTENT_MODULE_PAYLOAD_KEY).trim()
+                .toLowerCase();
+    }
+
+    /**
+     * @return
+     */
+    public boolean isContentModuleBatch() {
+        return Utilities.stringToBoolean(properties
+                .getProperty(CONTENT_MODULE_BATCH_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public int getSessionPoolSize() {
+        int size = Integer.parseInt(properties
+                .getProperty(SESSION_POOL_SIZE_KEY));
+        if (size < 0) {
+            // enough for every thread that talks to the server
+            size = getThreadCount() + getInsertThreadCount();
+        }
+        return size;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isForestRouting() {
+        return Utilities.stringToBoolean(properties
+                .getProperty(OUTPUT_FOREST_ROUTING_KEY));
+    }
+
+    /**
+     * @return the forest router, or null if routing is disabled
+     * @throws LoaderException
+     */
+    public XccForestRouter getForestRouter() throws LoaderException {
+        if (null != router || !isForestRouting()) {
+            return router;
+        }
+        synchronized (routerMutex) {
+            // check again, to prevent races
+            if (null != router) {
+                return router;
+            }
+            try {
+                initMetaData();
+                BigInteger[] forestIds = placeKeys;
+                if (null == forestIds) {
+                    forestIds = metadata.getForestIds();
+                    // the assignment depends on the order
+                    Arrays.sort(forestIds);
+                }
+                router = new XccForestRouter(this, metadata.getSession(),
+                        forestIds);
+            } catch (XccException e) {
+                throw new LoaderException(e);
+            } catch (KeyManagementException e) {
+                throw new LoaderException(e);
+            } catch (NoSuchAlgorithmException e) {
+                throw new LoaderException(e);
+            }
+            return router;
+        }
+    }
+
+    /**
+     * @return
+     */
+    public boolean isSessionPooled() {
+        return getSessionPoolSize() > 0;
+    }
+
+    /**
+     * @return
+     */
+    public long getSessionMaxAge() {
+        return Long.parseLong(properties.getProperty(SESSION_MAX_AGE_KEY));
+    }
+
+    /**
+     * @return
+     */
+    public long getSessionCheckInterval() {
+        return Long.parseLong(properties.getProperty(SESSION_CHECK_KEY));
+    }
+
     /**
      * @return
      * @throws NoSuchAlgorithmException
@@ -346,6 +581,7 @@ public class XccConfiguration extends Configuration {
         if (null != metadata) {
             metadata.getSession().close();
         }
+        XccSessionPool.closeAll();
     }
 
 }
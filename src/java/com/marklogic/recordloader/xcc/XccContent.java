@@ -18,10 +18,14 @@
  */
 package com.marklogic.recordloader.xcc;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 
+import com.marklogic.recordloader.BatchContentInterface;
 import com.marklogic.recordloader.ContentInterface;
 import com.marklogic.recordloader.LoaderException;
+import com.marklogic.recordloader.ReplayBuffer;
 import com.marklogic.xcc.Content;
 import com.marklogic.xcc.ContentCreateOptions;
 import com.marklogic.xcc.ContentFactory;
@@ -30,6 +34,8 @@ import com.marklogic.xcc.ResultItem;
 import com.marklogic.xcc.ResultSequence;
 import com.marklogic.xcc.Session;
 import com.marklogic.xcc.exceptions.RequestException;
+import com.marklogic.xcc.exceptions.RetryableXQueryException;
+import com.marklogic.xcc.exceptions.ServerConnectionException;
 import com.marklogic.xcc.exceptions.XccException;
 import com.marklogic.xcc.types.XSBoolean;
 
@@ -38,17 +44,35 @@ import com.marklogic.xcc.types.XSBoolean;
  * 
  */
 public class XccContent extends XccAbstractContent implements
-        ContentInterface {
+        ContentInterface, BatchContentInterface {
 
     /**
      * 
      */
     protected static final String XQUERY_VERSION_0_9_ML = "xquery version \"0.9-ml\"\n";
 
-    Content content = null;
+    /**
+     * URIs are passed as a single newline-delimited string.
+     */
+    protected static final String CHECK_URIS_QUERY = XQUERY_VERSION_0_9_ML
+            + "define variable $URIS as xs:string external\n"
+            + "for $u in tokenize($URIS, '\\n')\n"
+            + "return boolean(doc($u))\n";
+
+    protected Content content = null;
 
     ContentCreateOptions options = null;
 
+    // streamed records are buffered here, if replay is enabled
+    ReplayBuffer buffer = null;
+
+    int replayThreshold = 0;
+
+    File spillDirectory = null;
+
+    // requests that may have read the content
+    protected int attempts = 0;
+
     /**
      * @param _session
      * @param _uri
@@ -70,13 +94,167 @@ public class XccContent extends XccAbstractContent implements
         if (null == content.getUri()) {
             throw new LoaderException("URI cannot be null");
         }
+        boolean isBroken = false;
         try {
-            session.insertContent(content);
+            if (attempts++ > 0) {
+                rewind(content);
+            }
+            acquireSession().insertContent(content);
         } catch (XccException e) {
-            throw new LoaderException(content.getUri(), e);
+            isBroken = e instanceof ServerConnectionException;
+            throw new LoaderException(content.getUri(), e)
+                    .setRetryable(isRetryable(e) && content.isRewindable());
+        } finally {
+            releaseSession(isBroken);
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.BatchContentInterface#isBatchable()
+     */
+    public boolean isBatchable() {
+        // unbuffered content cannot be retried one document at a time
+        return null != content && content.isRewindable();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.BatchContentInterface#checkDocumentUris(java
+     * .lang.String[])
+     */
+    public boolean[] checkDocumentUris(String[] _uris)
+            throws LoaderException {
+        boolean[] exists = new boolean[_uris.length];
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < _uris.length; i++) {
+            if (_uris[i].indexOf('\n') > -1) {
+                // cannot be delimited: check them one at a time
+                for (int j = 0; j < _uris.length; j++) {
+                    exists[j] = checkDocumentUri(_uris[j]);
+                }
+                return exists;
+            }
+            if (i > 0) {
+                joined.append('\n');
+            }
+            joined.append(_uris[i]);
+        }
+
+        ResultSequence result = null;
+        boolean isBroken = false;
+        try {
+            Request request = acquireSession().newAdhocQuery(
+                    CHECK_URIS_QUERY);
+            request.setNewStringVariable("URIS", joined.toString());
+            result = request.getSession().submitRequest(request);
+            for (int i = 0; i < exists.length; i++) {
+                if (!result.hasNext()) {
+                    throw new RequestException("expected " + exists.length
+                            + " results, got " + i, request);
+                }
+                exists[i] = ((XSBoolean) result.next().getItem())
+                        .asPrimitiveBoolean();
+            }
+        } catch (XccException e) {
+            isBroken = e instanceof ServerConnectionException;
+            throw new LoaderException(e);
+        } finally {
+            if (result != null && !result.isClosed())
+                result.close();
+            releaseSession(isBroken);
+        }
+        return exists;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.BatchContentInterface#getBatchKey()
+     */
+    public Object getBatchKey() {
+        // a batch goes to a single host
+        return forestIndex;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.BatchContentInterface#insert(com.marklogic
+     * .recordloader.BatchContentInterface[])
+     */
+    public void insert(BatchContentInterface[] _batch)
+            throws LoaderException {
+        Content[] contents = new Content[_batch.length];
+        for (int i = 0; i < _batch.length; i++) {
+            contents[i] = ((XccContent) _batch[i]).content;
+            if (null == contents[i].getUri()) {
+                throw new LoaderException("URI cannot be null");
+            }
+        }
+        boolean isBroken = false;
+        try {
+            // the request may read every member, so each one counts it:
+            // a retry, or a single-document fallback, must rewind them all
+            XccContent member;
+            for (int i = 0; i < _batch.length; i++) {
+                member = (XccContent) _batch[i];
+                if (member.attempts++ > 0) {
+                    rewind(contents[i]);
+                }
+            }
+            // one request, one transaction
+            acquireSession().insertContent(contents);
+        } catch (XccException e) {
+            isBroken = e instanceof ServerConnectionException;
+            // batched content is always rewindable
+            throw new LoaderException("batch of " + contents.length
+                    + " starting with " + contents[0].getUri(), e)
+                    .setRetryable(isRetryable(e));
+        } finally {
+            releaseSession(isBroken);
+        }
+    }
+
+    /**
+     * @param _e
+     * @return true if the same request may succeed later
+     */
+    static boolean isRetryable(XccException _e) {
+        return _e instanceof ServerConnectionException
+                || _e instanceof RetryableXQueryException;
+    }
+
+    /**
+     * @param _content
+     * @throws LoaderException
+     */
+    private static void rewind(Content _content) throws LoaderException {
+        try {
+            _content.rewind();
+        } catch (IOException e) {
+            throw new LoaderException(_content.getUri(), e);
+        }
+    }
+
+    /**
+     * Buffer streamed records, so that they can be replayed.
+     * 
+     * @param _threshold
+     *            records larger than this spill to disk, and zero disables
+     *            buffering
+     * @param _directory
+     *            for spill files, or null
+     */
+    public void setReplayThreshold(int _threshold, File _directory) {
+        replayThreshold = _threshold;
+        spillDirectory = _directory;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -98,6 +276,10 @@ public class XccContent extends XccAbstractContent implements
         if (null != content) {
             content.close();
         }
+        if (null != buffer) {
+            buffer.close();
+            buffer = null;
+        }
         super.close();
     }
 
@@ -112,8 +294,22 @@ public class XccContent extends XccAbstractContent implements
         if (null == uri) {
             throw new LoaderException("URI cannot be null");
         }
-        content = ContentFactory.newUnBufferedContent(uri, _producer,
-                options);
+        if (replayThreshold < 1) {
+            content = ContentFactory.newUnBufferedContent(uri, _producer,
+                    options);
+            return;
+        }
+        buffer = new ReplayBuffer(replayThreshold, spillDirectory);
+        try {
+            buffer.fill(_producer);
+            content = buffer.isSpilled() ? ContentFactory.newContent(uri,
+                    buffer.getFile(), options) : ContentFactory.newContent(
+                    uri, buffer.getBytes(), 0, buffer.getLength(), options);
+        } catch (IOException e) {
+            buffer.close();
+            buffer = null;
+            throw new LoaderException(uri, e);
+        }
     }
 
     /*
@@ -130,11 +326,12 @@ public class XccContent extends XccAbstractContent implements
                 + "boolean(doc($URI))\n";
         ResultSequence result = null;
         boolean exists = false;
+        boolean isBroken = false;
         try {
-            Request request = session.newAdhocQuery(query);
+            Request request = acquireSession().newAdhocQuery(query);
             request.setNewStringVariable("URI", _uri);
 
-            result = session.submitRequest(request);
+            result = request.getSession().submitRequest(request);
 
             if (!result.hasNext()) {
                 throw new RequestException("unexpected null result",
@@ -145,10 +342,12 @@ public class XccContent extends XccAbstractContent implements
 
             exists = ((XSBoolean) item.getItem()).asPrimitiveBoolean();
         } catch (XccException e) {
+            isBroken = e instanceof ServerConnectionException;
             throw new LoaderException(e);
         } finally {
             if (result != null && !result.isClosed())
                 result.close();
+            releaseSession(isBroken);
         }
         return exists;
     }
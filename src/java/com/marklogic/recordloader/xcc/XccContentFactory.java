@@ -18,6 +18,8 @@
  */
 package com.marklogic.recordloader.xcc;
 
+import java.math.BigInteger;
+
 import com.marklogic.recordloader.ContentFactory;
 import com.marklogic.recordloader.ContentInterface;
 import com.marklogic.recordloader.LoaderException;
@@ -32,6 +34,9 @@ public class XccContentFactory extends XccAbstractContentFactory
 
     protected ContentCreateOptions options = null;
 
+    // one per routed forest
+    protected ContentCreateOptions[] forestOptions = null;
+
     protected static Object optionsMutex = new Object();
 
     /*
@@ -49,27 +54,44 @@ public class XccContentFactory extends XccAbstractContentFactory
             if (null != options) {
                 return;
             }
-            boolean resolveEntities = false;
-            options = new ContentCreateOptions();
-            options.setResolveEntities(resolveEntities);
-            options.setPermissions(configuration.getPermissions());
-            options.setCollections(configuration.getBaseCollections());
-            options.setQuality(configuration.getQuality());
-            options.setNamespace(configuration.getOutputNamespace());
-            options.setRepairLevel(configuration.getRepairLevel());
-            options.setPlaceKeys(configuration.getPlaceKeys());
-            options.setFormat(configuration.getFormat());
-            options.setLanguage(configuration.getLanguage());
-
-            // are we handling the encoding, or is the server doing it?
-            if (!configuration.isLoaderTranscoding()) {
-                logger.fine("server encoding "
-                        + configuration.getInputEncoding());
-                options.setEncoding(configuration.getInputEncoding());
-            } else {
-                logger.fine("transcoding loader - will not set encoding");
+            options = newOptions(configuration.getPlaceKeys());
+            if (null == router) {
+                return;
             }
+            forestOptions = new ContentCreateOptions[router
+                    .getForestCount()];
+            for (int i = 0; i < forestOptions.length; i++) {
+                forestOptions[i] = newOptions(router.getPlaceKeys(i));
+            }
+        }
+    }
+
+    /**
+     * @param _placeKeys
+     * @return
+     */
+    protected ContentCreateOptions newOptions(BigInteger[] _placeKeys) {
+        boolean resolveEntities = false;
+        ContentCreateOptions opts = new ContentCreateOptions();
+        opts.setResolveEntities(resolveEntities);
+        opts.setPermissions(configuration.getPermissions());
+        opts.setCollections(configuration.getBaseCollections());
+        opts.setQuality(configuration.getQuality());
+        opts.setNamespace(configuration.getOutputNamespace());
+        opts.setRepairLevel(configuration.getRepairLevel());
+        opts.setPlaceKeys(_placeKeys);
+        opts.setFormat(configuration.getFormat());
+        opts.setLanguage(configuration.getLanguage());
+
+        // are we handling the encoding, or is the server doing it?
+        if (!configuration.isLoaderTranscoding()) {
+            logger.fine("server encoding "
+                    + configuration.getInputEncoding());
+            opts.setEncoding(configuration.getInputEncoding());
+        } else {
+            logger.fine("transcoding loader - will not set encoding");
         }
+        return opts;
     }
 
     /*
@@ -82,7 +104,14 @@ public class XccContentFactory extends XccAbstractContentFactory
     public void setFileBasename(String _name) throws LoaderException {
         super.setFileBasename(_name);
         // update content options with the latest collections
-        options.setCollections(collections.toArray(new String[0]));
+        String[] collectionsArray = collections.toArray(new String[0]);
+        options.setCollections(collectionsArray);
+        if (null == forestOptions) {
+            return;
+        }
+        for (int i = 0; i < forestOptions.length; i++) {
+            forestOptions[i].setCollections(collectionsArray);
+        }
     }
 
     /*
@@ -91,9 +120,17 @@ public class XccContentFactory extends XccAbstractContentFactory
      * @see
      * com.marklogic.recordloader.ContentFactory#newContent(java.lang.String)
      */
-    public ContentInterface newContent(String _uri) {
-        // NB - this is closed in XccAbstractContent.close()
-        return new XccContent(cs.newSession(), _uri, options);
+    public ContentInterface newContent(String _uri) throws LoaderException {
+        int forest = getForestIndex(_uri);
+        XccContent content = new XccContent(null, _uri,
+                (forest < 0) ? options : forestOptions[forest]);
+        content.setSession(newSession(content, forest));
+        if (configuration.isInputReplayable()) {
+            content.setReplayThreshold(configuration
+                    .getInputStreamingBufferBytes(), configuration
+                    .getInputSpillDirectory());
+        }
+        return content;
     }
 
     /*
@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.xcc;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.recordloader.FatalException;
+import com.marklogic.recordloader.LoaderException;
+import com.marklogic.xcc.ContentSource;
+import com.marklogic.xcc.Request;
+import com.marklogic.xcc.ResultSequence;
+import com.marklogic.xcc.Session;
+import com.marklogic.xcc.exceptions.XccConfigException;
+import com.marklogic.xcc.exceptions.XccException;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         Assigns each document URI to a forest on the client, and sends it
+ *         to a connection string on the host that owns that forest, so that
+ *         the server does not have to forward it. The assignment is a pure
+ *         function of the URI and the forest list, so a URI always lands in
+ *         the same forest from one run to the next.
+ *
+ *         Forests whose host does not match any connection string are still
+ *         assigned, but use whichever connection the loader already has.
+ */
+public class XccForestRouter {
+
+    protected static final String HOSTS_QUERY = "xquery version \"1.0-ml\";\n"
+            + "for $f in xdmp:database-forests(xdmp:database())\n"
+            + "return (xs:string($f), xdmp:host-name("
+            + "xdmp:forest-status($f)/*:host-id))\n";
+
+    protected SimpleLogger logger;
+
+    private BigInteger[] forestIds;
+
+    private BigInteger[][] placeKeys;
+
+    private String[] hostNames;
+
+    private URI[] connections;
+
+    private ContentSource[] sources;
+
+    private XccSessionPool[] pools;
+
+    /**
+     * @param _config
+     * @param _session
+     *            used to look up forest hosts
+     * @param _forestIds
+     *            candidate forests, in a stable order
+     * @throws LoaderException
+     */
+    public XccForestRouter(XccConfiguration _config, Session _session,
+            BigInteger[] _forestIds) throws LoaderException {
+        logger = _config.getLogger();
+        forestIds = _forestIds;
+        if (null == forestIds || 0 == forestIds.length) {
+            throw new FatalException("no forests to route to");
+        }
+        int count = forestIds.length;
+        placeKeys = new BigInteger[count][];
+        hostNames = new String[count];
+        connections = new URI[count];
+        sources = new ContentSource[count];
+        pools = new XccSessionPool[count];
+
+        Map<BigInteger, String> hosts = getForestHosts(_session);
+        URI[] uris = _config.getConnectionStrings();
+        // spread forests across matching connection strings
+        Map<String, Integer> hostCounts = new HashMap<String, Integer>();
+        List<URI> matches;
+        for (int i = 0; i < count; i++) {
+            placeKeys[i] = new BigInteger[] { forestIds[i] };
+            hostNames[i] = hosts.get(forestIds[i]);
+            if (null == hostNames[i]) {
+                throw new FatalException("forest " + forestIds[i]
+                        + " is not in the database");
+            }
+            matches = new ArrayList<URI>();
+            for (int j = 0; j < uris.length; j++) {
+                if (isSameHost(hostNames[i], uris[j].getHost())) {
+                    matches.add(uris[j]);
+                }
+            }
+            if (matches.isEmpty()) {
+                logger.warning("no connection string for host "
+                        + hostNames[i] + " (forest " + forestIds[i]
+                        + "): the server will forward its documents");
+                continue;
+            }
+            Integer n = hostCounts.get(hostNames[i]);
+            n = (null == n) ? 0 : n;
+            hostCounts.put(hostNames[i], n + 1);
+            connections[i] = matches.get(n % matches.size());
+            pools[i] = XccSessionPool.getPool(_config, connections[i]);
+            if (null != pools[i]) {
+                sources[i] = pools[i].getContentSource();
+                continue;
+            }
+            try {
+                sources[i] = _config.newContentSource(connections[i]);
+            } catch (XccConfigException e) {
+                throw new LoaderException(e);
+            } catch (KeyManagementException e) {
+                throw new LoaderException(e);
+            } catch (NoSuchAlgorithmException e) {
+                throw new LoaderException(e);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            logger.info("forest " + forestIds[i] + " on " + hostNames[i]
+                    + " via "
+                    + (null == connections[i] ? "any host" : connections[i]
+                            .getHost()
+                            + ":" + connections[i].getPort()));
+        }
+    }
+
+    /**
+     * @param _session
+     * @return
+     * @throws LoaderException
+     */
+    private Map<BigInteger, String> getForestHosts(Session _session)
+            throws LoaderException {
+        Map<BigInteger, String> hosts = new HashMap<BigInteger, String>();
+        ResultSequence result = null;
+        try {
+            Request request = _session.newAdhocQuery(HOSTS_QUERY);
+            result = _session.submitRequest(request);
+            String[] strings = result.asStrings();
+            for (int i = 0; i + 1 < strings.length; i += 2) {
+                hosts.put(new BigInteger(strings[i]), strings[i + 1]);
+            }
+        } catch (XccException e) {
+            throw new LoaderException(e);
+        } finally {
+            if (null != result && !result.isClosed()) {
+                result.close();
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * @param _a
+     * @param _b
+     * @return
+     */
+    private static boolean isSameHost(String _a, String _b) {
+        if (_a.equalsIgnoreCase(_b)) {
+            return true;
+        }
+        try {
+            return InetAddress.getByName(_a).equals(
+                    InetAddress.getByName(_b));
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param _uri
+     * @return the index of the forest for this document URI
+     */
+    public int getForestIndex(String _uri) {
+        // String.hashCode() is fully specified, so this is stable
+        int hash = _uri.hashCode();
+        // spread the low bits
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % forestIds.length;
+    }
+
+    /**
+     * @return
+     */
+    public int getForestCount() {
+        return forestIds.length;
+    }
+
+    /**
+     * @param _index
+     * @return a single-forest place key array, suitable for
+     *         ContentCreateOptions
+     */
+    public BigInteger[] getPlaceKeys(int _index) {
+        return placeKeys[_index];
+    }
+
+    /**
+     * @param _index
+     * @return the session pool for the forest's host, or null
+     */
+    public XccSessionPool getSessionPool(int _index) {
+        return pools[_index];
+    }
+
+    /**
+     * @param _index
+     * @return the connection string for the forest's host, or null if no
+     *         connection string matches the host
+     */
+    public URI getConnectionUri(int _index) {
+        return connections[_index];
+    }
+
+    /**
+     * @param _index
+     * @return the content source for the forest's host, or null if no
+     *         connection string matches the host
+     */
+    public ContentSource getContentSource(int _index) {
+        return sources[_index];
+    }
+
+}
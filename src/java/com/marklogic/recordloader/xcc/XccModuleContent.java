@@ -18,67 +18,108 @@
  */
 package com.marklogic.recordloader.xcc;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.SequenceInputStream;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.util.Vector;
 
 import com.marklogic.ps.Utilities;
+import com.marklogic.recordloader.BatchContentInterface;
+import com.marklogic.recordloader.Configuration;
 import com.marklogic.recordloader.ContentInterface;
 import com.marklogic.recordloader.FatalException;
 import com.marklogic.recordloader.LoaderException;
+import com.marklogic.recordloader.ModuleContentInterface;
+import com.marklogic.recordloader.ModuleResult;
+import com.marklogic.recordloader.ReplayBuffer;
+import com.marklogic.recordloader.TranscodingInputStream;
 import com.marklogic.xcc.Request;
+import com.marklogic.xcc.ResultSequence;
 import com.marklogic.xcc.Session;
+import com.marklogic.xcc.ValueFactory;
 import com.marklogic.xcc.exceptions.RequestException;
+import com.marklogic.xcc.exceptions.ServerConnectionException;
 import com.marklogic.xcc.types.ValueType;
+import com.marklogic.xcc.types.XName;
+import com.marklogic.xcc.types.XdmVariable;
 
 /**
  * @author Michael Blakeley, michael.blakeley@marklogic.com
  * 
- *         This implementation passes the XML source to a defined module. As
- *         such, it cannot handle documents larger than available memory.
+ *         This implementation passes the XML source to a defined module. By
+ *         default the record is decoded and passed as XML-STRING, so it
+ *         cannot handle documents larger than available memory, and can
+ *         only handle XML, and possibly text: no binaries!
  * 
- *         Also, this class can only handle XML, and possibly text: no binaries!
+ *         With CONTENT_MODULE_PAYLOAD=document or binary, the record bytes
+ *         are passed as-is in CONTENT, as a document node or a binary node.
+ *         Streamed records are buffered with spill to disk, so there is no
+ *         size limit, and the module does not need to unquote anything.
  * 
+ *         With CONTENT_MODULE_BATCH=true, the module is invoked with
+ *         batches of records instead. URIS holds the newline-delimited
+ *         document URIs, XML-STRINGS holds the records end to end, and
+ *         LENGTHS holds the space-delimited length of each record, in
+ *         codepoints. The other variables are the same as for one record.
+ *         With document payloads, CONTENT is a single document whose root
+ *         element holds the records, in the same order as URIS. Binary
+ *         payloads cannot be batched.
+ * 
+ *         The module may return one result line per record, as described
+ *         in ModuleResult, so that module errors and skipped records are
+ *         counted, and SKIP-EXISTING-UNTIL-FIRST-MISS can end.
  */
 public class XccModuleContent extends XccAbstractContent implements
-        ContentInterface {
+        ContentInterface, BatchContentInterface, ModuleContentInterface {
+
+    protected static final byte[] BATCH_START = "<batch xmlns=\"\">"
+            .getBytes();
+
+    protected static final byte[] BATCH_END = "</batch>".getBytes();
 
     protected String xml = null;
 
     protected Request request = null;
 
-    protected String[] executeRoles;
+    protected String moduleUri;
 
-    protected String[] insertRoles;
+    // bound to every request: everything except the records
+    protected XdmVariable[] variables;
 
-    protected String[] readRoles;
+    // send records as a batch, even one at a time
+    protected boolean isBatch;
 
-    protected String[] updateRoles;
-
-    protected String[] collections;
+    protected CharsetDecoder decoder;
 
-    protected String[] placeKeys;
+    // one of XccConfiguration.CONTENT_MODULE_PAYLOAD_*
+    protected String payload = XccConfiguration.CONTENT_MODULE_PAYLOAD_STRING;
 
-    protected String language;
+    // node payloads: record bytes, or a buffered stream
+    protected byte[] bytes = null;
 
-    protected String namespace;
+    protected ReplayBuffer buffer = null;
 
-    protected boolean skipExisting;
+    protected int replayThreshold = 1024 * 1024;
 
-    protected boolean skipExistingUntilFirstMiss;
+    protected File spillDirectory = null;
 
-    protected boolean errorExisting;
+    // the encoding of streamed records
+    protected String streamEncoding = Configuration.OUTPUT_ENCODING_DEFAULT;
 
-    protected CharsetDecoder decoder;
-
-    protected long quality;
+    // from the module, for the last insert
+    protected ModuleResult result = null;
 
     /**
      * @param _session
@@ -105,24 +146,65 @@ public class XccModuleContent extends XccAbstractContent implements
             boolean _skipExistingUntilFirstMiss, boolean _errorExisting,
             BigInteger[] _placeKeys, CharsetDecoder _decoder,
             long _quality) {
+        this(_session, _uri, _moduleUri, newVariables(_executeRoles,
+                _insertRoles, _readRoles, _updateRoles, _collections,
+                _language, _namespace, _skipExisting,
+                _skipExistingUntilFirstMiss, _errorExisting, _placeKeys,
+                _quality), _decoder, false);
+    }
+
+    /**
+     * @param _session
+     * @param _uri
+     * @param _moduleUri
+     * @param _variables
+     *            from {@link #newVariables}
+     * @param _decoder
+     * @param _isBatch
+     *            true if the module expects the batch protocol
+     */
+    public XccModuleContent(Session _session, String _uri,
+            String _moduleUri, XdmVariable[] _variables,
+            CharsetDecoder _decoder, boolean _isBatch) {
         session = _session;
         uri = _uri;
         if (null == _moduleUri) {
             throw new FatalException("module URI cannot be null");
         }
-        request = session.newModuleInvoke(_moduleUri);
-        executeRoles = _executeRoles;
-        insertRoles = _insertRoles;
-        readRoles = _readRoles;
-        updateRoles = _updateRoles;
-        collections = _collections;
-        language = _language;
-        quality = _quality;
-        namespace = _namespace;
-        skipExisting = _skipExisting;
-        skipExistingUntilFirstMiss = _skipExistingUntilFirstMiss;
-        errorExisting = _errorExisting;
+        moduleUri = _moduleUri;
+        if (null != session) {
+            request = session.newModuleInvoke(moduleUri);
+        }
+        variables = _variables;
         decoder = _decoder;
+        isBatch = _isBatch;
+    }
+
+    /**
+     * Build the variables that do not change from one record to the next,
+     * so that they can be shared by every request.
+     * 
+     * @param _executeRoles
+     * @param _insertRoles
+     * @param _readRoles
+     * @param _updateRoles
+     * @param _collections
+     * @param _language
+     * @param _namespace
+     * @param _skipExisting
+     * @param _skipExistingUntilFirstMiss
+     * @param _errorExisting
+     * @param _placeKeys
+     * @param _quality
+     * @return
+     */
+    public static XdmVariable[] newVariables(String[] _executeRoles,
+            String[] _insertRoles, String[] _readRoles,
+            String[] _updateRoles, String[] _collections,
+            String _language, String _namespace, boolean _skipExisting,
+            boolean _skipExistingUntilFirstMiss, boolean _errorExisting,
+            BigInteger[] _placeKeys, long _quality) {
+        String[] placeKeys;
         if (null == _placeKeys) {
             placeKeys = new String[0];
         } else {
@@ -131,6 +213,52 @@ public class XccModuleContent extends XccAbstractContent implements
                 placeKeys[i] = "" + _placeKeys[i];
             }
         }
+        return new XdmVariable[] {
+                newStringVariable("NAMESPACE", _namespace),
+                newStringVariable("LANGUAGE", (null == _language) ? ""
+                        : _language),
+                newStringVariable("ROLES-EXECUTE", Utilities
+                        .joinSsv(_executeRoles)),
+                newStringVariable("ROLES-INSERT", Utilities
+                        .joinSsv(_insertRoles)),
+                newStringVariable("ROLES-READ", Utilities
+                        .joinSsv(_readRoles)),
+                newStringVariable("ROLES-UPDATE", Utilities
+                        .joinSsv(_updateRoles)),
+                newStringVariable("COLLECTIONS", Utilities
+                        .joinCsv(_collections)),
+                newVariable("SKIP-EXISTING", ValueType.XS_BOOLEAN,
+                        _skipExisting),
+                newVariable("SKIP-EXISTING-UNTIL-FIRST-MISS",
+                        ValueType.XS_BOOLEAN, _skipExistingUntilFirstMiss),
+                newVariable("ERROR-EXISTING", ValueType.XS_BOOLEAN,
+                        _errorExisting),
+                // apparently it is ok if OUTPUT_FORESTS are empty (tested
+                // 4.1-1)
+                newStringVariable("FORESTS", Utilities.joinCsv(placeKeys)),
+                newVariable("QUALITY", ValueType.XS_INTEGER, _quality) };
+    }
+
+    /**
+     * @param _name
+     * @param _value
+     * @return
+     */
+    static XdmVariable newStringVariable(String _name, String _value) {
+        return ValueFactory.newVariable(new XName(_name), ValueFactory
+                .newXSString(_value));
+    }
+
+    /**
+     * @param _name
+     * @param _type
+     * @param _value
+     * @return
+     */
+    static XdmVariable newVariable(String _name, ValueType _type,
+            Object _value) {
+        return ValueFactory.newVariable(new XName(_name), ValueFactory
+                .newValue(_type, _value));
     }
 
     /*
@@ -142,55 +270,308 @@ public class XccModuleContent extends XccAbstractContent implements
         if (null == uri) {
             throw new NullPointerException("URI cannot be null");
         }
-        if (null == session) {
+        if (isBatch) {
+            // a batch-protocol module only understands batches
+            insert(new BatchContentInterface[] { this });
+        } else {
+            String[] items = submit(new XdmVariable[] {
+                    newStringVariable("URI", uri),
+                    isStringPayload() ? newStringVariable("XML-STRING", xml)
+                            : newNodeVariable("CONTENT", payload,
+                                    openPayload()) });
+            result = ModuleResult.match(ModuleResult.parse(items),
+                    new String[] { uri })[0];
+        }
+        ModuleResult.check(result);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.ModuleContentInterface#getResult()
+     */
+    public ModuleResult getResult() {
+        return result;
+    }
+
+    /**
+     * @param _batch
+     * @param _items
+     *            the module's results
+     */
+    private static void setResults(BatchContentInterface[] _batch,
+            String[] _items) {
+        String[] uris = new String[_batch.length];
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = ((XccModuleContent) _batch[i]).uri;
+        }
+        ModuleResult[] results = ModuleResult.match(ModuleResult
+                .parse(_items), uris);
+        for (int i = 0; i < results.length; i++) {
+            ((XccModuleContent) _batch[i]).result = results[i];
+        }
+    }
+
+    /**
+     * @param _payload
+     *            one of XccConfiguration.CONTENT_MODULE_PAYLOAD_*
+     * @param _threshold
+     *            streamed records larger than this spill to disk, or zero
+     *            for the default
+     * @param _directory
+     *            for spill files, or null
+     */
+    public void setPayload(String _payload, int _threshold, File _directory) {
+        payload = _payload;
+        if (_threshold > 0) {
+            replayThreshold = _threshold;
+        }
+        spillDirectory = _directory;
+    }
+
+    /**
+     * @param _encoding
+     *            of the records passed to setInputStream
+     */
+    public void setStreamEncoding(String _encoding) {
+        streamEncoding = _encoding;
+    }
+
+    /**
+     * @return
+     */
+    protected boolean isStringPayload() {
+        return XccConfiguration.CONTENT_MODULE_PAYLOAD_STRING
+                .equals(payload);
+    }
+
+    /**
+     * @return a new stream over the record bytes, for each attempt
+     * @throws LoaderException
+     */
+    protected InputStream openPayload() throws LoaderException {
+        if (null != bytes) {
+            return new ByteArrayInputStream(bytes);
+        }
+        try {
+            return buffer.newInputStream();
+        } catch (IOException e) {
+            throw new LoaderException(uri, e);
+        }
+    }
+
+    /**
+     * @param _name
+     * @param _payload
+     * @param _in
+     * @return
+     */
+    static XdmVariable newNodeVariable(String _name, String _payload,
+            InputStream _in) {
+        return ValueFactory.newVariable(new XName(_name),
+                XccConfiguration.CONTENT_MODULE_PAYLOAD_BINARY
+                        .equals(_payload) ? ValueFactory.newBinaryNode(_in)
+                        : ValueFactory.newDocumentNode(_in));
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.BatchContentInterface#insert(com.marklogic
+     * .recordloader.BatchContentInterface[])
+     */
+    public void insert(BatchContentInterface[] _batch)
+            throws LoaderException {
+        if (!isStringPayload()) {
+            insertNodes(_batch);
+            return;
+        }
+        // parallel sequences: newline-delimited URIs, and concatenated
+        // records with their lengths in codepoints, for fn:substring()
+        StringBuilder uris = new StringBuilder();
+        StringBuilder records = new StringBuilder();
+        StringBuilder lengths = new StringBuilder();
+        XccModuleContent content;
+        for (int i = 0; i < _batch.length; i++) {
+            content = (XccModuleContent) _batch[i];
+            if (null == content.uri) {
+                throw new NullPointerException("URI cannot be null");
+            }
+            if (content.uri.indexOf('\n') > -1) {
+                throw new LoaderException("URI cannot contain a newline: "
+                        + content.uri);
+            }
+            if (i > 0) {
+                uris.append('\n');
+                lengths.append(' ');
+            }
+            uris.append(content.uri);
+            records.append(content.xml);
+            lengths.append(content.xml.codePointCount(0, content.xml
+                    .length()));
+        }
+        setResults(_batch, submit(new XdmVariable[] {
+                newStringVariable("URIS", uris.toString()),
+                newStringVariable("XML-STRINGS", records.toString()),
+                newStringVariable("LENGTHS", lengths.toString()) }));
+    }
+
+    /**
+     * @param _batch
+     * @throws LoaderException
+     */
+    private void insertNodes(BatchContentInterface[] _batch)
+            throws LoaderException {
+        if (XccConfiguration.CONTENT_MODULE_PAYLOAD_BINARY.equals(payload)) {
+            throw new LoaderException("cannot batch binary payloads");
+        }
+        StringBuilder uris = new StringBuilder();
+        XccModuleContent content;
+        // check every URI before opening any payload
+        for (int i = 0; i < _batch.length; i++) {
+            content = (XccModuleContent) _batch[i];
+            if (null == content.uri) {
+                throw new NullPointerException("URI cannot be null");
+            }
+            if (content.uri.indexOf('\n') > -1) {
+                throw new LoaderException("URI cannot contain a newline: "
+                        + content.uri);
+            }
+            if (i > 0) {
+                uris.append('\n');
+            }
+            uris.append(content.uri);
+        }
+        Vector<InputStream> streams = new Vector<InputStream>();
+        streams.add(new ByteArrayInputStream(BATCH_START));
+        for (int i = 0; i < _batch.length; i++) {
+            content = (XccModuleContent) _batch[i];
+            streams.add(skipXmlDeclaration(content.openPayload()));
+        }
+        streams.add(new ByteArrayInputStream(BATCH_END));
+        setResults(_batch, submit(new XdmVariable[] {
+                newStringVariable("URIS", uris.toString()),
+                newNodeVariable("CONTENT", payload, new SequenceInputStream(
+                        streams.elements())) }));
+    }
+
+    /**
+     * A record inside a batch document cannot have its own XML declaration
+     * or byte-order mark.
+     * 
+     * @param _in
+     * @return
+     * @throws LoaderException
+     */
+    static InputStream skipXmlDeclaration(InputStream _in)
+            throws LoaderException {
+        BufferedInputStream in = new BufferedInputStream(_in);
+        try {
+            in.mark(3);
+            if (0xEF != in.read() || 0xBB != in.read() || 0xBF != in.read()) {
+                in.reset();
+            }
+            in.mark(5);
+            byte[] head = new byte[5];
+            int count = 0;
+            int b;
+            while (count < head.length && -1 < (b = in.read())) {
+                head[count++] = (byte) b;
+            }
+            if (count < head.length
+                    || !"<?xml".equals(new String(head, "UTF-8"))) {
+                in.reset();
+                return in;
+            }
+            // skip to the end of the declaration
+            int previous = -1;
+            while (-1 < (b = in.read())) {
+                if ('>' == b && '?' == previous) {
+                    break;
+                }
+                previous = b;
+            }
+            return in;
+        } catch (IOException e) {
+            throw new LoaderException(e);
+        }
+    }
+
+    /**
+     * @param _records
+     *            the variables for this request's records
+     * @return the module's results, as strings
+     * @throws LoaderException
+     */
+    private String[] submit(XdmVariable[] _records) throws LoaderException {
+        if (null == acquireSession()) {
             throw new NullPointerException("Session cannot be null");
         }
         if (null == request) {
-            throw new NullPointerException("Request cannot be null");
+            // pooled sessions are borrowed for each request
+            request = session.newModuleInvoke(moduleUri);
         }
+        boolean isBroken = false;
         try {
-            request.setNewStringVariable("URI", uri);
-            request.setNewStringVariable("XML-STRING", xml);
-            request.setNewStringVariable("NAMESPACE", namespace);
-            request.setNewStringVariable("LANGUAGE",
-                    (null == language) ? "" : language);
-            request.setNewStringVariable("ROLES-EXECUTE", Utilities
-                    .joinSsv(executeRoles));
-            request.setNewStringVariable("ROLES-INSERT", Utilities
-                    .joinSsv(insertRoles));
-            request.setNewStringVariable("ROLES-READ", Utilities
-                    .joinSsv(readRoles));
-            request.setNewStringVariable("ROLES-UPDATE", Utilities
-                    .joinSsv(updateRoles));
-            request.setNewStringVariable("COLLECTIONS", Utilities
-                    .joinCsv(collections));
-            request.setNewVariable("SKIP-EXISTING", ValueType.XS_BOOLEAN,
-                    skipExisting);
-            request.setNewVariable("SKIP-EXISTING-UNTIL-FIRST-MISS",
-                    ValueType.XS_BOOLEAN, skipExisting);
-            request.setNewVariable("ERROR-EXISTING",
-                    ValueType.XS_BOOLEAN, errorExisting);
-            // apparently it is ok if OUTPUT_FORESTS are empty (tested 4.1-1)
-            request.setNewStringVariable("FORESTS", Utilities
-                    .joinCsv(placeKeys));
-            request.setNewIntegerVariable("QUALITY", quality);
-            // ignore results
-            // TODO use results to handle skipExistingUntilFirstMiss - how to
-            // feed back to config?
-            session.submitRequest(request);
-//                synchronized (monitor) {
-//                    logger.info("resetting "
-//                            + Configuration.SKIP_EXISTING_KEY + " at "
-//                            + uri);
-//                    config.setSkipExisting(false);
-//                    config.configureThrottling();
-//                    monitor.resetTimer("skipped");
-//                }
+            request.clearVariables();
+            for (int i = 0; i < variables.length; i++) {
+                request.setVariable(variables[i]);
+            }
+            for (int i = 0; i < _records.length; i++) {
+                request.setVariable(_records[i]);
+            }
+            ResultSequence rs = session.submitRequest(request);
+            try {
+                return rs.asStrings();
+            } finally {
+                rs.close();
+            }
         } catch (RequestException e) {
-            throw new LoaderException(e);
+            isBroken = e instanceof ServerConnectionException;
+            // the payload is a string, so it can always be replayed
+            throw new LoaderException(e).setRetryable(XccContent
+                    .isRetryable(e));
+        } finally {
+            releaseSession(isBroken);
+            if (null == session) {
+                // the request belongs to the released session
+                request = null;
+            }
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.BatchContentInterface#isBatchable()
+     */
+    public boolean isBatchable() {
+        return isBatch;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.BatchContentInterface#getBatchKey()
+     */
+    public Object getBatchKey() {
+        // the batch shares one set of forests
+        return forestIndex;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.BatchContentInterface#checkDocumentUris(java
+     * .lang.String[])
+     */
+    public boolean[] checkDocumentUris(String[] _uris) {
+        // the module decides, as it may rewrite uris
+        return new boolean[_uris.length];
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -204,9 +585,33 @@ public class XccModuleContent extends XccAbstractContent implements
             throw new LoaderException("URI cannot be null");
         }
 
-        // by now, the producer is in the configured output encoding,
-        // so no decoder is needed
-        Reader reader = new InputStreamReader(_producer);
+        // a transcoding loader streams its output encoding, and the others
+        // stream the input as it is
+        Charset charset = Charset.forName(streamEncoding);
+        CharsetDecoder streamDecoder = charset.equals(decoder.charset())
+                ? decoder : charset.newDecoder();
+        if (!isStringPayload()) {
+            InputStream in = _producer;
+            if (XccConfiguration.CONTENT_MODULE_PAYLOAD_DOCUMENT
+                    .equals(payload)
+                    && !"UTF-8".equals(charset.name())) {
+                // the server parses the bytes as UTF-8, as in setBytes
+                in = new TranscodingInputStream(_producer, streamDecoder,
+                        "UTF-8");
+            }
+            // keep the bytes, without holding them all in memory
+            buffer = new ReplayBuffer(replayThreshold, spillDirectory);
+            try {
+                buffer.fill(in);
+            } catch (IOException e) {
+                buffer.close();
+                buffer = null;
+                throw new LoaderException(uri, e);
+            }
+            return;
+        }
+
+        Reader reader = new InputStreamReader(_producer, streamDecoder);
         Writer writer = new StringWriter();
         char[] buf = new char[32 * 1024];
         int count = -1;
@@ -230,8 +635,16 @@ public class XccModuleContent extends XccAbstractContent implements
      * @see com.marklogic.recordloader.ContentInterface#setXml(java.lang.String)
      */
     public void setBytes(byte[] _xml) throws LoaderException {
-        // ModuleContent only works with strings
-        // TODO support text? binary?
+        if (XccConfiguration.CONTENT_MODULE_PAYLOAD_BINARY.equals(payload)) {
+            bytes = _xml;
+            return;
+        }
+        if (XccConfiguration.CONTENT_MODULE_PAYLOAD_DOCUMENT
+                .equals(payload)) {
+            // the server parses the bytes as UTF-8, unless declared
+            bytes = isUtf8() ? _xml : transcode(_xml);
+            return;
+        }
         try {
             // use the correct decoder
             xml = decoder.decode(ByteBuffer.wrap(_xml)).toString();
@@ -240,6 +653,41 @@ public class XccModuleContent extends XccAbstractContent implements
         }
     }
 
+    /**
+     * @return
+     */
+    private boolean isUtf8() {
+        return "UTF-8".equals(decoder.charset().name());
+    }
+
+    /**
+     * @param _bytes
+     * @return the bytes, re-encoded as UTF-8
+     * @throws LoaderException
+     */
+    private byte[] transcode(byte[] _bytes) throws LoaderException {
+        try {
+            return decoder.decode(ByteBuffer.wrap(_bytes)).toString()
+                    .getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new LoaderException(uri, e);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.marklogic.recordloader.xcc.XccAbstractContent#close()
+     */
+    public void close() {
+        if (null != buffer) {
+            buffer.close();
+            buffer = null;
+        }
+        bytes = null;
+        super.close();
+    }
+
     @SuppressWarnings("unused")
     public boolean checkDocumentUri(String _uri) throws LoaderException {
         // override super(), so that we don't check the database.
@@ -23,6 +23,7 @@ import java.math.BigInteger;
 import com.marklogic.recordloader.ContentFactory;
 import com.marklogic.recordloader.ContentInterface;
 import com.marklogic.recordloader.LoaderException;
+import com.marklogic.xcc.types.XdmVariable;
 
 /**
  * @author Michael Blakeley, michael.blakeley@marklogic.com
@@ -51,6 +52,18 @@ public class XccModuleContentFactory extends XccAbstractContentFactory
     
     protected int quality;
 
+    protected boolean isBatch;
+
+    protected String payload;
+
+    // the skip setting that the variables were bound with
+    protected boolean skipExisting;
+
+    protected XdmVariable[] variables;
+
+    // per routed forest, or null
+    protected XdmVariable[][] forestVariables;
+
     /*
      * (non-Javadoc)
      * 
@@ -81,6 +94,37 @@ public class XccModuleContentFactory extends XccAbstractContentFactory
         namespace = configuration.getOutputNamespace();
         placeKeys = configuration.getPlaceKeys();
         quality = configuration.getQuality();
+        isBatch = configuration.isContentModuleBatch();
+        payload = configuration.getContentModulePayload();
+        initVariables();
+    }
+
+    /**
+     * Bind the per-run variables once, rather than for every record.
+     */
+    protected void initVariables() {
+        skipExisting = configuration.isSkipExisting();
+        variables = newVariables(placeKeys);
+        if (null == router) {
+            forestVariables = null;
+            return;
+        }
+        forestVariables = new XdmVariable[router.getForestCount()][];
+        for (int i = 0; i < forestVariables.length; i++) {
+            forestVariables[i] = newVariables(router.getPlaceKeys(i));
+        }
+    }
+
+    /**
+     * @param _placeKeys
+     * @return
+     */
+    private XdmVariable[] newVariables(BigInteger[] _placeKeys) {
+        return XccModuleContent.newVariables(executeRoles, insertRoles,
+                readRoles, updateRoles, collectionsArray, language,
+                namespace, skipExisting, configuration
+                        .isSkipExistingUntilFirstMiss(), configuration
+                        .isErrorExisting(), _placeKeys, quality);
     }
 
     /*
@@ -90,17 +134,25 @@ public class XccModuleContentFactory extends XccAbstractContentFactory
      * com.marklogic.recordloader.xcc.XccAbstractContentFactory#newContent(java
      * .lang.String)
      */
-    @SuppressWarnings("unused")
     public ContentInterface newContent(String _uri)
             throws LoaderException {
-        // NB - this is closed in XccAbstractContent.close()
-        return new XccModuleContent(cs.newSession(), _uri, moduleUri,
-                executeRoles, insertRoles, readRoles, updateRoles,
-                collectionsArray, language, namespace, configuration
-                        .isSkipExisting(), configuration
-                        .isSkipExistingUntilFirstMiss(), configuration
-                        .isErrorExisting(), placeKeys, configuration
-                        .getDecoder(), quality);
+        if (skipExisting != configuration.isSkipExisting()) {
+            // SKIP_EXISTING_UNTIL_FIRST_MISS was reset
+            initVariables();
+        }
+        int forest = getForestIndex(_uri);
+        XccModuleContent content = new XccModuleContent(null, _uri,
+                moduleUri, (forest < 0) ? variables
+                        : forestVariables[forest], configuration
+                        .getDecoder(), isBatch);
+        content.setSession(newSession(content, forest));
+        content.setStreamEncoding(configuration.getStreamEncoding());
+        if (!XccConfiguration.CONTENT_MODULE_PAYLOAD_STRING.equals(payload)) {
+            content.setPayload(payload, configuration
+                    .getInputStreamingBufferBytes(), configuration
+                    .getInputSpillDirectory());
+        }
+        return content;
     }
 
     /*
@@ -114,6 +166,7 @@ public class XccModuleContentFactory extends XccAbstractContentFactory
         super.setFileBasename(_name);
         // update content options with the latest collections
         collectionsArray = collections.toArray(new String[0]);
+        initVariables();
     }
 
 }
@@ -0,0 +1,291 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.xcc;
+
+import java.net.URI;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.recordloader.LoaderException;
+import com.marklogic.xcc.ContentSource;
+import com.marklogic.xcc.Session;
+import com.marklogic.xcc.exceptions.XccConfigException;
+import com.marklogic.xcc.exceptions.XccException;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ *         Long-lived sessions for one connection URI, shared by every content
+ *         factory that uses that URI. Content borrows a session just before
+ *         each request and returns it right afterward, so the number of
+ *         sessions in use never exceeds the number of threads talking to the
+ *         server.
+ *
+ *         Idle sessions are reused most-recently-used first. A session is
+ *         closed instead of reused once it is older than
+ *         XCC_SESSION_MAX_AGE_SECONDS, or after a connection error. A session
+ *         that has been idle for more than XCC_SESSION_CHECK_SECONDS is
+ *         checked with a cheap request before it is handed out.
+ */
+public class XccSessionPool {
+
+    private static final Map<String, XccSessionPool> pools = new HashMap<String, XccSessionPool>();
+
+    private static class Entry {
+
+        Session session;
+
+        long created;
+
+        long released;
+
+        Entry(Session _session) {
+            session = _session;
+            created = System.currentTimeMillis();
+        }
+    }
+
+    protected SimpleLogger logger;
+
+    private ContentSource cs;
+
+    private String name;
+
+    private int maxIdle;
+
+    private long maxAgeMillis;
+
+    private long checkMillis;
+
+    // most-recently-used first
+    private LinkedList<Entry> idle = new LinkedList<Entry>();
+
+    private Map<Session, Entry> live = new IdentityHashMap<Session, Entry>();
+
+    private long createdCount = 0;
+
+    /**
+     * @param _config
+     * @param _cs
+     * @param _name
+     */
+    private XccSessionPool(XccConfiguration _config, ContentSource _cs,
+            String _name) {
+        logger = _config.getLogger();
+        cs = _cs;
+        name = _name;
+        maxIdle = _config.getSessionPoolSize();
+        maxAgeMillis = 1000 * _config.getSessionMaxAge();
+        checkMillis = 1000 * _config.getSessionCheckInterval();
+        logger.info("session pool for " + name + ": max idle = "
+                + maxIdle + ", max age = " + _config.getSessionMaxAge()
+                + " s");
+    }
+
+    /**
+     * @param _config
+     * @param _uri
+     * @return the pool for this connection URI, or null if pooling is
+     *         disabled
+     * @throws LoaderException
+     */
+    public static XccSessionPool getPool(XccConfiguration _config,
+            URI _uri) throws LoaderException {
+        if (!_config.isSessionPooled()) {
+            return null;
+        }
+        String key = _uri.toString();
+        synchronized (pools) {
+            XccSessionPool pool = pools.get(key);
+            if (null != pool) {
+                return pool;
+            }
+            try {
+                // the key includes credentials, so do not log it
+                pool = new XccSessionPool(_config, _config
+                        .newContentSource(_uri), _uri.getHost() + ":"
+                        + _uri.getPort());
+            } catch (XccConfigException e) {
+                throw new LoaderException(e);
+            } catch (KeyManagementException e) {
+                throw new LoaderException(e);
+            } catch (NoSuchAlgorithmException e) {
+                throw new LoaderException(e);
+            }
+            pools.put(key, pool);
+            return pool;
+        }
+    }
+
+    /**
+     * Close every session in every pool.
+     */
+    public static void closeAll() {
+        synchronized (pools) {
+            for (XccSessionPool pool : pools.values()) {
+                pool.close();
+            }
+            pools.clear();
+        }
+    }
+
+    /**
+     * @return
+     */
+    public ContentSource getContentSource() {
+        return cs;
+    }
+
+    /**
+     * @return a healthy session, which must be returned with release()
+     */
+    public Session borrow() {
+        Entry e;
+        while (null != (e = takeIdle())) {
+            if (isHealthy(e)) {
+                return e.session;
+            }
+            discard(e);
+        }
+        e = new Entry(cs.newSession());
+        synchronized (this) {
+            live.put(e.session, e);
+            createdCount++;
+        }
+        return e.session;
+    }
+
+    /**
+     * @param _session
+     * @param _isBroken
+     *            true if the last request failed with a connection error
+     */
+    public void release(Session _session, boolean _isBroken) {
+        if (null == _session) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry e = live.get(_session);
+            if (null != e && !_isBroken && !_session.isClosed()
+                    && !isExpired(e, now) && idle.size() < maxIdle) {
+                e.released = now;
+                idle.addFirst(e);
+                return;
+            }
+            live.remove(_session);
+        }
+        _session.close();
+    }
+
+    /**
+     * @return the most recently used idle session that has not expired, or
+     *         null
+     */
+    private synchronized Entry takeIdle() {
+        long now = System.currentTimeMillis();
+        Entry e;
+        while (!idle.isEmpty()) {
+            e = idle.removeFirst();
+            if (!isExpired(e, now)) {
+                return e;
+            }
+            logger.fine("recycling session after "
+                    + (now - e.created) + " ms");
+            live.remove(e.session);
+            e.session.close();
+        }
+        return null;
+    }
+
+    /**
+     * @param _entry
+     * @param _now
+     * @return
+     */
+    private boolean isExpired(Entry _entry, long _now) {
+        return maxAgeMillis > 0 && _now - _entry.created > maxAgeMillis;
+    }
+
+    /**
+     * @param _entry
+     * @return
+     */
+    private boolean isHealthy(Entry _entry) {
+        if (_entry.session.isClosed()) {
+            return false;
+        }
+        if (checkMillis < 1
+                || System.currentTimeMillis() - _entry.released < checkMillis) {
+            return true;
+        }
+        try {
+            // cheap round trip
+            _entry.session.getCurrentServerPointInTime();
+            return true;
+        } catch (XccException e) {
+            logger.warning("discarding idle session for " + name + ": "
+                    + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @param _entry
+     */
+    private void discard(Entry _entry) {
+        synchronized (this) {
+            live.remove(_entry.session);
+        }
+        _entry.session.close();
+    }
+
+    /**
+     * @return the number of open sessions, idle or in use
+     */
+    public synchronized int getSessionCount() {
+        return live.size();
+    }
+
+    /**
+     * @return the number of sessions opened since the pool was created
+     */
+    public synchronized long getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     *
+     */
+    private synchronized void close() {
+        logger.fine("closing " + live.size() + " session(s) for " + name
+                + ", " + createdCount + " opened");
+        for (Session s : live.keySet()) {
+            s.close();
+        }
+        live.clear();
+        idle.clear();
+    }
+
+}
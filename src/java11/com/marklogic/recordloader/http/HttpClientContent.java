@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.http;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.CharsetDecoder;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.marklogic.recordloader.AsyncContentInterface;
+import com.marklogic.recordloader.InsertRetry;
+import com.marklogic.recordloader.LoaderException;
+import com.marklogic.recordloader.ModuleResult;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         HTTP module content that sends itself with HttpClient.sendAsync.
+ *         No thread waits for the response: it completes the callback on
+ *         one of the client's threads, and a retry waits on the factory's
+ *         scheduler. The loader thread only waits while the host has
+ *         HTTP_MAX_CONNECTIONS requests in flight.
+ */
+public class HttpClientContent extends HttpModuleContent implements
+        AsyncContentInterface {
+
+    private HttpClient client;
+
+    private InsertRetry retry;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param _connectionUrl
+     * @param _pool
+     * @param _uri
+     * @param _parameters
+     * @param _isForm
+     * @param _decoder
+     * @param _client
+     * @param _retry
+     * @param _scheduler
+     *            for retries
+     */
+    public HttpClientContent(URL _connectionUrl, HttpHostPool _pool,
+            String _uri, String _parameters, boolean _isForm,
+            CharsetDecoder _decoder, HttpClient _client,
+            InsertRetry _retry, ScheduledExecutorService _scheduler) {
+        super(_connectionUrl, _pool, _uri, _parameters, _isForm, _decoder);
+        client = _client;
+        retry = _retry;
+        scheduler = _scheduler;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.AsyncContentInterface#insert(com.marklogic
+     * .recordloader.AsyncContentInterface.Callback)
+     */
+    public void insert(Callback _callback) throws LoaderException {
+        if (null == uri) {
+            throw new NullPointerException("URI cannot be null");
+        }
+        send(_callback, 0);
+    }
+
+    /**
+     * @param _callback
+     * @param _attempt
+     *            zero for the first attempt
+     * @throws LoaderException
+     */
+    private void send(Callback _callback, int _attempt)
+            throws LoaderException {
+        // the module expects a batch, so send a batch of one
+        HttpModuleContent[] batch = isMultipart ? (new HttpModuleContent[] {
+                this }) : null;
+        String label = getLabel(batch);
+        HttpRequest request;
+        try {
+            request = newHttpRequest(newRequest(batch));
+        } catch (IOException | URISyntaxException e) {
+            throw new LoaderException(label, e);
+        }
+        long start = begin(label);
+        try {
+            client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                    .whenComplete((response, error) -> completed(_callback,
+                            _attempt, batch, start, response, error));
+        } catch (RuntimeException e) {
+            end(start, false);
+            throw e;
+        }
+    }
+
+    /**
+     * @param _request
+     * @return
+     * @throws URISyntaxException
+     */
+    private HttpRequest newHttpRequest(Request _request)
+            throws URISyntaxException {
+        // a new stream for every attempt, including authentication
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers
+                .ofInputStream(() -> {
+                    try {
+                        return _request.newBody();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        if (_request.length > 0) {
+            body = HttpRequest.BodyPublishers.fromPublisher(body,
+                    _request.length);
+        }
+        return HttpRequest.newBuilder(_request.url.toURI()).header(
+                "Content-Type", _request.type).POST(body).build();
+    }
+
+    /**
+     * Called once per attempt, on one of the client's threads.
+     * 
+     * @param _callback
+     * @param _attempt
+     * @param _batch
+     * @param _start
+     * @param _response
+     *            null if there was no response
+     * @param _error
+     *            null if there was a response
+     */
+    private void completed(Callback _callback, int _attempt,
+            HttpModuleContent[] _batch, long _start,
+            HttpResponse<byte[]> _response, Throwable _error) {
+        boolean isHostError = isHostError((null == _response) ? -1
+                : _response.statusCode());
+        end(_start, isHostError);
+        Throwable error = null;
+        try {
+            if (null != _error) {
+                if (_error instanceof CompletionException
+                        && null != _error.getCause()) {
+                    _error = _error.getCause();
+                }
+                throw new LoaderException(getLabel(_batch), _error)
+                        .setRetryable(true);
+            }
+            int status = _response.statusCode();
+            if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new LoaderException(getLabel(_batch), new IOException(
+                        "HTTP " + status + ": "
+                                + decode(_response.body(), MAX_MESSAGE)))
+                        .setRetryable(isHostError);
+            }
+            setResults(_batch, decode(_response.body(), MAX_RESULTS));
+            ModuleResult.check(result);
+        } catch (LoaderException e) {
+            try {
+                long millis = retry.getDelay(e, _attempt);
+                scheduler.schedule(() -> retry(_callback, 1 + _attempt),
+                        millis, TimeUnit.MILLISECONDS);
+                return;
+            } catch (LoaderException e2) {
+                error = e2;
+            }
+        } catch (Throwable t) {
+            error = t;
+        }
+        _callback.completed(error);
+    }
+
+    /**
+     * @param _callback
+     * @param _attempt
+     */
+    private void retry(Callback _callback, int _attempt) {
+        try {
+            // this may wait for a request slot
+            send(_callback, _attempt);
+        } catch (Throwable t) {
+            _callback.completed(t);
+        }
+    }
+
+}
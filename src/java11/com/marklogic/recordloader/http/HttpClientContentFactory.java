@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2011 Mark Logic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.recordloader.http;
+
+import java.net.Authenticator;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.marklogic.recordloader.Configuration;
+import com.marklogic.recordloader.InsertRetry;
+import com.marklogic.recordloader.LoaderException;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ * 
+ *         Like HttpThreadedContentFactory, but every insert goes through
+ *         one shared java.net.http.HttpClient, which does not hold a thread
+ *         for each request in flight, and multiplexes requests over HTTP/2
+ *         where the server offers it. HTTP_MAX_CONNECTIONS caps the
+ *         requests in flight to each host, so it can be set much higher
+ *         than THREADS.
+ * 
+ *         HttpClient only answers basic authentication challenges, so the
+ *         app server must not require digest authentication. This needs
+ *         Java 11 or later: build it with mvn -P java11 package.
+ */
+public class HttpClientContentFactory extends HttpModuleContentFactory {
+
+    private static HttpClient client;
+
+    // retries wait here, rather than on a thread of their own
+    private static ScheduledExecutorService scheduler;
+
+    protected InsertRetry retry;
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.http.HttpModuleContentFactory#setConfiguration
+     * (com.marklogic.recordloader.Configuration)
+     */
+    @Override
+    public void setConfiguration(Configuration _configuration)
+            throws LoaderException {
+        super.setConfiguration(_configuration);
+        retry = new InsertRetry(configuration);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.marklogic.recordloader.http.HttpModuleContentFactory#newContent(java
+     * .net.URL, com.marklogic.recordloader.http.HttpHostPool,
+     * java.lang.String)
+     */
+    @Override
+    protected HttpModuleContent newContent(URL _url, HttpHostPool _pool,
+            String _uri) {
+        return new HttpClientContent(_url, _pool, _uri, parameters, isForm,
+                configuration.getDecoder(), getClient(), retry, scheduler);
+    }
+
+    /**
+     * @return the client that every loader thread shares, so that requests
+     *         to a host can share its connections
+     */
+    private static synchronized HttpClient getClient() {
+        if (null != client) {
+            return client;
+        }
+        HttpClient.Builder builder = HttpClient.newBuilder().version(
+                HttpClient.Version.HTTP_2);
+        // by now, setConnectionUri has set the default authenticator
+        Authenticator authenticator = Authenticator.getDefault();
+        if (null != authenticator) {
+            builder.authenticator(authenticator);
+        }
+        client = builder.build();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "http-retry");
+            // do not keep the VM alive after a halt
+            t.setDaemon(true);
+            return t;
+        });
+        return client;
+    }
+
+}